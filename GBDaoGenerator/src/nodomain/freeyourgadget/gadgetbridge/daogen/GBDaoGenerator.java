@@ -33,6 +33,7 @@ public class GBDaoGenerator {
     private static final String MODEL_PACKAGE = MAIN_PACKAGE + ".model";
     private static final String VALID_BY_DATE = MODEL_PACKAGE + ".ValidByDate";
     private static final String ACTIVITY_SUMMARY = MODEL_PACKAGE + ".ActivitySummary";
+    private static final String ACTIVITY_KIND_OVERLAY = MODEL_PACKAGE + ".ActivityKindOverlay";
     private static final String OVERRIDE = "@Override";
     private static final String SAMPLE_RAW_INTENSITY = "rawIntensity";
     private static final String SAMPLE_STEPS = "steps";
@@ -43,7 +44,7 @@ public class GBDaoGenerator {
 
 
     public static void main(String[] args) throws Exception {
-        Schema schema = new Schema(32, MAIN_PACKAGE + ".entities");
+        Schema schema = new Schema(34, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -215,6 +216,7 @@ public class GBDaoGenerator {
         activitySample.addIntProperty(SAMPLE_STEPS).notNull().codeBeforeGetterAndSetter(OVERRIDE);
         activitySample.addIntProperty(SAMPLE_RAW_KIND).notNull().codeBeforeGetterAndSetter(OVERRIDE);
         addHeartRateProperties(activitySample);
+        activitySample.addIntProperty("normalizedKind").javaDocGetterAndSetter("The raw kind with TYPE_NO_CHANGE/TYPE_IGNORE resolved on write (Huami only), null if not yet normalized.");
         return activitySample;
     }
 
@@ -234,6 +236,7 @@ public class GBDaoGenerator {
 
     private static Entity addPebbleHealthActivityKindOverlay(Schema schema, Entity user, Entity device) {
         Entity activityOverlay = addEntity(schema, "PebbleHealthActivityOverlay");
+        activityOverlay.implementsInterface(ACTIVITY_KIND_OVERLAY);
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
         activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
@@ -279,6 +282,7 @@ public class GBDaoGenerator {
 
     private static Entity addHPlusHealthActivityKindOverlay(Schema schema, Entity user, Entity device) {
         Entity activityOverlay = addEntity(schema, "HPlusHealthActivityOverlay");
+        activityOverlay.implementsInterface(ACTIVITY_KIND_OVERLAY);
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
         activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
@@ -381,11 +385,16 @@ public class GBDaoGenerator {
         addHeartRateProperties(activitySample);
         activitySample.addIntProperty("distance");
         activitySample.addIntProperty("calories");
+        activitySample.addIntProperty("reconstructedKind").javaDocGetterAndSetter("Result of the sleep reconstruction after sync, null if not reconstructed yet.");
+        activitySample.addIntProperty("reconstructedIntensity");
+        activitySample.addIntProperty("reconstructedSteps");
+        activitySample.addIntProperty("reconstructedHeartRate");
         return activitySample;
     }
 
     private static Entity addWatchXPlusHealthActivityKindOverlay(Schema schema, Entity user, Entity device) {
         Entity activityOverlay = addEntity(schema, "WatchXPlusHealthActivityOverlay");
+        activityOverlay.implementsInterface(ACTIVITY_KIND_OVERLAY);
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
         activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
@@ -39,6 +39,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Build.VERSION;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.provider.ContactsContract.PhoneLookup;
 import android.util.Log;
@@ -56,8 +57,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
@@ -80,6 +84,9 @@ import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+import nodomain.freeyourgadget.gadgetbridge.util.StartupInitializer;
+import nodomain.freeyourgadget.gadgetbridge.util.StartupProfiler;
+import nodomain.freeyourgadget.gadgetbridge.util.SyncMetrics;
 
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceType.AMAZFITBIP;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceType.AMAZFITCOR;
@@ -102,7 +109,24 @@ public class GBApplication extends Application {
     public static final String DATABASE_NAME = "Gadgetbridge";
 
     private static GBApplication context;
-    private static final Lock dbLock = new ReentrantLock();
+    private static final ReentrantLock dbLock = new ReentrantLock();
+    private static final ThreadLocal<long[]> dbLockAcquireTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    /**
+     * The names of the lock wait and hold metrics of each thread, so that they are not
+     * concatenated again for every database access.
+     */
+    private static final ThreadLocal<String[]> dbLockMetricNames = new ThreadLocal<String[]>() {
+        @Override
+        protected String[] initialValue() {
+            String threadName = Thread.currentThread().getName();
+            return new String[] { "db.lockWait@" + threadName, "db.lockHold@" + threadName };
+        }
+    };
     private static DeviceService deviceService;
     private static SharedPreferences sharedPrefs;
     private static final String PREFS_VERSION = "shared_preferences_version";
@@ -114,7 +138,12 @@ public class GBApplication extends Application {
     private static LimitedQueue mIDSenderLookup = new LimitedQueue(16);
     private static Prefs prefs;
     private static GBPrefs gbPrefs;
-    private static LockHandler lockHandler;
+    private static volatile LockHandler lockHandler;
+    private static volatile StartupInitializer startupInitializer;
+    /**
+     * Why the database could not be opened at startup, if it could not.
+     */
+    private static volatile RuntimeException databaseSetupError;
     /**
      * Note: is null on Lollipop and Kitkat
      */
@@ -125,6 +154,13 @@ public class GBApplication extends Application {
     public static final String ACTION_LANGUAGE_CHANGE = "nodomain.freeyourgadget.gadgetbridge.gbapplication.action.language_change";
     public static final String ACTION_NEW_DATA = "nodomain.freeyourgadget.gadgetbridge.action.new_data";
 
+    public static final String STARTUP_LOGGING = "logging";
+    public static final String STARTUP_DATABASE = "database";
+    public static final String STARTUP_MIGRATIONS = "migrations";
+    public static final String STARTUP_DEVICES = "devices";
+    public static final String STARTUP_APPLICATION = "application";
+    public static final String STARTUP_MAIN_ACTIVITY = "mainActivityResumed";
+
     private static GBApplication app;
 
     private static Logging logging = new Logging() {
@@ -168,33 +204,35 @@ public class GBApplication extends Application {
         app = this;
         super.onCreate();
 
-        if (lockHandler != null) {
+        if (startupInitializer != null) {
             // guard against multiple invocations (robolectric)
             return;
         }
 
+        StartupProfiler.start();
+        long start = System.nanoTime();
+
         sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         prefs = new Prefs(sharedPrefs);
         gbPrefs = new GBPrefs(prefs);
 
-        if (!GBEnvironment.isEnvironmentSetup()) {
+        // setup db after the environment is set up, but don't do it in test mode
+        // in test mode, it's done individually, see TestBase
+        final boolean setupDatabase = !GBEnvironment.isEnvironmentSetup();
+        if (setupDatabase) {
             GBEnvironment.setupEnvironment(GBEnvironment.createDeviceEnvironment());
-            // setup db after the environment is set up, but don't do it in test mode
-            // in test mode, it's done individually, see TestBase
-            setupDatabase();
         }
 
         // don't do anything here before we set up logging, otherwise
         // slf4j may be implicitly initialized before we properly configured it.
         setupLogging(isFileLoggingEnabled());
 
-        if (getPrefsFileVersion() != CURRENT_PREFS_VERSION) {
-            migratePrefs(getPrefsFileVersion());
-        }
-
         setupExceptionHandler();
+        StartupProfiler.stage(STARTUP_LOGGING, start);
 
         deviceManager = new DeviceManager(this);
+        startBackgroundInitialization(setupDatabase);
+
         String language = prefs.getString("language", "default");
         setLanguage(language);
 
@@ -244,6 +282,79 @@ public class GBApplication extends Application {
                                 .build());
             }
         }
+        StartupProfiler.stage(STARTUP_APPLICATION, start);
+    }
+
+    /**
+     * Opens the database, migrates the preferences and loads the known devices in the
+     * background, so that they do not delay the first activity. Callers of
+     * {@link #acquireDB()} wait until the database is open, except on the main thread.
+     */
+    private void startBackgroundInitialization(final boolean setupDatabase) {
+        Executor executor;
+        if (GBEnvironment.env().isLocalTest()) {
+            // keep tests deterministic
+            executor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        } else {
+            executor = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "startup");
+                }
+            });
+        }
+        startupInitializer = new StartupInitializer(executor);
+        startupInitializer.add(STARTUP_DATABASE, new Runnable() {
+            @Override
+            public void run() {
+                if (setupDatabase) {
+                    try {
+                        setupDatabase();
+                    } catch (RuntimeException e) {
+                        databaseSetupError = e;
+                        throw e;
+                    }
+                }
+            }
+        });
+        startupInitializer.add(STARTUP_MIGRATIONS, new Runnable() {
+            @Override
+            public void run() {
+                if (getPrefsFileVersion() != CURRENT_PREFS_VERSION) {
+                    migratePrefs(getPrefsFileVersion());
+                }
+            }
+        }, STARTUP_DATABASE);
+        startupInitializer.add(STARTUP_DEVICES, new Runnable() {
+            @Override
+            public void run() {
+                deviceManager.loadDevices();
+            }
+        }, STARTUP_DATABASE, STARTUP_MIGRATIONS);
+    }
+
+    /**
+     * Waits until the given stage of the background initialization has finished.
+     *
+     * @return false if the stage did not finish in time
+     */
+    public static boolean awaitStartup(String stage, long timeout, TimeUnit unit) throws InterruptedException {
+        StartupInitializer initializer = startupInitializer;
+        return initializer == null || initializer.await(stage, timeout, unit);
+    }
+
+    /**
+     * Returns true if the given stage of the background initialization has finished.
+     * Unlike {@link #awaitStartup(String, long, TimeUnit)}, this may be called from the main thread.
+     */
+    public static boolean isStartupDone(String stage) {
+        StartupInitializer initializer = startupInitializer;
+        return initializer == null || initializer.isDone(stage);
     }
 
     @Override
@@ -322,6 +433,14 @@ public class GBApplication extends Application {
         return deviceService;
     }
 
+    /**
+     * Returns a facade like {@link #deviceService()}, whose commands only go to the given
+     * device instead of all connected devices.
+     */
+    public static DeviceService deviceService(GBDevice device) {
+        return deviceService.forDevice(device);
+    }
+
     /**
      * Returns the DBHandler instance for reading/writing or throws GBException
      * when that was not successful
@@ -330,6 +449,10 @@ public class GBApplication extends Application {
      * <p>
      * Callers must not hold a reference to the returned instance because it
      * will be invalidated at some point.
+     * <p>
+     * While the database is still being opened at startup, this waits for it, except
+     * on the main thread, where it fails right away instead of risking an ANR. If opening
+     * the database failed, this fails as well.
      *
      * @return the DBHandler
      * @throws GBException
@@ -337,7 +460,23 @@ public class GBApplication extends Application {
      */
     public static DBHandler acquireDB() throws GBException {
         try {
+            long start = System.nanoTime();
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                if (!isStartupDone(STARTUP_DATABASE)) {
+                    throw new GBException("Database is not open yet.");
+                }
+            } else if (!awaitStartup(STARTUP_DATABASE, 30, TimeUnit.SECONDS)) {
+                throw new GBException("Database was not opened in time.");
+            }
+            if (lockHandler == null) {
+                throw new GBException("Database could not be opened.", databaseSetupError);
+            }
             if (dbLock.tryLock(30, TimeUnit.SECONDS)) {
+                if (dbLock.getHoldCount() == 1) {
+                    // only the outermost acquisition is measured, nested ones don't wait
+                    SyncMetrics.time(dbLockMetricNames.get()[0], start);
+                    dbLockAcquireTime.get()[0] = System.nanoTime();
+                }
                 return lockHandler;
             }
         } catch (InterruptedException ex) {
@@ -353,6 +492,9 @@ public class GBApplication extends Application {
      * @see #acquireDB()
      */
     public static void releaseDB() {
+        if (dbLock.getHoldCount() == 1) {
+            SyncMetrics.time(dbLockMetricNames.get()[1], dbLockAcquireTime.get()[0]);
+        }
         dbLock.unlock();
     }
 
@@ -600,6 +742,10 @@ public class GBApplication extends Application {
      */
     public static synchronized boolean deleteActivityDatabase(Context context) {
         // TODO: flush, close, reopen db
+        if (!isStartupDone(STARTUP_DATABASE)) {
+            // still being opened, it must not be deleted underneath
+            return false;
+        }
         if (lockHandler != null) {
             lockHandler.closeDb();
         }
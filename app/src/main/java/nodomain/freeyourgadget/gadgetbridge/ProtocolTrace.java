@@ -0,0 +1,174 @@
+/*  Copyright (C) 2016-2021 Carsten Pfeiffer, Daniele Gobbetti, Pavel Elagin
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge;
+
+import org.slf4j.Logger;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Keeps the most recent raw frames exchanged with the devices in a ring buffer, so that
+ * they can be logged when something goes wrong, or on demand, without formatting every
+ * frame while it is transferred.
+ *
+ * Recording copies the frame into a buffer that is reused by later frames, so it does
+ * not allocate once the ring buffer is filled. Frames longer than
+ * {@link #MAX_FRAME_LENGTH} are truncated.
+ */
+public class ProtocolTrace {
+    public static final int DIRECTION_IN = 0;
+    public static final int DIRECTION_OUT = 1;
+
+    static final int CAPACITY = 256;
+    static final int MAX_FRAME_LENGTH = 512;
+
+    private static final ProtocolTrace instance = new ProtocolTrace(CAPACITY);
+
+    private final long[] times;
+    private final String[] devices;
+    private final int[] directions;
+    private final Object[] channels;
+    private final byte[][] frames;
+    private final int[] lengths;
+    private final int[] frameLengths;
+    private int next;
+    private int size;
+
+    ProtocolTrace(int capacity) {
+        times = new long[capacity];
+        devices = new String[capacity];
+        directions = new int[capacity];
+        channels = new Object[capacity];
+        frames = new byte[capacity][];
+        lengths = new int[capacity];
+        frameLengths = new int[capacity];
+    }
+
+    public static ProtocolTrace getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records a frame.
+     *
+     * @param device  the address of the device
+     * @param channel identifies where the frame was sent or received, e.g. the characteristic UUID
+     */
+    public void record(String device, int direction, Object channel, byte[] value) {
+        if (value != null) {
+            record(device, direction, channel, value, 0, value.length);
+        }
+    }
+
+    public synchronized void record(String device, int direction, Object channel, byte[] value, int offset, int length) {
+        int index = next;
+        int copyLength = Math.min(length, MAX_FRAME_LENGTH);
+        byte[] frame = frames[index];
+        if (frame == null || frame.length < copyLength) {
+            frame = frames[index] = new byte[Math.max(copyLength, 20)];
+        }
+        System.arraycopy(value, offset, frame, 0, copyLength);
+        times[index] = System.currentTimeMillis();
+        devices[index] = device;
+        directions[index] = direction;
+        channels[index] = channel;
+        lengths[index] = copyLength;
+        frameLengths[index] = length;
+
+        next = (index + 1) % frames.length;
+        if (size < frames.length) {
+            size++;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Logs the recorded frames of the given device, oldest first. The frames are copied
+     * while holding the lock, but formatted and logged after releasing it, so that
+     * recording is not blocked by a slow logger.
+     *
+     * @param device the address of the device, or null for the frames of all devices
+     */
+    public void dump(Logger logger, String device, String reason) {
+        List<Frame> snapshot = snapshot(device);
+        logger.info("Protocol trace (" + reason + "):");
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        for (Frame frame : snapshot) {
+            logger.info(frame.format(timeFormat));
+        }
+    }
+
+    private synchronized List<Frame> snapshot(String device) {
+        List<Frame> result = new ArrayList<>(size);
+        int first = (next - size + frames.length) % frames.length;
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % frames.length;
+            if (device != null && !device.equals(devices[index])) {
+                continue;
+            }
+            result.add(new Frame(times[index], devices[index], directions[index], channels[index],
+                    Arrays.copyOf(frames[index], lengths[index]), frameLengths[index]));
+        }
+        return result;
+    }
+
+    private static class Frame {
+        private final long time;
+        private final String device;
+        private final int direction;
+        private final Object channel;
+        private final byte[] value;
+        private final int frameLength;
+
+        Frame(long time, String device, int direction, Object channel, byte[] value, int frameLength) {
+            this.time = time;
+            this.device = device;
+            this.direction = direction;
+            this.channel = channel;
+            this.value = value;
+            this.frameLength = frameLength;
+        }
+
+        String format(SimpleDateFormat timeFormat) {
+            StringBuilder builder = new StringBuilder(64 + value.length * 2);
+            builder.append(timeFormat.format(new Date(time)))
+                    .append(' ').append(device)
+                    .append(direction == DIRECTION_IN ? " <- " : " -> ")
+                    .append(channel)
+                    .append(": ").append(GB.hexdump(value, 0, value.length));
+            if (frameLength > value.length) {
+                builder.append(" (").append(frameLength).append(" bytes)");
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -32,15 +32,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.util.Collections;
-import java.util.List;
+import java.io.IOException;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
-import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
-import nodomain.freeyourgadget.gadgetbridge.util.GpxParser;
+import nodomain.freeyourgadget.gadgetbridge.util.CompactTrack;
 
 import static android.graphics.Bitmap.createBitmap;
 
@@ -74,45 +70,38 @@ public class ActivitySummariesGpsFragment extends AbstractGBFragment {
         new Thread(new Runnable() {
             @Override
             public void run() {
-                GpxParser gpxParser = null;
-                FileInputStream inputStream = null;
-
+                CompactTrack track;
                 try {
-                    inputStream = new FileInputStream(inputFile);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                }
-
-                if (inputStream != null) {
-                    gpxParser = new GpxParser(inputStream);
+                    track = CompactTrack.loadForGpx(inputFile);
+                } catch (IOException e) {
+                    LOG.error("Unable to load track " + inputFile, e);
+                    return;
                 }
 
-                if (gpxParser != null) {
-                    if (gpxParser.getPoints().toArray().length > 0) {
-                        drawTrack(canvas, gpxParser.getPoints());
-                    }
+                if (track.size() > 0) {
+                    drawTrack(canvas, track);
                 }
             }
         }).start();
     }
-    private void drawTrack(Canvas canvas, List<GPSCoordinate> trackPoints) {
-        double maxLat = (Collections.max(trackPoints, new GPSCoordinate.compareLatitude())).getLatitude();
-        double minLat = (Collections.min(trackPoints, new GPSCoordinate.compareLatitude())).getLatitude();
-        double maxLon = (Collections.max(trackPoints, new GPSCoordinate.compareLongitude())).getLongitude();
-        double minLon = (Collections.min(trackPoints, new GPSCoordinate.compareLongitude())).getLongitude();
-        double maxAlt = (Collections.max(trackPoints, new GPSCoordinate.compareElevation())).getAltitude();
-        double minAlt = (Collections.min(trackPoints, new GPSCoordinate.compareElevation())).getAltitude();
+    private void drawTrack(Canvas canvas, CompactTrack track) {
+        double maxLat = track.getMaxLatitude();
+        double minLat = track.getMinLatitude();
+        double maxLon = track.getMaxLongitude();
+        double minLon = track.getMinLongitude();
+        double maxAlt = track.getMaxAltitude();
+        double minAlt = track.getMinAltitude();
 
         Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
         paint.setStrokeWidth(1);
         paint.setColor(getResources().getColor(R.color.chart_activity_light));
 
-        for (GPSCoordinate p : trackPoints) {
-            float lat = (float) ((p.getLatitude() - minLat) / (maxLat - minLat));
-            float lon = (float) ((p.getLongitude() - minLon) / (maxLon - minLon));
-            float alt = (float) ((p.getAltitude() - minAlt) / (maxAlt - minAlt));
+        for (int i = 0; i < track.size(); i++) {
+            float lat = (float) ((track.getLatitude(i) - minLat) / (maxLat - minLat));
+            float lon = (float) ((track.getLongitude(i) - minLon) / (maxLon - minLon));
+            float alt = maxAlt > minAlt ? (float) ((track.getAltitude(i) - minAlt) / (maxAlt - minAlt)) : 0;
             paint.setStrokeWidth(1 + alt); //make thicker with higher altitude, we could do more here
-            canvas.drawPoint(CANVAS_SIZE * lat, CANVAS_SIZE * lon, paint);
+            canvas.drawPoint(CANVAS_SIZE * lon, CANVAS_SIZE * lat, paint);
         }
     }
 
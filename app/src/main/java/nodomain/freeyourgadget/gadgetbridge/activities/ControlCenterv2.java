@@ -67,6 +67,7 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+import nodomain.freeyourgadget.gadgetbridge.util.StartupProfiler;
 
 //TODO: extend AbstractGBActivity, but it requires actionbar that is not available
 public class ControlCenterv2 extends AppCompatActivity
@@ -98,11 +99,16 @@ public class ControlCenterv2 extends AppCompatActivity
                     break;
                 case DeviceManager.ACTION_DEVICES_CHANGED:
                     refreshPairedDevices();
+                    if (checkDevicesWhenLoaded && deviceManager.isLoaded()) {
+                        checkDevicesWhenLoaded = false;
+                        checkDevices();
+                    }
                     break;
             }
         }
     };
     private boolean pesterWithPermissions = true;
+    private boolean checkDevicesWhenLoaded = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -219,7 +225,19 @@ public class ControlCenterv2 extends AppCompatActivity
 
         GBApplication.deviceService().start();
 
-        if (GB.isBluetoothEnabled() && deviceList.isEmpty() && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+        if (deviceManager.isLoaded()) {
+            checkDevices();
+        } else {
+            // still being loaded in the background at startup
+            checkDevicesWhenLoaded = true;
+        }
+    }
+
+    /**
+     * Starts the discovery if there are no devices yet, or asks the known ones for their state.
+     */
+    private void checkDevices() {
+        if (GB.isBluetoothEnabled() && deviceManager.getDevices().isEmpty() && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
             startActivity(new Intent(this, DiscoveryActivity.class));
         } else {
             GBApplication.deviceService().requestDeviceInfo();
@@ -229,6 +247,7 @@ public class ControlCenterv2 extends AppCompatActivity
     @Override
     protected void onResume() {
         super.onResume();
+        StartupProfiler.markColdStart(GBApplication.STARTUP_MAIN_ACTIVITY);
         if (isLanguageInvalid) {
             isLanguageInvalid = false;
             recreate();
@@ -47,16 +47,23 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.app.RemoteInput;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Objects;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolTrace;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.Widget;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
@@ -69,7 +76,10 @@ import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.StartupProfiler;
+import nodomain.freeyourgadget.gadgetbridge.util.SyncMetrics;
 import nodomain.freeyourgadget.gadgetbridge.util.WidgetPreferenceStorage;
 
 import static android.content.Intent.EXTRA_SUBJECT;
@@ -339,6 +349,31 @@ public class DebugActivity extends AbstractGBActivity {
             }
         });
 
+        Button shareSyncMetricsButton = findViewById(R.id.shareSyncMetrics);
+        shareSyncMetricsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                shareSyncMetrics();
+            }
+        });
+
+        Button showStartupTimesButton = findViewById(R.id.showStartupTimes);
+        showStartupTimesButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showStartupTimes();
+            }
+        });
+
+        Button dumpProtocolTraceButton = findViewById(R.id.dumpProtocolTrace);
+        dumpProtocolTraceButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ProtocolTrace.getInstance().dump(LOG, null, "requested");
+                GB.toast("Protocol trace written to the log", Toast.LENGTH_SHORT, GB.INFO);
+            }
+        });
+
         Button showWidgetsButton = findViewById(R.id.showWidgetsButton);
         showWidgetsButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -410,6 +445,15 @@ public class DebugActivity extends AbstractGBActivity {
         }
     }
 
+    private void showStartupTimes() {
+        new AlertDialog.Builder(this)
+                .setCancelable(true)
+                .setTitle(R.string.show_startup_times)
+                .setMessage(StartupProfiler.format())
+                .setPositiveButton(R.string.ok, null)
+                .show();
+    }
+
     private void showWarning() {
         new AlertDialog.Builder(this)
                 .setCancelable(true)
@@ -451,6 +495,37 @@ public class DebugActivity extends AbstractGBActivity {
         }
     }
 
+    private void shareSyncMetrics() {
+        try {
+            JSONObject metrics = SyncMetrics.snapshot();
+            JSONArray devices = new JSONArray();
+            for (GBDevice device : GBApplication.app().getDeviceManager().getDevices()) {
+                JSONObject deviceInfo = new JSONObject();
+                deviceInfo.put("address", device.getAddress());
+                deviceInfo.put("type", device.getType().name());
+                deviceInfo.put("model", device.getModel());
+                deviceInfo.put("firmware", device.getFirmwareVersion());
+                deviceInfo.put("firmware2", device.getFirmwareVersion2());
+                devices.put(deviceInfo);
+            }
+            metrics.put("devices", devices);
+            metrics.put("startup", StartupProfiler.snapshot());
+
+            File metricsFile = FileUtils.getExternalFile("syncmetrics-" + metrics.getLong("timestamp") + ".json");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(metricsFile), StandardCharsets.UTF_8)) {
+                writer.write(metrics.toString(2));
+            }
+
+            Intent emailIntent = new Intent(android.content.Intent.ACTION_SEND);
+            emailIntent.setType("application/json");
+            emailIntent.putExtra(EXTRA_SUBJECT, "Gadgetbridge sync metrics");
+            emailIntent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(metricsFile));
+            startActivity(Intent.createChooser(emailIntent, "Share File"));
+        } catch (Exception e) {
+            GB.toast(this, "Error exporting sync metrics: " + e.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
+        }
+    }
+
     private void testNotification() {
         Intent notificationIntent = new Intent(getApplicationContext(), DebugActivity.class);
         notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
@@ -42,6 +42,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.view.View;
 import android.widget.AdapterView;
@@ -58,8 +59,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -83,8 +87,22 @@ import static nodomain.freeyourgadget.gadgetbridge.util.GB.toast;
 public class DiscoveryActivity extends AbstractGBActivity implements AdapterView.OnItemClickListener, AdapterView.OnItemLongClickListener, BondingInterface {
     private static final Logger LOG = LoggerFactory.getLogger(DiscoveryActivity.class);
     private static final long SCAN_DURATION = 30000; // 30s
+    private static final long UPDATE_CANDIDATES_DELAY = 100; // ms
+    private static final long SCAN_RESULT_DEBOUNCE = 1000; // ms
     private final Handler handler = new Handler();
     private final ArrayList<GBDeviceCandidate> deviceCandidates = new ArrayList<>();
+    // the index of each candidate in deviceCandidates, by address
+    private final Map<String, Integer> candidateIndexes = new HashMap<>();
+    // when the candidates were last updated from a scan result, by address
+    private final Map<String, Long> candidateUpdateTimes = new HashMap<>();
+    private boolean candidatesUpdatePending;
+    private final Runnable updateCandidatesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            candidatesUpdatePending = false;
+            deviceCandidateAdapter.notifyDataSetChanged();
+        }
+    };
     private ScanCallback newBLEScanCallback = null;
     /**
      * Use old BLE scanning
@@ -200,10 +218,9 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
 
 
     private GBDeviceCandidate getCandidateFromMAC(BluetoothDevice device) {
-        for (GBDeviceCandidate candidate : deviceCandidates) {
-            if (candidate.getMacAddress().equals(device.getAddress())) {
-                return candidate;
-            }
+        Integer index = candidateIndexes.get(device.getAddress());
+        if (index != null) {
+            return deviceCandidates.get(index);
         }
         LOG.warn(String.format("This shouldn't happen unless the list somehow emptied itself, device MAC: %1$s", device.getAddress()));
         return null;
@@ -230,8 +247,10 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
                             uuids = serviceUuids.toArray(new ParcelUuid[0]);
                         }
                     }
-                    LOG.warn(result.getDevice().getName() + ": " +
-                            ((scanRecord != null) ? scanRecord.getBytes().length : -1));
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug(result.getDevice().getName() + ": " +
+                                ((scanRecord != null) ? scanRecord.getBytes().length : -1));
+                    }
                     handleDeviceFound(result.getDevice(), (short) result.getRssi(), uuids);
                 } catch (NullPointerException e) {
                     LOG.warn("Error handling scan result", e);
@@ -311,8 +330,12 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
         ArrayList<Parcelable> restoredCandidates = savedInstanceState.getParcelableArrayList("deviceCandidates");
         if (restoredCandidates != null) {
             deviceCandidates.clear();
+            candidateIndexes.clear();
+            candidateUpdateTimes.clear();
             for (Parcelable p : restoredCandidates) {
-                deviceCandidates.add((GBDeviceCandidate) p);
+                GBDeviceCandidate candidate = (GBDeviceCandidate) p;
+                candidateIndexes.put(candidate.getMacAddress(), deviceCandidates.size());
+                deviceCandidates.add(candidate);
             }
         }
     }
@@ -321,6 +344,7 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
     protected void onDestroy() {
         unregisterBroadcastReceivers();
         stopAllDiscovery();
+        handler.removeCallbacks(updateCandidatesRunnable);
         super.onDestroy();
     }
 
@@ -376,9 +400,15 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
         handleDeviceFound(device, rssi, uuids);
     }
 
+    /**
+     * Handles a scan result. The same device is usually reported many times per second, so
+     * results of an already listed device are ignored for a while, and the list is updated
+     * at most every {@link #UPDATE_CANDIDATES_DELAY} ms. The coordinator lookup caches the
+     * results for unsupported devices.
+     */
     private boolean handleDeviceFound(BluetoothDevice device, short rssi, ParcelUuid[] uuids) {
-        LOG.debug("found device: " + device.getName() + ", " + device.getAddress());
         if (LOG.isDebugEnabled()) {
+            LOG.debug("found device: " + device.getName() + ", " + device.getAddress());
             if (uuids != null && uuids.length > 0) {
                 for (ParcelUuid uuid : uuids) {
                     LOG.debug("  supports uuid: " + uuid.toString());
@@ -390,18 +420,32 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
             return true; // Ignore already bonded devices
         }
 
+        String address = device.getAddress();
+        Integer index = candidateIndexes.get(address);
+        long now = SystemClock.elapsedRealtime();
+        if (index != null) {
+            Long lastUpdate = candidateUpdateTimes.get(address);
+            if (lastUpdate != null && now - lastUpdate < SCAN_RESULT_DEBOUNCE) {
+                return true;
+            }
+        }
+
         GBDeviceCandidate candidate = new GBDeviceCandidate(device, rssi, uuids);
         DeviceType deviceType = DeviceHelper.getInstance().getSupportedType(candidate);
         if (deviceType.isSupported()) {
             candidate.setDeviceType(deviceType);
-            LOG.info("Recognized supported device: " + candidate);
-            int index = deviceCandidates.indexOf(candidate);
-            if (index >= 0) {
+            if (index != null) {
                 deviceCandidates.set(index, candidate); // replace
             } else {
+                LOG.info("Recognized supported device: " + candidate);
+                candidateIndexes.put(address, deviceCandidates.size());
                 deviceCandidates.add(candidate);
             }
-            deviceCandidateAdapter.notifyDataSetChanged();
+            candidateUpdateTimes.put(address, now);
+            if (!candidatesUpdatePending) {
+                candidatesUpdatePending = true;
+                handler.postDelayed(updateCandidatesRunnable, UPDATE_CANDIDATES_DELAY);
+            }
             return true;
         }
         return false;
@@ -493,9 +537,7 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
         handler.removeMessages(0, stopRunnable);
         handler.sendMessageDelayed(getPostMessage(stopRunnable), SCAN_DURATION);
 
-        // Filters being non-null would be a very good idea with background scan, but in this case,
-        // not really required.
-        adapter.getBluetoothLeScanner().startScan(null, getScanSettings(), getScanCallback());
+        adapter.getBluetoothLeScanner().startScan(getScanFilters(), getScanSettings(), getScanCallback());
 
         LOG.debug("Bluetooth LE discovery started successfully");
         bluetoothLEProgress.setVisibility(View.VISIBLE);
@@ -655,10 +697,21 @@ public class DiscoveryActivity extends AbstractGBActivity implements AdapterView
         }
     }
 
+    /**
+     * Returns the scan filters of all coordinators, so that the controller drops the
+     * advertisements of unsupported devices. Returns null if a coordinator has no filters,
+     * e.g. because its devices are only recognized by their name, since its devices would
+     * not be found anymore otherwise.
+     */
     private List<ScanFilter> getScanFilters() {
         List<ScanFilter> allFilters = new ArrayList<>();
         for (DeviceCoordinator coordinator : DeviceHelper.getInstance().getAllCoordinators()) {
-            allFilters.addAll(coordinator.createBLEScanFilters());
+            Collection<? extends ScanFilter> filters = coordinator.createBLEScanFilters();
+            if (filters.isEmpty()) {
+                LOG.debug("Not filtering scan results, " + coordinator.getClass().getSimpleName() + " has no scan filters");
+                return null;
+            }
+            allFilters.addAll(filters);
         }
         return allFilters;
     }
@@ -34,7 +34,9 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import androidx.core.app.NavUtils;
@@ -54,6 +56,8 @@ public class AppManagerActivity extends AbstractGBFragmentActivity {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractAppManagerFragment.class);
     private int READ_REQUEST_CODE = 42;
 
+    private static final Map<String, ArrayList<UUID>> appOrderCache = new HashMap<>();
+
     private GBDevice mGBDevice = null;
 
     public GBDevice getGBDevice() {
@@ -157,6 +161,7 @@ public class AppManagerActivity extends AbstractGBFragmentActivity {
 
 
     static synchronized void rewriteAppOrderFile(String filename, List<UUID> uuids) {
+        appOrderCache.put(filename, new ArrayList<>(uuids));
         try (BufferedWriter out = new BufferedWriter(new FileWriter(FileUtils.getExternalFilesDir() + "/" + filename))) {
             for (UUID uuid : uuids) {
                 out.write(uuid.toString());
@@ -175,13 +180,22 @@ public class AppManagerActivity extends AbstractGBFragmentActivity {
         }
     }
 
+    /**
+     * Returns a copy of the app order in the given file. The order is read from the file
+     * only once, as all changes go through {@link #rewriteAppOrderFile(String, List)}.
+     */
     static synchronized ArrayList<UUID> getUuidsFromFile(String filename) {
+        ArrayList<UUID> cachedUuids = appOrderCache.get(filename);
+        if (cachedUuids != null) {
+            return new ArrayList<>(cachedUuids);
+        }
         ArrayList<UUID> uuids = new ArrayList<>();
         try (BufferedReader in = new BufferedReader(new FileReader(FileUtils.getExternalFilesDir() + "/" + filename))) {
             String line;
             while ((line = in.readLine()) != null) {
                 uuids.add(UUID.fromString(line));
             }
+            appOrderCache.put(filename, new ArrayList<>(uuids));
         } catch (IOException e) {
             LOG.warn("could not read sort file");
         }
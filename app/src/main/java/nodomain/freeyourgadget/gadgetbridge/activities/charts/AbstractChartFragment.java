@@ -21,10 +21,11 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.AsyncTask;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.util.TypedValue;
 import android.view.View;
+import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
@@ -52,14 +53,15 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.AbstractGBFragment;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
-import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
@@ -69,6 +71,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 /**
@@ -98,11 +101,38 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+            if (ChartsHost.REFRESH.equals(intent.getAction())) {
+                // the data may have changed, e.g. after a sync
+                mChartsDataCache.clear();
+            }
             AbstractChartFragment.this.onReceive(context, intent);
         }
     };
     private boolean mChartDirty = true;
-    private AsyncTask refreshTask;
+    private static final int CHARTS_DATA_CACHE_SIZE = 8;
+    /**
+     * Recently displayed data by device and date range, so that going back and forth between
+     * dates does not query the database again. Ranges that end in the future are not cached.
+     * Only accessed on the main thread.
+     */
+    private final Map<String, ChartsData> mChartsDataCache = new LinkedHashMap<String, ChartsData>(CHARTS_DATA_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChartsData> eldest) {
+            return size() > CHARTS_DATA_CACHE_SIZE;
+        }
+    };
+    /**
+     * Clears the cache when a global or device preference changes, since those decide how the
+     * samples are turned into charts, e.g. the sleep detection or which graphs are shown.
+     * Must be kept in a field, preferences only hold weak references to their listeners.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            mChartsDataCache.clear();
+        }
+    };
+    private SharedPreferences mDevicePreferences;
 
     public boolean isChartDirty() {
         return mChartDirty;
@@ -173,6 +203,15 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             filter.addAction(action);
         }
         LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mReceiver, filter);
+
+        GBApplication.getPrefs().getPreferences().registerOnSharedPreferenceChangeListener(mPreferenceListener);
+        ChartsHost chartsHost = getChartsHost();
+        if (chartsHost != null && chartsHost.getDevice() != null) {
+            mDevicePreferences = GBApplication.getDeviceSpecificSharedPrefs(chartsHost.getDevice().getAddress());
+        }
+        if (mDevicePreferences != null) {
+            mDevicePreferences.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+        }
     }
 
     protected void init() {
@@ -249,7 +288,12 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        ChartDataLoader.getInstance().cancel(this);
         LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mReceiver);
+        GBApplication.getPrefs().getPreferences().unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
+        if (mDevicePreferences != null) {
+            mDevicePreferences.unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
+        }
     }
 
     protected void onReceive(Context context, Intent intent) {
@@ -401,14 +445,44 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             if (chartsHost.getDevice() != null) {
                 mChartDirty = false;
                 updateDateInfo(getStartDate(), getEndDate());
-                if (refreshTask != null && refreshTask.getStatus() != AsyncTask.Status.FINISHED) {
-                    refreshTask.cancel(true);
+
+                final String cacheKey = chartsHost.getDevice().getAddress() + "/" + getStartDate().getTime() + "/" + getEndDate().getTime();
+                // a range that is not over yet still gets new samples, e.g. realtime ones
+                final boolean cacheable = getEndDate().getTime() < System.currentTimeMillis();
+                ChartsData cached = mChartsDataCache.get(cacheKey);
+                if (cached != null) {
+                    ChartDataLoader.getInstance().cancel(this);
+                    showChartsData(cached);
+                    return;
                 }
-                refreshTask = createRefreshTask("Visualizing data", getActivity()).execute();
+                ChartDataLoader.getInstance().load(this, new ChartDataLoader.Callback() {
+                    @Override
+                    public void onChartsDataLoaded(ChartsData chartsData, Exception error) {
+                        if (error != null) {
+                            Context context = GBApplication.getContext();
+                            GB.toast(context, context.getString(R.string.dbaccess_error_executing, error.getMessage()), Toast.LENGTH_LONG, GB.ERROR, error);
+                            return;
+                        }
+                        if (chartsData != null && cacheable) {
+                            mChartsDataCache.put(cacheKey, chartsData);
+                        }
+                        showChartsData(chartsData);
+                    }
+                });
             }
         }
     }
 
+    private void showChartsData(ChartsData chartsData) {
+        FragmentActivity activity = getActivity();
+        if (activity != null && !activity.isFinishing() && !activity.isDestroyed()) {
+            updateChartsnUIThread(chartsData);
+            renderCharts();
+        } else {
+            LOG.info("Not rendering charts because activity is not available anymore");
+        }
+    }
+
     /**
      * This method reads the data from the database, analyzes and prepares it for
      * the charts. This will be called from a background task, so there must not be
@@ -439,21 +513,26 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 
             int last_type = ActivityKind.TYPE_UNKNOWN;
 
-            int numEntries = samples.size();
+            ActivitySampleColumns columns = ActivitySampleColumns.of(samples);
+            int chartResolution = getChartResolution();
+            int[] selected = SampleDownsampler.selectActivitySamples(columns, chartResolution);
+            if (selected.length < columns.size) {
+                LOG.debug("" + getTitle() + ": drawing " + selected.length + " of " + columns.size + " samples");
+            }
+
+            int numEntries = selected.length;
             List<Entry> activityEntries = new ArrayList<>(numEntries);
             List<Entry> deepSleepEntries = new ArrayList<>(numEntries);
             List<Entry> lightSleepEntries = new ArrayList<>(numEntries);
             List<Entry> notWornEntries = new ArrayList<>(numEntries);
             boolean hr = supportsHeartrate(gbDevice);
-            List<Entry> heartrateEntries = hr ? new ArrayList<Entry>(numEntries) : null;
-            List<Integer> colors = new ArrayList<>(numEntries); // this is kinda inefficient...
-            int lastHrSampleIndex = -1;
+            List<Entry> heartrateEntries = null;
             HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
 
-            for (int i = 0; i < numEntries; i++) {
-                ActivitySample sample = samples.get(i);
-                int type = sample.getKind();
-                int ts = tsTranslation.shorten(sample.getTimestamp());
+            for (int n = 0; n < numEntries; n++) {
+                int i = selected[n];
+                int type = columns.kinds[i];
+                int ts = tsTranslation.shorten(columns.timestamps[i]);
 
 //                System.out.println(ts);
 //                ts = i;
@@ -468,7 +547,7 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 //                    dateStringTo = dateFormat.format(date);
 //                }
 
-                float movement = sample.getIntensity();
+                float movement = columns.intensities[i];
 
                 float value = movement;
                 switch (type) {
@@ -518,15 +597,6 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
                         }
                         activityEntries.add(createLineEntry(value, ts));
                 }
-                if (hr && sample.getKind() != ActivityKind.TYPE_NOT_WORN && heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                    if (lastHrSampleIndex > -1 && ts - lastHrSampleIndex > 1800*HeartRateUtils.MAX_HR_MEASUREMENTS_GAP_MINUTES) {
-                        heartrateEntries.add(createLineEntry(0, lastHrSampleIndex + 1));
-                        heartrateEntries.add(createLineEntry(0, ts - 1));
-                    }
-
-                    heartrateEntries.add(createLineEntry(sample.getHeartRate(), ts));
-                    lastHrSampleIndex = ts;
-                }
 
                 String xLabel = "";
                 if (annotate) {
@@ -555,6 +625,21 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
                 last_type = type;
             }
 
+            if (hr) {
+                int[] selectedHeartRates = SampleDownsampler.selectHeartRateSamples(columns, chartResolution, heartRateUtilsInstance);
+                heartrateEntries = new ArrayList<>(selectedHeartRates.length);
+                int lastHrSampleIndex = -1;
+                for (int i : selectedHeartRates) {
+                    int ts = tsTranslation.shorten(columns.timestamps[i]);
+                    if (lastHrSampleIndex > -1 && ts - lastHrSampleIndex > 1800*HeartRateUtils.MAX_HR_MEASUREMENTS_GAP_MINUTES) {
+                        heartrateEntries.add(createLineEntry(0, lastHrSampleIndex + 1));
+                        heartrateEntries.add(createLineEntry(0, ts - 1));
+                    }
+
+                    heartrateEntries.add(createLineEntry(columns.heartRates[i], ts));
+                    lastHrSampleIndex = ts;
+                }
+            }
 
             List<ILineDataSet> lineDataSets = new ArrayList<>();
             LineDataSet activitySet = createDataSet(activityEntries, akActivity.color, "Activity");
@@ -596,6 +681,14 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 
     protected abstract void setupLegend(Chart chart);
 
+    /**
+     * The number of points in time that the line charts can distinguish, used to skip samples
+     * that would not be visible anyway.
+     */
+    protected int getChartResolution() {
+        return Math.max(GBApplication.getContext().getResources().getDisplayMetrics().widthPixels, 1);
+    }
+
     protected Entry createLineEntry(float value, int xValue) {
         return new Entry(xValue, value);
     }
@@ -640,40 +733,6 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
         return set1;
     }
 
-    protected RefreshTask createRefreshTask(String task, Context context) {
-        return new RefreshTask(task, context);
-    }
-
-    public class RefreshTask extends DBAccess {
-        private ChartsData chartsData;
-
-        public RefreshTask(String task, Context context) {
-            super(task, context);
-        }
-
-        @Override
-        protected void doInBackground(DBHandler db) {
-            ChartsHost chartsHost = getChartsHost();
-            if (chartsHost != null) {
-                chartsData = refreshInBackground(chartsHost, db, chartsHost.getDevice());
-            } else {
-                cancel(true);
-            }
-        }
-
-        @Override
-        protected void onPostExecute(Object o) {
-            super.onPostExecute(o);
-            FragmentActivity activity = getActivity();
-            if (activity != null && !activity.isFinishing() && !activity.isDestroyed()) {
-                updateChartsnUIThread(chartsData);
-                renderCharts();
-            } else {
-                LOG.info("Not rendering charts because activity is not available anymore");
-            }
-        }
-    }
-
     protected abstract void updateChartsnUIThread(ChartsData chartsData);
 
     /**
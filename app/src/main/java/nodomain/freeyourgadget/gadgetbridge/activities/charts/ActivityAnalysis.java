@@ -43,10 +43,11 @@ public class ActivityAnalysis {
         ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
 
         ActivityAmount previousAmount = null;
-        ActivitySample previousSample = null;
-        for (ActivitySample sample : samples) {
+        ActivitySampleColumns columns = ActivitySampleColumns.of(samples);
+        for (int i = 0; i < columns.size; i++) {
             ActivityAmount amount;
-            switch (sample.getKind()) {
+            int kind = columns.kinds[i];
+            switch (kind) {
                 case ActivityKind.TYPE_DEEP_SLEEP:
                     amount = deepSleep;
                     break;
@@ -62,14 +63,15 @@ public class ActivityAnalysis {
                     break;
             }
 
-            int steps = sample.getSteps();
+            int steps = columns.steps[i];
             if (steps > 0) {
                 amount.addSteps(steps);
             }
 
-            if (previousSample != null) {
-                long timeDifference = sample.getTimestamp() - previousSample.getTimestamp();
-                if (previousSample.getRawKind() == sample.getRawKind()) {
+            int timestamp = columns.timestamps[i];
+            if (i > 0) {
+                long timeDifference = timestamp - columns.timestamps[i - 1];
+                if (columns.rawKinds[i - 1] == columns.rawKinds[i]) {
                     amount.addSeconds(timeDifference);
                 } else {
                     long sharedTimeDifference = (long) (timeDifference / 2.0f);
@@ -78,7 +80,7 @@ public class ActivityAnalysis {
                 }
 
                 // add time
-                if (steps > 0 && sample.getKind() == ActivityKind.TYPE_ACTIVITY) {
+                if (steps > 0 && kind == ActivityKind.TYPE_ACTIVITY) {
                     if (steps > maxSpeed) {
                         maxSpeed = steps;
                     }
@@ -94,11 +96,10 @@ public class ActivityAnalysis {
                 }
             }
 
-            amount.setStartDate(sample.getTimestamp());
-            amount.setEndDate(sample.getTimestamp());
+            amount.setStartDate(timestamp);
+            amount.setEndDate(timestamp);
 
             previousAmount = amount;
-            previousSample = sample;
         }
 
         ActivityAmounts result = new ActivityAmounts();
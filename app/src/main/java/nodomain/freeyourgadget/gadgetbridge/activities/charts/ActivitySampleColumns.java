@@ -0,0 +1,105 @@
+/*  Copyright (C) 2016-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleNormalizationTable;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * A read-only, column-wise copy of the values of a list of samples that the analysis and
+ * chart code needs. Normalized kinds and intensities are resolved once per sample through
+ * the provider's {@link SampleNormalizationTable}, instead of on every access.
+ */
+public class ActivitySampleColumns {
+    public final int size;
+    public final int[] timestamps;
+    public final int[] rawKinds;
+    public final int[] kinds;
+    public final float[] intensities;
+    public final int[] steps;
+    public final int[] heartRates;
+
+    private ActivitySampleColumns(int size) {
+        this.size = size;
+        timestamps = new int[size];
+        rawKinds = new int[size];
+        kinds = new int[size];
+        intensities = new float[size];
+        steps = new int[size];
+        heartRates = new int[size];
+    }
+
+    public static ActivitySampleColumns of(List<? extends ActivitySample> samples) {
+        ActivitySampleColumns result = new ActivitySampleColumns(samples.size());
+
+        // samples of a list usually share the same class and provider
+        Class<?> lastClass = null;
+        boolean lastClassNormalizes = false;
+        SampleProvider<?> lastProvider = null;
+        SampleNormalizationTable table = null;
+
+        for (int i = 0; i < result.size; i++) {
+            ActivitySample sample = samples.get(i);
+            result.timestamps[i] = sample.getTimestamp();
+            result.steps[i] = sample.getSteps();
+            result.heartRates[i] = sample.getHeartRate();
+            int rawKind = sample.getRawKind();
+            result.rawKinds[i] = rawKind;
+
+            if (sample.getClass() != lastClass) {
+                lastClass = sample.getClass();
+                lastClassNormalizes = usesProviderNormalization(lastClass);
+            }
+            SampleProvider<?> provider = lastClassNormalizes ? sample.getProvider() : null;
+            if (provider != lastProvider) {
+                lastProvider = provider;
+                table = provider instanceof AbstractSampleProvider ? ((AbstractSampleProvider<?>) provider).getNormalizationTable() : null;
+            }
+
+            if (table != null) {
+                result.kinds[i] = table.normalizeType(rawKind);
+                result.intensities[i] = table.normalizeIntensity(sample.getRawIntensity());
+            } else {
+                result.kinds[i] = sample.getKind();
+                result.intensities[i] = sample.getIntensity();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if getKind() and getIntensity() of the given sample class are the plain
+     * provider normalization of AbstractActivitySample, i.e. not overridden.
+     */
+    private static boolean usesProviderNormalization(Class<?> sampleClass) {
+        if (!AbstractActivitySample.class.isAssignableFrom(sampleClass)) {
+            return false;
+        }
+        try {
+            return sampleClass.getMethod("getKind").getDeclaringClass() == AbstractActivitySample.class
+                    && sampleClass.getMethod("getIntensity").getDeclaringClass() == AbstractActivitySample.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*  Copyright (C) 2015-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+
+/**
+ * Loads the data of all chart fragments on a single background thread.
+ *
+ * Only the most recent request of each fragment is executed: a request that is still queued
+ * when a newer one for the same fragment arrives is dropped, and the result of a request that
+ * is already running is discarded. This way, quickly moving through the dates does not queue up
+ * database queries for date ranges that are not displayed anymore.
+ */
+class ChartDataLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(ChartDataLoader.class);
+
+    private static ChartDataLoader instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Chart data loader");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<AbstractChartFragment, Request> currentRequests = new HashMap<>();
+
+    interface Callback {
+        /**
+         * Called on the main thread with the loaded data, or the error that occurred.
+         */
+        void onChartsDataLoaded(ChartsData chartsData, Exception error);
+    }
+
+    static synchronized ChartDataLoader getInstance() {
+        if (instance == null) {
+            instance = new ChartDataLoader();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the data of the given fragment in the background, replacing any previous request
+     * of the fragment.
+     */
+    void load(AbstractChartFragment fragment, Callback callback) {
+        Request request = new Request(fragment, callback);
+        synchronized (currentRequests) {
+            Request previous = currentRequests.put(fragment, request);
+            if (previous != null) {
+                LOG.debug("Superseding chart data request of " + fragment.getTitle());
+            }
+        }
+        executor.execute(request);
+    }
+
+    /**
+     * Drops the current request of the given fragment, if any. Its result will not be delivered.
+     */
+    void cancel(AbstractChartFragment fragment) {
+        synchronized (currentRequests) {
+            currentRequests.remove(fragment);
+        }
+    }
+
+    private boolean isCurrent(Request request) {
+        synchronized (currentRequests) {
+            return currentRequests.get(request.fragment) == request;
+        }
+    }
+
+    private class Request implements Runnable {
+        private final AbstractChartFragment fragment;
+        private final Callback callback;
+
+        Request(AbstractChartFragment fragment, Callback callback) {
+            this.fragment = fragment;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (!isCurrent(this)) {
+                return;
+            }
+
+            ChartsData chartsData = null;
+            Exception error = null;
+            try (DBHandler db = GBApplication.acquireDB()) {
+                ChartsHost chartsHost = fragment.getChartsHost();
+                if (chartsHost == null) {
+                    cancel(fragment);
+                    return;
+                }
+                chartsData = fragment.refreshInBackground(chartsHost, db, chartsHost.getDevice());
+            } catch (Exception e) {
+                error = e;
+            }
+
+            final ChartsData result = chartsData;
+            final Exception resultError = error;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (currentRequests) {
+                        if (currentRequests.get(fragment) != Request.this) {
+                            return;
+                        }
+                        currentRequests.remove(fragment);
+                    }
+                    callback.onChartsDataLoaded(result, resultError);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*  Copyright (C) 2016-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import java.util.Arrays;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+
+/**
+ * Reduces the number of samples to draw in a line chart to what can actually be displayed.
+ *
+ * The time range is split into as many buckets as the chart has pixels. Within each bucket,
+ * every run of samples with the same activity kind keeps only its first and last sample and
+ * the samples with the minimum and maximum value (M4 aggregation). At the chart resolution
+ * this draws the same lines as with all samples, while kind changes stay exact.
+ */
+class SampleDownsampler {
+    private static final int VALUES_PER_GROUP = 4;
+
+    private SampleDownsampler() {
+    }
+
+    /**
+     * Returns the indices of the samples to draw for the activity and sleep lines, in order.
+     */
+    static int[] selectActivitySamples(ActivitySampleColumns columns, int buckets) {
+        if (columns.size <= buckets * VALUES_PER_GROUP) {
+            int[] all = new int[columns.size];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        long bucketWidth = getBucketWidth(columns, buckets);
+        int firstTimestamp = columns.timestamps[0];
+        int[] result = new int[Math.min(columns.size, 16)];
+        int count = 0;
+
+        int groupStart = 0;
+        while (groupStart < columns.size) {
+            int kind = columns.kinds[groupStart];
+            long bucket = (columns.timestamps[groupStart] - (long) firstTimestamp) / bucketWidth;
+            int minIndex = groupStart;
+            int maxIndex = groupStart;
+            int end = groupStart + 1;
+            while (end < columns.size && columns.kinds[end] == kind
+                    && (columns.timestamps[end] - (long) firstTimestamp) / bucketWidth == bucket) {
+                if (columns.intensities[end] < columns.intensities[minIndex]) {
+                    minIndex = end;
+                }
+                if (columns.intensities[end] > columns.intensities[maxIndex]) {
+                    maxIndex = end;
+                }
+                end++;
+            }
+
+            if (count + VALUES_PER_GROUP > result.length) {
+                result = Arrays.copyOf(result, result.length * 2);
+            }
+            count = addGroup(result, count, groupStart, minIndex, maxIndex, end - 1);
+            groupStart = end;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns the indices of the samples to draw for the heart rate line, in order. Only samples
+     * with a valid heart rate that are not marked as not worn are returned.
+     */
+    static int[] selectHeartRateSamples(ActivitySampleColumns columns, int buckets, HeartRateUtils heartRateUtils) {
+        boolean downsample = columns.size > buckets * VALUES_PER_GROUP;
+        long bucketWidth = downsample ? getBucketWidth(columns, buckets) : 1;
+        int firstTimestamp = columns.size > 0 ? columns.timestamps[0] : 0;
+        int[] result = new int[Math.min(columns.size, 16)];
+        int count = 0;
+
+        int groupStart = -1;
+        long groupBucket = 0;
+        int minIndex = 0;
+        int maxIndex = 0;
+        int last = 0;
+        for (int i = 0; i < columns.size; i++) {
+            int heartRate = columns.heartRates[i];
+            if (columns.kinds[i] == ActivityKind.TYPE_NOT_WORN || !heartRateUtils.isValidHeartRateValue(heartRate)) {
+                continue;
+            }
+            long bucket = (columns.timestamps[i] - (long) firstTimestamp) / bucketWidth;
+            if (groupStart != -1 && bucket == groupBucket) {
+                if (heartRate < columns.heartRates[minIndex]) {
+                    minIndex = i;
+                }
+                if (heartRate > columns.heartRates[maxIndex]) {
+                    maxIndex = i;
+                }
+                last = i;
+                continue;
+            }
+            if (groupStart != -1) {
+                if (count + VALUES_PER_GROUP > result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                count = addGroup(result, count, groupStart, minIndex, maxIndex, last);
+            }
+            groupStart = minIndex = maxIndex = last = i;
+            groupBucket = bucket;
+        }
+        if (groupStart != -1) {
+            if (count + VALUES_PER_GROUP > result.length) {
+                result = Arrays.copyOf(result, result.length + VALUES_PER_GROUP);
+            }
+            count = addGroup(result, count, groupStart, minIndex, maxIndex, last);
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static long getBucketWidth(ActivitySampleColumns columns, int buckets) {
+        long range = (long) columns.timestamps[columns.size - 1] - columns.timestamps[0] + 1;
+        return Math.max(1, (range + buckets - 1) / buckets);
+    }
+
+    /**
+     * Appends the given indices in ascending order, without duplicates.
+     */
+    private static int addGroup(int[] result, int count, int first, int min, int max, int last) {
+        int low = Math.min(min, max);
+        int high = Math.max(min, max);
+        result[count++] = first;
+        if (low > first) {
+            result[count++] = low;
+        }
+        if (high > low && high > first) {
+            result[count++] = high;
+        }
+        if (last > high && last > first) {
+            result[count++] = last;
+        }
+        return count;
+    }
+}
@@ -31,27 +31,28 @@ public class SleepAnalysis {
     public List<SleepSession> calculateSleepSessions(List<? extends ActivitySample> samples) {
         List<SleepSession> result = new ArrayList<>();
 
-        ActivitySample previousSample = null;
         Date sleepStart = null;
         Date sleepEnd = null;
         long lightSleepDuration = 0;
         long deepSleepDuration = 0;
         long durationSinceLastSleep = 0;
 
-        for (ActivitySample sample : samples) {
-            if (isSleep(sample)) {
+        ActivitySampleColumns columns = ActivitySampleColumns.of(samples);
+        for (int i = 0; i < columns.size; i++) {
+            int kind = columns.kinds[i];
+            if (isSleep(kind)) {
                 if (sleepStart == null)
-                    sleepStart = getDateFromSample(sample);
-                sleepEnd = getDateFromSample(sample);
+                    sleepStart = getDateFromTimestamp(columns.timestamps[i]);
+                sleepEnd = getDateFromTimestamp(columns.timestamps[i]);
 
                 durationSinceLastSleep = 0;
             }
 
-            if (previousSample != null) {
-                long durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-                if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
+            if (i > 0) {
+                long durationSinceLastSample = columns.timestamps[i] - columns.timestamps[i - 1];
+                if (kind == ActivityKind.TYPE_LIGHT_SLEEP) {
                     lightSleepDuration += durationSinceLastSample;
-                } else if (sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                } else if (kind == ActivityKind.TYPE_DEEP_SLEEP) {
                     deepSleepDuration += durationSinceLastSample;
                 } else {
                     durationSinceLastSleep += durationSinceLastSample;
@@ -65,8 +66,6 @@ public class SleepAnalysis {
                     }
                 }
             }
-
-            previousSample = sample;
         }
         if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH) {
             result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
@@ -74,12 +73,12 @@ public class SleepAnalysis {
         return result;
     }
 
-    private boolean isSleep(ActivitySample sample) {
-        return sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP || sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP;
+    private boolean isSleep(int kind) {
+        return kind == ActivityKind.TYPE_DEEP_SLEEP || kind == ActivityKind.TYPE_LIGHT_SLEEP;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+    private Date getDateFromTimestamp(int timestamp) {
+        return new Date(timestamp * 1000L);
     }
 
 
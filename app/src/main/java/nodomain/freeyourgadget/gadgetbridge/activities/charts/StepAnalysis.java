@@ -52,7 +52,7 @@ public class StepAnalysis {
         }
         final double MIN_SESSION_INTENSITY = Math.max(0, Math.min(1, MIN_STEPS_PER_MINUTE * 0.01));
 
-        ActivitySample previousSample = null;
+        int previousIndex = -1;
         Date sessionStart = null;
         Date sessionEnd;
         int activeSteps = 0; //steps that we count
@@ -67,37 +67,42 @@ public class StepAnalysis {
         float intensityBetweenActivePeriods = 0;
         HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
 
-        for (ActivitySample sample : samples) {
-            int steps = sample.getSteps();
+        ActivitySampleColumns columns = ActivitySampleColumns.of(samples);
+        for (int i = 0; i < columns.size; i++) {
+            int steps = columns.steps[i];
             if (steps > 0) {
                 totalDailySteps += steps;
             }
 
-            if (sample.getKind() != ActivityKind.TYPE_SLEEP //anything but sleep counts
-                    && !(sample instanceof TrailingActivitySample)) { //trailing samples have wrong date and make trailing activity have 0 duration
+            if (columns.kinds[i] != ActivityKind.TYPE_SLEEP //anything but sleep counts
+                    && !(samples.get(i) instanceof TrailingActivitySample)) { //trailing samples have wrong date and make trailing activity have 0 duration
+
+                int timestamp = columns.timestamps[i];
+                float intensity = columns.intensities[i];
+                int heartRate = columns.heartRates[i];
 
                 if (sessionStart == null) {
-                    sessionStart = getDateFromSample(sample);
-                    activeSteps = sample.getSteps();
-                    activeIntensity = sample.getIntensity();
+                    sessionStart = getDateFromTimestamp(timestamp);
+                    activeSteps = steps;
+                    activeIntensity = intensity;
                     heartRateSum = new ArrayList<>();
-                    if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                        heartRateSum.add(sample.getHeartRate());
+                    if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                        heartRateSum.add(heartRate);
                     }
                     durationSinceLastActiveStep = 0;
                     stepsBetweenActivePeriods = 0;
                     heartRateBetweenActivePeriodsSum = new ArrayList<>();
-                    previousSample = null;
+                    previousIndex = -1;
                 }
-                if (previousSample != null) {
-                    int durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-
-                    if (sample.getSteps() > MIN_STEPS_PER_MINUTE || //either some steps
-                            (sample.getIntensity() > MIN_SESSION_INTENSITY && sample.getSteps() > 0)) { //or some intensity plus at least one step
-                        activeSteps += sample.getSteps() + stepsBetweenActivePeriods;
-                        activeIntensity += sample.getIntensity() + intensityBetweenActivePeriods;
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateSum.add(sample.getHeartRate());
+                if (previousIndex != -1) {
+                    int durationSinceLastSample = timestamp - columns.timestamps[previousIndex];
+
+                    if (steps > MIN_STEPS_PER_MINUTE || //either some steps
+                            (intensity > MIN_SESSION_INTENSITY && steps > 0)) { //or some intensity plus at least one step
+                        activeSteps += steps + stepsBetweenActivePeriods;
+                        activeIntensity += intensity + intensityBetweenActivePeriods;
+                        if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                            heartRateSum.add(heartRate);
                         }
                         heartRateSum.addAll(heartRateBetweenActivePeriodsSum);
                         heartRateBetweenActivePeriodsSum = new ArrayList<>();
@@ -106,43 +111,43 @@ public class StepAnalysis {
                         durationSinceLastActiveStep = 0;
 
                     } else { //short break data to remember, we will add it to the rest later, if break not too long
-                        stepsBetweenActivePeriods += sample.getSteps();
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateBetweenActivePeriodsSum.add(sample.getHeartRate());
+                        stepsBetweenActivePeriods += steps;
+                        if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                            heartRateBetweenActivePeriodsSum.add(heartRate);
                         }
                         durationSinceLastActiveStep += durationSinceLastSample;
-                        intensityBetweenActivePeriods += sample.getIntensity();
+                        intensityBetweenActivePeriods += intensity;
                     }
                     if (durationSinceLastActiveStep >= MAX_IDLE_PHASE_LENGTH) { //break too long, we split here
 
-                        int current = sample.getTimestamp();
+                        int current = timestamp;
                         int starting = (int) (sessionStart.getTime() / 1000);
                         int session_length = current - starting - durationSinceLastActiveStep;
 
                         if (session_length >= MIN_SESSION_LENGTH) { //valid activity session
                             int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
                             float distance = (float) (activeSteps * STEP_LENGTH_M);
-                            sessionEnd = new Date((sample.getTimestamp() - durationSinceLastActiveStep) * 1000L);
+                            sessionEnd = new Date((timestamp - durationSinceLastActiveStep) * 1000L);
                             activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
                             result.add(new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind));
                         }
                         sessionStart = null;
                     }
                 }
-                previousSample = sample;
+                previousIndex = i;
             }
         }
         //trailing activity: make sure we show the last portion of the data as well in case no further activity is recorded yet
 
-        if (sessionStart != null && previousSample != null) {
-            int current = previousSample.getTimestamp();
+        if (sessionStart != null && previousIndex != -1) {
+            int current = columns.timestamps[previousIndex];
             int starting = (int) (sessionStart.getTime() / 1000);
             int session_length = current - starting - durationSinceLastActiveStep;
 
             if (session_length >= MIN_SESSION_LENGTH) {
                 int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
                 float distance = (float) (activeSteps * STEP_LENGTH_M);
-                sessionEnd = getDateFromSample(previousSample);
+                sessionEnd = getDateFromTimestamp(current);
                 activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
                 result.add(new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind));
             }
@@ -218,7 +223,7 @@ public class StepAnalysis {
         return ActivityKind.TYPE_ACTIVITY;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+    private Date getDateFromTimestamp(int timestamp) {
+        return new Date(timestamp * 1000L);
     }
 }
@@ -0,0 +1,47 @@
+/*  Copyright (C) 2017-2021 Andreas Shimokawa, protomors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusActivitySampleDao;
+
+public class GadgetbridgeUpdate_34 implements DBUpdateScript {
+    @Override
+    public void upgradeSchema(SQLiteDatabase db) {
+        Property[] reconstructedProperties = new Property[] {
+                WatchXPlusActivitySampleDao.Properties.ReconstructedKind,
+                WatchXPlusActivitySampleDao.Properties.ReconstructedIntensity,
+                WatchXPlusActivitySampleDao.Properties.ReconstructedSteps,
+                WatchXPlusActivitySampleDao.Properties.ReconstructedHeartRate,
+        };
+        for (Property property : reconstructedProperties) {
+            if (!DBHelper.existsColumn(WatchXPlusActivitySampleDao.TABLENAME, property.columnName, db)) {
+                String ADD_COLUMN = "ALTER TABLE " + WatchXPlusActivitySampleDao.TABLENAME + " ADD COLUMN "
+                        + property.columnName + " INTEGER";
+                db.execSQL(ADD_COLUMN);
+            }
+        }
+    }
+
+    @Override
+    public void downgradeSchema(SQLiteDatabase db) {
+    }
+}
@@ -18,6 +18,8 @@
 package nodomain.freeyourgadget.gadgetbridge.devices;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -33,6 +35,8 @@ import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKindOverlay;
+import nodomain.freeyourgadget.gadgetbridge.util.SyncMetrics;
 
 /**
  * Base class for all sample providers. A Sample provider is device specific and provides
@@ -41,8 +45,10 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
  */
 public abstract class AbstractSampleProvider<T extends AbstractActivitySample> implements SampleProvider<T> {
     private static final WhereCondition[] NO_CONDITIONS = new WhereCondition[0];
+    private static final String METRIC_SAMPLE_WRITES = "db.sampleWrites";
     private final DaoSession mSession;
     private final GBDevice mDevice;
+    private final SampleNormalizationTable mNormalizationTable = new SampleNormalizationTable(this);
 
     protected AbstractSampleProvider(GBDevice device, DaoSession session) {
         mDevice = device;
@@ -57,6 +63,16 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         return mSession;
     }
 
+    /**
+     * Returns a lookup table for normalized kinds and intensities of this provider's samples,
+     * for code that goes over many samples at once, like the chart analysis. Note that
+     * {@link AbstractActivitySample#getKind()} and {@link AbstractActivitySample#getIntensity()}
+     * still ask the provider directly.
+     */
+    public SampleNormalizationTable getNormalizationTable() {
+        return mNormalizationTable;
+    }
+
     @Override
     public List<T> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         return getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
@@ -82,12 +98,22 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
 
     @Override
     public void addGBActivitySample(T activitySample) {
+        long start = System.nanoTime();
         getSampleDao().insertOrReplace(activitySample);
+        SyncMetrics.time(METRIC_SAMPLE_WRITES, start, 1);
     }
 
     @Override
     public void addGBActivitySamples(T[] activitySamples) {
+        long start = System.nanoTime();
         getSampleDao().insertOrReplaceInTx(activitySamples);
+        SyncMetrics.time(METRIC_SAMPLE_WRITES, start, activitySamples.length);
+    }
+
+    public void addGBActivitySamples(Collection<T> activitySamples) {
+        long start = System.nanoTime();
+        getSampleDao().insertOrReplaceInTx(activitySamples);
+        SyncMetrics.time(METRIC_SAMPLE_WRITES, start, activitySamples.size());
     }
 
     @Nullable
@@ -125,6 +151,7 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         Property deviceProperty = getDeviceIdentifierSampleProperty();
         qb.where(deviceProperty.eq(dbDevice.getId()), timestampProperty.ge(timestamp_from))
             .where(timestampProperty.le(timestamp_to), getClauseForActivityType(qb, activityType));
+        qb.orderAsc(timestampProperty);
         List<T> samples = qb.build().list();
         for (T sample : samples) {
             sample.setProvider(this);
@@ -133,6 +160,73 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         return samples;
     }
 
+    /**
+     * Applies the given overlays to the samples in a single sweep over both lists.
+     *
+     * The result is the same as iterating over all overlays and, for each of them, over all
+     * samples within its range: for every sample, the applier is called once for each overlay
+     * covering it (timestampFrom &lt;= timestamp &lt; timestampTo), in the order of the overlay
+     * list, so later overlays take precedence.
+     *
+     * @param samples  the samples, sorted by timestamp
+     * @param overlays the overlays, in any order
+     */
+    protected static <S extends AbstractActivitySample, O extends ActivityKindOverlay> void applyOverlays(List<S> samples, List<O> overlays, OverlayApplier<S, O> applier) {
+        int overlayCount = overlays.size();
+        if (samples.isEmpty() || overlayCount == 0) {
+            return;
+        }
+
+        // sort the overlay indices by start time without boxing: start in the upper, index in the lower 32 bits
+        long[] byStart = new long[overlayCount];
+        for (int i = 0; i < overlayCount; i++) {
+            byStart[i] = ((long) overlays.get(i).getTimestampFrom() << 32) | i;
+        }
+        Arrays.sort(byStart);
+
+        // indices of the overlays covering the current sample, ascending
+        int[] active = new int[overlayCount];
+        int activeCount = 0;
+        int nextStart = 0;
+
+        for (S sample : samples) {
+            int timestamp = sample.getTimestamp();
+
+            while (nextStart < overlayCount && (int) (byStart[nextStart] >> 32) <= timestamp) {
+                int index = (int) byStart[nextStart++];
+                int pos = activeCount++;
+                while (pos > 0 && active[pos - 1] > index) {
+                    active[pos] = active[pos - 1];
+                    pos--;
+                }
+                active[pos] = index;
+            }
+
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                if (overlays.get(active[i]).getTimestampTo() > timestamp) {
+                    active[kept++] = active[i];
+                }
+            }
+            activeCount = kept;
+
+            for (int i = 0; i < activeCount; i++) {
+                applier.apply(sample, overlays.get(active[i]), active[i]);
+            }
+        }
+    }
+
+    /**
+     * Callback of {@link #applyOverlays(List, List, OverlayApplier)}.
+     */
+    protected interface OverlayApplier<S, O> {
+        /**
+         * Applies the overlay to a sample within its range.
+         * @param overlayIndex the index of the overlay in the overlay list, for keeping state per overlay
+         */
+        void apply(S sample, O overlay, int overlayIndex);
+    }
+
     /**
      * Detaches all samples of this type from the session. Changes to them may not be
      * written back to the database.
@@ -22,6 +22,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +69,7 @@ public class DeviceManager {
      * This allows direct access to the list from ListAdapters.
      */
     private final List<GBDevice> deviceList = new ArrayList<>();
+    private boolean devicesLoaded;
     private GBDevice selectedDevice = null;
 
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
@@ -120,8 +123,30 @@ public class DeviceManager {
         filterGlobal.addAction(BLUETOOTH_DEVICE_ACTION_ALIAS_CHANGED);
         filterGlobal.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         context.registerReceiver(mReceiver, filterGlobal);
+    }
+
+    /**
+     * Loads the known devices from the database, which may be slow, so this is called
+     * in the background during startup. The device list itself is only changed on the
+     * main thread.
+     */
+    public void loadDevices() {
+        final Set<GBDevice> availableDevices = DeviceHelper.getInstance().getAvailableDevices(context);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                devicesLoaded = true;
+                updatePairedDevices(availableDevices);
+            }
+        });
+    }
 
-        refreshPairedDevices();
+    /**
+     * Returns true once the known devices have been loaded at startup, before that
+     * {@link #getDevices()} is still empty. Must be called on the main thread.
+     */
+    public boolean isLoaded() {
+        return devicesLoaded;
     }
 
     private void updateDeviceName(BluetoothDevice device, String newName) {
@@ -156,7 +181,10 @@ public class DeviceManager {
     }
 
     private void refreshPairedDevices() {
-        Set<GBDevice> availableDevices = DeviceHelper.getInstance().getAvailableDevices(context);
+        updatePairedDevices(DeviceHelper.getInstance().getAvailableDevices(context));
+    }
+
+    private void updatePairedDevices(Set<GBDevice> availableDevices) {
         deviceList.retainAll(availableDevices);
         for (GBDevice availableDevice : availableDevices) {
             if (!deviceList.contains(availableDevice)) {
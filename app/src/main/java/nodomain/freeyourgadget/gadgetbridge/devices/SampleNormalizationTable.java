@@ -0,0 +1,97 @@
+/*  Copyright (C) 2016-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.Arrays;
+
+/**
+ * Caches the results of {@link SampleProvider#normalizeType(int)} and
+ * {@link SampleProvider#normalizeIntensity(int)} in dense arrays indexed by the raw value,
+ * so that iterating over many samples does not go through the provider for every sample.
+ *
+ * The tables are filled lazily. Raw values outside of the table range are passed through
+ * to the provider. This relies on the provider's normalization being a pure function of the
+ * raw value, which is the case for all providers.
+ */
+public class SampleNormalizationTable {
+    static final int MAX_RAW_KIND = 1024;
+    static final int MAX_RAW_INTENSITY = 4096;
+
+    private static final int UNKNOWN_KIND = Integer.MIN_VALUE;
+
+    private final SampleProvider<?> provider;
+    private int[] kinds = new int[0];
+    private float[] intensities = new float[0];
+
+    public SampleNormalizationTable(SampleProvider<?> provider) {
+        this.provider = provider;
+    }
+
+    public int normalizeType(int rawType) {
+        if (rawType < 0 || rawType >= MAX_RAW_KIND) {
+            return provider.normalizeType(rawType);
+        }
+        int[] table = kinds;
+        if (rawType >= table.length) {
+            table = kinds = grow(table, rawType, MAX_RAW_KIND);
+        }
+        int kind = table[rawType];
+        if (kind == UNKNOWN_KIND) {
+            kind = provider.normalizeType(rawType);
+            table[rawType] = kind;
+        }
+        return kind;
+    }
+
+    public float normalizeIntensity(int rawIntensity) {
+        if (rawIntensity < 0 || rawIntensity >= MAX_RAW_INTENSITY) {
+            return provider.normalizeIntensity(rawIntensity);
+        }
+        float[] table = intensities;
+        if (rawIntensity >= table.length) {
+            table = intensities = grow(table, rawIntensity, MAX_RAW_INTENSITY);
+        }
+        float intensity = table[rawIntensity];
+        // NaN marks a value that has not been computed yet
+        if (Float.isNaN(intensity)) {
+            intensity = provider.normalizeIntensity(rawIntensity);
+            table[rawIntensity] = intensity;
+        }
+        return intensity;
+    }
+
+    private static int[] grow(int[] table, int index, int max) {
+        int[] result = Arrays.copyOf(table, newLength(table.length, index, max));
+        Arrays.fill(result, table.length, result.length, UNKNOWN_KIND);
+        return result;
+    }
+
+    private static float[] grow(float[] table, int index, int max) {
+        float[] result = Arrays.copyOf(table, newLength(table.length, index, max));
+        Arrays.fill(result, table.length, result.length, Float.NaN);
+        return result;
+    }
+
+    private static int newLength(int length, int index, int max) {
+        int newLength = Math.max(length, 64);
+        while (newLength <= index) {
+            newLength *= 2;
+        }
+        return Math.min(newLength, max);
+    }
+}
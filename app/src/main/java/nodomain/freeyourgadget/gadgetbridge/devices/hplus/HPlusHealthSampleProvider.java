@@ -162,33 +162,31 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         });
 
         //Apply Overlays
-        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            long nonSleepTimeEnd = 0;
-            for (HPlusHealthActivitySample sample : samples) {
+        final long[] nonSleepTimeEnd = new long[overlayRecords.size()];
+        applyOverlays(samples, overlayRecords, new OverlayApplier<HPlusHealthActivitySample, HPlusHealthActivityOverlay>() {
+            @Override
+            public void apply(HPlusHealthActivitySample sample, HPlusHealthActivityOverlay overlay, int overlayIndex) {
                 if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                    continue;
-
-                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
-                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60; // 10 minutes
-                            continue;
-                        }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd){
-                            continue;
-                        }
+                    return;
+
+                if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                    if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
+                        nonSleepTimeEnd[overlayIndex] = sample.getTimestamp() + 10 * 60; // 10 minutes
+                        return;
+                    }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd[overlayIndex]){
+                        return;
+                    }
 
-                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                            sample.setHeartRate(0);
+                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                        sample.setHeartRate(0);
 
-                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
-                            sample.setRawKind(overlay.getRawKind());
+                    if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
+                        sample.setRawKind(overlay.getRawKind());
 
-                        sample.setRawIntensity(10);
-                    }
+                    sample.setRawIntensity(10);
                 }
             }
-        }
+        });
 
 
 
@@ -51,7 +51,7 @@ public class TeclastH30Coordinator extends AbstractDeviceCoordinator {
     protected static final Logger LOG = LoggerFactory.getLogger(TeclastH30Coordinator.class);
 
     // e.g. H3-B20F
-    private Pattern deviceNamePattern = Pattern.compile("^H[13]-[ABCDEF0123456789]{4}$");
+    private static final Pattern deviceNamePattern = Pattern.compile("^H[13]-[ABCDEF0123456789]{4}$");
 
     @NonNull
     @Override
@@ -16,6 +16,9 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.lenovo.watchxplus;
 
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -23,8 +26,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
 
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
@@ -35,13 +42,13 @@ import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusActivitySampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 
 public class WatchXPlusSampleProvider extends AbstractSampleProvider<WatchXPlusActivitySample> {
     private GBDevice mDevice;
     private DaoSession mSession;
 
     private final float movementDivisor = 950.0f;
+    private static final int WINDOW_START_HOUR = 12;
 
     private static final Logger LOG = LoggerFactory.getLogger(WatchXPlusSampleProvider.class);
 
@@ -104,437 +111,148 @@ public class WatchXPlusSampleProvider extends AbstractSampleProvider<WatchXPlusA
         return WatchXPlusActivitySampleDao.Properties.DeviceId;
     }
 
-    // generate ActivityKind.TYPE_NOT_MEASURED if there are no data for more than 15 min. and less than 60 min.
-    // generate ActivityKind.TYPE_NOT_WORN if there are no data for more than 60 min.
-    @NonNull
-    private List<WatchXPlusActivitySample> checkActivityData(List<WatchXPlusActivitySample> samples, int notMeasuredTS, int notWornTS) {
-        int oldTS = 0;
-        int newTS = 0;
-        oldTS = samples.get(0).getTimestamp();
-        for (int i = 0; i < samples.size(); i++) {
-            //oldTS = resultList.get(i).getTimestamp();
-            newTS = samples.get(i).getTimestamp();
-            if ((newTS - oldTS) < notMeasuredTS) { //check data timestamp diff is more than 15 min
-                oldTS = samples.get(i).getTimestamp();
-            } else if (((newTS - oldTS) > notMeasuredTS) && ((newTS - oldTS) < notWornTS)) { //set data to ActivityKind.TYPE_NOT_MEASURED) if timestamp diff is more than 15 min
-                samples.get(i-1).setRawKind(ActivityKind.TYPE_NOT_MEASURED);
-                samples.get(i).setRawKind(ActivityKind.TYPE_NOT_MEASURED);
-                oldTS = samples.get(i).getTimestamp();
-            } else if ((newTS - oldTS) > notWornTS) { //set data to ActivityKind.TYPE_NOT_WORN if timestamp diff is more than 60 min
-                samples.get(i-1).setRawKind(ActivityKind.TYPE_NOT_WORN);
-                samples.get(i).setRawKind(ActivityKind.TYPE_NOT_WORN);
-                oldTS = samples.get(i).getTimestamp();
-            }
+    /**
+     * Returns the start of the reconstruction window that contains the given timestamp.
+     * The windows go from noon to noon in local time, so that a night is never split.
+     */
+    static int getWindowStart(int timestamp) {
+        Calendar calendar = GregorianCalendar.getInstance();
+        calendar.setTimeInMillis(timestamp * 1000L);
+        if (calendar.get(Calendar.HOUR_OF_DAY) < WINDOW_START_HOUR) {
+            calendar.add(Calendar.DAY_OF_MONTH, -1);
         }
-        return samples;
+        calendar.set(Calendar.HOUR_OF_DAY, WINDOW_START_HOUR);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return (int) (calendar.getTimeInMillis() / 1000);
     }
 
+    /**
+     * Returns the start of the window following the one that starts at the given timestamp.
+     */
+    static int getNextWindowStart(int windowStart) {
+        Calendar calendar = GregorianCalendar.getInstance();
+        calendar.setTimeInMillis(windowStart * 1000L);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return (int) (calendar.getTimeInMillis() / 1000);
+    }
 
-
-
-    @Override
-    public List<WatchXPlusActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
-        boolean showRawData = GBApplication.getDeviceSpecificSharedPrefs(mDevice.getAddress()).getBoolean(WatchXPlusConstants.PREF_SHOW_RAW_GRAPH, false);
-        if (showRawData) {
-            return getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
+    /**
+     * Runs the sleep reconstruction for every window that overlaps the given range and stores
+     * its result along with the raw samples, so that queries only have to read it. Should be
+     * called after new data has been synced, with the range of the new samples.
+     */
+    public void reconstructAndStore(int timestamp_from, int timestamp_to) {
+        for (int windowStart = getWindowStart(timestamp_from); windowStart <= timestamp_to; windowStart = getNextWindowStart(windowStart)) {
+            reconstructAndStoreWindow(windowStart, getNextWindowStart(windowStart) - 1);
         }
+    }
+
+    private void reconstructAndStoreWindow(int timestamp_from, int timestamp_to) {
         List<WatchXPlusActivitySample> samples = getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
-        int numEntries = samples.size();
-        if (numEntries < 3) {
-            return samples;
+        if (samples.isEmpty()) {
+            return;
         }
 
-        List<WatchXPlusActivitySample> resultList = new ArrayList<>(numEntries);
-
-        // how many elements to scan for sleep sate before and after sleep block
-        int seekAhead = 10;
-        boolean secondBlock = false;
-
-// find sleep start and sleep stop index based on ActivityKind.TYPE_DEEP_SLEEP BLOCK 1
-        int sleepStartIndex_1 = 0;
-        int sleepStopIndex_1 = numEntries;
-        int countNextSleepStart_1 = 0;
-        int countNextSleepStop_1 = 0;
-
+        // the raw kind is part of the primary key, but gets rewritten by the reconstruction
+        int numEntries = samples.size();
+        int[] rawKinds = new int[numEntries];
         for (int i = 0; i < numEntries; i++) {
-            if (samples.get(i).getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                // normalize RawIntensity
-                samples.get(i).setRawIntensity(1000);
-                // find sleep start index
-                if (sleepStartIndex_1 == 0) {
-                    sleepStartIndex_1 = i;
-                    sleepStopIndex_1 = sleepStartIndex_1;
-                    countNextSleepStop_1 = sleepStopIndex_1;
-                } else {
-                    if (countNextSleepStart_1 == 0) {
-                        countNextSleepStart_1 = i;
-                        // reset start index if next index is far ahead
-                        if ((countNextSleepStart_1 - sleepStartIndex_1) > seekAhead * 3) {
-                            sleepStartIndex_1 = countNextSleepStart_1;
-                            sleepStopIndex_1 = sleepStartIndex_1;
-                            countNextSleepStop_1 = sleepStopIndex_1;
-                        }
-                    }
-                }
-
-
-                        if ((i - sleepStopIndex_1) < (seekAhead * 4)) {
-                            sleepStopIndex_1 = i;
-                        }
-                        countNextSleepStop_1 = i;
-            }
-        }
-
-// find sleep start and sleep stop index based on ActivityKind.TYPE_DEEP_SLEEP BLOCK 2
-        int sleepStartIndex_2 = 0;
-        int sleepStopIndex_2 = numEntries;
-        int countNextSleepStart_2 = 0;
-        int countNextSleepStop_2 = 0;
-        int next_block = numEntries;
-
-        for (int i = sleepStopIndex_1 + 1; i < numEntries; i++) {
-            if (samples.get(i).getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                // find sleep start index
-                if (sleepStartIndex_2 == 0) {
-                    sleepStartIndex_2 = i;
-                    sleepStopIndex_2 = sleepStartIndex_2;
-                    countNextSleepStop_2 = sleepStopIndex_2;
-                } else {
-                    if (countNextSleepStart_2 == 0) {
-                        countNextSleepStart_2 = i;
-                        // reset start index if next index is far ahead
-                        if ((countNextSleepStart_2 - sleepStartIndex_2) > seekAhead * 3) {
-                            sleepStartIndex_2 = countNextSleepStart_2;
-                            sleepStopIndex_2 = sleepStartIndex_2;
-                            countNextSleepStop_2 = sleepStopIndex_2;
-                        }
-                    }
-                }
-                if ((i - sleepStopIndex_2) < (seekAhead * 4)) {
-                    sleepStopIndex_2 = i;
-                }
-                countNextSleepStop_2 = i;
-            }
-        }
-        if (sleepStartIndex_2 != 0) {
-            secondBlock = true;
-            LOG.info(" Found second block ");
+            rawKinds[i] = samples.get(i).getRawKind();
         }
 
-        LOG.info(" sleep_1 begin index:" + sleepStartIndex_1 + " next index: " + countNextSleepStart_1 + " sleep end index: " + sleepStopIndex_1 + " sleep end: " + countNextSleepStop_1);
-        if (secondBlock) {
-            LOG.info(" sleep_2 begin index:" + sleepStartIndex_2 + " next index: " + countNextSleepStart_2 + " sleep end index: " + sleepStopIndex_2 + " sleep end: " + countNextSleepStop_2);
-        }
-
-// SLEEP BLOCK 1
-        // add all activity before sleep start
-        if (secondBlock) {
-            next_block = sleepStartIndex_2;
-        }
-        int newSleepStartIndex_1 = 0;
-        if (sleepStartIndex_1 >= seekAhead) {
-          newSleepStartIndex_1 = sleepStartIndex_1 - seekAhead;
-        } else {
-            newSleepStartIndex_1 = 0;
-        }
-        for (int i = 0; i < newSleepStartIndex_1; i++) {
-            if (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                if (samples.get(i).getRawIntensity() <= 300) {
-                    samples.get(i).setRawIntensity(200);
-                } else if ((samples.get(i).getRawIntensity() <= 1000) && (samples.get(i).getRawIntensity() > 100)) {
-                    samples.get(i).setRawIntensity(400);
-                } if (samples.get(i).getRawIntensity() > 1000) {
-                    samples.get(i).setRawIntensity(600);
-                }
-                samples.get(i).setRawKind(1);
-                resultList.add(samples.get(i));
-            } else {
-                if (samples.get(i).getRawKind() == ActivityKind.TYPE_ACTIVITY) {
-                    if (i < (newSleepStartIndex_1 - 3)) {
-                        if ((samples.get(i + 1).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) || (samples.get(i + 2).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) || (samples.get(i + 3).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP)) {
-                            samples.get(i).setRawKind(1);
-                            //samples.get(i).setRawIntensity(700);
-                        } else {
-                            samples.get(i).setRawIntensity(1000);
-                        }
-                    }
-                    //samples.get(i).setRawIntensity(1000);
-                } else {
-                    samples.get(i).setRawIntensity(1000);
-                }
-                resultList.add(samples.get(i));
+        Set<WatchXPlusActivitySample> visible = Collections.newSetFromMap(new IdentityHashMap<WatchXPlusActivitySample, Boolean>());
+        visible.addAll(WatchXPlusSleepReconstruction.reconstruct(samples));
+
+        SQLiteDatabase db = getSession().getDatabase();
+        SQLiteStatement statement = db.compileStatement("UPDATE " + WatchXPlusActivitySampleDao.TABLENAME + " SET "
+                + WatchXPlusActivitySampleDao.Properties.ReconstructedKind.columnName + " = ?, "
+                + WatchXPlusActivitySampleDao.Properties.ReconstructedIntensity.columnName + " = ?, "
+                + WatchXPlusActivitySampleDao.Properties.ReconstructedSteps.columnName + " = ?, "
+                + WatchXPlusActivitySampleDao.Properties.ReconstructedHeartRate.columnName + " = ? WHERE "
+                + WatchXPlusActivitySampleDao.Properties.Timestamp.columnName + " = ? AND "
+                + WatchXPlusActivitySampleDao.Properties.DeviceId.columnName + " = ? AND "
+                + WatchXPlusActivitySampleDao.Properties.RawKind.columnName + " = ?");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < numEntries; i++) {
+                WatchXPlusActivitySample sample = samples.get(i);
+                statement.bindLong(1, visible.contains(sample) ? sample.getRawKind() : WatchXPlusSleepReconstruction.KIND_HIDDEN);
+                statement.bindLong(2, sample.getRawIntensity());
+                statement.bindLong(3, sample.getSteps());
+                statement.bindLong(4, sample.getHeartRate());
+                statement.bindLong(5, sample.getTimestamp());
+                statement.bindLong(6, sample.getDeviceId());
+                statement.bindLong(7, rawKinds[i]);
+                statement.executeUpdateDelete();
             }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
         }
+    }
 
-// add sleep activity
-        int newSleepStopIndex_1;
-
-        if ((sleepStopIndex_1 + seekAhead * 2) < next_block) {
-            newSleepStopIndex_1 = sleepStopIndex_1 + seekAhead * 2;
-        } else {
-            newSleepStopIndex_1 = next_block;
-        }
-
-        boolean replaceActivity_1 = false;
-        for (int i = newSleepStartIndex_1; i < newSleepStopIndex_1; i++) {
-            ActivitySample sample = samples.get(i);
-            if (i < sleepStartIndex_1) {
-                if (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                    replaceActivity_1 = true;
-                    samples.get(i).setRawIntensity(600);
-                    resultList.add(samples.get(i));
-                } else {
-                    if (replaceActivity_1) {
-                        samples.get(i).setRawKind(2);
-                        samples.get(i).setRawIntensity(600);
-                        resultList.add(samples.get(i));
-                    } else {
-                        samples.get(i).setRawIntensity(600);
-                        resultList.add(samples.get(i));
-                    }
-                }
-            }
-            if ((samples.get(i).getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) || (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP)) {
-                if (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                    if (i > 0) {
-                        if (samples.get(i - 1).getHeartRate() > 0) {
-                            samples.get(i).setHeartRate(samples.get(i - 1).getHeartRate());
-                        }
-                    } else {
-                        if (samples.get(i + 1).getHeartRate() > 0) {
-                            samples.get(i).setHeartRate(samples.get(i + 1).getHeartRate());
-                        }
-                    }
-                    samples.get(i).setRawIntensity(600);
-                    resultList.add(samples.get(i));
-                } else {
-                    samples.get(i).setRawIntensity(1000);
-                    resultList.add(samples.get(i));
-                }
-            }
-
-            if ((samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) && (i > sleepStopIndex_1)) {
-                samples.get(i).setRawIntensity(600);
-                resultList.add(samples.get(i));
-            }
-      }
-
-
-// add remaining activity
-        if (newSleepStopIndex_1 < next_block) {
-            for (int i = newSleepStopIndex_1; i < (next_block-1); i++) {
-                if (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                    if (samples.get(i).getRawIntensity() <= 300) {
-                        samples.get(i).setRawIntensity(200);
-                    } else if ((samples.get(i).getRawIntensity() <= 1000) && (samples.get(i).getRawIntensity() > 100)) {
-                        samples.get(i).setRawIntensity(400);
-                    } if (samples.get(i).getRawIntensity() > 1000) {
-                        samples.get(i).setRawIntensity(600);
-                    }
-                    samples.get(i).setRawKind(1);
-                    resultList.add(samples.get(i));
-                } else {
-                    if (samples.get(i).getRawKind() == ActivityKind.TYPE_ACTIVITY) {
-                        if (i < (next_block - 3)) {
-                            if ((samples.get(i + 1).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) || (samples.get(i + 2).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) || (samples.get(i + 3).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP)) {
-                                samples.get(i).setRawKind(1);
-                                //samples.get(i).setRawIntensity(700);
-                            } else {
-                                samples.get(i).setRawIntensity(1000);
-                            }
-                        }
-                        //samples.get(i).setRawIntensity(1000);
-                    } else {
-                        samples.get(i).setRawIntensity(1000);
-                    }
-                    resultList.add(samples.get(i));
-                }
+    /**
+     * Applies the stored reconstruction to the given samples.
+     * @return the samples to display, or null if the reconstruction has not been stored for
+     * all of them, e.g. because some of them were synced later
+     */
+    @Nullable
+    private List<WatchXPlusActivitySample> getStoredReconstruction(List<WatchXPlusActivitySample> samples) {
+        for (WatchXPlusActivitySample sample : samples) {
+            if (sample.getReconstructedKind() == null) {
+                return null;
             }
         }
-// SLEEP BLOCK 2
-      if (secondBlock) {
-// add sleep activity
-          int newSleepStopIndex_2;
-          int newSleepStartIndex_2 = 0;
-          boolean replaceActivity_2 = false;
-          if (sleepStartIndex_2 >= next_block + seekAhead) {
-              newSleepStartIndex_2 = sleepStartIndex_2 - seekAhead;
-          } else {
-              newSleepStartIndex_2 = next_block;
-          }
-          if ((sleepStopIndex_2 + seekAhead * 2) < numEntries) {
-              newSleepStopIndex_2 = sleepStopIndex_2 + seekAhead * 2;
-          } else {
-              newSleepStopIndex_2 = numEntries;
-          }
-          for (int i = newSleepStartIndex_2; i < newSleepStopIndex_2; i++) {
-              ActivitySample sample = samples.get(i);
-              if (i < sleepStartIndex_2) {
-                  if (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                      replaceActivity_2 = true;
-                      samples.get(i).setRawIntensity(600);
-                      resultList.add(samples.get(i));
-                  } else {
-                      if (replaceActivity_2) {
-                          samples.get(i).setRawKind(2);
-                          samples.get(i).setRawIntensity(600);
-                          resultList.add(samples.get(i));
-                      } else {
-                          samples.get(i).setRawIntensity(600);
-                          resultList.add(samples.get(i));
-                      }
-                  }
-              }
-
-
-              if ((samples.get(i).getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) || (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP)) {
-                  if (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                      if (i > 0) {
-                          if (samples.get(i - 1).getHeartRate() > 0) {
-                              samples.get(i).setHeartRate(samples.get(i - 1).getHeartRate());
-                          }
-                      } else {
-                          if (samples.get(i + 1).getHeartRate() > 0) {
-                              samples.get(i).setHeartRate(samples.get(i + 1).getHeartRate());
-                          }
-                      }
-                      samples.get(i).setRawIntensity(600);
-                      resultList.add(samples.get(i));
-                  } else {
-                      samples.get(i).setRawIntensity(1000);
-                      resultList.add(samples.get(i));
-                  }
-              }
-              if ((samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) && (i > sleepStopIndex_2)) {
-                  samples.get(i).setRawIntensity(600);
-                  resultList.add(samples.get(i));
-              }
-          }
-
-          // add remaining activity
-          if (newSleepStopIndex_2 < numEntries) {
-              for (int i = newSleepStopIndex_2; i < (numEntries - 1); i++) {
-                  if (samples.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                      if (samples.get(i).getRawIntensity() <= 300) {
-                          samples.get(i).setRawIntensity(200);
-                      } else if ((samples.get(i).getRawIntensity() <= 1000) && (samples.get(i).getRawIntensity() > 100)) {
-                          samples.get(i).setRawIntensity(400);
-                      }
-                      if (samples.get(i).getRawIntensity() > 1000) {
-                          samples.get(i).setRawIntensity(600);
-                      }
-                      samples.get(i).setRawKind(1);
-                      resultList.add(samples.get(i));
-                  } else {
-                      if (samples.get(i).getRawKind() == ActivityKind.TYPE_ACTIVITY) {
-                          if (i < (numEntries - 3)) {
-                              if ((samples.get(i + 1).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) || (samples.get(i + 2).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP) || (samples.get(i + 3).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP)) {
-                                  samples.get(i).setRawKind(1);
-                                  //samples.get(i).setRawIntensity(700);
-                              } else {
-                                  samples.get(i).setRawIntensity(1000);
-                              }
-                          }
-                          //samples.get(i).setRawIntensity(1000);
-                      } else {
-                          samples.get(i).setRawIntensity(1000);
-                      }
-                      resultList.add(samples.get(i));
-                  }
-              }
-          }
-      }
-    // add one ActivityKind.TYPE_NOT_MEASURED at end of data
-        samples.get(numEntries-1).setRawIntensity(0);
-        samples.get(numEntries-1).setRawKind(ActivityKind.TYPE_NOT_MEASURED);
-        samples.get(numEntries-1).setHeartRate(0);
-        resultList.add(samples.get(numEntries-1));
-
-    // find all steps, total activity intensity  and maxHR
-        int totalSteps = 0;
-        int maxHeartRate = 10;
-        numEntries = resultList.size();
-        for (int i = 0; i < numEntries-1; i++) {
-            if (resultList.get(i).getRawKind() == ActivityKind.TYPE_ACTIVITY) {
-                if (resultList.get(i).getSteps() > 0) {
-                    totalSteps = totalSteps + resultList.get(i).getSteps();
-                }
-            }
-            if (resultList.get(i).getHeartRate() > maxHeartRate) {
-                maxHeartRate = resultList.get(i).getHeartRate();
+        List<WatchXPlusActivitySample> result = new ArrayList<>(samples.size());
+        for (WatchXPlusActivitySample sample : samples) {
+            int kind = sample.getReconstructedKind();
+            if (kind == WatchXPlusSleepReconstruction.KIND_HIDDEN) {
+                continue;
             }
+            sample.setRawKind(kind);
+            sample.setRawIntensity(sample.getReconstructedIntensity());
+            sample.setSteps(sample.getReconstructedSteps());
+            sample.setHeartRate(sample.getReconstructedHeartRate());
+            result.add(sample);
         }
+        return result;
+    }
 
-    // reformat activity data based on heart rate
-        int newIntensity, correctedSteps;
-        int totalIntensity = 0;
-        for (int i = 0; i < numEntries-1; i++) {
-            if ((resultList.get(i).getRawKind() == ActivityKind.TYPE_ACTIVITY) || (resultList.get(i).getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP)) {
-                if (resultList.get(i).getRawIntensity() <= 600) { // set interpolated intensity based on heart rate for every TYPE_ACTIVITY which are converted from TYPE_LIGHT_SLEEP
-                    if (resultList.get(i).getHeartRate() < 10) {
-                        newIntensity = resultList.get(i).getRawIntensity() + ((maxHeartRate - resultList.get(i+1).getHeartRate()) * 2);
-                    } else {
-                        newIntensity = resultList.get(i).getRawIntensity() + ((maxHeartRate - resultList.get(i).getHeartRate()) * 2);
-                    }
-                } else { // because there are not RAW intensity values for every TYPE_ACTIVITY set interpolated intensity based on heart rate
-                    newIntensity = resultList.get(i).getRawIntensity() - ((maxHeartRate - resultList.get(i).getHeartRate()) * 2);
-                }
-                /*
-                if (stepsPerActivity > 0.0f) { // because there are not steps values for every TYPE_ACTIVITY set interpolated steps
-                    correctedSteps = (int) (resultList.get(i).getRawIntensity() / stepsPerActivity);
-                    resultList.get(i).setSteps(correctedSteps);
-                }
-                 */
-                resultList.get(i).setRawIntensity(newIntensity);
-                if (resultList.get(i).getRawIntensity() > 0) {
-                    totalIntensity = totalIntensity + newIntensity;
-                }
-            } else { // because there are not TYPE_DEEP_SLEEP intensity set random DEEP_SLEEP intensity
-                Random r = new Random();
-                newIntensity = resultList.get(i).getRawIntensity() - ((maxHeartRate - (int)(r.nextFloat() * maxHeartRate)) * 2);
-                resultList.get(i).setRawIntensity(newIntensity);
-                if (resultList.get(i).getRawIntensity() > 0) {
-                    totalIntensity = totalIntensity + newIntensity;
-                }
-            }
+    @Override
+    public List<WatchXPlusActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
+        boolean showRawData = GBApplication.getDeviceSpecificSharedPrefs(mDevice.getAddress()).getBoolean(WatchXPlusConstants.PREF_SHOW_RAW_GRAPH, false);
+        if (showRawData) {
+            return getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
         }
-
-        // because there are not steps values for every TYPE_ACTIVITY set interpolated steps
-        float stepsPerActivity = 0.000f;
-        int newTotalSteps = 0;
-        int activityCount = 0;
-        if (totalSteps > 0) {
-            stepsPerActivity = totalIntensity / totalSteps;
-            for (int i = 0; i < numEntries - 1; i++) {
-                if (resultList.get(i).getRawKind() == ActivityKind.TYPE_ACTIVITY) {
-                    if (stepsPerActivity > 0.0f) {
-                        correctedSteps = (int) (resultList.get(i).getRawIntensity() / stepsPerActivity);
-                        resultList.get(i).setSteps(correctedSteps);
-                        newTotalSteps = newTotalSteps + correctedSteps;
-                        activityCount = activityCount + 1;
-                    }
-                }
+        // the reconstruction is done per window, so whole windows have to be read
+        int windowStart = getWindowStart(timestamp_from);
+        int windowsEnd = getNextWindowStart(getWindowStart(timestamp_to));
+        List<WatchXPlusActivitySample> samples = getGBActivitySamples(windowStart, windowsEnd - 1, ActivityKind.TYPE_ALL);
+
+        List<WatchXPlusActivitySample> result = new ArrayList<>(samples.size());
+        int index = 0;
+        while (index < samples.size()) {
+            int windowEnd = getNextWindowStart(getWindowStart(samples.get(index).getTimestamp()));
+            int next = index;
+            while (next < samples.size() && samples.get(next).getTimestamp() < windowEnd) {
+                next++;
             }
-        }
-        if (newTotalSteps < totalSteps) {
-            int stepsDiff = newTotalSteps - totalSteps;
-            int increaseStepsWith = stepsDiff / activityCount;
-            if (increaseStepsWith <= 1) {
-                increaseStepsWith = 2;
+            List<WatchXPlusActivitySample> windowSamples = samples.subList(index, next);
+            List<WatchXPlusActivitySample> reconstructed = getStoredReconstruction(windowSamples);
+            if (reconstructed == null) {
+                // not synced since reconstructions are stored, compute it on the fly
+                reconstructed = WatchXPlusSleepReconstruction.reconstruct(new ArrayList<>(windowSamples));
             }
-            newTotalSteps = 0;
-            for (int i = 0; i < numEntries - 1; i++) {
-                if (resultList.get(i).getRawKind() == ActivityKind.TYPE_ACTIVITY) {
-                    correctedSteps = resultList.get(i).getSteps() + increaseStepsWith;
-                    newTotalSteps = newTotalSteps + correctedSteps;
-                    if (newTotalSteps <= totalSteps) {
-                        resultList.get(i).setSteps(correctedSteps);
-                    } else {
-                        break;
-                    }
+            for (WatchXPlusActivitySample sample : reconstructed) {
+                if (sample.getTimestamp() >= timestamp_from && sample.getTimestamp() <= timestamp_to) {
+                    result.add(sample);
                 }
             }
+            index = next;
         }
-        return checkActivityData(resultList, 900, 3600);
+        return result;
     }
 }
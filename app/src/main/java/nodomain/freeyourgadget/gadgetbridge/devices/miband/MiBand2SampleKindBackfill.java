@@ -0,0 +1,117 @@
+/*  Copyright (C) 2015-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices.miband;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * One-time migration that fills in the normalized activity kind of Huami samples which were
+ * stored before kinds were normalized on write. Runs in the background and processes the
+ * samples in chunks, so that the database lock is only held for short periods.
+ *
+ * Until the migration is complete, MiBand2SampleProvider falls back to normalizing at
+ * query time.
+ */
+public class MiBand2SampleKindBackfill implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(MiBand2SampleKindBackfill.class);
+
+    /**
+     * Increment if the normalization in MiBand2SampleProvider changes and stored kinds
+     * need to be recomputed.
+     */
+    private static final int CURRENT_VERSION = 1;
+    private static final String PREF_VERSION = "huami_kind_normalization_version";
+    private static final int CHUNK_SIZE = 5000;
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+    private static volatile Boolean complete;
+
+    public static boolean isComplete() {
+        Boolean result = complete;
+        if (result == null) {
+            result = GBApplication.getPrefs().getInt(PREF_VERSION, 0) >= CURRENT_VERSION;
+            complete = result;
+        }
+        return result;
+    }
+
+    /**
+     * Starts the migration in the background, unless it is complete or already running.
+     */
+    public static void scheduleIfNeeded() {
+        if (isComplete() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        new Thread(new MiBand2SampleKindBackfill(), "Huami kind normalization").start();
+    }
+
+    /**
+     * Forces the migration to run again, e.g. after a database has been imported.
+     */
+    public static void reset() {
+        GBApplication.getPrefs().getPreferences().edit().remove(PREF_VERSION).apply();
+        complete = false;
+        MiBand2SampleProvider.clearNewestTimestamps();
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<Device> devices;
+            try (DBHandler db = GBApplication.acquireDB()) {
+                devices = db.getDaoSession().getDeviceDao().loadAll();
+            }
+
+            long startTime = System.currentTimeMillis();
+            int total = 0;
+            for (Device dbDevice : devices) {
+                GBDevice gbDevice = DeviceHelper.getInstance().toGBDevice(dbDevice);
+                if (!(DeviceHelper.getInstance().getCoordinator(gbDevice) instanceof HuamiCoordinator)) {
+                    continue;
+                }
+                int count;
+                do {
+                    try (DBHandler db = GBApplication.acquireDB()) {
+                        MiBand2SampleProvider provider = new MiBand2SampleProvider(gbDevice, db.getDaoSession());
+                        count = provider.normalizeStoredSamples(dbDevice.getId(), CHUNK_SIZE);
+                    }
+                    total += count;
+                } while (count == CHUNK_SIZE);
+            }
+
+            GBApplication.getPrefs().getPreferences().edit().putInt(PREF_VERSION, CURRENT_VERSION).apply();
+            complete = true;
+            LOG.info("Normalized activity kinds of " + total + " samples in " + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (Exception e) {
+            LOG.error("Error normalizing activity kinds, will retry later", e);
+        } finally {
+            running.set(false);
+        }
+    }
+}
@@ -17,8 +17,14 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.miband;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
@@ -31,6 +37,12 @@ import static nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst.TYPE
 import static nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst.TYPE_UNSET;
 
 public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
+    private static final int FOLLOWING_SAMPLES_CHUNK_SIZE = 1000;
+    /**
+     * The timestamp of the newest stored sample of each device, so that the following kinds
+     * are only recomputed when older samples are added, and not for every realtime sample.
+     */
+    private static final Map<Long, Integer> newestTimestamps = new ConcurrentHashMap<>();
 
     public MiBand2SampleProvider(GBDevice device, DaoSession session) {
         super(device, session);
@@ -39,42 +51,244 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
     @Override
     protected List<MiBandActivitySample> getGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
         List<MiBandActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, activityType);
-        postprocess(samples);
+        if (!applyNormalizedKinds(samples)) {
+            // MiBand2SampleKindBackfill has not caught up yet, it is started after fetching
+            postprocess(samples);
+        }
         return samples;
     }
 
+    @Override
+    protected Property getRawKindSampleProperty() {
+        if (MiBand2SampleKindBackfill.isComplete()) {
+            return MiBandActivitySampleDao.Properties.NormalizedKind;
+        }
+        return super.getRawKindSampleProperty();
+    }
+
     /**
-     * "Temporary" runtime post processing of activity kinds.
-     * @param samples
+     * Normalizes the activity kinds before storing. The samples are expected to be sorted by
+     * timestamp.
      */
-    private void postprocess(List<MiBandActivitySample> samples) {
-        if (samples.isEmpty()) {
+    @Override
+    public void addGBActivitySamples(MiBandActivitySample[] activitySamples) {
+        if (activitySamples.length == 0) {
             return;
         }
+        int lastValidKind = normalizeKinds(Arrays.asList(activitySamples));
+        MiBandActivitySample last = activitySamples[activitySamples.length - 1];
+        boolean hasFollowingSamples = hasFollowingSamples(last);
+        super.addGBActivitySamples(activitySamples);
+        if (hasFollowingSamples) {
+            updateFollowingKinds(last, lastValidKind);
+        }
+    }
+
+    @Override
+    public void addGBActivitySample(MiBandActivitySample activitySample) {
+        int lastValidKind = normalizeKinds(Collections.singletonList(activitySample));
+        boolean hasFollowingSamples = hasFollowingSamples(activitySample);
+        super.addGBActivitySample(activitySample);
+        if (hasFollowingSamples) {
+            updateFollowingKinds(activitySample, lastValidKind);
+        }
+    }
 
-        int lastValidKind = determinePreviousValidActivityType(samples.get(0));
+    /**
+     * Returns true if samples newer than the given one, which is about to be added, are stored
+     * already. Only queries the database the first time for each device.
+     */
+    private boolean hasFollowingSamples(MiBandActivitySample last) {
+        Long deviceId = last.getDeviceId();
+        Integer newest = newestTimestamps.get(deviceId);
+        if (newest == null) {
+            QueryBuilder<MiBandActivitySample> qb = getSampleDao().queryBuilder();
+            qb.where(MiBandActivitySampleDao.Properties.DeviceId.eq(deviceId));
+            qb.orderDesc(MiBandActivitySampleDao.Properties.Timestamp);
+            qb.limit(1);
+            List<MiBandActivitySample> result = qb.build().list();
+            newest = result.isEmpty() ? Integer.MIN_VALUE : result.get(0).getTimestamp();
+        }
+        newestTimestamps.put(deviceId, Math.max(newest, last.getTimestamp()));
+        return last.getTimestamp() < newest;
+    }
+
+    /**
+     * Forgets the newest stored samples, e.g. after a database has been imported.
+     */
+    static void clearNewestTimestamps() {
+        newestTimestamps.clear();
+    }
+
+    /**
+     * Recomputes the normalized kinds of the stored samples after the given one that were
+     * forward filled, e.g. when a fetch overlapped with samples that were already stored and
+     * replaced the kind they were filled from.
+     * @param lastValidKind the last valid kind up to and including the given sample
+     */
+    private void updateFollowingKinds(MiBandActivitySample last, int lastValidKind) {
+        int timestamp = last.getTimestamp();
+        while (true) {
+            QueryBuilder<MiBandActivitySample> qb = getSampleDao().queryBuilder();
+            qb.where(MiBandActivitySampleDao.Properties.DeviceId.eq(last.getDeviceId()),
+                    MiBandActivitySampleDao.Properties.UserId.eq(last.getUserId()),
+                    MiBandActivitySampleDao.Properties.Timestamp.gt(timestamp));
+            qb.orderAsc(MiBandActivitySampleDao.Properties.Timestamp);
+            qb.limit(FOLLOWING_SAMPLES_CHUNK_SIZE);
+            List<MiBandActivitySample> samples = qb.build().list();
+
+            List<MiBandActivitySample> changed = new ArrayList<>();
+            boolean done = samples.size() < FOLLOWING_SAMPLES_CHUNK_SIZE;
+            for (MiBandActivitySample sample : samples) {
+                int kind = maskKind(sample.getRawKind());
+                if (isValidKind(kind)) {
+                    // from here on, the kinds do not depend on the new samples
+                    done = true;
+                    break;
+                }
+                if (lastValidKind != TYPE_UNSET) {
+                    kind = lastValidKind;
+                }
+                Integer normalizedKind = sample.getNormalizedKind();
+                if (normalizedKind == null || normalizedKind != kind) {
+                    sample.setNormalizedKind(kind);
+                    changed.add(sample);
+                }
+            }
+            if (!changed.isEmpty()) {
+                getSampleDao().updateInTx(changed);
+            }
+            if (done) {
+                break;
+            }
+            timestamp = samples.get(samples.size() - 1).getTimestamp();
+        }
+        detachFromSession();
+    }
+
+    /**
+     * Normalizes the activity kinds of up to maxSamples stored samples, starting with the oldest
+     * one that has not been normalized yet.
+     * @return the number of samples that were normalized, 0 if there is nothing left to do
+     */
+    int normalizeStoredSamples(long deviceId, int maxSamples) {
+        QueryBuilder<MiBandActivitySample> qb = getSampleDao().queryBuilder();
+        qb.where(MiBandActivitySampleDao.Properties.DeviceId.eq(deviceId),
+                MiBandActivitySampleDao.Properties.NormalizedKind.isNull());
+        qb.orderAsc(MiBandActivitySampleDao.Properties.Timestamp);
+        qb.limit(1);
+        List<MiBandActivitySample> firstPending = qb.build().list();
+        if (firstPending.isEmpty()) {
+            return 0;
+        }
+
+        qb = getSampleDao().queryBuilder();
+        qb.where(MiBandActivitySampleDao.Properties.DeviceId.eq(deviceId),
+                MiBandActivitySampleDao.Properties.Timestamp.ge(firstPending.get(0).getTimestamp()));
+        qb.orderAsc(MiBandActivitySampleDao.Properties.Timestamp);
+        qb.limit(maxSamples);
+        List<MiBandActivitySample> samples = qb.build().list();
+
+        normalizeKinds(samples);
+        getSampleDao().updateInTx(samples);
+        detachFromSession();
+        return samples.size();
+    }
+
+    /**
+     * Replaces the raw kinds with the normalized kinds that were stored along with the samples.
+     * @return false if at least one sample has not been normalized yet, in which case none of
+     * the samples is modified
+     */
+    private boolean applyNormalizedKinds(List<MiBandActivitySample> samples) {
         for (MiBandActivitySample sample : samples) {
-            int rawKind = sample.getRawKind();
-            if (rawKind != TYPE_UNSET) {
-                rawKind &= 0xf;
-                sample.setRawKind(rawKind);
+            if (sample.getNormalizedKind() == null) {
+                return false;
             }
+        }
+        for (MiBandActivitySample sample : samples) {
+            sample.setRawKind(sample.getNormalizedKind());
+        }
+        return true;
+    }
 
-            switch (rawKind) {
-                case TYPE_IGNORE:
-                case TYPE_NO_CHANGE:
-                    if (lastValidKind != TYPE_UNSET) {
-                        sample.setRawKind(lastValidKind);
-                    }
-                    break;
-                default:
-                    lastValidKind = rawKind;
-                    break;
+    /**
+     * Fallback for samples that have been stored before kinds were normalized on write.
+     */
+    private void postprocess(List<MiBandActivitySample> samples) {
+        normalizeKinds(samples);
+        for (MiBandActivitySample sample : samples) {
+            sample.setRawKind(sample.getNormalizedKind());
+        }
+    }
+
+    /**
+     * @return the last valid kind after the last sample, or TYPE_UNSET
+     */
+    private int normalizeKinds(List<MiBandActivitySample> samples) {
+        if (samples.isEmpty()) {
+            return TYPE_UNSET;
+        }
+
+        MiBandActivitySample first = samples.get(0);
+        int lastValidKind = TYPE_UNSET;
+        if (!isValidKind(maskKind(first.getRawKind()))) {
+            lastValidKind = determinePreviousValidActivityType(first);
+        }
+        return normalizeKinds(samples, lastValidKind);
+    }
+
+    /**
+     * Masks the raw kinds and replaces TYPE_NO_CHANGE and TYPE_IGNORE with the last valid kind.
+     * The result is set as the normalized kind, the raw kind is left untouched.
+     * @param lastValidKind the last valid kind before the first sample, or TYPE_UNSET
+     * @return the last valid kind after the last sample
+     */
+    static int normalizeKinds(List<MiBandActivitySample> samples, int lastValidKind) {
+        for (MiBandActivitySample sample : samples) {
+            int kind = maskKind(sample.getRawKind());
+            if (isValidKind(kind)) {
+                lastValidKind = kind;
+            } else if (lastValidKind != TYPE_UNSET) {
+                kind = lastValidKind;
             }
+            sample.setNormalizedKind(kind);
         }
+        return lastValidKind;
+    }
+
+    private static int maskKind(int rawKind) {
+        if (rawKind != TYPE_UNSET) {
+            return rawKind & 0xf;
+        }
+        return rawKind;
+    }
+
+    private static boolean isValidKind(int maskedKind) {
+        return maskedKind != TYPE_NO_CHANGE && maskedKind != TYPE_IGNORE;
     }
 
     private int determinePreviousValidActivityType(MiBandActivitySample sample) {
+        QueryBuilder<MiBandActivitySample> qb = getSampleDao().queryBuilder();
+        qb.where(MiBandActivitySampleDao.Properties.DeviceId.eq(sample.getDeviceId()),
+                MiBandActivitySampleDao.Properties.UserId.eq(sample.getUserId()),
+                MiBandActivitySampleDao.Properties.Timestamp.lt(sample.getTimestamp()));
+        qb.orderDesc(MiBandActivitySampleDao.Properties.Timestamp);
+        qb.limit(1);
+        List<MiBandActivitySample> result = qb.build().list();
+        if (result.isEmpty()) {
+            return TYPE_UNSET;
+        }
+        Integer normalizedKind = result.get(0).getNormalizedKind();
+        if (normalizedKind != null) {
+            // normalized kinds are already forward filled, so only an unresolved kind means
+            // there was no valid kind before
+            return isValidKind(normalizedKind) ? normalizedKind : TYPE_UNSET;
+        }
+        return determinePreviousValidRawActivityType(sample);
+    }
+
+    private int determinePreviousValidRawActivityType(MiBandActivitySample sample) {
         QueryBuilder<MiBandActivitySample> qb = getSampleDao().queryBuilder();
         qb.where(MiBandActivitySampleDao.Properties.DeviceId.eq(sample.getDeviceId()),
                 MiBandActivitySampleDao.Properties.UserId.eq(sample.getUserId()),
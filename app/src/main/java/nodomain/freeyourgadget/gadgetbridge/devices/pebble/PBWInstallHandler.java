@@ -188,11 +188,13 @@ public class PBWInstallHandler implements InstallHandler {
             LOG.error(e.getMessage(), e);
         }
 
+        boolean configurable = false;
         InputStream jsConfigFile = mPBWReader.getInputStreamFile("pebble-js-app.js");
         if (jsConfigFile != null) {
             try {
                 outputFile = new File(destDir, app.getUUID().toString() + "_config.js");
                 FileUtils.copyStreamToFile(jsConfigFile, outputFile);
+                configurable = true;
             } catch (IOException e) {
                 LOG.error("Failed to open output file: " + e.getMessage(), e);
             } finally {
@@ -202,6 +204,12 @@ public class PBWInstallHandler implements InstallHandler {
                 }
             }
         }
+
+        try {
+            PebbleAppCatalog.getInstance().put(app, configurable);
+        } catch (IOException e) {
+            LOG.error("Failed to update pbw catalog: " + e.getMessage(), e);
+        }
     }
 
     @Override
@@ -0,0 +1,276 @@
+/*  Copyright (C) 2015-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
+
+/**
+ * An index of the apps in the pbw cache, so that the app manager does not have to list
+ * the cache directory and parse the metadata JSON of every app whenever it is shown.
+ *
+ * The index is kept in memory and in a single binary file. It is updated when apps are
+ * added to or removed from the cache, and rebuilt from the cache directory when the file
+ * is missing or the directory was changed by someone else.
+ */
+public class PebbleAppCatalog {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleAppCatalog.class);
+
+    private static final String CATALOG_FILENAME = "pbwcache.catalog";
+    private static final int MAGIC = 0x50424343; // "PBCC"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int FLAG_METADATA = 1;
+    private static final int FLAG_CONFIGURABLE = 2;
+
+    private static PebbleAppCatalog instance;
+
+    private final File cacheDir;
+    private final File catalogFile;
+    /**
+     * The cached apps by uuid, in the order they were added. Apps without readable
+     * metadata are mapped to null.
+     */
+    private final Map<UUID, Entry> entries = new LinkedHashMap<>();
+    private long cacheDirModified = -1;
+    private boolean loaded;
+
+    private static class Entry {
+        final String name;
+        final String creator;
+        final String version;
+        final GBDeviceApp.Type type;
+        final boolean configurable;
+
+        Entry(String name, String creator, String version, GBDeviceApp.Type type, boolean configurable) {
+            this.name = name;
+            this.creator = creator;
+            this.version = version;
+            this.type = type;
+            this.configurable = configurable;
+        }
+    }
+
+    public static synchronized PebbleAppCatalog getInstance() throws IOException {
+        if (instance == null) {
+            instance = new PebbleAppCatalog(PebbleUtils.getPbwCacheDir(), new File(FileUtils.getExternalFilesDir(), CATALOG_FILENAME));
+        }
+        return instance;
+    }
+
+    PebbleAppCatalog(File cacheDir, File catalogFile) {
+        this.cacheDir = cacheDir;
+        this.catalogFile = catalogFile;
+    }
+
+    /**
+     * Returns the uuids of all apps in the cache.
+     */
+    public synchronized List<UUID> getUuids() {
+        ensureUpToDate();
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Returns the given app, or null if it is not in the cache or its metadata could not
+     * be read.
+     */
+    public synchronized GBDeviceApp getApp(UUID uuid) {
+        ensureUpToDate();
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            return null;
+        }
+        return new GBDeviceApp(uuid, entry.name, entry.creator, entry.version, entry.type, entry.configurable);
+    }
+
+    /**
+     * Adds or replaces an app, after its files have been written to the cache.
+     */
+    public synchronized void put(GBDeviceApp app, boolean configurable) {
+        ensureLoaded();
+        entries.put(app.getUUID(), new Entry(app.getName(), app.getCreator(), app.getVersion(), app.getType(), configurable));
+        cacheDirModified = cacheDir.lastModified();
+        save();
+    }
+
+    /**
+     * Removes an app, after its files have been deleted from the cache.
+     */
+    public synchronized void remove(UUID uuid) {
+        ensureLoaded();
+        entries.remove(uuid);
+        cacheDirModified = cacheDir.lastModified();
+        save();
+    }
+
+    private void ensureUpToDate() {
+        if (!loaded) {
+            loaded = true;
+            if (load() && cacheDirModified == cacheDir.lastModified()) {
+                return;
+            }
+            rebuild();
+        } else if (cacheDirModified != cacheDir.lastModified()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Like {@link #ensureUpToDate()}, but does not compare the modification time of the cache
+     * directory, which the caller just changed itself.
+     */
+    private void ensureLoaded() {
+        if (!loaded) {
+            loaded = true;
+            if (!load()) {
+                rebuild();
+            }
+        }
+    }
+
+    private boolean load() {
+        if (!catalogFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.info("ignoring pbw catalog of unknown format");
+                return false;
+            }
+            cacheDirModified = in.readLong();
+            GBDeviceApp.Type[] types = GBDeviceApp.Type.values();
+            for (int i = in.readInt(); i > 0; i--) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                int flags = in.readByte();
+                if ((flags & FLAG_METADATA) == 0) {
+                    entries.put(uuid, null);
+                    continue;
+                }
+                String name = in.readUTF();
+                String creator = in.readUTF();
+                String version = in.readUTF();
+                int type = in.readByte();
+                entries.put(uuid, new Entry(name, creator, version,
+                        type < types.length ? types[type] : GBDeviceApp.Type.UNKNOWN,
+                        (flags & FLAG_CONFIGURABLE) != 0));
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.warn("could not read pbw catalog", e);
+            entries.clear();
+            return false;
+        }
+    }
+
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        entries.clear();
+        cacheDirModified = cacheDir.lastModified();
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().endsWith(".pbw")) {
+                    continue;
+                }
+                String baseName = file.getName().substring(0, file.getName().length() - 4);
+                UUID uuid;
+                try {
+                    uuid = UUID.fromString(baseName);
+                } catch (IllegalArgumentException e) {
+                    LOG.info("ignoring " + file + " in pbw cache");
+                    continue;
+                }
+                entries.put(uuid, readMetadata(baseName));
+            }
+        }
+        LOG.info("rebuilt pbw catalog with " + entries.size() + " apps in " + (System.currentTimeMillis() - start) + "ms");
+        save();
+    }
+
+    private Entry readMetadata(String baseName) {
+        //metadata
+        File jsonFile = new File(cacheDir, baseName + ".json");
+        //configuration
+        File configFile = new File(cacheDir, baseName + "_config.js");
+        try {
+            JSONObject json = new JSONObject(FileUtils.getStringFromFile(jsonFile));
+            GBDeviceApp app = new GBDeviceApp(json, configFile.exists());
+            return new Entry(app.getName(), app.getCreator(), app.getVersion(), app.getType(), app.isConfigurable());
+        } catch (Exception e) {
+            LOG.info("could not read json file for " + baseName);
+            return null;
+        }
+    }
+
+    private void save() {
+        File tempFile = new File(catalogFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(cacheDirModified);
+            out.writeInt(entries.size());
+            for (Map.Entry<UUID, Entry> mapEntry : entries.entrySet()) {
+                UUID uuid = mapEntry.getKey();
+                Entry entry = mapEntry.getValue();
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+                if (entry == null) {
+                    out.writeByte(0);
+                    continue;
+                }
+                out.writeByte(FLAG_METADATA | (entry.configurable ? FLAG_CONFIGURABLE : 0));
+                out.writeUTF(nonNull(entry.name));
+                out.writeUTF(nonNull(entry.creator));
+                out.writeUTF(nonNull(entry.version));
+                out.writeByte(entry.type.ordinal());
+            }
+        } catch (IOException e) {
+            LOG.warn("could not write pbw catalog", e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(catalogFile)) {
+            LOG.warn("could not rename " + tempFile + " to " + catalogFile);
+            tempFile.delete();
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -67,14 +67,13 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
                 .where(PebbleHealthActivityOverlayDao.Properties.TimestampFrom.le(timestamp_to));
         List<PebbleHealthActivityOverlay> overlayRecords = qb.build().list();
 
-        for (PebbleHealthActivityOverlay overlay : overlayRecords) {
-            for (PebbleHealthActivitySample sample : samples) {
-                if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    // patch in the raw kind
-                    sample.setRawKind(overlay.getRawKind());
-                }
+        applyOverlays(samples, overlayRecords, new OverlayApplier<PebbleHealthActivitySample, PebbleHealthActivityOverlay>() {
+            @Override
+            public void apply(PebbleHealthActivitySample sample, PebbleHealthActivityOverlay overlay, int overlayIndex) {
+                // patch in the raw kind
+                sample.setRawKind(overlay.getRawKind());
             }
-        }
+        });
         detachFromSession();
         return samples;
     }
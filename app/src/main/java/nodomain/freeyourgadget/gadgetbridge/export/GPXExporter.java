@@ -20,10 +20,10 @@ package nodomain.freeyourgadget.gadgetbridge.export;
 import android.util.Xml;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -36,6 +36,7 @@ import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPointColumns;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
@@ -51,6 +52,9 @@ public class GPXExporter implements ActivityTrackExporter {
     private static final String OPENTRACKS_PREFIX = "opentracks";
     private static final String OPENTRACKS_NAMESPACE_URI = "http://opentracksapp.com/xmlschemas/v1";
     private static final String OPENTRACKS_NAMESPACE_XSD = "http://opentracksapp.com/xmlschemas/OpenTracks_v1.xsd";
+    private static final double DEGREES_SCALE = 1e6;
+    private static final long MAX_NEAREST_HEART_RATE_DISTANCE_MILLIS = 60 * 2 * 1000; // minimum distance is 2min
+    private static final long NO_TIME = Long.MIN_VALUE;
 
     private String creator;
     private boolean includeHeartRate = true;
@@ -66,7 +70,7 @@ public class GPXExporter implements ActivityTrackExporter {
     public void performExport(ActivityTrack track, File targetFile) throws IOException, GPXTrackEmptyException {
         String encoding = StandardCharsets.UTF_8.name();
         XmlSerializer ser = Xml.newSerializer();
-        try (FileOutputStream outputStream = new FileOutputStream(targetFile)) {
+        try (BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(targetFile))) {
             ser.setOutput(outputStream, encoding);
             ser.startDocument(encoding, Boolean.TRUE);
             ser.setPrefix("xsi", NS_XSI_URI);
@@ -118,9 +122,11 @@ public class GPXExporter implements ActivityTrackExporter {
 
         List<ActivityPoint> trackPoints = track.getTrackPoints();
         String source = getSource(track);
-        boolean atLeastOnePointExported = false;
-        for (ActivityPoint point : trackPoints) {
-            atLeastOnePointExported |= exportTrackPoint(ser, point, source, trackPoints);
+        boolean atLeastOnePointExported;
+        if (trackPoints instanceof ActivityPointColumns) {
+            atLeastOnePointExported = exportTrackPoints(ser, (ActivityPointColumns) trackPoints, source);
+        } else {
+            atLeastOnePointExported = exportTrackPoints(ser, trackPoints, source);
         }
 
         if(!atLeastOnePointExported) {
@@ -135,49 +141,88 @@ public class GPXExporter implements ActivityTrackExporter {
         return track.getDevice().getName();
     }
 
-    private boolean exportTrackPoint(XmlSerializer ser, ActivityPoint point, String source, List<ActivityPoint> trackPoints) throws IOException {
-        GPSCoordinate location = point.getLocation();
-        if (location == null) {
-            return false; // skip invalid points, that just contain hr data, for example
+    private boolean exportTrackPoints(XmlSerializer ser, List<ActivityPoint> trackPoints, String source) throws IOException {
+        int[] nearestHeartRates = null;
+        if (includeHeartRate && includeHeartRateOfNearestSample) {
+            nearestHeartRates = findClosestSensibleHeartRates(trackPoints);
+        }
+        boolean atLeastOnePointExported = false;
+        int index = 0;
+        for (ActivityPoint point : trackPoints) {
+            GPSCoordinate location = point.getLocation();
+            // skip invalid points, that just contain hr data, for example
+            if (location != null) {
+                int nearestHeartRate = nearestHeartRates != null ? nearestHeartRates[index] : 0;
+                exportTrackPoint(ser, location.getLongitude(), location.getLatitude(), location.getAltitude(),
+                        point.getTime(), point.getDescription(), source, point.getHeartRate(), nearestHeartRate);
+                atLeastOnePointExported = true;
+            }
+            index++;
         }
+        return atLeastOnePointExported;
+    }
+
+    /**
+     * Exports the points straight from the columns, without creating an ActivityPoint for each.
+     */
+    private boolean exportTrackPoints(XmlSerializer ser, ActivityPointColumns points, String source) throws IOException {
+        int size = points.size();
+        int[] nearestHeartRates = null;
+        if (includeHeartRate && includeHeartRateOfNearestSample) {
+            long[] times = new long[size];
+            int[] heartRates = new int[size];
+            for (int i = 0; i < size; i++) {
+                times[i] = points.getTime(i);
+                heartRates[i] = points.getHeartRate(i);
+            }
+            nearestHeartRates = findClosestSensibleHeartRates(times, heartRates);
+        }
+        boolean atLeastOnePointExported = false;
+        Date time = new Date();
+        for (int i = 0; i < size; i++) {
+            if (!points.hasLocation(i)) {
+                continue;
+            }
+            time.setTime(points.getTime(i));
+            int nearestHeartRate = nearestHeartRates != null ? nearestHeartRates[i] : 0;
+            exportTrackPoint(ser, points.getLongitudeMicros(i) / DEGREES_SCALE, points.getLatitudeMicros(i) / DEGREES_SCALE,
+                    points.getAltitude(i), time, null, source, points.getHeartRate(i), nearestHeartRate);
+            atLeastOnePointExported = true;
+        }
+        return atLeastOnePointExported;
+    }
+
+    private void exportTrackPoint(XmlSerializer ser, double longitude, double latitude, double altitude, Date time,
+                                  String description, String source, int heartRate, int nearestHeartRate) throws IOException {
         ser.startTag(NS_GPX_URI, "trkpt");
         // lon and lat attributes do not have an explicit namespace
-        ser.attribute(null, "lon", formatLocation(location.getLongitude()));
-        ser.attribute(null, "lat", formatLocation(location.getLatitude()));
-        if (location.getAltitude() != -20000) {
-            ser.startTag(NS_GPX_URI, "ele").text(formatLocation(location.getAltitude())).endTag(NS_GPX_URI, "ele");
+        ser.attribute(null, "lon", formatLocation(longitude));
+        ser.attribute(null, "lat", formatLocation(latitude));
+        if (altitude != ActivityPointColumns.UNKNOWN_ALTITUDE) {
+            ser.startTag(NS_GPX_URI, "ele").text(formatLocation(altitude)).endTag(NS_GPX_URI, "ele");
         }
-        ser.startTag(NS_GPX_URI, "time").text(DateTimeUtils.formatIso8601UTC(point.getTime())).endTag(NS_GPX_URI, "time");
-        String description = point.getDescription();
+        ser.startTag(NS_GPX_URI, "time").text(DateTimeUtils.formatIso8601UTC(time)).endTag(NS_GPX_URI, "time");
         if (description != null) {
             ser.startTag(NS_GPX_URI, "desc").text(description).endTag(NS_GPX_URI, "desc");
         }
         //ser.startTag(NS_GPX_URI, "src").text(source).endTag(NS_GPX_URI, "src");
 
-        exportTrackpointExtensions(ser, point, trackPoints);
+        exportTrackpointExtensions(ser, heartRate, nearestHeartRate);
 
         ser.endTag(NS_GPX_URI, "trkpt");
-
-        return true;
     }
 
-    private void exportTrackpointExtensions(XmlSerializer ser, ActivityPoint point, List<ActivityPoint> trackPoints) throws IOException {
+    private void exportTrackpointExtensions(XmlSerializer ser, int hr, int nearestHeartRate) throws IOException {
         if (!includeHeartRate) {
             return;
         }
 
-        int hr = point.getHeartRate();
         if (!HeartRateUtils.getInstance().isValidHeartRateValue(hr)) {
             if (!includeHeartRateOfNearestSample) {
                 return;
             }
 
-            ActivityPoint closestPointItem = findClosestSensibleActivityPoint(point.getTime(), trackPoints);
-            if(closestPointItem == null) {
-                return;
-            }
-
-            hr = closestPointItem.getHeartRate();
+            hr = nearestHeartRate;
             if (!HeartRateUtils.getInstance().isValidHeartRateValue(hr)) {
                 return;
             }
@@ -191,26 +236,60 @@ public class GPXExporter implements ActivityTrackExporter {
         ser.endTag(NS_GPX_URI, "extensions");
     }
 
-    private @Nullable ActivityPoint findClosestSensibleActivityPoint(Date time, List<ActivityPoint> trackPoints) {
-        ActivityPoint closestPointItem = null;
-        HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+    /**
+     * For each of the given points, determines the heart rate of the closest preceding point with
+     * a valid heart rate, if that point is less than two minutes older. Points without such a
+     * predecessor get 0, and so do points without a time. Expects the points to be sorted by
+     * time, oldest first.
+     */
+    static int[] findClosestSensibleHeartRates(List<ActivityPoint> trackPoints) {
+        int size = trackPoints.size();
+        long[] times = new long[size];
+        int[] heartRates = new int[size];
+        int index = 0;
+        for (ActivityPoint point : trackPoints) {
+            Date time = point.getTime();
+            times[index] = time != null ? time.getTime() : NO_TIME;
+            heartRates[index] = point.getHeartRate();
+            index++;
+        }
+        return findClosestSensibleHeartRates(times, heartRates);
+    }
 
-        long lowestDifference = 60 * 2 * 1000; // minimum distance is 2min
-        for (ActivityPoint pointItem : trackPoints) {
-            int hrItem = pointItem.getHeartRate();
-            if (heartRateUtilsInstance.isValidHeartRateValue(hrItem)) {
-                Date timeItem = pointItem.getTime();
-                if (timeItem.after(time) || timeItem.equals(time)) {
-                    break; // we assume that the given trackPoints are sorted in time ascending order (oldest first)
-                }
-                long difference = time.getTime() - timeItem.getTime();
-                if (difference < lowestDifference) {
-                    lowestDifference = difference;
-                    closestPointItem = pointItem;
+    private static int[] findClosestSensibleHeartRates(long[] times, int[] heartRates) {
+        HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+        int size = times.length;
+        long[] validTimes = new long[size];
+        int[] validHeartRates = new int[size];
+        int validCount = 0;
+        for (int i = 0; i < size; i++) {
+            int hrItem = heartRates[i];
+            if (times[i] != NO_TIME && heartRateUtilsInstance.isValidHeartRateValue(hrItem)) {
+                long timeItem = times[i];
+                // of several points with the same time, the first one is used
+                if (validCount == 0 || validTimes[validCount - 1] != timeItem) {
+                    validTimes[validCount] = timeItem;
+                    validHeartRates[validCount] = hrItem;
+                    validCount++;
                 }
             }
         }
-        return closestPointItem;
+
+        int[] result = new int[size];
+        int next = 0; // first valid point that is not older than the current point
+        for (int i = 0; i < size; i++) {
+            long time = times[i];
+            if (time == NO_TIME) {
+                continue;
+            }
+            while (next < validCount && validTimes[next] < time) {
+                next++;
+            }
+            if (next > 0 && time - validTimes[next - 1] < MAX_NEAREST_HEART_RATE_DISTANCE_MILLIS) {
+                result[i] = validHeartRates[next - 1];
+            }
+        }
+        return result;
     }
 
     private String formatLocation(double value) {
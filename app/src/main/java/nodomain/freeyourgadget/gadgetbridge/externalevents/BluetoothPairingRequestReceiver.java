@@ -48,9 +48,18 @@ public class BluetoothPairingRequestReceiver extends BroadcastReceiver {
             return;
         }
 
-        GBDevice gbDevice = service.getGBDevice();
         BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-        if (gbDevice == null || device == null) {
+        if (device == null) {
+            return;
+        }
+        GBDevice gbDevice = null;
+        for (GBDevice connectedDevice : service.getGBDevices()) {
+            if (device.getAddress().equals(connectedDevice.getAddress())) {
+                gbDevice = connectedDevice;
+                break;
+            }
+        }
+        if (gbDevice == null) {
             return;
         }
 
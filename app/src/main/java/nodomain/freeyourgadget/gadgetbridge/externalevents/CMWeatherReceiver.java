@@ -175,8 +175,9 @@ public class CMWeatherReceiver extends BroadcastReceiver implements CMWeatherMan
                 gbForecast.conditionCode = Weather.mapToOpenWeatherMapCondition(CMtoYahooCondintion(cmForecast.getConditionCode()));
                 weatherSpec.forecasts.add(gbForecast);
             }
-            Weather.getInstance().setWeatherSpec(weatherSpec);
-            GBApplication.deviceService().onSendWeather(weatherSpec);
+            if (Weather.getInstance().setWeatherSpec(weatherSpec)) {
+                GBApplication.deviceService().onSendWeather(weatherSpec);
+            }
         } else {
             LOG.info("request has returned null for WeatherInfo");
         }
@@ -179,8 +179,9 @@ public class LineageOsWeatherReceiver extends BroadcastReceiver implements Linea
                 gbForecast.conditionCode = Weather.mapToOpenWeatherMapCondition(LineageOstoYahooCondintion(cmForecast.getConditionCode()));
                 weatherSpec.forecasts.add(gbForecast);
             }
-            Weather.getInstance().setWeatherSpec(weatherSpec);
-            GBApplication.deviceService().onSendWeather(weatherSpec);
+            if (Weather.getInstance().setWeatherSpec(weatherSpec)) {
+                GBApplication.deviceService().onSendWeather(weatherSpec);
+            }
         } else {
             LOG.info("request has returned null for WeatherInfo");
         }
@@ -136,8 +136,9 @@ public class OmniJawsObserver extends ContentObserver {
                     }
                 }
 
-                Weather.getInstance().setWeatherSpec(weatherSpec);
-                GBApplication.deviceService().onSendWeather(weatherSpec);
+                if (Weather.getInstance().setWeatherSpec(weatherSpec)) {
+                    GBApplication.deviceService().onSendWeather(weatherSpec);
+                }
 
             } finally {
                 c.close();
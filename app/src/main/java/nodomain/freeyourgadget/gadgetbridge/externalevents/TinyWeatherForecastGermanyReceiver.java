@@ -35,9 +35,10 @@ public class TinyWeatherForecastGermanyReceiver extends BroadcastReceiver {
             if (bundle != null) {
                 WeatherSpec weatherSpec = bundle.getParcelable("WeatherSpec");
                 if (weatherSpec != null) {
-                    Weather.getInstance().setWeatherSpec(weatherSpec);
                     weatherSpec.timestamp = (int) (System.currentTimeMillis() / 1000);
-                    GBApplication.deviceService().onSendWeather(weatherSpec);
+                    if (Weather.getInstance().setWeatherSpec(weatherSpec)) {
+                        GBApplication.deviceService().onSendWeather(weatherSpec);
+                    }
                 }
             }
         }
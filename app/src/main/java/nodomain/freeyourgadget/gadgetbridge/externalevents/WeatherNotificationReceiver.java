@@ -53,8 +53,9 @@ public class WeatherNotificationReceiver extends BroadcastReceiver {
             WeatherSpec weatherSpec = parcelableWeather2.weatherSpec;
             LOG.info("weather in " + weatherSpec.location + " is " + weatherSpec.currentCondition + " (" + (weatherSpec.currentTemp - 273) + "°C)");
 
-            Weather.getInstance().setWeatherSpec(weatherSpec);
-            GBApplication.deviceService().onSendWeather(weatherSpec);
+            if (Weather.getInstance().setWeatherSpec(weatherSpec)) {
+                GBApplication.deviceService().onSendWeather(weatherSpec);
+            }
         }
     }
 }
\ No newline at end of file
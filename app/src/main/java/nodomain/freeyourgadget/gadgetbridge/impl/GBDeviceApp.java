@@ -44,6 +44,19 @@ public class GBDeviceApp {
         this.isOnDevice = false;
     }
 
+    /**
+     * Creates an app that is in the pbw cache.
+     */
+    public GBDeviceApp(UUID uuid, String name, String creator, String version, Type type, boolean configurable) {
+        this.uuid = uuid;
+        this.name = name;
+        this.creator = creator;
+        this.version = version;
+        this.type = type;
+        this.inCache = true;
+        this.configurable = configurable;
+    }
+
     public GBDeviceApp(JSONObject json, boolean configurable) {
         UUID uuid = UUID.fromString("00000000-0000-0000-0000-000000000000");
         String name = "";
@@ -68,13 +68,29 @@ public class GBDeviceService implements DeviceService {
             EXTRA_CALENDAREVENT_DESCRIPTION
     };
 
+    private final GBDevice mDevice;
+
     public GBDeviceService(Context context) {
+        this(context, null);
+    }
+
+    protected GBDeviceService(Context context, @Nullable GBDevice device) {
         mContext = context;
         mServiceClass = DeviceCommunicationService.class;
+        mDevice = device;
+    }
+
+    @Override
+    public DeviceService forDevice(GBDevice device) {
+        return new GBDeviceService(mContext, device);
     }
 
     protected Intent createIntent() {
-        return new Intent(mContext, mServiceClass);
+        Intent intent = new Intent(mContext, mServiceClass);
+        if (mDevice != null) {
+            intent.putExtra(GBDevice.EXTRA_DEVICE, mDevice);
+        }
+        return intent;
     }
 
     protected void invokeService(Intent intent) {
@@ -94,7 +110,18 @@ public class GBDeviceService implements DeviceService {
             }
         }
 
-        mContext.startService(intent);
+        if (!dispatchInProcess(intent)) {
+            mContext.startService(intent);
+        }
+    }
+
+    /**
+     * Hands the intent directly to the running service, if possible.
+     *
+     * @return false if the intent has to be sent with startService()
+     */
+    protected boolean dispatchInProcess(Intent intent) {
+        return DeviceCommunicationService.dispatchInProcess(intent);
     }
 
     protected void stopService(Intent intent) {
@@ -120,7 +147,7 @@ public class GBDeviceService implements DeviceService {
     @Override
     public void connect(@Nullable GBDevice device, boolean firstTime) {
         Intent intent = createIntent().setAction(ACTION_CONNECT)
-                .putExtra(GBDevice.EXTRA_DEVICE, device)
+                .putExtra(GBDevice.EXTRA_DEVICE, coalesce(device, mDevice))
                 .putExtra(EXTRA_CONNECT_FIRST_TIME, firstTime);
         invokeService(intent);
     }
@@ -0,0 +1,36 @@
+/*  Copyright (C) 2016-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+/**
+ * A stored time range that overrides the activity kind of all samples within it,
+ * e.g. a sleep session reported separately from the regular samples.
+ */
+public interface ActivityKindOverlay {
+    /**
+     * Unix timestamp of the first second covered by this overlay (inclusive).
+     */
+    int getTimestampFrom();
+
+    /**
+     * Unix timestamp of the end of this overlay (exclusive).
+     */
+    int getTimestampTo();
+
+    int getRawKind();
+}
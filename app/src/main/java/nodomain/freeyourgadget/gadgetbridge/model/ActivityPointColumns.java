@@ -0,0 +1,164 @@
+/*  Copyright (C) 2017-2021 Carsten Pfeiffer, Daniele Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.RandomAccess;
+
+/**
+ * The points of a track, stored column-wise in primitive arrays instead of one
+ * {@link ActivityPoint} per point.
+ *
+ * Times are stored as seconds relative to a base time, coordinates as fixed point
+ * microdegrees, i.e. with {@link GPSCoordinate#GPS_DECIMAL_DEGREES_SCALE} decimals, and
+ * altitudes in meters. As a list, this is a read-only view that creates the
+ * {@link ActivityPoint}s on access, so callers should not hold on to them. Code that
+ * goes over all points, like exporting a track, should read the columns instead.
+ */
+public class ActivityPointColumns extends AbstractList<ActivityPoint> implements RandomAccess {
+    public static final int UNKNOWN_ALTITUDE = -20000;
+
+    private static final double DEGREES_SCALE = 1e6;
+    private static final int NO_LOCATION = Integer.MIN_VALUE;
+
+    private final long baseTime;
+    private int size;
+    private int[] timeOffsets;
+    private int[] latitudes;
+    private int[] longitudes;
+    private int[] altitudes;
+    private int[] heartRates;
+
+    /**
+     * @param baseTime the time in milliseconds that the time offsets of the points are relative to
+     */
+    public ActivityPointColumns(long baseTime, int capacity) {
+        this.baseTime = baseTime;
+        capacity = Math.max(capacity, 16);
+        timeOffsets = new int[capacity];
+        latitudes = new int[capacity];
+        longitudes = new int[capacity];
+        altitudes = new int[capacity];
+        heartRates = new int[capacity];
+    }
+
+    /**
+     * Appends a point without location and heart rate.
+     *
+     * @return the index of the new point
+     */
+    public int addPoint(int timeOffsetSeconds) {
+        if (size == timeOffsets.length) {
+            int capacity = size * 2;
+            timeOffsets = Arrays.copyOf(timeOffsets, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            altitudes = Arrays.copyOf(altitudes, capacity);
+            heartRates = Arrays.copyOf(heartRates, capacity);
+        }
+        timeOffsets[size] = timeOffsetSeconds;
+        latitudes[size] = NO_LOCATION;
+        longitudes[size] = 0;
+        altitudes[size] = 0;
+        heartRates[size] = 0;
+        return size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public long getBaseTime() {
+        return baseTime;
+    }
+
+    public int getTimeOffset(int index) {
+        return timeOffsets[index];
+    }
+
+    /**
+     * The time of the point at the given index in milliseconds.
+     */
+    public long getTime(int index) {
+        return baseTime + timeOffsets[index] * 1000L;
+    }
+
+    public void setTimeOffset(int index, int timeOffsetSeconds) {
+        timeOffsets[index] = timeOffsetSeconds;
+    }
+
+    public boolean hasLocation(int index) {
+        return latitudes[index] != NO_LOCATION;
+    }
+
+    /**
+     * Returns true if the point at the given index has exactly the given location.
+     */
+    public boolean hasLocation(int index, int longitudeMicros, int latitudeMicros, int altitude) {
+        return latitudes[index] == latitudeMicros
+                && longitudes[index] == longitudeMicros
+                && altitudes[index] == altitude;
+    }
+
+    public void setLocation(int index, int longitudeMicros, int latitudeMicros, int altitude) {
+        longitudes[index] = longitudeMicros;
+        latitudes[index] = latitudeMicros;
+        altitudes[index] = altitude;
+    }
+
+    public int getLatitudeMicros(int index) {
+        return latitudes[index];
+    }
+
+    public int getLongitudeMicros(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * The altitude in meters, or {@link #UNKNOWN_ALTITUDE}.
+     */
+    public int getAltitude(int index) {
+        return altitudes[index];
+    }
+
+    public int getHeartRate(int index) {
+        return heartRates[index];
+    }
+
+    public void setHeartRate(int index, int heartRate) {
+        heartRates[index] = heartRate;
+    }
+
+    @Override
+    public ActivityPoint get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        ActivityPoint point = new ActivityPoint(new Date(getTime(index)));
+        if (hasLocation(index)) {
+            point.setLocation(new GPSCoordinate(
+                    longitudes[index] / DEGREES_SCALE,
+                    latitudes[index] / DEGREES_SCALE,
+                    altitudes[index]));
+        }
+        point.setHeartRate(heartRates[index]);
+        return point;
+    }
+}
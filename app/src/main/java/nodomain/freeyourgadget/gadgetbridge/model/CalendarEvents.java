@@ -59,7 +59,8 @@ public class CalendarEvents {
             Instances.ALL_DAY
     };
 
-    private static final int lookahead_days = 7;
+    public static final String PREF_LOOKAHEAD_DAYS = "calendar_lookahead_days";
+    private static final int DEFAULT_LOOKAHEAD_DAYS = 7;
 
     private List<CalendarEvent> calendarEventList = new ArrayList<CalendarEvent>();
 
@@ -72,7 +73,7 @@ public class CalendarEvents {
 
         Calendar cal = GregorianCalendar.getInstance();
         long dtStart = cal.getTimeInMillis();
-        cal.add(Calendar.DATE, lookahead_days);
+        cal.add(Calendar.DATE, getLookaheadDays());
         long dtEnd = cal.getTimeInMillis();
 
         Uri.Builder eventsUriBuilder = Instances.CONTENT_URI.buildUpon();
@@ -113,6 +114,11 @@ public class CalendarEvents {
         }
     }
 
+    private static int getLookaheadDays() {
+        int lookaheadDays = GBApplication.getPrefs().getInt(PREF_LOOKAHEAD_DAYS, DEFAULT_LOOKAHEAD_DAYS);
+        return lookaheadDays > 0 ? lookaheadDays : DEFAULT_LOOKAHEAD_DAYS;
+    }
+
     public static class CalendarEvent {
         private long begin;
         private long end;
@@ -154,4 +154,10 @@ public interface DeviceService extends EventHandler {
      * from the service will be reported.
      */
     void requestDeviceInfo();
+
+    /**
+     * Returns a DeviceService that sends all commands to the given device only. Commands of
+     * this instance go to all connected devices.
+     */
+    DeviceService forDevice(GBDevice device);
 }
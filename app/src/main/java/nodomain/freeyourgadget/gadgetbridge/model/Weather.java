@@ -17,28 +17,92 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.model;
 
+import android.content.Context;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * The last weather received from a weather provider.
+ *
+ * The weather is also stored in a file, so that it can be sent to devices that connect
+ * before the next update of the provider, even after a restart of the app.
+ */
 public class Weather {
     private static final Logger LOG = LoggerFactory.getLogger(Weather.class);
 
+    private static final String CACHE_FILENAME = "weather.bin";
+    private static final int CACHE_FORMAT_VERSION = 1;
+
+    private final File cacheFile;
+    private boolean loaded;
+
     private WeatherSpec weatherSpec = null;
+    /**
+     * The encoded weather without its timestamp, to detect whether it changed.
+     */
+    private byte[] encodedWeather = null;
 
     private JSONObject reconstructedOWMForecast = null;
 
-    public WeatherSpec getWeatherSpec() {
+    /**
+     * @param cacheFile the file to store the weather in, or null to use the default file
+     */
+    Weather(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public synchronized WeatherSpec getWeatherSpec() {
+        ensureLoaded();
         return weatherSpec;
     }
 
-    public void setWeatherSpec(WeatherSpec weatherSpec) {
+    /**
+     * Replaces the weather and stores it.
+     *
+     * @return whether the weather changed, apart from its timestamp; the weather does not
+     * have to be sent to the devices again otherwise
+     */
+    public synchronized boolean setWeatherSpec(WeatherSpec weatherSpec) {
+        ensureLoaded();
+        byte[] encoded;
+        try {
+            encoded = encode(weatherSpec);
+        } catch (IOException e) {
+            LOG.error("Error encoding weather", e);
+            this.weatherSpec = weatherSpec;
+            this.encodedWeather = null;
+            return true;
+        }
         this.weatherSpec = weatherSpec;
+        boolean changed = !Arrays.equals(encoded, encodedWeather);
+        encodedWeather = encoded;
+        // the timestamp is stored even if nothing else changed, it is sent on reconnect
+        save(weatherSpec.timestamp, encoded);
+        if (!changed) {
+            LOG.info("Weather has not changed");
+        }
+        return changed;
     }
 
     public JSONObject createReconstructedOWMWeatherReply() {
+        WeatherSpec weatherSpec = getWeatherSpec();
         if (weatherSpec == null) {
             return null;
         }
@@ -85,9 +149,118 @@ public class Weather {
         this.reconstructedOWMForecast = reconstructedOWMForecast;
     }
 
-    private static final Weather weather = new Weather();
+    private static final Weather weather = new Weather(null);
     public static Weather getInstance() {return weather;}
 
+    private File getCacheFile() {
+        if (cacheFile != null) {
+            return cacheFile;
+        }
+        Context context = GBApplication.getContext();
+        return context != null ? new File(context.getFilesDir(), CACHE_FILENAME) : null;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        File file = getCacheFile();
+        if (file == null) {
+            return;
+        }
+        loaded = true;
+        if (weatherSpec != null || !file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != CACHE_FORMAT_VERSION) {
+                LOG.info("Ignoring stored weather of unknown format");
+                return;
+            }
+            int timestamp = in.readInt();
+            byte[] encoded = FileUtils.readAll(in, file.length());
+            weatherSpec = decode(encoded);
+            weatherSpec.timestamp = timestamp;
+            encodedWeather = encoded;
+            LOG.info("Loaded stored weather for " + weatherSpec.location + " from " + timestamp);
+        } catch (IOException e) {
+            LOG.warn("Error reading stored weather", e);
+        }
+    }
+
+    private void save(int timestamp, byte[] encoded) {
+        File file = getCacheFile();
+        if (file == null) {
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+            out.writeInt(CACHE_FORMAT_VERSION);
+            out.writeInt(timestamp);
+            out.write(encoded);
+        } catch (IOException e) {
+            LOG.warn("Error storing weather", e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            LOG.warn("Unable to rename " + tempFile + " to " + file);
+            tempFile.delete();
+        }
+    }
+
+    static byte[] encode(WeatherSpec weatherSpec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, weatherSpec.location);
+        out.writeInt(weatherSpec.currentTemp);
+        out.writeInt(weatherSpec.currentConditionCode);
+        writeString(out, weatherSpec.currentCondition);
+        out.writeInt(weatherSpec.currentHumidity);
+        out.writeInt(weatherSpec.todayMaxTemp);
+        out.writeInt(weatherSpec.todayMinTemp);
+        out.writeFloat(weatherSpec.windSpeed);
+        out.writeInt(weatherSpec.windDirection);
+        out.writeInt(weatherSpec.forecasts.size());
+        for (WeatherSpec.Forecast forecast : weatherSpec.forecasts) {
+            out.writeInt(forecast.minTemp);
+            out.writeInt(forecast.maxTemp);
+            out.writeInt(forecast.conditionCode);
+            out.writeInt(forecast.humidity);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static WeatherSpec decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        WeatherSpec weatherSpec = new WeatherSpec();
+        weatherSpec.location = readString(in);
+        weatherSpec.currentTemp = in.readInt();
+        weatherSpec.currentConditionCode = in.readInt();
+        weatherSpec.currentCondition = readString(in);
+        weatherSpec.currentHumidity = in.readInt();
+        weatherSpec.todayMaxTemp = in.readInt();
+        weatherSpec.todayMinTemp = in.readInt();
+        weatherSpec.windSpeed = in.readFloat();
+        weatherSpec.windDirection = in.readInt();
+        for (int i = in.readInt(); i > 0; i--) {
+            weatherSpec.forecasts.add(new WeatherSpec.Forecast(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+        return weatherSpec;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     public static byte mapToPebbleCondition(int openWeatherMapCondition) {
 /* deducted values:
     0 = sun + cloud
@@ -64,6 +64,7 @@ import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventMusicContr
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventNotificationControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventScreenshot;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationListener;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.BatteryState;
@@ -149,6 +150,14 @@ public abstract class AbstractDeviceSupport implements DeviceSupport {
         return context;
     }
 
+    /**
+     * Creates a stage that stores the activity samples decoded during a fetch in batches.
+     * The caller keeps it for the duration of the fetch and finishes it at the end.
+     */
+    protected <T extends AbstractActivitySample> ActivitySampleIngestion<T> createActivitySampleIngestion() {
+        return new ActivitySampleIngestion<>(this);
+    }
+
     public void evaluateGBDeviceEvent(GBDeviceEvent deviceEvent) {
         if (deviceEvent instanceof GBDeviceEventMusicControl) {
             handleGBDeviceEvent((GBDeviceEventMusicControl) deviceEvent);
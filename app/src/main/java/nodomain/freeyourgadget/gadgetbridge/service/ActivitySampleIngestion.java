@@ -0,0 +1,121 @@
+/*  Copyright (C) 2016-2021 Andreas Shimokawa, Carsten Pfeiffer, Daniele
+    Gobbetti
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import android.widget.Toast;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Collects the activity samples decoded during a fetch and stores them in batches.
+ *
+ * Samples are buffered until {@link #flush()} is called or the batch is full, and then
+ * written with a single database session and transaction. A sample replaces a pending
+ * sample with the same timestamp, like it would replace the stored one. After the last
+ * batch of a fetch, {@link #finish()} signals the end of the activity data transfer once.
+ */
+public class ActivitySampleIngestion<T extends AbstractActivitySample> {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivitySampleIngestion.class);
+
+    static final int BATCH_SIZE = 1000;
+
+    private final DeviceSupport deviceSupport;
+    private final Map<Integer, T> pendingSamples = new LinkedHashMap<>();
+    private boolean storedSinceFinish;
+
+    public ActivitySampleIngestion(DeviceSupport deviceSupport) {
+        this.deviceSupport = deviceSupport;
+    }
+
+    public void add(T sample) {
+        pendingSamples.put(sample.getTimestamp(), sample);
+        if (pendingSamples.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    public int getPendingCount() {
+        return pendingSamples.size();
+    }
+
+    /**
+     * Stores all pending samples.
+     *
+     * @return false if storing the samples failed. They are dropped in that case.
+     */
+    public boolean flush() {
+        if (pendingSamples.isEmpty()) {
+            return true;
+        }
+        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            store(dbHandler.getDaoSession());
+            return true;
+        } catch (Exception ex) {
+            LOG.error("Error saving " + pendingSamples.size() + " activity samples", ex);
+            GB.toast(deviceSupport.getContext(), "Error saving activity data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
+            pendingSamples.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Stores all pending samples and signals the end of the activity data transfer, if any
+     * samples were stored since the last call.
+     */
+    public boolean finish() {
+        boolean success = flush();
+        if (storedSinceFinish) {
+            storedSinceFinish = false;
+            GB.signalActivityDataFinish();
+        }
+        return success;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void store(DaoSession session) {
+        GBDevice device = deviceSupport.getDevice();
+        Long userId = DBHelper.getUser(session).getId();
+        Long deviceId = DBHelper.getDevice(device, session).getId();
+        for (T sample : pendingSamples.values()) {
+            sample.setUserId(userId);
+            sample.setDeviceId(deviceId);
+        }
+
+        AbstractSampleProvider<T> provider = (AbstractSampleProvider<T>) DeviceHelper.getInstance().getCoordinator(device).getSampleProvider(device, session);
+        long start = System.currentTimeMillis();
+        provider.addGBActivitySamples(pendingSamples.values());
+        LOG.debug("Stored " + pendingSamples.size() + " activity samples in " + (System.currentTimeMillis() - start) + "ms");
+
+        pendingSamples.clear();
+        storedSinceFinish = true;
+    }
+}
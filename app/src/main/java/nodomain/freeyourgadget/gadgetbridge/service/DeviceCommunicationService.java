@@ -32,19 +32,37 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.widget.Toast;
 
-import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
@@ -73,6 +91,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.model.Weather;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.service.receivers.AutoConnectIntervalReceiver;
 import nodomain.freeyourgadget.gadgetbridge.service.receivers.GBAutoFetchReceiver;
@@ -175,13 +194,29 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private static final Logger LOG = LoggerFactory.getLogger(DeviceCommunicationService.class);
     @SuppressLint("StaticFieldLeak") // only used for test cases
     private static DeviceSupportFactory DEVICE_SUPPORT_FACTORY = null;
+    private static Executor COMMAND_EXECUTOR = null;
+    @SuppressLint("StaticFieldLeak") // only set while the service is started
+    private static volatile DeviceCommunicationService sStartedInstance = null;
+    private static final String EXTRA_QUEUED_CONNECTION_CHANGE = "nodomain.freeyourgadget.gadgetbridge.devicecommunicationservice.queued_connection_change";
+    /**
+     * The number of connection changes that were sent with startService() and not yet handled.
+     */
+    private static final AtomicInteger sQueuedConnectionChanges = new AtomicInteger();
 
     private boolean mStarted = false;
 
     private DeviceSupportFactory mFactory;
-    private GBDevice mGBDevice = null;
-    private DeviceSupport mDeviceSupport;
-    private DeviceCoordinator mCoordinator = null;
+    /**
+     * The device support instances of all devices that are connected or connecting,
+     * by device address, in the order they were connected.
+     */
+    private final Map<String, DeviceSupport> mDeviceSupports = new LinkedHashMap<>();
+    /**
+     * One single threaded executor per device address, so that the commands for a device
+     * are executed in order, and a slow device does not hold up the others.
+     */
+    private final Map<String, ExecutorService> mCommandExecutors = new HashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     private PhoneCallReceiver mPhoneCallReceiver = null;
     private SMSReceiver mSMSReceiver = null;
@@ -195,7 +230,8 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private AutoConnectIntervalReceiver mAutoConnectInvervalReceiver= null;
 
     private AlarmReceiver mAlarmReceiver = null;
-    private CalendarReceiver mCalendarReceiver = null;
+    private final Map<String, CalendarReceiver> mCalendarReceivers = new HashMap<>();
+    private final Set<String> mInitializedDevices = Collections.synchronizedSet(new HashSet<String>());
     private CMWeatherReceiver mCMWeatherReceiver = null;
     private LineageOsWeatherReceiver mLineageOsWeatherReceiver = null;
     private TinyWeatherForecastGermanyReceiver mTinyWeatherForecastGermanyReceiver = null;
@@ -223,6 +259,83 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         DEVICE_SUPPORT_FACTORY = factory;
     }
 
+    /**
+     * For testing! Executes the commands for all devices with the given executor instead
+     * of one thread per device.
+     *
+     * @param executor
+     */
+    public static void setCommandExecutor(Executor executor) {
+        COMMAND_EXECUTOR = executor;
+    }
+
+    /**
+     * Passes the given command intent directly to the running service, without going through
+     * {@link Context#startService(Intent)}. The intent is not parceled, but queued for the
+     * devices it is meant for.
+     *
+     * Changes of the connection state are handled right away when called on the main thread,
+     * like {@link #onStartCommand(Intent, int, int)} would. From other threads, they have to go
+     * through {@link #onStartCommand(Intent, int, int)}, and so do all later commands until
+     * that has happened, so that the commands stay in the order they were sent.
+     *
+     * @return false if the service is not started or the intent has to go through
+     * {@link #onStartCommand(Intent, int, int)}
+     */
+    public static boolean dispatchInProcess(Intent intent) {
+        DeviceCommunicationService service = sStartedInstance;
+        String action = intent.getAction();
+        if (service == null || action == null) {
+            return false;
+        }
+        if (isConnectionAction(action)) {
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                sQueuedConnectionChanges.incrementAndGet();
+                intent.putExtra(EXTRA_QUEUED_CONNECTION_CHANGE, true);
+                return false;
+            }
+            if (sQueuedConnectionChanges.get() > 0) {
+                return false;
+            }
+            service.handleConnectionAction(intent, action);
+            return true;
+        }
+        if (sQueuedConnectionChanges.get() > 0) {
+            return false;
+        }
+        service.dispatch(copyExtras(intent), action);
+        return true;
+    }
+
+    private static boolean isConnectionAction(String action) {
+        return action.equals(ACTION_START) || action.equals(ACTION_CONNECT) || action.equals(ACTION_DISCONNECT);
+    }
+
+    /**
+     * Returns a copy of the given intent, whose list and array extras are copied as well, so
+     * that the caller may change them while the command is still queued.
+     */
+    static Intent copyExtras(Intent intent) {
+        Intent copy = new Intent(intent);
+        Bundle extras = copy.getExtras();
+        if (extras == null) {
+            return copy;
+        }
+        for (String key : extras.keySet()) {
+            Object value = extras.get(key);
+            if (value instanceof ArrayList) {
+                extras.putSerializable(key, new ArrayList<>((ArrayList<?>) value));
+            } else if (value != null && value.getClass().isArray()) {
+                int length = Array.getLength(value);
+                Object array = Array.newInstance(value.getClass().getComponentType(), length);
+                System.arraycopy(value, 0, array, 0, length);
+                extras.putSerializable(key, (Serializable) array);
+            }
+        }
+        copy.replaceExtras(extras);
+        return copy;
+    }
+
     public DeviceCommunicationService() {
 
     }
@@ -233,11 +346,9 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             String action = intent.getAction();
             if (GBDevice.ACTION_DEVICE_CHANGED.equals(action)) {
                 GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                if (mGBDevice != null && mGBDevice.equals(device)) {
-                    mGBDevice = device;
-                    mCoordinator = DeviceHelper.getInstance().getCoordinator(device);
-                    boolean enableReceivers = mDeviceSupport != null && (mDeviceSupport.useAutoConnect() || mGBDevice.isInitialized());
-                    setReceiversEnableState(enableReceivers, mGBDevice.isInitialized(), mCoordinator);
+                if (device != null && getDeviceSupport(device.getAddress()) != null) {
+                    updateReceiversState();
+                    updateInitializedState(device);
                 } else {
                     LOG.error("Got ACTION_DEVICE_CHANGED from unexpected device: " + device);
                 }
@@ -265,7 +376,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     }
 
     @Override
-    public synchronized int onStartCommand(Intent intent, int flags, int startId) {
+    public int onStartCommand(Intent intent, int flags, int startId) {
 
         if (intent == null) {
             LOG.info("no intent");
@@ -273,8 +384,6 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         }
 
         String action = intent.getAction();
-        boolean firstTime = intent.getBooleanExtra(EXTRA_CONNECT_FIRST_TIME, false);
-
         if (action == null) {
             LOG.info("no action");
             return START_NOT_STICKY;
@@ -282,25 +391,31 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
         LOG.debug("Service startcommand: " + action);
 
-        if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT)) {
-            if (!mStarted) {
+        try {
+            if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT) && !mStarted) {
                 // using the service before issuing ACTION_START
                 LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
                 return START_NOT_STICKY;
             }
 
-            if (mDeviceSupport == null || (!isInitialized() && !action.equals(ACTION_DISCONNECT) && (!mDeviceSupport.useAutoConnect() || isConnected()))) {
-                // trying to send notification without valid Bluetooth connection
-                if (mGBDevice != null) {
-                    // at least send back the current device state
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                return START_STICKY;
+            if (isConnectionAction(action)) {
+                handleConnectionAction(intent, action);
+            } else {
+                dispatch(intent, action);
+            }
+            return START_STICKY;
+        } finally {
+            if (intent.getBooleanExtra(EXTRA_QUEUED_CONNECTION_CHANGE, false)) {
+                sQueuedConnectionChanges.decrementAndGet();
             }
         }
+    }
 
-        // when we get past this, we should have valid mDeviceSupport and mGBDevice instances
-
+    /**
+     * Starts the service, connects or disconnects devices. Must be called on the main thread.
+     */
+    private void handleConnectionAction(Intent intent, String action) {
+        boolean firstTime = intent.getBooleanExtra(EXTRA_CONNECT_FIRST_TIME, false);
         Prefs prefs = getPrefs();
         switch (action) {
             case ACTION_START:
@@ -313,6 +428,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 if (gbDevice == null) {
                     if (prefs != null) { // may be null in test cases
                         btDeviceAddress = prefs.getString("last_device_address", null);
+                        if (btDeviceAddress != null && !GBApplication.isStartupDone(GBApplication.STARTUP_DEVICES)) {
+                            // e.g. auto connect at boot, which started the process
+                            connectWhenStarted(intent, btDeviceAddress);
+                            break;
+                        }
                         if (btDeviceAddress != null) {
                             gbDevice = DeviceHelper.getInstance().findAvailableDevice(btDeviceAddress, this);
                         }
@@ -327,71 +447,209 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     autoReconnect = getGBPrefs().getAutoReconnect();
                 }
 
-                if (gbDevice != null && !isConnecting() && !isConnected()) {
-                    setDeviceSupport(null);
+                DeviceSupport currentSupport = gbDevice != null ? getDeviceSupport(gbDevice.getAddress()) : null;
+                if (gbDevice != null && (currentSupport == null || (!currentSupport.getDevice().isConnecting() && !currentSupport.getDevice().isConnected()))) {
+                    // other devices stay connected, only a previous instance for the same device is replaced
+                    if (currentSupport != null) {
+                        removeDeviceSupport(currentSupport);
+                    }
                     try {
                         DeviceSupport deviceSupport = mFactory.createDeviceSupport(gbDevice);
                         if (deviceSupport != null) {
-                            setDeviceSupport(deviceSupport);
-                            if (firstTime) {
-                                deviceSupport.connectFirstTime();
-                            } else {
-                                deviceSupport.setAutoReconnect(autoReconnect);
-                                deviceSupport.connect();
-                            }
+                            addDeviceSupport(deviceSupport);
+                            connect(deviceSupport, firstTime, autoReconnect);
                         } else {
                             GB.toast(this, getString(R.string.cannot_connect, "Can't create device support"), Toast.LENGTH_SHORT, GB.ERROR);
                         }
                     } catch (Exception e) {
                         GB.toast(this, getString(R.string.cannot_connect, e.getMessage()), Toast.LENGTH_SHORT, GB.ERROR, e);
-                        setDeviceSupport(null);
                     }
-                } else if (mGBDevice != null) {
+                } else if (currentSupport != null) {
                     // send an update at least
-                    mGBDevice.sendDeviceUpdateIntent(this);
+                    currentSupport.getDevice().sendDeviceUpdateIntent(this);
                 }
                 break;
-            default:
-                if (mDeviceSupport == null || mGBDevice == null) {
-                    LOG.warn("device support:" + mDeviceSupport + ", device: " + mGBDevice + ", aborting");
-                } else {
-                    handleAction(intent, action, prefs);
+            case ACTION_DISCONNECT:
+                for (DeviceSupport deviceSupport : getTargetDeviceSupports(intent)) {
+                    removeDeviceSupport(deviceSupport);
                 }
+                updateReceiversState();
                 break;
         }
-        return START_STICKY;
+    }
+
+    /**
+     * Looks up the device with the given address on its command thread, once the known
+     * devices have been loaded, and then connects to it like {@link #handleConnectionAction(Intent, String)}.
+     * The database cannot be accessed on the main thread before that.
+     */
+    private void connectWhenStarted(final Intent intent, final String address) {
+        getCommandExecutor(address).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!GBApplication.awaitStartup(GBApplication.STARTUP_DEVICES, 30, TimeUnit.SECONDS)) {
+                        LOG.warn("looking up device " + address + " before the devices were loaded");
+                    }
+                } catch (InterruptedException e) {
+                    LOG.info("Interrupted while waiting for the devices to be loaded");
+                    return;
+                }
+                final GBDevice device = DeviceHelper.getInstance().findAvailableDevice(address, DeviceCommunicationService.this);
+                if (device == null) {
+                    LOG.info("Device " + address + " is not available, not connecting");
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (sStartedInstance != DeviceCommunicationService.this) {
+                            // destroyed in the meantime
+                            return;
+                        }
+                        Intent connectIntent = new Intent(intent);
+                        connectIntent.putExtra(GBDevice.EXTRA_DEVICE, device);
+                        handleConnectionAction(connectIntent, ACTION_CONNECT);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Connects the given device support on the command thread of its device.
+     */
+    private void connect(final DeviceSupport deviceSupport, final boolean firstTime, final boolean autoReconnect) {
+        getCommandExecutor(deviceSupport.getDevice().getAddress()).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the device support reads its preferences, which may still be migrated
+                    if (!GBApplication.awaitStartup(GBApplication.STARTUP_MIGRATIONS, 30, TimeUnit.SECONDS)) {
+                        LOG.warn("connecting before the preferences were migrated");
+                    }
+                    if (firstTime) {
+                        deviceSupport.connectFirstTime();
+                    } else {
+                        deviceSupport.setAutoReconnect(autoReconnect);
+                        deviceSupport.connect();
+                    }
+                } catch (Exception e) {
+                    GB.toast(DeviceCommunicationService.this, getString(R.string.cannot_connect, e.getMessage()), Toast.LENGTH_SHORT, GB.ERROR, e);
+                    removeDeviceSupport(deviceSupport);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the given command intent on the command threads of the devices it is meant for.
+     * Unpacking the extras, preparing the texts for the device and calling the device support
+     * all happen on the command thread.
+     */
+    private void dispatch(final Intent intent, final String action) {
+        final Prefs prefs = getPrefs();
+        for (final DeviceSupport deviceSupport : getTargetDeviceSupports(intent)) {
+            getCommandExecutor(deviceSupport.getDevice().getAddress()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (getDeviceSupport(deviceSupport.getDevice().getAddress()) != deviceSupport) {
+                        // disconnected in the meantime
+                        return;
+                    }
+                    if (!isReady(deviceSupport)) {
+                        // trying to send notification without valid Bluetooth connection,
+                        // at least send back the current device state
+                        deviceSupport.getDevice().sendDeviceUpdateIntent(DeviceCommunicationService.this);
+                        return;
+                    }
+                    try {
+                        handleAction(intent, action, prefs, deviceSupport);
+                    } catch (Exception e) {
+                        LOG.error("Error handling " + action + " for " + deviceSupport.getDevice(), e);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized Executor getCommandExecutor(String address) {
+        if (COMMAND_EXECUTOR != null) {
+            return COMMAND_EXECUTOR;
+        }
+        ExecutorService executor = mCommandExecutors.get(address);
+        if (executor == null) {
+            final String threadName = "Device commands " + address;
+            // at most one thread, which terminates when the device has been idle for a while
+            executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, threadName);
+                }
+            });
+            mCommandExecutors.put(address, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the device support instances an intent is meant for: the one of the device given
+     * as {@link GBDevice#EXTRA_DEVICE}, or all of them if the intent does not name a device.
+     */
+    private synchronized List<DeviceSupport> getTargetDeviceSupports(Intent intent) {
+        GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+        if (device == null) {
+            return new ArrayList<>(mDeviceSupports.values());
+        }
+        DeviceSupport deviceSupport = mDeviceSupports.get(device.getAddress());
+        if (deviceSupport == null) {
+            LOG.info("Ignoring command for device that is not connected: " + device);
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(deviceSupport);
+    }
+
+    /**
+     * Returns whether commands can be passed to the given device support, i.e. the device is
+     * initialized or the support will connect automatically.
+     */
+    private static boolean isReady(DeviceSupport deviceSupport) {
+        GBDevice device = deviceSupport.getDevice();
+        return device.isInitialized() || (deviceSupport.useAutoConnect() && !device.isConnected());
     }
 
     /**
      * @param text original text
      * @return 'text' or a new String without non supported chars like emoticons, etc.
      */
-    private String sanitizeNotifText(String text) {
+    private String sanitizeNotifText(String text, DeviceSupport deviceSupport, DeviceCoordinator coordinator) {
         if (text == null || text.length() == 0)
             return text;
 
-        text = mDeviceSupport.customStringFilter(text);
+        text = deviceSupport.customStringFilter(text);
 
-        if (!mCoordinator.supportsUnicodeEmojis()) {
+        if (!coordinator.supportsUnicodeEmojis()) {
             return EmojiConverter.convertUnicodeEmojiToAscii(text, getApplicationContext());
         }
 
         return text;
     }
 
-    private void handleAction(Intent intent, String action, Prefs prefs) {
+    private void handleAction(Intent intent, String action, Prefs prefs, DeviceSupport deviceSupport) {
+        GBDevice device = deviceSupport.getDevice();
+        DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
         switch (action) {
             case ACTION_REQUEST_DEVICEINFO:
-                mGBDevice.sendDeviceUpdateIntent(this);
+                device.sendDeviceUpdateIntent(this);
                 break;
             case ACTION_NOTIFICATION: {
                 int desiredId = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
                 NotificationSpec notificationSpec = new NotificationSpec(desiredId);
                 notificationSpec.phoneNumber = intent.getStringExtra(EXTRA_NOTIFICATION_PHONENUMBER);
-                notificationSpec.sender = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SENDER));
-                notificationSpec.subject = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SUBJECT));
-                notificationSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_TITLE));
-                notificationSpec.body = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_BODY));
+                notificationSpec.sender = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SENDER), deviceSupport, coordinator);
+                notificationSpec.subject = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SUBJECT), deviceSupport, coordinator);
+                notificationSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_TITLE), deviceSupport, coordinator);
+                notificationSpec.body = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_BODY), deviceSupport, coordinator);
                 notificationSpec.sourceName = intent.getStringExtra(EXTRA_NOTIFICATION_SOURCENAME);
                 notificationSpec.type = (NotificationType) intent.getSerializableExtra(EXTRA_NOTIFICATION_TYPE);
                 notificationSpec.attachedActions = (ArrayList<NotificationSpec.Action>) intent.getSerializableExtra(EXTRA_NOTIFICATION_ACTIONS);
@@ -410,7 +668,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     // I would rather like to save that as an array in SharedPreferences
                     // this would work but I dont know how to do the same in the Settings Activity's xml
                     ArrayList<String> replies = new ArrayList<>();
-                    SharedPreferences devicePrefs = GBApplication.getDeviceSpecificSharedPrefs(mGBDevice.getAddress());
+                    SharedPreferences devicePrefs = GBApplication.getDeviceSpecificSharedPrefs(device.getAddress());
                     for (int i = 1; i <= 16; i++) {
                         String reply = devicePrefs.getString("canned_reply_" + i, null);
                         if (reply != null && !reply.equals("")) {
@@ -420,11 +678,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     notificationSpec.cannedReplies = replies.toArray(new String[0]);
                 }
 
-                mDeviceSupport.onNotification(notificationSpec);
+                deviceSupport.onNotification(notificationSpec);
                 break;
             }
             case ACTION_DELETE_NOTIFICATION: {
-                mDeviceSupport.onDeleteNotification(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
+                deviceSupport.onDeleteNotification(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
                 break;
             }
             case ACTION_ADD_CALENDAREVENT: {
@@ -433,60 +691,48 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 calendarEventSpec.type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
                 calendarEventSpec.timestamp = intent.getIntExtra(EXTRA_CALENDAREVENT_TIMESTAMP, -1);
                 calendarEventSpec.durationInSeconds = intent.getIntExtra(EXTRA_CALENDAREVENT_DURATION, -1);
-                calendarEventSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_TITLE));
-                calendarEventSpec.description = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_DESCRIPTION));
-                calendarEventSpec.location = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_LOCATION));
-                mDeviceSupport.onAddCalendarEvent(calendarEventSpec);
+                calendarEventSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_TITLE), deviceSupport, coordinator);
+                calendarEventSpec.description = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_DESCRIPTION), deviceSupport, coordinator);
+                calendarEventSpec.location = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_LOCATION), deviceSupport, coordinator);
+                deviceSupport.onAddCalendarEvent(calendarEventSpec);
                 break;
             }
             case ACTION_DELETE_CALENDAREVENT: {
                 long id = intent.getLongExtra(EXTRA_CALENDAREVENT_ID, -1);
                 byte type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
-                mDeviceSupport.onDeleteCalendarEvent(type, id);
+                deviceSupport.onDeleteCalendarEvent(type, id);
                 break;
             }
             case ACTION_RESET: {
                 int flags = intent.getIntExtra(EXTRA_RESET_FLAGS, 0);
-                mDeviceSupport.onReset(flags);
+                deviceSupport.onReset(flags);
                 break;
             }
             case ACTION_HEARTRATE_TEST: {
-                mDeviceSupport.onHeartRateTest();
+                deviceSupport.onHeartRateTest();
                 break;
             }
             case ACTION_FETCH_RECORDED_DATA: {
                 int dataTypes = intent.getIntExtra(EXTRA_RECORDED_DATA_TYPES, 0);
-                mDeviceSupport.onFetchRecordedData(dataTypes);
-                break;
-            }
-            case ACTION_DISCONNECT: {
-                mDeviceSupport.dispose();
-                if (mGBDevice != null) {
-                    mGBDevice.setState(GBDevice.State.NOT_CONNECTED);
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                setReceiversEnableState(false, false, null);
-                mGBDevice = null;
-                mDeviceSupport = null;
-                mCoordinator = null;
+                deviceSupport.onFetchRecordedData(dataTypes);
                 break;
             }
             case ACTION_FIND_DEVICE: {
                 boolean start = intent.getBooleanExtra(EXTRA_FIND_START, false);
-                mDeviceSupport.onFindDevice(start);
+                deviceSupport.onFindDevice(start);
                 break;
             }
             case ACTION_SET_CONSTANT_VIBRATION: {
                 int intensity = intent.getIntExtra(EXTRA_VIBRATION_INTENSITY, 0);
-                mDeviceSupport.onSetConstantVibration(intensity);
+                deviceSupport.onSetConstantVibration(intensity);
                 break;
             }
             case ACTION_CALLSTATE:
                 CallSpec callSpec = new CallSpec();
                 callSpec.command = intent.getIntExtra(EXTRA_CALL_COMMAND, CallSpec.CALL_UNDEFINED);
                 callSpec.number = intent.getStringExtra(EXTRA_CALL_PHONENUMBER);
-                callSpec.name = sanitizeNotifText(intent.getStringExtra(EXTRA_CALL_DISPLAYNAME));
-                mDeviceSupport.onSetCallState(callSpec);
+                callSpec.name = sanitizeNotifText(intent.getStringExtra(EXTRA_CALL_DISPLAYNAME), deviceSupport, coordinator);
+                deviceSupport.onSetCallState(callSpec);
                 break;
             case ACTION_SETCANNEDMESSAGES:
                 int type = intent.getIntExtra(EXTRA_CANNEDMESSAGES_TYPE, -1);
@@ -495,20 +741,20 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 CannedMessagesSpec cannedMessagesSpec = new CannedMessagesSpec();
                 cannedMessagesSpec.type = type;
                 cannedMessagesSpec.cannedMessages = cannedMessages;
-                mDeviceSupport.onSetCannedMessages(cannedMessagesSpec);
+                deviceSupport.onSetCannedMessages(cannedMessagesSpec);
                 break;
             case ACTION_SETTIME:
-                mDeviceSupport.onSetTime();
+                deviceSupport.onSetTime();
                 break;
             case ACTION_SETMUSICINFO:
                 MusicSpec musicSpec = new MusicSpec();
-                musicSpec.artist = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ARTIST));
-                musicSpec.album = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ALBUM));
-                musicSpec.track = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_TRACK));
+                musicSpec.artist = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ARTIST), deviceSupport, coordinator);
+                musicSpec.album = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ALBUM), deviceSupport, coordinator);
+                musicSpec.track = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_TRACK), deviceSupport, coordinator);
                 musicSpec.duration = intent.getIntExtra(EXTRA_MUSIC_DURATION, 0);
                 musicSpec.trackCount = intent.getIntExtra(EXTRA_MUSIC_TRACKCOUNT, 0);
                 musicSpec.trackNr = intent.getIntExtra(EXTRA_MUSIC_TRACKNR, 0);
-                mDeviceSupport.onSetMusicInfo(musicSpec);
+                deviceSupport.onSetMusicInfo(musicSpec);
                 break;
             case ACTION_SETMUSICSTATE:
                 MusicStateSpec stateSpec = new MusicStateSpec();
@@ -517,23 +763,23 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 stateSpec.position = intent.getIntExtra(EXTRA_MUSIC_POSITION, 0);
                 stateSpec.playRate = intent.getIntExtra(EXTRA_MUSIC_RATE, 0);
                 stateSpec.state = intent.getByteExtra(EXTRA_MUSIC_STATE, (byte) 0);
-                mDeviceSupport.onSetMusicState(stateSpec);
+                deviceSupport.onSetMusicState(stateSpec);
                 break;
             case ACTION_REQUEST_APPINFO:
-                mDeviceSupport.onAppInfoReq();
+                deviceSupport.onAppInfoReq();
                 break;
             case ACTION_REQUEST_SCREENSHOT:
-                mDeviceSupport.onScreenshotReq();
+                deviceSupport.onScreenshotReq();
                 break;
             case ACTION_STARTAPP: {
                 UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
                 boolean start = intent.getBooleanExtra(EXTRA_APP_START, true);
-                mDeviceSupport.onAppStart(uuid, start);
+                deviceSupport.onAppStart(uuid, start);
                 break;
             }
             case ACTION_DELETEAPP: {
                 UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppDelete(uuid);
+                deviceSupport.onAppDelete(uuid);
                 break;
             }
             case ACTION_APP_CONFIGURE: {
@@ -543,103 +789,120 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 if (intent.hasExtra(EXTRA_APP_CONFIG_ID)) {
                     id = intent.getIntExtra(EXTRA_APP_CONFIG_ID, 0);
                 }
-                mDeviceSupport.onAppConfiguration(uuid, config, id);
+                deviceSupport.onAppConfiguration(uuid, config, id);
                 break;
             }
             case ACTION_APP_REORDER: {
                 UUID[] uuids = (UUID[]) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppReorder(uuids);
+                deviceSupport.onAppReorder(uuids);
                 break;
             }
             case ACTION_INSTALL:
                 Uri uri = intent.getParcelableExtra(EXTRA_URI);
                 if (uri != null) {
                     LOG.info("will try to install app/fw");
-                    mDeviceSupport.onInstallApp(uri);
+                    deviceSupport.onInstallApp(uri);
                 }
                 break;
             case ACTION_SET_ALARMS:
                 ArrayList<? extends Alarm> alarms = (ArrayList<? extends Alarm>) intent.getSerializableExtra(EXTRA_ALARMS);
-                mDeviceSupport.onSetAlarms(alarms);
+                deviceSupport.onSetAlarms(alarms);
                 break;
             case ACTION_ENABLE_REALTIME_STEPS: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeSteps(enable);
+                deviceSupport.onEnableRealtimeSteps(enable);
                 break;
             }
             case ACTION_ENABLE_HEARTRATE_SLEEP_SUPPORT: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableHeartRateSleepSupport(enable);
+                deviceSupport.onEnableHeartRateSleepSupport(enable);
                 break;
             }
             case ACTION_SET_HEARTRATE_MEASUREMENT_INTERVAL: {
                 int seconds = intent.getIntExtra(EXTRA_INTERVAL_SECONDS, 0);
-                mDeviceSupport.onSetHeartRateMeasurementInterval(seconds);
+                deviceSupport.onSetHeartRateMeasurementInterval(seconds);
                 break;
             }
             case ACTION_ENABLE_REALTIME_HEARTRATE_MEASUREMENT: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
+                deviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
                 break;
             }
             case ACTION_SEND_CONFIGURATION: {
                 String config = intent.getStringExtra(EXTRA_CONFIG);
-                mDeviceSupport.onSendConfiguration(config);
+                deviceSupport.onSendConfiguration(config);
                 break;
             }
             case ACTION_READ_CONFIGURATION: {
                 String config = intent.getStringExtra(EXTRA_CONFIG);
-                mDeviceSupport.onReadConfiguration(config);
+                deviceSupport.onReadConfiguration(config);
                 break;
             }
             case ACTION_TEST_NEW_FUNCTION: {
-                mDeviceSupport.onTestNewFunction();
+                deviceSupport.onTestNewFunction();
                 break;
             }
             case ACTION_SEND_WEATHER: {
                 WeatherSpec weatherSpec = intent.getParcelableExtra(EXTRA_WEATHER);
                 if (weatherSpec != null) {
-                    mDeviceSupport.onSendWeather(weatherSpec);
+                    deviceSupport.onSendWeather(weatherSpec);
                 }
                 break;
             }
             case ACTION_SET_LED_COLOR:
                 int color = intent.getIntExtra(EXTRA_LED_COLOR, 0);
                 if (color != 0) {
-                    mDeviceSupport.onSetLedColor(color);
+                    deviceSupport.onSetLedColor(color);
                 }
                 break;
             case ACTION_SET_FM_FREQUENCY:
                 float frequency = intent.getFloatExtra(EXTRA_FM_FREQUENCY, -1);
                 if (frequency != -1) {
-                    mDeviceSupport.onSetFmFrequency(frequency);
+                    deviceSupport.onSetFmFrequency(frequency);
                 }
                 break;
         }
     }
 
+    private synchronized DeviceSupport getDeviceSupport(String address) {
+        return mDeviceSupports.get(address);
+    }
+
+    private synchronized void addDeviceSupport(DeviceSupport deviceSupport) {
+        mDeviceSupports.put(deviceSupport.getDevice().getAddress(), deviceSupport);
+    }
+
     /**
-     * Disposes the current DeviceSupport instance (if any) and sets a new device support instance
-     * (if not null).
-     *
-     * @param deviceSupport
+     * Removes the given device support, if it is still the current one of its device. It is
+     * disposed on the command thread of the device after the commands queued before, and the
+     * device is marked as not connected.
      */
-    private void setDeviceSupport(@Nullable DeviceSupport deviceSupport) {
-        if (deviceSupport != mDeviceSupport && mDeviceSupport != null) {
-            mDeviceSupport.dispose();
-            mDeviceSupport = null;
-            mGBDevice = null;
-            mCoordinator = null;
+    private void removeDeviceSupport(final DeviceSupport deviceSupport) {
+        final GBDevice device = deviceSupport.getDevice();
+        synchronized (this) {
+            if (mDeviceSupports.get(device.getAddress()) != deviceSupport) {
+                return;
+            }
+            mDeviceSupports.remove(device.getAddress());
         }
-        mDeviceSupport = deviceSupport;
-        mGBDevice = mDeviceSupport != null ? mDeviceSupport.getDevice() : null;
-        mCoordinator = mGBDevice != null ? DeviceHelper.getInstance().getCoordinator(mGBDevice) : null;
+        mInitializedDevices.remove(device.getAddress());
+        getCommandExecutor(device.getAddress()).execute(new Runnable() {
+            @Override
+            public void run() {
+                deviceSupport.dispose();
+                if (device.getState() != GBDevice.State.NOT_CONNECTED) {
+                    device.setState(GBDevice.State.NOT_CONNECTED);
+                    device.sendDeviceUpdateIntent(DeviceCommunicationService.this);
+                }
+            }
+        });
     }
 
     private void start() {
         if (!mStarted) {
             startForeground(GB.NOTIFICATION_ID, GB.createNotification(getString(R.string.gadgetbridge_running), this));
             mStarted = true;
+            sStartedInstance = this;
         }
     }
 
@@ -647,47 +910,108 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         return mStarted;
     }
 
-    private boolean isConnected() {
-        return mGBDevice != null && mGBDevice.isConnected();
-    }
-
-    private boolean isConnecting() {
-        return mGBDevice != null && mGBDevice.isConnecting();
+    /**
+     * Sends the stored weather to devices that have just been initialized, instead of
+     * waiting for the next update of the weather provider.
+     */
+    private void updateInitializedState(GBDevice device) {
+        if (!device.isInitialized()) {
+            mInitializedDevices.remove(device.getAddress());
+            return;
+        }
+        if (!mInitializedDevices.add(device.getAddress())) {
+            return;
+        }
+        if (!DeviceHelper.getInstance().getCoordinator(device).supportsWeather()) {
+            return;
+        }
+        WeatherSpec weatherSpec = Weather.getInstance().getWeatherSpec();
+        if (weatherSpec != null) {
+            LOG.info("Sending stored weather to " + device);
+            GBApplication.deviceService(device).onSendWeather(weatherSpec);
+        }
     }
 
-    private boolean isInitialized() {
-        return mGBDevice != null && mGBDevice.isInitialized();
+    /**
+     * Enables the broadcast receivers needed by the devices that are initialized or connect
+     * automatically, and disables the others.
+     */
+    private void updateReceiversState() {
+        List<DeviceCoordinator> coordinators = new ArrayList<>();
+        List<GBDevice> calendarDevices = new ArrayList<>();
+        for (DeviceSupport deviceSupport : getDeviceSupports()) {
+            GBDevice device = deviceSupport.getDevice();
+            if (!deviceSupport.useAutoConnect() && !device.isInitialized()) {
+                continue;
+            }
+            DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+            coordinators.add(coordinator);
+            if (device.isInitialized() && coordinator.supportsCalendarEvents()) {
+                calendarDevices.add(device);
+            }
+        }
+        setReceiversEnableState(!coordinators.isEmpty(), coordinators);
+        setCalendarReceiversEnableState(calendarDevices);
     }
 
+    /**
+     * Registers a calendar receiver for each of the given devices, and unregisters the
+     * receivers of all other devices.
+     */
+    private void setCalendarReceiversEnableState(List<GBDevice> devices) {
+        Map<String, GBDevice> enabledDevices = new HashMap<>();
+        for (GBDevice device : devices) {
+            enabledDevices.put(device.getAddress(), device);
+        }
 
-    private void setReceiversEnableState(boolean enable, boolean initialized, DeviceCoordinator coordinator) {
-        LOG.info("Setting broadcast receivers to: " + enable);
+        Iterator<Map.Entry<String, CalendarReceiver>> it = mCalendarReceivers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, CalendarReceiver> entry = it.next();
+            if (!enabledDevices.containsKey(entry.getKey())) {
+                unregisterReceiver(entry.getValue());
+                it.remove();
+            }
+        }
 
-        if (enable && initialized && coordinator != null && coordinator.supportsCalendarEvents()) {
-            if (mCalendarReceiver == null && getPrefs().getBoolean("enable_calendar_sync", true)) {
-                if (!(GBApplication.isRunningMarshmallowOrLater() && ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALENDAR) == PackageManager.PERMISSION_DENIED)) {
+        if (!enabledDevices.isEmpty() && getPrefs().getBoolean("enable_calendar_sync", true)
+                && !(GBApplication.isRunningMarshmallowOrLater() && ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CALENDAR) == PackageManager.PERMISSION_DENIED)) {
+            for (GBDevice device : enabledDevices.values()) {
+                if (!mCalendarReceivers.containsKey(device.getAddress())) {
                     IntentFilter calendarIntentFilter = new IntentFilter();
                     calendarIntentFilter.addAction("android.intent.action.PROVIDER_CHANGED");
                     calendarIntentFilter.addDataScheme("content");
                     calendarIntentFilter.addDataAuthority("com.android.calendar", null);
-                    mCalendarReceiver = new CalendarReceiver(mGBDevice);
-                    registerReceiver(mCalendarReceiver, calendarIntentFilter);
+                    CalendarReceiver calendarReceiver = new CalendarReceiver(device);
+                    registerReceiver(calendarReceiver, calendarIntentFilter);
+                    mCalendarReceivers.put(device.getAddress(), calendarReceiver);
                 }
             }
+        }
+
+        if (!enabledDevices.isEmpty()) {
             if (mAlarmReceiver == null) {
                 mAlarmReceiver = new AlarmReceiver();
                 registerReceiver(mAlarmReceiver, new IntentFilter("DAILY_ALARM"));
             }
         } else {
-            if (mCalendarReceiver != null) {
-                unregisterReceiver(mCalendarReceiver);
-                mCalendarReceiver = null;
-            }
             if (mAlarmReceiver != null) {
                 unregisterReceiver(mAlarmReceiver);
                 mAlarmReceiver = null;
             }
         }
+    }
+
+    private void setReceiversEnableState(boolean enable, List<DeviceCoordinator> coordinators) {
+        LOG.info("Setting broadcast receivers to: " + enable);
+
+        boolean supportsMusicInfo = false;
+        boolean supportsWeather = false;
+        boolean supportsActivityDataFetching = false;
+        for (DeviceCoordinator coordinator : coordinators) {
+            supportsMusicInfo |= coordinator.supportsMusicInfo();
+            supportsWeather |= coordinator.supportsWeather();
+            supportsActivityDataFetching |= coordinator.supportsActivityDataFetching();
+        }
 
         if (enable) {
             if (mPhoneCallReceiver == null) {
@@ -706,7 +1030,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 mPebbleReceiver = new PebbleReceiver();
                 registerReceiver(mPebbleReceiver, new IntentFilter("com.getpebble.action.SEND_NOTIFICATION"));
             }
-            if (mMusicPlaybackReceiver == null && coordinator != null && coordinator.supportsMusicInfo()) {
+            if (mMusicPlaybackReceiver == null && supportsMusicInfo) {
                 mMusicPlaybackReceiver = new MusicPlaybackReceiver();
                 IntentFilter filter = new IntentFilter();
                 for (String action : mMusicActions) {
@@ -740,7 +1064,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             }
 
             // Weather receivers
-            if ( coordinator != null && coordinator.supportsWeather()) {
+            if (supportsWeather) {
                 if (GBApplication.isRunningOreoOrLater()) {
                     if (mLineageOsWeatherReceiver == null) {
                         mLineageOsWeatherReceiver = new LineageOsWeatherReceiver();
@@ -768,7 +1092,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             }
 
             if (GBApplication.getPrefs().getBoolean("auto_fetch_enabled", false) &&
-                    coordinator != null && coordinator.supportsActivityDataFetching() && mGBAutoFetchReceiver == null) {
+                    supportsActivityDataFetching && mGBAutoFetchReceiver == null) {
                 mGBAutoFetchReceiver = new GBAutoFetchReceiver();
                 registerReceiver(mGBAutoFetchReceiver, new IntentFilter("android.intent.action.USER_PRESENT"));
             }
@@ -848,9 +1172,20 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         super.onDestroy();
 
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
-        setReceiversEnableState(false, false, null); // disable BroadcastReceivers
+        setReceiversEnableState(false, Collections.<DeviceCoordinator>emptyList()); // disable BroadcastReceivers
+        setCalendarReceiversEnableState(Collections.<GBDevice>emptyList());
 
-        setDeviceSupport(null);
+        sStartedInstance = null;
+        for (DeviceSupport deviceSupport : getDeviceSupports()) {
+            removeDeviceSupport(deviceSupport);
+        }
+        synchronized (this) {
+            // the queued commands and disposals are still executed
+            for (ExecutorService executor : mCommandExecutors.values()) {
+                executor.shutdown();
+            }
+            mCommandExecutors.clear();
+        }
         NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         if (nm != null) {
             nm.cancel(GB.NOTIFICATION_ID); // need to do this because the updated notification won't be cancelled when service stops
@@ -866,8 +1201,8 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (GBPrefs.AUTO_RECONNECT.equals(key)) {
             boolean autoReconnect = getGBPrefs().getAutoReconnect();
-            if (mDeviceSupport != null) {
-                mDeviceSupport.setAutoReconnect(autoReconnect);
+            for (DeviceSupport deviceSupport : getDeviceSupports()) {
+                deviceSupport.setAutoReconnect(autoReconnect);
             }
         }
         if (GBPrefs.CHART_MAX_HEART_RATE.equals(key) || GBPrefs.CHART_MIN_HEART_RATE.equals(key)) {
@@ -887,7 +1222,18 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         return GBApplication.getGBPrefs();
     }
 
-    public GBDevice getGBDevice() {
-        return mGBDevice;
+    private synchronized List<DeviceSupport> getDeviceSupports() {
+        return new ArrayList<>(mDeviceSupports.values());
+    }
+
+    /**
+     * Returns the devices that are currently connected or connecting.
+     */
+    public synchronized List<GBDevice> getGBDevices() {
+        List<GBDevice> devices = new ArrayList<>(mDeviceSupports.size());
+        for (DeviceSupport deviceSupport : mDeviceSupports.values()) {
+            devices.add(deviceSupport.getDevice());
+        }
+        return devices;
     }
 }
@@ -353,7 +353,9 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
 
     @Override
     public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-
+        for (AbstractBleProfile profile : mSupportedProfiles) {
+            profile.onMtuChanged(gatt, mtu, status);
+        }
     }
 
     @Override
@@ -38,19 +38,20 @@ import androidx.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.Logging;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolTrace;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice.State;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.util.SyncMetrics;
 
 /**
  * One queue/thread per connectable device.
@@ -65,7 +66,7 @@ public final class BtLEQueue {
     private BluetoothGattServer mBluetoothGattServer;
     private final Set<BluetoothGattService> mSupportedServerServices;
 
-    private final BlockingQueue<AbstractTransaction> mTransactions = new LinkedBlockingQueue<>();
+    private final BlockingDeque<AbstractTransaction> mTransactions = new LinkedBlockingDeque<>();
     private volatile boolean mDisposed;
     private volatile boolean mCrashed;
     private volatile boolean mAbortTransaction;
@@ -79,6 +80,8 @@ public final class BtLEQueue {
     private final InternalGattCallback internalGattCallback;
     private final InternalGattServerCallback internalGattServerCallback;
     private boolean mAutoReconnect;
+    private final String mActionsMetric;
+    private final String mLatchWaitMetric;
 
     private Thread dispatchThread = new Thread("Gadgetbridge GATT Dispatcher") {
 
@@ -119,10 +122,13 @@ public final class BtLEQueue {
                                 LOG.debug("About to run action: " + action);
                             }
                             if (action.run(mBluetoothGattServer)) {
+                                SyncMetrics.count(mActionsMetric, 1);
                                 // check again, maybe due to some condition, action did not need to write, so we can't wait
                                 boolean waitForResult = action.expectsResult();
                                 if (waitForResult) {
+                                    long waitStart = System.nanoTime();
                                     mWaitForServerActionResultLatch.await();
+                                    SyncMetrics.time(mLatchWaitMetric, waitStart);
                                     mWaitForServerActionResultLatch = null;
                                     if (mAbortServerTransaction) {
                                         break;
@@ -130,6 +136,7 @@ public final class BtLEQueue {
                                 }
                             } else {
                                 LOG.error("Action returned false: " + action);
+                                ProtocolTrace.getInstance().dump(LOG, mGbDevice.getAddress(), "action failed");
                                 break; // abort the transaction
                             }
                         }
@@ -156,10 +163,13 @@ public final class BtLEQueue {
                                 internalGattCallback.setTransactionGattCallback(((GattListenerAction) action).getGattCallback());
                             }
                             if (action.run(mBluetoothGatt)) {
+                                SyncMetrics.count(mActionsMetric, 1);
                                 // check again, maybe due to some condition, action did not need to write, so we can't wait
                                 boolean waitForResult = action.expectsResult();
                                 if (waitForResult) {
+                                    long waitStart = System.nanoTime();
                                     mWaitForActionResultLatch.await();
+                                    SyncMetrics.time(mLatchWaitMetric, waitStart);
                                     mWaitForActionResultLatch = null;
                                     if (mAbortTransaction) {
                                         break;
@@ -167,6 +177,7 @@ public final class BtLEQueue {
                                 }
                             } else {
                                 LOG.error("Action returned false: " + action);
+                                ProtocolTrace.getInstance().dump(LOG, mGbDevice.getAddress(), "action failed");
                                 break; // abort the transaction
                             }
                         }
@@ -176,6 +187,7 @@ public final class BtLEQueue {
                     LOG.debug("Thread interrupted");
                 } catch (Throwable ex) {
                     LOG.error("Queue Dispatch Thread died: " + ex.getMessage(), ex);
+                    ProtocolTrace.getInstance().dump(LOG, mGbDevice.getAddress(), "dispatch thread died");
                     mCrashed = true;
                     mConnectionLatch = null;
                 } finally {
@@ -194,6 +206,8 @@ public final class BtLEQueue {
         internalGattServerCallback = new InternalGattServerCallback(externalGattServerCallback);
         mContext = context;
         mSupportedServerServices = supportedServerServices;
+        mActionsMetric = SyncMetrics.forDevice("btle.actions", gbDevice);
+        mLatchWaitMetric = SyncMetrics.forDevice("btle.latchWait", gbDevice);
 
         dispatchThread.start();
     }
@@ -391,12 +405,7 @@ public final class BtLEQueue {
     public void insert(Transaction transaction) {
         LOG.debug("about to insert: " + transaction);
         if (!transaction.isEmpty()) {
-            List<AbstractTransaction> tail = new ArrayList<>(mTransactions.size() + 2);
-            //mTransactions.drainTo(tail);
-            tail.addAll(mTransactions);
-            mTransactions.clear();
-            mTransactions.add(transaction);
-            mTransactions.addAll(tail);
+            mTransactions.addFirst(transaction);
         }
     }
 
@@ -531,7 +540,9 @@ public final class BtLEQueue {
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            LOG.debug("characteristic write: " + characteristic.getUuid() + getStatusString(status));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("characteristic write: " + characteristic.getUuid() + getStatusString(status));
+            }
             if (!checkCorrectGattInstance(gatt, "characteristic write")) {
                 return;
             }
@@ -558,10 +569,15 @@ public final class BtLEQueue {
         public void onCharacteristicRead(BluetoothGatt gatt,
                                          BluetoothGattCharacteristic characteristic,
                                          int status) {
-            LOG.debug("characteristic read: " + characteristic.getUuid() + getStatusString(status));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("characteristic read: " + characteristic.getUuid() + getStatusString(status));
+            }
             if (!checkCorrectGattInstance(gatt, "characteristic read")) {
                 return;
             }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                ProtocolTrace.getInstance().record(mGbDevice.getAddress(), ProtocolTrace.DIRECTION_IN, characteristic.getUuid(), characteristic.getValue());
+            }
             if (getCallbackToUse() != null) {
                 try {
                     getCallbackToUse().onCharacteristicRead(gatt, characteristic, status);
@@ -614,6 +630,7 @@ public final class BtLEQueue {
             if (!checkCorrectGattInstance(gatt, "characteristic changed")) {
                 return;
             }
+            ProtocolTrace.getInstance().record(mGbDevice.getAddress(), ProtocolTrace.DIRECTION_IN, characteristic.getUuid(), characteristic.getValue());
             if (getCallbackToUse() != null) {
                 try {
                     getCallbackToUse().onCharacteristicChanged(gatt, characteristic);
@@ -644,6 +661,7 @@ public final class BtLEQueue {
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 if (characteristic != null) {
                     LOG.debug("failed btle action, aborting transaction: " + characteristic.getUuid() + getStatusString(status));
+                    ProtocolTrace.getInstance().dump(LOG, mGbDevice.getAddress(), "action failed with status " + status);
                 }
                 mAbortTransaction = true;
             }
@@ -726,7 +744,10 @@ public final class BtLEQueue {
             if(!checkCorrectBluetoothDevice(device)) {
                 return;
             }
-            LOG.debug("characteristic write request: " + device.getAddress() + " characteristic: " + characteristic.getUuid());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("characteristic write request: " + device.getAddress() + " characteristic: " + characteristic.getUuid());
+            }
+            ProtocolTrace.getInstance().record(device.getAddress(), ProtocolTrace.DIRECTION_IN, characteristic.getUuid(), value);
             if (getCallbackToUse() != null) {
                 getCallbackToUse().onCharacteristicWriteRequest(device, requestId, characteristic, preparedWrite, responseNeeded, offset, value);
             }
@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nodomain.freeyourgadget.gadgetbridge.Logging;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolTrace;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEServerAction;
 
 /**
@@ -56,6 +57,7 @@ public class ServerResponseAction extends BtLEServerAction {
         if (LOG.isDebugEnabled()) {
             LOG.debug("writing to server: " + device.getAddress() + ": " + Logging.formatBytes(value));
         }
+        ProtocolTrace.getInstance().record(device.getAddress(), ProtocolTrace.DIRECTION_OUT, "server response", value);
 
         return gattServer.sendResponse(device, requestId, 0, offset, value);
     }
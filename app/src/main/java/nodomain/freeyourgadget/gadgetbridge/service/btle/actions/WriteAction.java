@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nodomain.freeyourgadget.gadgetbridge.Logging;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolTrace;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
 
 /**
@@ -58,6 +59,7 @@ public class WriteAction extends BtLEAction {
             LOG.debug("writing to characteristic: " + characteristic.getUuid() + ": " + Logging.formatBytes(value));
         }
         if (characteristic.setValue(value)) {
+            ProtocolTrace.getInstance().record(gatt.getDevice().getAddress(), ProtocolTrace.DIRECTION_OUT, characteristic.getUuid(), value);
             return gatt.writeCharacteristic(characteristic);
         }
         return false;
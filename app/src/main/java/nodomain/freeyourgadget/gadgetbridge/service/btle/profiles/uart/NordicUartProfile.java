@@ -0,0 +1,148 @@
+/*  Copyright (C) 2016-2021 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.AbstractBleProfile;
+
+/**
+ * A line based serial connection over the Nordic UART service, as used by Bangle.js and
+ * WaspOS.
+ *
+ * Written data is split into packets as large as the negotiated MTU allows, optionally
+ * limited further by the device. The packets are written without response where the
+ * device supports it; the queue still waits for each packet to be accepted by the
+ * Bluetooth stack, so it does not overrun the stack's buffers. Received data is split
+ * into lines, which are passed to the {@link LineListener}.
+ */
+public class NordicUartProfile<T extends AbstractBTLEDeviceSupport> extends AbstractBleProfile<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(NordicUartProfile.class);
+
+    public static final UUID UUID_SERVICE_NORDIC_UART = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    public static final UUID UUID_CHARACTERISTIC_NORDIC_UART_TX = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    public static final UUID UUID_CHARACTERISTIC_NORDIC_UART_RX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 247;
+    // the ATT write command takes 3 bytes of each packet
+    private static final int ATT_HEADER_LENGTH = 3;
+    public static final int MAX_PACKET_SIZE = MAX_MTU - ATT_HEADER_LENGTH;
+
+    public interface LineListener {
+        void onUartRxLine(String line);
+    }
+
+    private final LineListener lineListener;
+    private final int maxPacketSize;
+    private final UartRxBuffer rxBuffer = new UartRxBuffer();
+    private volatile int mtu = DEFAULT_MTU;
+
+    /**
+     * @param maxPacketSize the maximum number of bytes the device accepts per write,
+     *                      regardless of the MTU
+     */
+    public NordicUartProfile(T support, LineListener lineListener, int maxPacketSize) {
+        super(support);
+        this.lineListener = lineListener;
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    /**
+     * Enables the notifications of received data and prefers writes without response.
+     */
+    public void initialize(TransactionBuilder builder) {
+        mtu = DEFAULT_MTU;
+        rxBuffer.clear();
+        BluetoothGattCharacteristic txCharacteristic = getCharacteristic(UUID_CHARACTERISTIC_NORDIC_UART_TX);
+        if ((txCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+            txCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+        builder.notify(getCharacteristic(UUID_CHARACTERISTIC_NORDIC_UART_RX), true);
+    }
+
+    /**
+     * Asks the device for a larger MTU, if that would allow larger packets. Until the device
+     * answers, packets are split as for the default MTU.
+     */
+    public void requestMtu(TransactionBuilder builder) {
+        if (maxPacketSize > DEFAULT_MTU - ATT_HEADER_LENGTH && GBApplication.isRunningLollipopOrLater()) {
+            builder.requestMtu(Math.min(MAX_MTU, maxPacketSize + ATT_HEADER_LENGTH));
+        }
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * The number of bytes that are written per packet.
+     */
+    public int getPacketSize() {
+        return Math.min(maxPacketSize, mtu - ATT_HEADER_LENGTH);
+    }
+
+    public void write(TransactionBuilder builder, String text) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("UART TX: " + text);
+        }
+        write(builder, text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public void write(TransactionBuilder builder, byte[] data) {
+        BluetoothGattCharacteristic txCharacteristic = getCharacteristic(UUID_CHARACTERISTIC_NORDIC_UART_TX);
+        int packetSize = getPacketSize();
+        for (int offset = 0; offset < data.length; offset += packetSize) {
+            builder.write(txCharacteristic, Arrays.copyOfRange(data, offset, Math.min(data.length, offset + packetSize)));
+        }
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            LOG.info("UART MTU changed to " + mtu);
+            this.mtu = mtu;
+        }
+    }
+
+    @Override
+    public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        if (!UUID_CHARACTERISTIC_NORDIC_UART_RX.equals(characteristic.getUuid())) {
+            return false;
+        }
+        rxBuffer.append(characteristic.getValue());
+        String line;
+        while ((line = rxBuffer.nextLine()) != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("UART RX LINE: " + line);
+            }
+            lineListener.onUartRxLine(line);
+        }
+        return true;
+    }
+}
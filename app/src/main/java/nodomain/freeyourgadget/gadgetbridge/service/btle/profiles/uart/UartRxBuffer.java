@@ -0,0 +1,85 @@
+/*  Copyright (C) 2016-2021 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Collects the received bytes and splits them into lines. Every byte is only looked at
+ * once when searching for the end of a line, and lines are decoded as a whole, so that
+ * characters split between two packets are decoded correctly.
+ */
+class UartRxBuffer {
+    private byte[] buffer = new byte[256];
+    // the unconsumed bytes are buffer[start..end), there is no newline in buffer[start..scanned)
+    private int start;
+    private int scanned;
+    private int end;
+
+    void append(byte[] data) {
+        if (data == null || data.length == 0) {
+            return;
+        }
+        if (end + data.length > buffer.length) {
+            int size = end - start;
+            if (size + data.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + data.length));
+            }
+            System.arraycopy(buffer, start, buffer, 0, size);
+            scanned -= start;
+            end = size;
+            start = 0;
+        }
+        System.arraycopy(data, 0, buffer, end, data.length);
+        end += data.length;
+    }
+
+    /**
+     * Returns the next complete line without the line terminator ("\n" or "\r\n"),
+     * or null if there is none yet.
+     */
+    String nextLine() {
+        for (int i = scanned; i < end; i++) {
+            if (buffer[i] == '\n') {
+                int lineEnd = i;
+                if (lineEnd > start && buffer[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                String line = new String(buffer, start, lineEnd - start, StandardCharsets.UTF_8);
+                start = scanned = i + 1;
+                if (start == end) {
+                    start = scanned = end = 0;
+                }
+                return line;
+            }
+        }
+        scanned = end;
+        return null;
+    }
+
+    /**
+     * The number of buffered bytes that were not returned as part of a line yet.
+     */
+    int size() {
+        return end - start;
+    }
+
+    void clear() {
+        start = scanned = end = 0;
+    }
+}
@@ -16,8 +16,6 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
@@ -32,7 +30,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -65,6 +62,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart.NordicUartProfile;
 import nodomain.freeyourgadget.gadgetbridge.util.AlarmUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
@@ -73,10 +71,8 @@ import static nodomain.freeyourgadget.gadgetbridge.database.DBHelper.*;
 
 public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     private static final Logger LOG = LoggerFactory.getLogger(BangleJSDeviceSupport.class);
-    private BluetoothGattCharacteristic rxCharacteristic = null;
-    private BluetoothGattCharacteristic txCharacteristic = null;
+    private final NordicUartProfile<BangleJSDeviceSupport> uartProfile;
 
-    private String receivedLine = "";
     private boolean realtimeHRM = false;
     private boolean realtimeStep = false;
     private int realtimeHRMInterval = 30*60;
@@ -84,6 +80,14 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     public BangleJSDeviceSupport() {
         super(LOG);
         addSupportedService(BangleJSConstants.UUID_SERVICE_NORDIC_UART);
+
+        uartProfile = new NordicUartProfile<>(this, new NordicUartProfile.LineListener() {
+            @Override
+            public void onUartRxLine(String line) {
+                handleUartRxLine(line);
+            }
+        }, NordicUartProfile.MAX_PACKET_SIZE);
+        addSupportedProfile(uartProfile);
     }
 
     @Override
@@ -93,10 +97,8 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         gbDevice.setState(GBDevice.State.INITIALIZING);
         gbDevice.sendDeviceUpdateIntent(getContext());
 
-        rxCharacteristic = getCharacteristic(BangleJSConstants.UUID_CHARACTERISTIC_NORDIC_UART_RX);
-        txCharacteristic = getCharacteristic(BangleJSConstants.UUID_CHARACTERISTIC_NORDIC_UART_TX);
         builder.setGattCallback(this);
-        builder.notify(rxCharacteristic, true);
+        uartProfile.initialize(builder);
 
         uartTx(builder, " \u0003"); // clear active line
 
@@ -113,6 +115,8 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         getDevice().setFirmwareVersion("N/A");
         getDevice().setFirmwareVersion2("N/A");
 
+        uartProfile.requestMtu(builder);
+
         LOG.info("Initialization Done");
 
         return builder;
@@ -120,16 +124,7 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
 
     /// Write a string of data, and chunk it up
     private void uartTx(TransactionBuilder builder, String str) {
-        LOG.info("UART TX: " + str);
-        byte[] bytes;
-        bytes = str.getBytes(StandardCharsets.ISO_8859_1);
-        for (int i=0;i<bytes.length;i+=20) {
-            int l = bytes.length-i;
-            if (l>20) l=20;
-            byte[] packet = new byte[l];
-            System.arraycopy(bytes, i, packet, 0, l);
-            builder.write(txCharacteristic, packet);
-        }
+        uartProfile.write(builder, str);
     }
 
     /// Write a string of data, and chunk it up
@@ -144,11 +139,9 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     }
 
     private void handleUartRxLine(String line) {
-        LOG.info("UART RX LINE: " + line);
-
         if (">Uncaught ReferenceError: \"gb\" is not defined".equals(line))
           GB.toast(getContext(), "Gadgetbridge plugin not installed on Bangle.js", Toast.LENGTH_LONG, GB.ERROR);
-        else if (line.charAt(0)=='{') {
+        else if (line.startsWith("{")) {
             // JSON - we hope!
             try {
                 JSONObject json = new JSONObject(line);
@@ -267,27 +260,6 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         }
     }
 
-    @Override
-    public boolean onCharacteristicChanged(BluetoothGatt gatt,
-                                           BluetoothGattCharacteristic characteristic) {
-        if (super.onCharacteristicChanged(gatt, characteristic)) {
-            return true;
-        }
-        if (BangleJSConstants.UUID_CHARACTERISTIC_NORDIC_UART_RX.equals(characteristic.getUuid())) {
-            byte[] chars = characteristic.getValue();
-            String packetStr = new String(chars);
-            LOG.info("RX: " + packetStr);
-            receivedLine += packetStr;
-            while (receivedLine.contains("\n")) {
-                int p = receivedLine.indexOf("\n");
-                String line =  receivedLine.substring(0,p-1);
-                receivedLine = receivedLine.substring(p+1);
-                handleUartRxLine(line);
-            }
-        }
-        return false;
-    }
-
 
     void transmitTime(TransactionBuilder builder) {
       long ts = System.currentTimeMillis();
@@ -22,6 +22,7 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
 import org.slf4j.Logger;
@@ -92,9 +93,9 @@ public class CasioGBX100DeviceSupport extends AbstractBTLEDeviceSupport implemen
     private final ArrayList<Integer> mSyncedNotificationIDs = new ArrayList<>();
     private int mLastCallId = new AtomicInteger((int) (System.currentTimeMillis()/1000)).incrementAndGet();
     private int mFakeRingDurationCounter = 0;
-    private final Handler mFindPhoneHandler = new Handler();
-    private final Handler mFakeRingDurationHandler = new Handler();
-    private final Handler mAutoRemoveMessageHandler = new Handler();
+    private final Handler mFindPhoneHandler = new Handler(Looper.getMainLooper());
+    private final Handler mFakeRingDurationHandler = new Handler(Looper.getMainLooper());
+    private final Handler mAutoRemoveMessageHandler = new Handler(Looper.getMainLooper());
 
     public CasioGBX100DeviceSupport() {
         super(LOG);
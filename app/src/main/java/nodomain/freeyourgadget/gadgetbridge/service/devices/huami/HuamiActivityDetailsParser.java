@@ -20,16 +20,11 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.huami;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPointColumns;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
@@ -47,13 +42,15 @@ public class HuamiActivityDetailsParser {
     private static final byte TYPE_SPEED6 = 6;
     private static final byte TYPE_SWIMMING = 8;
 
-    private static final BigDecimal HUAMI_TO_DECIMAL_DEGREES_DIVISOR = new BigDecimal(3000000.0);
     private final ActivityTrack activityTrack;
     private final Date baseDate;
     private long baseLongitude;
     private long baseLatitude;
     private int baseAltitude;
-    private ActivityPoint lastActivityPoint;
+    private ActivityPointColumns points;
+    // number of leading GPS points without a proper timestamp, and the first proper timestamp
+    private int missingTimestamps;
+    private int gpsStartTimeOffset;
 
     public void setSkipCounterByte(boolean skipCounterByte) {
         this.skipCounterByte = skipCounterByte;
@@ -74,6 +71,10 @@ public class HuamiActivityDetailsParser {
     }
 
     public ActivityTrack parse(byte[] bytes) throws GBException {
+        // most records are 8 bytes long
+        points = new ActivityPointColumns(baseDate.getTime(), bytes.length / 8 + 1);
+        missingTimestamps = 0;
+        gpsStartTimeOffset = -1;
         int i = 0;
         try {
             long totalTimeOffset = 0;
@@ -128,46 +129,29 @@ public class HuamiActivityDetailsParser {
             throw new GBException("Error parsing activity details: " + ex.getMessage(), ex);
         }
 
-        fixupMissingTimestamps(activityTrack);
+        fixupMissingTimestamps();
 
+        activityTrack.setTrackPoints(points);
         return activityTrack;
     }
 
-    private void fixupMissingTimestamps(ActivityTrack activityTrack) {
-        try {
-            int pointer = 0;
-            List<ActivityPoint> activityPointList = activityTrack.getTrackPoints();
-            Date gpsStartTime = null;
-            List<ActivityPoint> entriesToFixUp = new ArrayList<>();
-            while (pointer < activityPointList.size() - 1) {
-                ActivityPoint activityPoint = activityPointList.get(pointer);
-                if (activityPoint.getLocation() == null) {
-                    pointer++;
-                    continue;
-                }
-                if (activityPoint.getTime().equals(activityPointList.get(pointer + 1).getTime())) {
-                    entriesToFixUp.add(activityPoint);
-                } else {
-                    // found the first activity point with a proper timestamp
-                    entriesToFixUp.add(activityPoint);
-                    gpsStartTime = activityPointList.get(pointer + 1).getTime();
-                    break;
-                }
-                pointer++;
-            }
-            if (gpsStartTime != null) {
-                // now adjust those entries without a timestamp
-                long differenceInSec = TimeUnit.SECONDS.convert(Math.abs(gpsStartTime.getTime() - baseDate.getTime()), TimeUnit.MILLISECONDS);
-
-                double multiplier = (double) differenceInSec / (double) (entriesToFixUp.size());
-
-                for (int j = 0; j < entriesToFixUp.size(); j++) {
-                    long timeOffsetSeconds = Math.round(j * multiplier);
-                    entriesToFixUp.get(j).setTime(makeAbsolute(timeOffsetSeconds));
-                }
+    /**
+     * The first GPS points of a track usually have no proper timestamp yet, i.e. they share
+     * the timestamp of their successor. Those points, up to the first one that is followed by a
+     * point with a different timestamp, are spread evenly between the start of the activity and
+     * that timestamp. The points are counted while parsing, see {@link #addPoint(long)}.
+     */
+    private void fixupMissingTimestamps() {
+        if (gpsStartTimeOffset < 0) {
+            return;
+        }
+        double multiplier = (double) Math.abs(gpsStartTimeOffset) / (double) missingTimestamps;
+        int j = 0;
+        for (int index = 0; j < missingTimestamps; index++) {
+            if (points.hasLocation(index)) {
+                points.setTimeOffset(index, (int) Math.round(j * multiplier));
+                j++;
             }
-        } catch (Exception ex) {
-            LOG.warn("Error cleaning activity details", ex);
         }
     }
 
@@ -179,25 +163,40 @@ public class HuamiActivityDetailsParser {
 
         baseLongitude += longitudeDelta;
         baseLatitude += latitudeDelta;
-        if (baseAltitude != -20000) {
+        if (baseAltitude != ActivityPointColumns.UNKNOWN_ALTITUDE) {
             baseAltitude += altitudeDelta;
         }
 
-        GPSCoordinate coordinate = new GPSCoordinate(
-                convertHuamiValueToDecimalDegrees(baseLongitude),
-                convertHuamiValueToDecimalDegrees(baseLatitude),
-                baseAltitude);
+        int longitude = convertHuamiValueToMicroDegrees(baseLongitude);
+        int latitude = convertHuamiValueToMicroDegrees(baseLatitude);
 
-        ActivityPoint ap = getActivityPointFor(timeOffset, coordinate);
-        ap.setLocation(coordinate);
-        add(ap);
+        int index = points.size() - 1;
+        // a location at the same time is merged into the last point, unless that one already has a different location
+        if (index < 0 || points.getTimeOffset(index) != timeOffset
+                || (points.hasLocation(index) && !points.hasLocation(index, longitude, latitude, baseAltitude))) {
+            index = addPoint(timeOffset);
+        } else {
+            LOG.debug("skipping point!");
+        }
+        points.setLocation(index, longitude, latitude, baseAltitude);
 
         return i;
     }
 
-    private double convertHuamiValueToDecimalDegrees(long huamiValue) {
-        BigDecimal result = new BigDecimal(huamiValue).divide(HUAMI_TO_DECIMAL_DEGREES_DIVISOR, GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE, RoundingMode.HALF_UP);
-        return result.doubleValue();
+    /**
+     * Converts to decimal degrees with {@link GPSCoordinate#GPS_DECIMAL_DEGREES_SCALE} decimals,
+     * rounded half up, i.e. value / 3000000, as fixed point value in microdegrees.
+     */
+    static int convertHuamiValueToMicroDegrees(long huamiValue) {
+        long quotient = huamiValue / 3;
+        long remainder = huamiValue % 3;
+        // the remainder is never exactly half of the divisor
+        if (remainder == 2) {
+            quotient++;
+        } else if (remainder == -2) {
+            quotient--;
+        }
+        return (int) quotient;
     }
 
     private int consumeHeartRate(byte[] bytes, int offset, long timeOffsetSeconds) {
@@ -210,89 +209,81 @@ public class HuamiActivityDetailsParser {
 
         if (v2 == 0 && v3 == 0 && v4 == 0 && v5 == 0 && v6 == 0) {
             // new version
-            LOG.info("detected heart rate in 'new' version format");
-            ActivityPoint ap = getActivityPointFor(timeOffsetSeconds);
-            ap.setHeartRate(v1);
-            add(ap);
+            LOG.debug("detected heart rate in 'new' version format");
+            addHeartRate(timeOffsetSeconds, v1);
         } else {
-            ActivityPoint ap = getActivityPointFor(v1);
-            ap.setHeartRate(v2);
-            add(ap);
-
-            ap = getActivityPointFor(v3);
-            ap.setHeartRate(v4);
-            add(ap);
-
-            ap = getActivityPointFor(v5);
-            ap.setHeartRate(v6);
-            add(ap);
+            addHeartRate(v1, v2);
+            addHeartRate(v3, v4);
+            addHeartRate(v5, v6);
         }
         return 6;
     }
 
-    private ActivityPoint getActivityPointFor(long timeOffsetSeconds) {
-        Date time = makeAbsolute(timeOffsetSeconds);
-        if (lastActivityPoint != null) {
-            if (lastActivityPoint.getTime().equals(time)) {
-                return lastActivityPoint;
-            }
+    private void addHeartRate(long timeOffsetSeconds, int heartRate) {
+        int index = points.size() - 1;
+        if (index < 0 || points.getTimeOffset(index) != timeOffsetSeconds) {
+            index = addPoint(timeOffsetSeconds);
+        } else {
+            LOG.debug("skipping point!");
         }
-        return new ActivityPoint(time);
+        points.setHeartRate(index, heartRate);
     }
 
-    private ActivityPoint getActivityPointFor(long timeOffsetSeconds, GPSCoordinate gpsCoordinate) {
-        Date time = makeAbsolute(timeOffsetSeconds);
-        if (lastActivityPoint != null) {
-            if (lastActivityPoint.getTime().equals(time)) {
-                if (lastActivityPoint.getLocation() != null && !lastActivityPoint.getLocation().equals(gpsCoordinate)) {
-                    return new ActivityPoint(time);
-                }
-                return lastActivityPoint;
+    /**
+     * Appends a new point. Points are only changed while they are the last one, so the
+     * previous point is complete now and is checked for a missing timestamp.
+     */
+    private int addPoint(long timeOffsetSeconds) {
+        int index = points.addPoint((int) timeOffsetSeconds);
+        if (index > 0 && gpsStartTimeOffset < 0 && points.hasLocation(index - 1)) {
+            missingTimestamps++;
+            if (points.getTimeOffset(index - 1) != points.getTimeOffset(index)) {
+                // found the first point with a proper timestamp
+                gpsStartTimeOffset = points.getTimeOffset(index);
             }
         }
-        return new ActivityPoint(time);
-    }
-
-    private Date makeAbsolute(long timeOffsetSeconds) {
-        return new Date(baseDate.getTime() + timeOffsetSeconds * 1000);
-    }
-
-    private void add(ActivityPoint ap) {
-        if (ap != lastActivityPoint) {
-            lastActivityPoint = ap;
-            activityTrack.addTrackPoint(ap);
-        } else {
-            LOG.info("skipping point!");
-        }
+        return index;
     }
 
     private int consumePause(byte[] bytes, int offset) {
-        LOG.debug("got pause packet: " + GB.hexdump(bytes, offset, 6));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("got pause packet: " + GB.hexdump(bytes, offset, 6));
+        }
         return 6;
     }
 
     private int consumeResume(byte[] bytes, int offset) {
-        LOG.debug("got resume package: " + GB.hexdump(bytes, offset, 6));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("got resume package: " + GB.hexdump(bytes, offset, 6));
+        }
         return 6;
     }
 
     private int consumeSpeed4(byte[] bytes, int offset) {
-        LOG.debug("got packet type 4 (speed): " + GB.hexdump(bytes, offset, 6));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("got packet type 4 (speed): " + GB.hexdump(bytes, offset, 6));
+        }
         return 6;
     }
 
     private int consumeSpeed5(byte[] bytes, int offset) {
-        LOG.debug("got packet type 5 (speed): " + GB.hexdump(bytes, offset, 6));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("got packet type 5 (speed): " + GB.hexdump(bytes, offset, 6));
+        }
         return 6;
     }
 
     private int consumeSpeed6(byte[] bytes, int offset) {
-        LOG.debug("got packet type 6 (speed): " + GB.hexdump(bytes, offset, 6));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("got packet type 6 (speed): " + GB.hexdump(bytes, offset, 6));
+        }
         return 6;
     }
 
     private int consumeSwimming(byte[] bytes, int offset) {
-        LOG.debug("got packet type 8 (swimming?): " + GB.hexdump(bytes, offset, 6));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("got packet type 8 (swimming?): " + GB.hexdump(bytes, offset, 6));
+        }
         return 6;
     }
 
@@ -38,6 +38,7 @@ import java.util.concurrent.TimeUnit;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.Logging;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolTrace;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
@@ -49,6 +50,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
 import nodomain.freeyourgadget.gadgetbridge.util.ArrayUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.SyncMetrics;
 
 /**
  * An operation that fetches activity data. For every fetch, a new operation must
@@ -62,9 +64,16 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
     protected BluetoothGattCharacteristic characteristicActivityData;
     protected BluetoothGattCharacteristic characteristicFetch;
     Calendar startTimestamp;
+    private final String packetsMetric;
+    private final String roundsMetric;
+    private final String decodeMetric;
 
     public AbstractFetchOperation(HuamiSupport support) {
         super(support);
+        String name = "fetch." + getClass().getSimpleName();
+        packetsMetric = SyncMetrics.forDevice(name + ".packets", getDevice());
+        roundsMetric = SyncMetrics.forDevice(name + ".rounds", getDevice());
+        decodeMetric = SyncMetrics.forDevice(name + ".decode", getDevice());
     }
 
     @Override
@@ -90,6 +99,7 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
             builder.add(new SetDeviceBusyAction(getDevice(), getContext().getString(R.string.busy_task_fetch_activity_data), getContext()));
         }
         fetchCount++;
+        SyncMetrics.count(roundsMetric, 1);
 
         // TODO: this probably returns null when device is not connected/initialized yet!
         characteristicActivityData = getCharacteristic(HuamiService.UUID_CHARACTERISTIC_5_ACTIVITY_DATA);
@@ -111,7 +121,10 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
                                            BluetoothGattCharacteristic characteristic) {
         UUID characteristicUUID = characteristic.getUuid();
         if (HuamiService.UUID_CHARACTERISTIC_5_ACTIVITY_DATA.equals(characteristicUUID)) {
-            handleActivityNotif(characteristic.getValue());
+            byte[] value = characteristic.getValue();
+            long start = System.nanoTime();
+            handleActivityNotif(value);
+            SyncMetrics.time(packetsMetric, start, value.length);
             return true;
         } else if (HuamiService.UUID_UNKNOWN_CHARACTERISTIC4.equals(characteristicUUID)) {
             handleActivityMetadata(characteristic.getValue());
@@ -191,22 +204,30 @@ public abstract class AbstractFetchOperation extends AbstractHuamiOperation {
                         getContext().getString(R.string.FetchActivityOperation_about_to_transfer_since,
                                 DateFormat.getDateTimeInstance().format(startTimestamp.getTime())), true, 0, getContext());
             } else {
-                LOG.warn("Unexpected activity metadata: " + Logging.formatBytes(value));
+                logUnexpectedMetadata(value);
                 handleActivityFetchFinish(false);
             }
         } else if (value.length == 3) {
             if (Arrays.equals(HuamiService.RESPONSE_FINISH_SUCCESS, value)) {
+                // decoding and storing the buffered data happens when finishing
+                long start = System.nanoTime();
                 handleActivityFetchFinish(true);
+                SyncMetrics.time(decodeMetric, start);
             } else {
-                LOG.warn("Unexpected activity metadata: " + Logging.formatBytes(value));
+                logUnexpectedMetadata(value);
                 handleActivityFetchFinish(false);
             }
         } else {
-            LOG.warn("Unexpected activity metadata: " + Logging.formatBytes(value));
+            logUnexpectedMetadata(value);
             handleActivityFetchFinish(false);
         }
     }
 
+    private void logUnexpectedMetadata(byte[] value) {
+        LOG.warn("Unexpected activity metadata: " + Logging.formatBytes(value));
+        ProtocolTrace.getInstance().dump(LOG, getDevice().getAddress(), "unexpected activity metadata");
+    }
+
     private void setStartTimestamp(Calendar startTimestamp) {
         this.startTimestamp = startTimestamp;
     }
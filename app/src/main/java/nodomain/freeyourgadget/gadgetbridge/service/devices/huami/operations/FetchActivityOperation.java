@@ -34,7 +34,8 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
-import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBand2SampleKindBackfill;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBand2SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
@@ -88,6 +89,8 @@ public class FetchActivityOperation extends AbstractFetchOperation {
 
         super.handleActivityFetchFinish(success);
         GB.signalActivityDataFinish();
+        // now that the device is done, normalize the kinds of samples stored by older versions
+        MiBand2SampleKindBackfill.scheduleIfNeeded();
     }
 
     private boolean needsAnotherFetch(GregorianCalendar lastSyncTimestamp) {
@@ -113,7 +116,7 @@ public class FetchActivityOperation extends AbstractFetchOperation {
             // save all the samples that we got
             try (DBHandler handler = GBApplication.acquireDB()) {
                 DaoSession session = handler.getDaoSession();
-                SampleProvider<MiBandActivitySample> sampleProvider = new MiBandSampleProvider(getDevice(), session);
+                SampleProvider<MiBandActivitySample> sampleProvider = new MiBand2SampleProvider(getDevice(), session);
                 Device device = DBHelper.getDevice(getDevice(), session);
                 User user = DBHelper.getUser(session);
 
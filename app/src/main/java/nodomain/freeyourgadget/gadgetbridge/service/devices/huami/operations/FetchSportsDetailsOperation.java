@@ -23,26 +23,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.io.IOException;
 import java.util.GregorianCalendar;
 
 import androidx.annotation.NonNull;
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.Logging;
-import nodomain.freeyourgadget.gadgetbridge.R;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.amazfitbip.AmazfitBipService;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
-import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter;
-import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
-import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiActivityDetailsParser;
-import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
-import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 /**
@@ -53,14 +43,18 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
     private static final Logger LOG = LoggerFactory.getLogger(FetchSportsDetailsOperation.class);
     private final BaseActivitySummary summary;
     private final String lastSyncTimeKey;
+    private final int workoutCount;
+    private final SportsDetailsProcessor.SyncProgress syncProgress;
 
     private ByteArrayOutputStream buffer;
 
-    FetchSportsDetailsOperation(@NonNull BaseActivitySummary summary, @NonNull HuamiSupport support, @NonNull String lastSyncTimeKey) {
+    FetchSportsDetailsOperation(@NonNull BaseActivitySummary summary, @NonNull HuamiSupport support, @NonNull String lastSyncTimeKey, int workoutCount, @NonNull SportsDetailsProcessor.SyncProgress syncProgress) {
         super(support);
         setName("fetching sport details");
         this.summary = summary;
         this.lastSyncTimeKey = lastSyncTimeKey;
+        this.workoutCount = workoutCount;
+        this.syncProgress = syncProgress;
     }
 
     @Override
@@ -86,55 +80,38 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
 
 
         if (success) {
-            HuamiActivityDetailsParser parser = new HuamiActivityDetailsParser(summary);
-            parser.setSkipCounterByte(false); // is already stripped
             try {
-                ActivityTrack track = parser.parse(buffer.toByteArray());
-                ActivityTrackExporter exporter = createExporter();
-                String trackType = "track";
-                switch (summary.getActivityKind()) {
-                    case ActivityKind.TYPE_CYCLING:
-                        trackType = getContext().getString(R.string.activity_type_biking);
-                        break;
-                    case ActivityKind.TYPE_RUNNING:
-                        trackType = getContext().getString(R.string.activity_type_running);
-                        break;
-                    case ActivityKind.TYPE_WALKING:
-                        trackType = getContext().getString(R.string.activity_type_walking);
-                        break;
-                    case ActivityKind.TYPE_SWIMMING:
-                        trackType = getContext().getString(R.string.activity_type_swimming);
-                        break;
-                }
-                String fileName = FileUtils.makeValidFileName("gadgetbridge-"+trackType.toLowerCase()+"-" + DateTimeUtils.formatIso8601(summary.getStartTime()) + ".gpx");
-                File targetFile = new File(FileUtils.getExternalFilesDir(), fileName);
-
-                try {
-                    exporter.performExport(track, targetFile);
-
-                    try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                        summary.setGpxTrack(targetFile.getAbsolutePath());
-                        dbHandler.getDaoSession().getBaseActivitySummaryDao().update(summary);
-                    }
-                } catch (ActivityTrackExporter.GPXTrackEmptyException ex) {
-                    GB.toast(getContext(), "This activity does not contain GPX tracks.", Toast.LENGTH_LONG, GB.ERROR, ex);
-                }
-
-                GregorianCalendar endTime = BLETypeConversions.createCalendar();
-                endTime.setTime(summary.getEndTime());
-                saveLastSyncTimestamp(endTime);
+                // parsing and exporting happens in the background, so that the next
+                // workout can be transferred in the meantime. The last sync time is saved
+                // once that succeeded.
+                SportsDetailsProcessor.getInstance(getContext()).submit(summary, buffer.toByteArray(),
+                        syncProgress.add(summary.getEndTime().getTime()));
             } catch (Exception ex) {
                 GB.toast(getContext(), "Error getting activity details: " + ex.getMessage(), Toast.LENGTH_LONG, GB.ERROR, ex);
+                success = false;
             }
         }
 
         super.handleActivityFetchFinish(success);
+
+        if (success && !shouldFetchNextWorkout(workoutCount)) {
+            LOG.info("Already fetched " + workoutCount + " workouts, fetching the rest with the next sync");
+        } else if (success) {
+            FetchSportsSummaryOperation nextOperation = new FetchSportsSummaryOperation(getSupport(), summary, workoutCount, syncProgress);
+            try {
+                nextOperation.perform();
+            } catch (IOException ex) {
+                GB.toast(getContext(), "Unable to fetch activity summary: " + ex.getMessage(), Toast.LENGTH_LONG, GB.ERROR, ex);
+            }
+        }
     }
 
-    private ActivityTrackExporter createExporter() {
-        GPXExporter exporter = new GPXExporter();
-        exporter.setCreator(GBApplication.app().getNameAndVersion());
-        return exporter;
+    /**
+     * Returns true if another workout may be fetched after the given number of workouts
+     * in the same sync.
+     */
+    static boolean shouldFetchNextWorkout(int workoutCount) {
+        return workoutCount < FetchSportsSummaryOperation.MAX_WORKOUTS;
     }
 
     /**
@@ -149,7 +126,9 @@ public class FetchSportsDetailsOperation extends AbstractFetchOperation {
      */
     @Override
     protected void handleActivityNotif(byte[] value) {
-        LOG.warn("sports details: " + Logging.formatBytes(value));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("sports details: " + Logging.formatBytes(value));
+        }
 
         if (!isOperationRunning()) {
             LOG.error("ignoring sports details notification because operation is not running. Data length: " + value.length);
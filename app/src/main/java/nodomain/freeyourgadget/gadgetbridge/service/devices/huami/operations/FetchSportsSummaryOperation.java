@@ -26,8 +26,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Date;
 import java.util.GregorianCalendar;
 
+import androidx.annotation.Nullable;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.Logging;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
@@ -38,6 +40,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -49,17 +52,52 @@ import nodomain.freeyourgadget.gadgetbridge.util.GB;
 public class FetchSportsSummaryOperation extends AbstractFetchOperation {
     private static final Logger LOG = LoggerFactory.getLogger(FetchSportsSummaryOperation.class);
 
+    /**
+     * The maximum number of workouts that are fetched one after another.
+     */
+    static final int MAX_WORKOUTS = 50;
+
     private ByteArrayOutputStream buffer = new ByteArrayOutputStream(140);
+    private final BaseActivitySummary previousWorkout;
+    private final int workoutCount;
+    private final SportsDetailsProcessor.SyncProgress syncProgress;
+
     public FetchSportsSummaryOperation(HuamiSupport support) {
+        this(support, null, 0, null);
+    }
+
+    /**
+     * Creates an operation that fetches the next workout after the given one.
+     */
+    FetchSportsSummaryOperation(HuamiSupport support, @Nullable BaseActivitySummary previousWorkout, int workoutCount, SportsDetailsProcessor.SyncProgress syncProgress) {
         super(support);
         setName("fetching sport summaries");
+        this.previousWorkout = previousWorkout;
+        this.workoutCount = workoutCount;
+        this.syncProgress = syncProgress;
     }
 
     @Override
     protected void startFetching(TransactionBuilder builder) {
         LOG.info("start" + getName());
-        GregorianCalendar sinceWhen = getLastSuccessfulSyncTime();
-        startFetching(builder, AmazfitBipService.COMMAND_ACTIVITY_DATA_TYPE_SPORTS_SUMMARIES, sinceWhen);
+        if (previousWorkout == null) {
+            SportsDetailsProcessor.getInstance(getContext()).submitPending();
+        }
+        startFetching(builder, AmazfitBipService.COMMAND_ACTIVITY_DATA_TYPE_SPORTS_SUMMARIES, getFetchStartTime());
+    }
+
+    /**
+     * Returns the time from which the workouts are fetched. When chained, this is the end of
+     * the previous workout, whose details may still be processed, so that the last sync time
+     * was not saved yet.
+     */
+    GregorianCalendar getFetchStartTime() {
+        if (previousWorkout == null) {
+            return getLastSuccessfulSyncTime();
+        }
+        GregorianCalendar calendar = BLETypeConversions.createCalendar();
+        calendar.setTime(previousWorkout.getEndTime());
+        return calendar;
     }
 
     @Override
@@ -77,12 +115,17 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
 //        }
 
         BaseActivitySummary summary = null;
-        if (success) {
+        if (success && buffer.size() > 0) {
             summary = new BaseActivitySummary();
             summary.setStartTime(getLastStartTimestamp().getTime()); // due to a bug this has to be set
             summary.setRawSummaryData(buffer.toByteArray());
             HuamiActivitySummaryParser parser = new HuamiActivitySummaryParser();
             summary = parser.parseBinaryData(summary);
+            Date previousStartTime = previousWorkout != null ? previousWorkout.getStartTime() : null;
+            if (summary != null && !isNextWorkout(summary, previousStartTime)) {
+                LOG.info("No further workout after " + previousStartTime);
+                summary = null;
+            }
             if (summary != null) {
                 summary.setSummaryData(null); // remove json before saving to database,
                 try (DBHandler dbHandler = GBApplication.acquireDB()) {
@@ -95,6 +138,7 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
                     session.getBaseActivitySummaryDao().insertOrReplace(summary);
                 } catch (Exception ex) {
                     GB.toast(getContext(), "Error saving activity summary", Toast.LENGTH_LONG, GB.ERROR, ex);
+                    summary = null;
                 }
             }
         }
@@ -102,7 +146,12 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
         super.handleActivityFetchFinish(success);
 
         if (summary != null) {
-            FetchSportsDetailsOperation nextOperation = new FetchSportsDetailsOperation(summary, getSupport(), getLastSyncTimeKey());
+            SportsDetailsProcessor.SyncProgress progress = syncProgress;
+            if (progress == null) {
+                progress = new SportsDetailsProcessor.SyncProgress(
+                        GBApplication.getDeviceSpecificSharedPrefs(getDevice().getAddress()), getLastSyncTimeKey());
+            }
+            FetchSportsDetailsOperation nextOperation = new FetchSportsDetailsOperation(summary, getSupport(), getLastSyncTimeKey(), workoutCount + 1, progress);
             try {
                 nextOperation.perform();
             } catch (IOException ex) {
@@ -114,7 +163,9 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
 
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        LOG.warn("characteristic read: " + characteristic.getUuid() + ": " + Logging.formatBytes(characteristic.getValue()));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("characteristic read: " + characteristic.getUuid() + ": " + Logging.formatBytes(characteristic.getValue()));
+        }
         return super.onCharacteristicRead(gatt, characteristic, status);
     }
 
@@ -130,7 +181,9 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
      */
     @Override
     protected void handleActivityNotif(byte[] value) {
-        LOG.warn("sports summary data: " + Logging.formatBytes(value));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("sports summary data: " + Logging.formatBytes(value));
+        }
 
         if (!isOperationRunning()) {
             LOG.error("ignoring activity data notification because operation is not running. Data length: " + value.length);
@@ -165,6 +218,14 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
     }
 
 
+    /**
+     * Returns false if the given summary is not newer than the previously fetched workout,
+     * i.e. the device has no further workouts.
+     */
+    static boolean isNextWorkout(BaseActivitySummary summary, Date previousStartTime) {
+        return previousStartTime == null || summary.getStartTime().after(previousStartTime);
+    }
+
     @Override
     protected String getLastSyncTimeKey() {
         return "lastSportsActivityTimeMillis";
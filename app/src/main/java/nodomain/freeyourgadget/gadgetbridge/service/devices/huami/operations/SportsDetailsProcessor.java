@@ -0,0 +1,348 @@
+/*  Copyright (C) 2017-2021 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.widget.Toast;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter;
+import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiActivityDetailsParser;
+import nodomain.freeyourgadget.gadgetbridge.util.CompactTrack;
+import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.SyncMetrics;
+
+/**
+ * Processes the fetched details of workouts in the background: parses them, exports the
+ * GPX track and stores the track file in the summary.
+ *
+ * The raw details are written to a spool directory first, so that the transfer of the next
+ * workout does not have to wait until the previous one is processed. Spooled details that
+ * were not processed, e.g. because the app was stopped, are picked up again with the next
+ * fetch of workouts.
+ *
+ * The last sync time is only moved past a workout once its details have been processed,
+ * see {@link SyncProgress}.
+ */
+class SportsDetailsProcessor {
+    private static final Logger LOG = LoggerFactory.getLogger(SportsDetailsProcessor.class);
+
+    private static final String SPOOL_DIR = "huami-sports-details";
+    private static final String SPOOL_SUFFIX = ".bin";
+    private static final int MAX_QUEUED = 8;
+
+    private static SportsDetailsProcessor instance;
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    private final Set<Long> queuedSummaryIds = new HashSet<>();
+
+    static synchronized SportsDetailsProcessor getInstance(Context context) {
+        if (instance == null) {
+            instance = new SportsDetailsProcessor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SportsDetailsProcessor(Context context) {
+        this(context, Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1)), MAX_QUEUED);
+    }
+
+    SportsDetailsProcessor(Context context, int threads, int maxQueued) {
+        this.context = context;
+        // when the queue is full, the fetching thread processes the details itself, which
+        // slows down the transfer instead of spooling an unlimited number of workouts
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(maxQueued), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Huami sports details");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Spools the given raw details of the given, already stored summary and queues them
+     * for processing. The given callback is notified once they have been processed, or
+     * spooling them failed.
+     */
+    void submit(BaseActivitySummary summary, byte[] details, @Nullable Callback callback) throws IOException {
+        File spoolFile = getSpoolFile(summary.getId());
+        File tempFile = new File(spoolFile.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                out.write(details);
+            }
+            if (!tempFile.renameTo(spoolFile)) {
+                tempFile.delete();
+                throw new IOException("Unable to rename " + tempFile + " to " + spoolFile);
+            }
+        } catch (IOException ex) {
+            if (callback != null) {
+                callback.onProcessed(false);
+            }
+            throw ex;
+        }
+        submit(summary.getId(), spoolFile, callback);
+    }
+
+    /**
+     * Queues all spooled details that were not processed yet.
+     */
+    void submitPending() {
+        File[] files = getSpoolDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SPOOL_SUFFIX)) {
+                continue;
+            }
+            try {
+                long summaryId = Long.parseLong(name.substring(0, name.length() - SPOOL_SUFFIX.length()));
+                LOG.info("Processing spooled sports details of summary " + summaryId);
+                submit(summaryId, file, null);
+            } catch (NumberFormatException ex) {
+                LOG.warn("Ignoring unexpected spool file " + file);
+            }
+        }
+    }
+
+    private void submit(final long summaryId, final File spoolFile, @Nullable final Callback callback) {
+        synchronized (queuedSummaryIds) {
+            if (!queuedSummaryIds.add(summaryId)) {
+                if (callback != null) {
+                    // already being processed for an earlier sync, which did not wait for it
+                    callback.onProcessed(false);
+                }
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    success = process(summaryId, spoolFile);
+                } finally {
+                    synchronized (queuedSummaryIds) {
+                        queuedSummaryIds.remove(summaryId);
+                    }
+                    if (callback != null) {
+                        callback.onProcessed(success);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return false if the details could not be processed
+     */
+    private boolean process(long summaryId, File spoolFile) {
+        long parseTime = 0, exportTime = 0, persistTime = 0;
+        boolean success = false;
+        try {
+            byte[] details;
+            try (InputStream in = new FileInputStream(spoolFile)) {
+                details = FileUtils.readAll(in, spoolFile.length());
+            }
+
+            BaseActivitySummary summary;
+            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                summary = dbHandler.getDaoSession().getBaseActivitySummaryDao().load(summaryId);
+            }
+            if (summary == null) {
+                LOG.warn("Summary " + summaryId + " does not exist anymore, dropping its details");
+                spoolFile.delete();
+                return true;
+            }
+
+            long start = System.nanoTime();
+            HuamiActivityDetailsParser parser = new HuamiActivityDetailsParser(summary);
+            parser.setSkipCounterByte(false); // is already stripped
+            ActivityTrack track = parser.parse(details);
+            SyncMetrics.time("huami.sportsDetails.parse", start, details.length);
+            parseTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            File targetFile = new File(FileUtils.getExternalFilesDir(), getFileName(summary));
+            try {
+                createExporter().performExport(track, targetFile);
+                try {
+                    CompactTrack.fromTrack(track).write(CompactTrack.getFileForGpx(targetFile));
+                } catch (IOException ex) {
+                    LOG.warn("Unable to write compact track for " + targetFile, ex);
+                }
+                SyncMetrics.time("huami.sportsDetails.export", start);
+                exportTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                    summary.setGpxTrack(targetFile.getAbsolutePath());
+                    dbHandler.getDaoSession().getBaseActivitySummaryDao().update(summary);
+                }
+                SyncMetrics.time("huami.sportsDetails.persist", start);
+                persistTime = System.nanoTime() - start;
+            } catch (ActivityTrackExporter.GPXTrackEmptyException ex) {
+                GB.toast(context, "This activity does not contain GPX tracks.", Toast.LENGTH_LONG, GB.ERROR, ex);
+            }
+            success = true;
+        } catch (Exception ex) {
+            GB.toast(context, "Error getting activity details: " + ex.getMessage(), Toast.LENGTH_LONG, GB.ERROR, ex);
+        }
+        // the spooled details would fail again, failed workouts are fetched again instead
+        spoolFile.delete();
+        LOG.info("Processed sports details of summary " + summaryId + ": parsing took " + parseTime / 1000000
+                + "ms, export " + exportTime / 1000000 + "ms, storing " + persistTime / 1000000 + "ms");
+        return success;
+    }
+
+    private String getFileName(BaseActivitySummary summary) {
+        String trackType = "track";
+        switch (summary.getActivityKind()) {
+            case ActivityKind.TYPE_CYCLING:
+                trackType = context.getString(R.string.activity_type_biking);
+                break;
+            case ActivityKind.TYPE_RUNNING:
+                trackType = context.getString(R.string.activity_type_running);
+                break;
+            case ActivityKind.TYPE_WALKING:
+                trackType = context.getString(R.string.activity_type_walking);
+                break;
+            case ActivityKind.TYPE_SWIMMING:
+                trackType = context.getString(R.string.activity_type_swimming);
+                break;
+        }
+        return FileUtils.makeValidFileName("gadgetbridge-" + trackType.toLowerCase() + "-" + DateTimeUtils.formatIso8601(summary.getStartTime()) + ".gpx");
+    }
+
+    private ActivityTrackExporter createExporter() {
+        GPXExporter exporter = new GPXExporter();
+        exporter.setCreator(GBApplication.app().getNameAndVersion());
+        return exporter;
+    }
+
+    private File getSpoolDir() {
+        File dir = new File(context.getFilesDir(), SPOOL_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            LOG.warn("Unable to create spool directory " + dir);
+        }
+        return dir;
+    }
+
+    File getSpoolFile(long summaryId) {
+        return new File(getSpoolDir(), summaryId + SPOOL_SUFFIX);
+    }
+
+    interface Callback {
+        void onProcessed(boolean success);
+    }
+
+    /**
+     * Tracks the workouts fetched one after another in a single sync. Once the details of a
+     * workout and of all workouts before it have been processed successfully, the end time of
+     * that workout is saved as the last sync time. After a workout failed, nothing more is
+     * saved, so that the next sync fetches the failed workout again.
+     */
+    static class SyncProgress {
+        private final SharedPreferences preferences;
+        private final String lastSyncTimeKey;
+        private final List<Long> endTimes = new ArrayList<>();
+        /**
+         * The result of each workout, null while it is being processed.
+         */
+        private final List<Boolean> results = new ArrayList<>();
+        private int saved;
+        private boolean failed;
+
+        SyncProgress(SharedPreferences preferences, String lastSyncTimeKey) {
+            this.preferences = preferences;
+            this.lastSyncTimeKey = lastSyncTimeKey;
+        }
+
+        /**
+         * Adds the next workout, in the order they were fetched.
+         *
+         * @return the callback to notify once its details were processed
+         */
+        synchronized Callback add(long endTimeMillis) {
+            final int index = endTimes.size();
+            endTimes.add(endTimeMillis);
+            results.add(null);
+            return new Callback() {
+                @Override
+                public void onProcessed(boolean success) {
+                    finished(index, success);
+                }
+            };
+        }
+
+        private synchronized void finished(int index, boolean success) {
+            results.set(index, success);
+            if (failed) {
+                return;
+            }
+            int newSaved = saved;
+            while (newSaved < results.size() && results.get(newSaved) != null) {
+                if (!results.get(newSaved)) {
+                    LOG.info("Not saving the last sync time past failed workout " + newSaved);
+                    failed = true;
+                    break;
+                }
+                newSaved++;
+            }
+            if (newSaved > saved) {
+                saved = newSaved;
+                preferences.edit().putLong(lastSyncTimeKey, endTimes.get(saved - 1)).apply();
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
 import androidx.annotation.IntRange;
@@ -100,6 +101,8 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
     private int requestedDataTimestamp;
     private int dataSlots = 0;
     private DataType currentDataType;
+    private int syncedTimestampFrom = Integer.MAX_VALUE;
+    private int syncedTimestampTo = Integer.MIN_VALUE;
 
     private byte ACK_CALIBRATION = 0;
 
@@ -648,7 +651,7 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                     // send first notification
                     sendNotification(WatchXPlusConstants.NOTIFICATION_CHANNEL_PHONE_CALL, callSpec.name);
                     // init repeat handler
-                    final Handler handler = new Handler();
+                    final Handler handler = new Handler(Looper.getMainLooper());
                     handler.postDelayed(new Runnable() {
                         public void run() {
                             // Actions to do after repeatDelay seconds
@@ -702,7 +705,7 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                         LOG.info(" Missed call reminder ");
                         sendNotification(WatchXPlusConstants.NOTIFICATION_CHANNEL_PHONE_CALL, "Missed call");
                         // repeat missed call notification
-                        final Handler handler = new Handler();
+                        final Handler handler = new Handler(Looper.getMainLooper());
                         handler.postDelayed(new Runnable() {
                             public void run() {
                                 // Actions to do after repeatDelay seconds
@@ -1599,6 +1602,8 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
         dataToFetch.clear();
         if (dataCount != 0) {
             requestDataDetails(dataToFetch.size(), type);
+        } else if (DataType.SLEEP.equals(type)) {
+            reconstructSyncedSamples();
         }
     }
 
@@ -1723,6 +1728,7 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                 }
                 overlayDao.insertOrReplaceInTx(overlayList);
                 provider.addGBActivitySamples(samples.toArray(new WatchXPlusActivitySample[0]));
+                trackSyncedSamples(samples);
 
                 handleEndOfDataChunks(chunkNo, type);
             } else if (DataType.HEART_RATE.equals(type)) {
@@ -1743,6 +1749,7 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                     samples.add(sample);
                 }
                 provider.addGBActivitySamples(samples.toArray(new WatchXPlusActivitySample[0]));
+                trackSyncedSamples(samples);
 
                 handleEndOfDataChunks(chunkNo, type);
             } else {
@@ -1777,6 +1784,8 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                 if(type.equals(DataType.HEART_RATE)) {
                     currentDataType = DataType.SLEEP;
                     requestDataCount(currentDataType);
+                } else {
+                    reconstructSyncedSamples();
                 }
             }
         } else if (dataToFetch.isEmpty()) {
@@ -1784,10 +1793,37 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
             if(type.equals(DataType.HEART_RATE)) {
                 currentDataType = DataType.SLEEP;
                 requestDataCount(currentDataType);
+            } else {
+                reconstructSyncedSamples();
             }
         }
     }
 
+    private void trackSyncedSamples(List<WatchXPlusActivitySample> samples) {
+        for (WatchXPlusActivitySample sample : samples) {
+            syncedTimestampFrom = Math.min(syncedTimestampFrom, sample.getTimestamp());
+            syncedTimestampTo = Math.max(syncedTimestampTo, sample.getTimestamp());
+        }
+    }
+
+    /**
+     * Runs the sleep reconstruction for the samples received during this sync, so that
+     * charts do not have to compute it on every query.
+     */
+    private void reconstructSyncedSamples() {
+        if (syncedTimestampFrom > syncedTimestampTo) {
+            return;
+        }
+        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            WatchXPlusSampleProvider provider = new WatchXPlusSampleProvider(getDevice(), dbHandler.getDaoSession());
+            provider.reconstructAndStore(syncedTimestampFrom, syncedTimestampTo);
+        } catch (Exception e) {
+            LOG.warn(" Unable to store sleep reconstruction ", e);
+        }
+        syncedTimestampFrom = Integer.MAX_VALUE;
+        syncedTimestampTo = Integer.MIN_VALUE;
+    }
+
 
     private void handleBpMeasureResult(byte[] value) {
 
@@ -1935,7 +1971,8 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                 ActivitySample.NOT_MEASURED,     // Steps
                 ActivitySample.NOT_MEASURED,    // HR
                 ActivitySample.NOT_MEASURED,  // Distance
-                ActivitySample.NOT_MEASURED     // Calories
+                ActivitySample.NOT_MEASURED,    // Calories
+                null, null, null, null          // not reconstructed yet
         );
     }
 
@@ -2031,7 +2068,7 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                 activityUser.getAge(),activityUser.getGender());
     }
 
-    private final Handler mFindPhoneHandler = new Handler();
+    private final Handler mFindPhoneHandler = new Handler(Looper.getMainLooper());
 
     private void onReverseFindDevice(boolean start) {
         if (start) {
@@ -47,7 +47,9 @@ class DatalogSessionHealthOverlayData extends DatalogSessionPebbleHealth {
 
     @Override
     public GBDeviceEvent[] handleMessage(ByteBuffer datalogMessage, int length) {
-        LOG.info("DATALOG " + taginfo + GB.hexdump(datalogMessage.array(), datalogMessage.position(), length));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("DATALOG " + taginfo + GB.hexdump(datalogMessage.array(), datalogMessage.position(), length));
+        }
 
         if (!isPebbleHealthEnabled()) {
             return null;
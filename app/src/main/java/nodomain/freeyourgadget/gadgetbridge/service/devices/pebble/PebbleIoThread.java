@@ -47,6 +47,7 @@ import java.nio.ByteOrder;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.ProtocolTrace;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.ExternalPebbleJSActivity;
 import nodomain.freeyourgadget.gadgetbridge.activities.appmanager.AbstractAppManagerFragment;
@@ -71,6 +72,7 @@ import nodomain.freeyourgadget.gadgetbridge.util.WebViewSingleton;
 
 class PebbleIoThread extends GBDeviceIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(PebbleIoThread.class);
+    private static final String TRACE_CHANNEL = "pebble";
 
     private final Prefs prefs = GBApplication.getPrefs();
 
@@ -366,6 +368,7 @@ class PebbleIoThread extends GBDeviceIoThread {
                     mInStream.skip(2);
                 }
 
+                ProtocolTrace.getInstance().record(gbDevice.getAddress(), ProtocolTrace.DIRECTION_IN, TRACE_CHANNEL, buffer, 0, length + 4);
                 GBDeviceEvent[] deviceEvents = mPebbleProtocol.decodeResponse(buffer);
                 if (deviceEvents == null) {
                     LOG.info("unhandled message to endpoint " + endpoint + " (" + length + " bytes)");
@@ -432,6 +435,7 @@ class PebbleIoThread extends GBDeviceIoThread {
 
 
     private void write_real(byte[] bytes) {
+        ProtocolTrace.getInstance().record(gbDevice.getAddress(), ProtocolTrace.DIRECTION_OUT, TRACE_CHANNEL, bytes);
         try {
             if (mIsTCP) {
                 ByteBuffer buf = ByteBuffer.allocate(bytes.length + 8);
@@ -449,6 +453,7 @@ class PebbleIoThread extends GBDeviceIoThread {
             }
         } catch (IOException e) {
             LOG.error("Error writing.", e);
+            ProtocolTrace.getInstance().dump(LOG, gbDevice.getAddress(), "write failed");
         }
         try {
             Thread.sleep(100);
@@ -153,7 +153,9 @@ public class PebbleLESupport {
         int command = header & 7;
         int serial = header >> 3;
         if (command == 0x01) {
-            LOG.info("got ACK for serial = " + serial);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("got ACK for serial = " + serial);
+            }
         }
         if (command == 0x02) { // some request?
             LOG.info("got command 0x02");
@@ -164,7 +166,9 @@ public class PebbleLESupport {
                 sendDataToPebble(new byte[]{0x03}); // no we don't know what that means
             }
         } else if (command == 0) { // normal package
-            LOG.info("got PPoGATT package serial = " + serial + " sending ACK");
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("got PPoGATT package serial = " + serial + " sending ACK");
+            }
 
             sendAckToPebble(serial);
 
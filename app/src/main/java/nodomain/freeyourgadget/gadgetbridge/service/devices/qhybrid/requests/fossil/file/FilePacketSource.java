@@ -0,0 +1,85 @@
+/*  Copyright (C) 2019-2021 Andreas Shimokawa, Daniel Dakhno
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.file;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Slices a file into the packets of a file upload when they are needed, instead of copying
+ * the whole file into packets before the upload starts. The file may be a byte array or
+ * e.g. a memory mapped file.
+ *
+ * Every packet starts with its sequence number, followed by up to maxPayloadSize bytes of
+ * the file. The CRC of the file is updated while the packets are created.
+ */
+public class FilePacketSource {
+    private final ByteBuffer file;
+    private final int maxPayloadSize;
+    private final int packetCount;
+    private final CRC32 crc = new CRC32();
+    private int nextPacketNr = 0;
+
+    public FilePacketSource(byte[] file, int maxPayloadSize) {
+        this(ByteBuffer.wrap(file), maxPayloadSize);
+    }
+
+    /**
+     * @param file the remaining bytes of the buffer are uploaded; the position of the given
+     *             buffer is not changed
+     */
+    public FilePacketSource(ByteBuffer file, int maxPayloadSize) {
+        if (maxPayloadSize <= 0) {
+            throw new IllegalArgumentException("invalid payload size: " + maxPayloadSize);
+        }
+        this.file = file.duplicate();
+        this.maxPayloadSize = maxPayloadSize;
+        this.packetCount = (this.file.remaining() + maxPayloadSize - 1) / maxPayloadSize;
+    }
+
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    public int getNextPacketNr() {
+        return nextPacketNr;
+    }
+
+    public boolean hasNextPacket() {
+        return nextPacketNr < packetCount;
+    }
+
+    public byte[] nextPacket() {
+        if (!hasNextPacket()) {
+            throw new IllegalStateException("all " + packetCount + " packets have been created");
+        }
+        int length = Math.min(maxPayloadSize, file.remaining());
+        byte[] packet = new byte[length + 1];
+        packet[0] = (byte) nextPacketNr;
+        file.get(packet, 1, length);
+        crc.update(packet, 1, length);
+        nextPacketNr++;
+        return packet;
+    }
+
+    /**
+     * Returns the CRC32 of the file, which is complete once all packets have been created.
+     */
+    public int getCrc() {
+        return (int) crc.getValue();
+    }
+}
@@ -16,26 +16,35 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.file;
 
+import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.UUID;
-import java.util.zip.CRC32;
 
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ConditionalWriteAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.PlainAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.file.FileHandle;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.FossilRequest;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file.ResultCode;
 
+/**
+ * Uploads a file to the watch.
+ *
+ * The packets are queued in windows of {@link #UPLOAD_WINDOW_SIZE} packets. Each packet is
+ * sliced from the file right before it is written, and the next window is only queued once
+ * the Bluetooth stack has accepted the packets of the previous one. So the first packet is
+ * sent right away, and a failed write stops the upload.
+ */
 public class FilePutRawRequest extends FossilRequest {
     public enum UploadState {INITIALIZED, UPLOADING, CLOSING, UPLOADED}
 
-    public UploadState state;
+    static final int UPLOAD_WINDOW_SIZE = 32;
 
-    public ArrayList<byte[]> packets = new ArrayList<>();
+    public UploadState state;
 
     private short handle;
 
@@ -43,7 +52,8 @@ public class FilePutRawRequest extends FossilRequest {
 
     byte[] file;
 
-    int fullCRC;
+    private FilePacketSource packetSource;
+    private int queuedPacketCount;
 
     public FilePutRawRequest(short handle, byte[] file, FossilWatchAdapter adapter) {
         this.handle = handle;
@@ -84,17 +94,11 @@ public class FilePutRawRequest extends FossilRequest {
                     }
                     state = UploadState.UPLOADING;
 
-                    TransactionBuilder transactionBuilder = new TransactionBuilder("file upload");
-                    BluetoothGattCharacteristic uploadCharacteristic = adapter.getDeviceSupport().getCharacteristic(UUID.fromString("3dda0004-957f-7d4a-34a6-74696673696d"));
-
-                    this.prepareFilePackets(this.file);
-
-                    for (int i = 0, packetCount = packets.size(); i < packetCount; i++) {
-                        byte[] packet = packets.get(i);
-                        transactionBuilder.write(uploadCharacteristic, packet);
-                        onPacketWritten(transactionBuilder, i, packetCount);
-                    }
+                    packetSource = new FilePacketSource(this.file, adapter.getMTU() - 4);
+                    queuedPacketCount = 0;
 
+                    TransactionBuilder transactionBuilder = new TransactionBuilder("file upload");
+                    addUploadWindow(transactionBuilder);
                     transactionBuilder.queue(adapter.getDeviceSupport().getQueue());
                     break;
                 }
@@ -115,7 +119,7 @@ public class FilePutRawRequest extends FossilRequest {
                         throw new RuntimeException("wrong response handle");
                     }
 
-                    if (crc != this.fullCRC) {
+                    if (packetSource == null || packetSource.hasNextPacket() || crc != packetSource.getCrc()) {
                         throw new RuntimeException("file upload exception: wrong crc");
                     }
 
@@ -194,25 +198,33 @@ public class FilePutRawRequest extends FossilRequest {
         return this.state == UploadState.UPLOADED;
     }
 
-    private void prepareFilePackets(byte[] file) {
-        int maxPacketSize = adapter.getMTU() - 4;
-
-        byte[] data = file;
+    private void addUploadWindow(TransactionBuilder transactionBuilder) {
+        BluetoothGattCharacteristic uploadCharacteristic = adapter.getDeviceSupport().getCharacteristic(UUID.fromString("3dda0004-957f-7d4a-34a6-74696673696d"));
+        int packetCount = packetSource.getPacketCount();
+        int windowEnd = Math.min(packetCount, queuedPacketCount + UPLOAD_WINDOW_SIZE);
 
-        CRC32 fullCRC = new CRC32();
-
-        fullCRC.update(data);
-        this.fullCRC = (int) fullCRC.getValue();
-
-        int packetCount = (int) Math.ceil(data.length / (float) maxPacketSize);
-
-        for (int i = 0; i < packetCount; i++) {
-            int currentPacketLength = Math.min(maxPacketSize, data.length - i * maxPacketSize);
-            byte[] packet = new byte[currentPacketLength + 1];
-            packet[0] = (byte) i;
-            System.arraycopy(data, i * maxPacketSize, packet, 1, currentPacketLength);
-
-            packets.add(packet);
+        for (int i = queuedPacketCount; i < windowEnd; i++) {
+            transactionBuilder.add(new ConditionalWriteAction(uploadCharacteristic) {
+                @Override
+                protected byte[] checkCondition() {
+                    return packetSource.nextPacket();
+                }
+            });
+            onPacketWritten(transactionBuilder, i, packetCount);
+        }
+        queuedPacketCount = windowEnd;
+
+        if (windowEnd < packetCount) {
+            transactionBuilder.add(new PlainAction() {
+                @Override
+                public boolean run(BluetoothGatt gatt) {
+                    TransactionBuilder nextWindow = new TransactionBuilder("file upload");
+                    addUploadWindow(nextWindow);
+                    // insert, so that no other transaction is executed in the middle of the upload
+                    adapter.getDeviceSupport().getQueue().insert(nextWindow.getTransaction());
+                    return true;
+                }
+            });
         }
     }
 
@@ -21,28 +21,35 @@ import android.widget.Toast;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.security.InvalidAlgorithmParameterException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
 import java.util.zip.CRC32;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.file.FileHandle;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.FossilRequest;
-import nodomain.freeyourgadget.gadgetbridge.util.CRC32C;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
-import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
 
+/**
+ * Fetches an encrypted file from the watch.
+ *
+ * Every packet is encrypted with AES-CTR, starting at its own counter: the counter of the
+ * n-th packet is the initial counter plus n times a summand, which is determined from the
+ * second packet. The key stream is generated with a single AES cipher that is initialized
+ * once per file, and the file is decrypted and checksummed as the packets arrive.
+ */
 public abstract class FileEncryptedGetRequest extends FossilRequest implements FileEncryptedInterface{
+    private static final int BLOCK_SIZE = 16;
+    private static final int MIN_IV_SUMMAND = 0x1e;
+    private static final int MAX_IV_SUMMAND = 0x2f;
+
     private short handle;
     private FossilHRWatchAdapter adapter;
 
@@ -53,8 +60,10 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
     private boolean finished = false;
 
     private Cipher cipher;
-    private SecretKeySpec keySpec;
     private byte[] originalIv;
+    private byte[] counterBlocks = new byte[0];
+    private byte[] keyStream = new byte[0];
+    private final CRC32 crc = new CRC32();
 
     int fileSize;
 
@@ -79,10 +88,11 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
 
     private void initDecryption() {
         try {
-            cipher = Cipher.getInstance("AES/CTR/NoPadding");
+            // CTR decryption is done by hand, the cipher only generates the key stream
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
             try {
-                keySpec = new SecretKeySpec(this.adapter.getSecretKey(), "AES");
-            } catch (IllegalAccessException e) {
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(this.adapter.getSecretKey(), "AES"));
+            } catch (IllegalAccessException | InvalidKeyException e) {
                 GB.toast("error getting key: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
                 return;
             }
@@ -101,21 +111,60 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
             e.printStackTrace();
         }
+        packetCount = 0;
+        crc.reset();
     }
 
     public FossilWatchAdapter getAdapter() {
         return adapter;
     }
 
-    private byte[] incrementIV(byte[] iv, int amount){
-        byte[] incrementedIv = new byte[iv.length];
-        System.arraycopy(iv, 0, incrementedIv, 0, iv.length);
-        ByteBuffer buffer = ByteBuffer.wrap(incrementedIv);
-        int number = buffer.getInt(12);
-        number += amount;
-        buffer.position(12);
-        buffer.putInt(number);
-        return buffer.array();
+    /**
+     * Generates the key stream for a packet of the given length into {@link #keyStream}.
+     *
+     * @param ivSummand the value added to the lower 32 bits of the initial counter, which
+     *                  wrap around without carry, like the watch does
+     */
+    private void generateKeyStream(int ivSummand, int length) throws GeneralSecurityException {
+        int size = (length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        if (counterBlocks.length < size) {
+            counterBlocks = new byte[size];
+            keyStream = new byte[size];
+        }
+        System.arraycopy(originalIv, 0, counterBlocks, 0, BLOCK_SIZE);
+        int counter = ByteBuffer.wrap(originalIv).getInt(12) + ivSummand;
+        counterBlocks[12] = (byte) (counter >>> 24);
+        counterBlocks[13] = (byte) (counter >>> 16);
+        counterBlocks[14] = (byte) (counter >>> 8);
+        counterBlocks[15] = (byte) counter;
+        for (int offset = BLOCK_SIZE; offset < size; offset += BLOCK_SIZE) {
+            System.arraycopy(counterBlocks, offset - BLOCK_SIZE, counterBlocks, offset, BLOCK_SIZE);
+            // within a packet, the counter is incremented as a 128 bit number
+            int i = offset + BLOCK_SIZE - 1;
+            while (i >= offset && ++counterBlocks[i] == 0) {
+                i--;
+            }
+        }
+        cipher.doFinal(counterBlocks, 0, size, keyStream, 0);
+    }
+
+    /**
+     * Finds the summand of the packet counters by decrypting only the first byte of the
+     * given packet with each candidate.
+     */
+    private int findIvSummand(byte[] value) throws GeneralSecurityException {
+        int currentLength = fileBuffer.position() + value.length - 1;
+        byte expectedByte = (currentLength == fileSize) ? (byte) 0x81 : (byte) 0x01; // 0x81 indicated the last payload
+
+        for (int testIvSummand = MIN_IV_SUMMAND; testIvSummand <= MAX_IV_SUMMAND; testIvSummand++) {
+            generateKeyStream(testIvSummand, 1);
+            if ((byte) (value[0] ^ keyStream[0]) == expectedByte) {
+                log("iv summand: " + testIvSummand);
+                return testIvSummand;
+            }
+        }
+        log("no iv summand found");
+        return ivIncrementor;
     }
 
     @Override
@@ -159,12 +208,9 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
                 if (this.handle != handle) {
                     throw new RuntimeException("handle: " + handle + "   expected: " + this.handle);
                 }
-
-                CRC32 crc = new CRC32();
-                crc.update(this.fileData);
-
-                CRC32C c = new CRC32C();
-                c.update(this.fileData, 0, fileData.length);
+                if (this.fileData == null) {
+                    throw new RuntimeException("file incomplete: " + fileBuffer.position() + " of " + fileSize + " bytes received");
+                }
 
                 int crcExpected = buffer.getInt(8);
 
@@ -176,39 +222,28 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
             }
         } else if (characteristic.getUuid().toString().equals("3dda0004-957f-7d4a-34a6-74696673696d")) {
             try {
-                byte[] result = null;
-                if(packetCount == 1) {
-                    for(int testIvSummand = 0x1e; testIvSummand < 0x30; testIvSummand++){
-                        byte[] iv = incrementIV(originalIv, testIvSummand);
-                        cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
-                        result = cipher.doFinal(value);
-
-                        int currentLength = fileBuffer.position() + result.length - 1;
-
-                        byte expectedByte = (currentLength == fileSize) ? (byte)0x81 : (byte)0x01; // 0x81 indicated the last payload
-
-                        if(result[0] == expectedByte){
-                            this.ivIncrementor = testIvSummand;
-                            log("iv summand: " + testIvSummand);
-                            break;
-                        }
-                        log("no iv summand found");
-                    }
-                }else{
-                    byte[] iv = incrementIV(originalIv, ivIncrementor * packetCount);
-
-                    cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
-                    result = cipher.doFinal(value);
+                if (packetCount == 1) {
+                    ivIncrementor = findIvSummand(value);
                 }
-
-                log("decryption result: " + StringUtils.bytesToHex(result));
+                generateKeyStream(ivIncrementor * packetCount, value.length);
                 packetCount++;
 
-                fileBuffer.put(result, 1, result.length - 1);
-                if ((result[0] & 0x80) == 0x80) {
-                    this.fileData = fileBuffer.array();
+                int payloadLength = value.length - 1;
+                int position = fileBuffer.position();
+                if (payloadLength > fileBuffer.remaining()) {
+                    throw new RuntimeException("file data exceeds file size: " + (position + payloadLength) + " > " + fileSize);
+                }
+                byte[] fileArray = fileBuffer.array();
+                for (int i = 0; i < payloadLength; i++) {
+                    fileArray[position + i] = (byte) (value[i + 1] ^ keyStream[i + 1]);
+                }
+                fileBuffer.position(position + payloadLength);
+                crc.update(fileArray, position, payloadLength);
+
+                if (((value[0] ^ keyStream[0]) & 0x80) == 0x80) {
+                    this.fileData = fileArray;
                 }
-            } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException e) {
+            } catch (GeneralSecurityException e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
@@ -18,6 +18,7 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.roidmi;
 
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +36,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
 public class RoidmiSupport extends AbstractSerialDeviceSupport {
     private static final Logger LOG = LoggerFactory.getLogger(RoidmiSupport.class);
 
-    private final Handler handler = new Handler();
+    private final Handler handler = new Handler(Looper.getMainLooper());
     private int infoRequestTries = 0;
     private final Runnable infosRunnable = new Runnable() {
         public void run() {
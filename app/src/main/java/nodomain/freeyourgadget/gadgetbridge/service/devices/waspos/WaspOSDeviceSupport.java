@@ -16,8 +16,6 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.waspos;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
 import android.net.Uri;
 import android.widget.Toast;
@@ -29,7 +27,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -56,20 +53,29 @@ import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart.NordicUartProfile;
 import nodomain.freeyourgadget.gadgetbridge.util.AlarmUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 public class WaspOSDeviceSupport extends AbstractBTLEDeviceSupport {
     private static final Logger LOG = LoggerFactory.getLogger(WaspOSDeviceSupport.class);
-    private BluetoothGattCharacteristic rxCharacteristic = null;
-    private BluetoothGattCharacteristic txCharacteristic = null;
+    // the packet size that was always used for WaspOS, regardless of the MTU
+    private static final int MAX_PACKET_SIZE = 8;
 
-    private String receivedLine = "";
+    private final NordicUartProfile<WaspOSDeviceSupport> uartProfile;
 
     public WaspOSDeviceSupport() {
         super(LOG);
         addSupportedService(WaspOSConstants.UUID_SERVICE_NORDIC_UART);
+
+        uartProfile = new NordicUartProfile<>(this, new NordicUartProfile.LineListener() {
+            @Override
+            public void onUartRxLine(String line) {
+                handleUartRxLine(line);
+            }
+        }, MAX_PACKET_SIZE);
+        addSupportedProfile(uartProfile);
     }
 
     @Override
@@ -79,10 +85,8 @@ public class WaspOSDeviceSupport extends AbstractBTLEDeviceSupport {
         gbDevice.setState(GBDevice.State.INITIALIZING);
         gbDevice.sendDeviceUpdateIntent(getContext());
 
-        rxCharacteristic = getCharacteristic(WaspOSConstants.UUID_CHARACTERISTIC_NORDIC_UART_RX);
-        txCharacteristic = getCharacteristic(WaspOSConstants.UUID_CHARACTERISTIC_NORDIC_UART_TX);
         builder.setGattCallback(this);
-        builder.notify(rxCharacteristic, true);
+        uartProfile.initialize(builder);
 
         uartTx(builder, " \u0003"); // clear active line
 
@@ -103,16 +107,7 @@ public class WaspOSDeviceSupport extends AbstractBTLEDeviceSupport {
 
     /// Write a string of data, and chunk it up
     private void uartTx(TransactionBuilder builder, String str) {
-        LOG.info("UART TX: " + str);
-        byte[] bytes;
-        bytes = str.getBytes(StandardCharsets.ISO_8859_1);
-        for (int i=0;i<bytes.length;i+=8) {
-            int l = bytes.length-i;
-            if (l>8) l=8;
-            byte[] packet = new byte[l];
-            System.arraycopy(bytes, i, packet, 0, l);
-            builder.write(txCharacteristic, packet);
-        }
+        uartProfile.write(builder, str);
     }
 
     /// Write a string of data, and chunk it up
@@ -127,11 +122,9 @@ public class WaspOSDeviceSupport extends AbstractBTLEDeviceSupport {
     }
 
     private void handleUartRxLine(String line) {
-        LOG.info("UART RX LINE: " + line);
-
         if (">Uncaught ReferenceError: \"gb\" is not defined".equals(line))
           GB.toast(getContext(), "Gadgetbridge plugin not installed on Bangle.js", Toast.LENGTH_LONG, GB.ERROR);
-        else if (line.charAt(0)=='{') {
+        else if (line.startsWith("{")) {
             // JSON - we hope!
             try {
                 JSONObject json = new JSONObject(line);
@@ -218,27 +211,6 @@ public class WaspOSDeviceSupport extends AbstractBTLEDeviceSupport {
         }
     }
 
-    @Override
-    public boolean onCharacteristicChanged(BluetoothGatt gatt,
-                                           BluetoothGattCharacteristic characteristic) {
-        if (super.onCharacteristicChanged(gatt, characteristic)) {
-            return true;
-        }
-        if (WaspOSConstants.UUID_CHARACTERISTIC_NORDIC_UART_RX.equals(characteristic.getUuid())) {
-            byte[] chars = characteristic.getValue();
-            String packetStr = new String(chars);
-            LOG.info("RX: " + packetStr);
-            receivedLine += packetStr;
-            while (receivedLine.contains("\n")) {
-                int p = receivedLine.indexOf("\n");
-                String line =  receivedLine.substring(0,p-1);
-                receivedLine = receivedLine.substring(p+1);
-                handleUartRxLine(line);
-            }
-        }
-        return false;
-    }
-
 
     void setTime(TransactionBuilder builder) {
         DateTimeFormatter dtf = DateTimeFormatter.ofPattern("(yyyy, MM, dd, HH, mm, ss)");
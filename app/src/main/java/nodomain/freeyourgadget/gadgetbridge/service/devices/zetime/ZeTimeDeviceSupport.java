@@ -41,14 +41,11 @@ import java.util.UUID;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInfo;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventCallControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventMusicControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
 import nodomain.freeyourgadget.gadgetbridge.devices.zetime.ZeTimeConstants;
-import nodomain.freeyourgadget.gadgetbridge.devices.zetime.ZeTimeSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.ZeTimeActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
@@ -64,6 +61,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.Weather;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
+import nodomain.freeyourgadget.gadgetbridge.service.ActivitySampleIngestion;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.GattService;
@@ -93,6 +91,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
     private int progressSteps;
     private int progressSleep;
     private int progressHeartRate;
+    private final ActivitySampleIngestion<ZeTimeActivitySample> sampleIngestion = createActivitySampleIngestion();
     private final int maxMsgLength = 20;
     private boolean callIncoming = false;
     private String songtitle = null;
@@ -1233,15 +1232,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         sample.setRawKind(ActivityKind.TYPE_ACTIVITY);
         sample.setRawIntensity(sample.getSteps());
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
-        } catch (Exception ex) {
-            GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-            GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-        }
+        sampleIngestion.add(sample);
 
         progressSteps = (msg[5] & 0xff) | ((msg[6] << 8) & 0xff00);
         GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, progressSteps * 100 / availableStepsData, getContext());
@@ -1249,6 +1240,9 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             Prefs prefs = GBApplication.getPrefs();
             progressSteps = 0;
             availableStepsData = 0;
+            if (!sampleIngestion.flush()) {
+                GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
+            }
             GB.updateTransferNotification(null, "", false, 100, getContext());
             if (getDevice().isBusy()) {
                 getDevice().unsetBusyTask();
@@ -1261,6 +1255,8 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
                 getHeartRateData();
             } else if (availableSleepData > 0) {
                 getSleepData();
+            } else {
+                sampleIngestion.finish();
             }
         }
     }
@@ -1280,15 +1276,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             sample.setRawKind(ActivityKind.TYPE_UNKNOWN);
         }
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
-        } catch (Exception ex) {
-            GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-            GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-        }
+        sampleIngestion.add(sample);
 
         progressSleep = (msg[5] & 0xff) | (msg[6] << 8) & 0xff00;
         GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, progressSleep * 100 / availableSleepData, getContext());
@@ -1296,10 +1284,13 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             Prefs prefs = GBApplication.getPrefs();
             progressSleep = 0;
             availableSleepData = 0;
+            if (!sampleIngestion.finish()) {
+                GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
+            }
             GB.updateTransferNotification(null, "", false, 100, getContext());
             if (getDevice().isBusy()) {
                 getDevice().unsetBusyTask();
-                GB.signalActivityDataFinish();
+                getDevice().sendDeviceUpdateIntent(getContext());
             }
             if (!prefs.getBoolean(ZeTimeConstants.PREF_ZETIME_DONT_DEL_ACTDATA, false)) {
                 deleteSleepData();
@@ -1316,15 +1307,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         sample.setHeartRate(msg[11]);
         sample.setTimestamp(timestamp);
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
-        } catch (Exception ex) {
-            GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-            GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-        }
+        sampleIngestion.add(sample);
 
         progressHeartRate = (msg[5] & 0xff) | ((msg[6] << 8) & 0xff00);
         GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, progressHeartRate * 100 / availableHeartRateData, getContext());
@@ -1334,18 +1317,11 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             timestamp = (msg[17] << 24) & 0xff000000 | (msg[16] << 16) & 0xff0000 | (msg[15] << 8) & 0xff00 | (msg[14] & 0xff);
             timestamp += eightHourOffset; // the timestamp from the watch has an offset of eight hours, do not know why...
             timestamp -= ((now.get(Calendar.ZONE_OFFSET) / 1000) + (now.get(Calendar.DST_OFFSET) / 1000));  // TimeZone hour + daylight saving
+            sample = new ZeTimeActivitySample();
             sample.setHeartRate(msg[18]);
             sample.setTimestamp(timestamp);
 
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-                sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-                ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-                provider.addGBActivitySample(sample);
-            } catch (Exception ex) {
-                GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-                GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-            }
+            sampleIngestion.add(sample);
 
             progressHeartRate = (msg[12] & 0xff) | ((msg[13] << 8) & 0xff00);
             GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, (int) (progressHeartRate * 100 / availableHeartRateData), getContext());
@@ -1355,6 +1331,9 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             Prefs prefs = GBApplication.getPrefs();
             progressHeartRate = 0;
             availableHeartRateData = 0;
+            if (!sampleIngestion.flush()) {
+                GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
+            }
             GB.updateTransferNotification(null, "", false, 100, getContext());
             if (getDevice().isBusy()) {
                 getDevice().unsetBusyTask();
@@ -1365,6 +1344,8 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             }
             if (availableSleepData > 0) {
                 getSleepData();
+            } else {
+                sampleIngestion.finish();
             }
         }
     }
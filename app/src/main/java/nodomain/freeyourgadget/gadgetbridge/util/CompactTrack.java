@@ -0,0 +1,348 @@
+/*  Copyright (C) 2020-2021 Petr Vaněk
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPointColumns;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+
+/**
+ * A compact binary representation of the points of a track, stored next to the GPX file
+ * so that the track can be displayed without parsing the XML again.
+ *
+ * Coordinates are stored as fixed point values (microdegrees, centimeters), each value as a
+ * zigzag varint delta to the previous point. The bounding box is stored in the header.
+ */
+public class CompactTrack {
+    private static final Logger LOG = LoggerFactory.getLogger(CompactTrack.class);
+
+    private static final int MAGIC = 0x47425452; // "GBTR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 6 * 4;
+    private static final String FILE_SUFFIX = ".track";
+    private static final double DEGREES_SCALE = 1e6;
+    private static final double ALTITUDE_SCALE = 100;
+    private static final double UNKNOWN_ALTITUDE = -20000;
+
+    private int size;
+    private int[] latitudes;
+    private int[] longitudes;
+    private int[] altitudes;
+    private int[] timestamps;
+    private int[] heartRates;
+
+    private int minLatitude = Integer.MAX_VALUE;
+    private int maxLatitude = Integer.MIN_VALUE;
+    private int minLongitude = Integer.MAX_VALUE;
+    private int maxLongitude = Integer.MIN_VALUE;
+    private int minAltitude = Integer.MAX_VALUE;
+    private int maxAltitude = Integer.MIN_VALUE;
+
+    private CompactTrack(int capacity) {
+        latitudes = new int[capacity];
+        longitudes = new int[capacity];
+        altitudes = new int[capacity];
+        timestamps = new int[capacity];
+        heartRates = new int[capacity];
+    }
+
+    /**
+     * Creates a compact track from the points of the given track that have a location.
+     * Like in the GPX export, an unknown altitude is stored as 0.
+     */
+    public static CompactTrack fromTrack(ActivityTrack track) {
+        List<ActivityPoint> trackPoints = track.getTrackPoints();
+        if (trackPoints instanceof ActivityPointColumns) {
+            return fromColumns((ActivityPointColumns) trackPoints);
+        }
+        CompactTrack result = new CompactTrack(trackPoints.size());
+        for (ActivityPoint point : trackPoints) {
+            GPSCoordinate location = point.getLocation();
+            if (location == null) {
+                continue;
+            }
+            double altitude = location.getAltitude() != UNKNOWN_ALTITUDE ? location.getAltitude() : 0;
+            int timestamp = point.getTime() != null ? (int) (point.getTime().getTime() / 1000) : 0;
+            result.add(location.getLatitude(), location.getLongitude(), altitude, timestamp, point.getHeartRate());
+        }
+        return result;
+    }
+
+    private static CompactTrack fromColumns(ActivityPointColumns points) {
+        int size = points.size();
+        CompactTrack result = new CompactTrack(size);
+        for (int i = 0; i < size; i++) {
+            if (!points.hasLocation(i)) {
+                continue;
+            }
+            int altitude = points.getAltitude(i) != ActivityPointColumns.UNKNOWN_ALTITUDE ? points.getAltitude(i) : 0;
+            result.addFixed(points.getLatitudeMicros(i), points.getLongitudeMicros(i), (int) (altitude * ALTITUDE_SCALE),
+                    (int) (points.getTime(i) / 1000), points.getHeartRate(i));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a compact track from the points read by a GpxParser. Note that GpxParser
+     * returns the latitude as longitude and vice versa.
+     */
+    private static CompactTrack fromGpxParser(GpxParser parser) {
+        List<GPSCoordinate> coordinates = parser.getPoints();
+        CompactTrack result = new CompactTrack(coordinates.size());
+        for (GPSCoordinate coordinate : coordinates) {
+            result.add(coordinate.getLongitude(), coordinate.getLatitude(), coordinate.getAltitude(), 0, 0);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the file that holds the compact track for the given GPX file.
+     */
+    public static File getFileForGpx(File gpxFile) {
+        return new File(gpxFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Loads the compact track of the given GPX file. If there is none yet, or it is older
+     * than the GPX file, the GPX file is parsed and the compact track is written for the next time.
+     */
+    public static CompactTrack loadForGpx(File gpxFile) throws IOException {
+        File trackFile = getFileForGpx(gpxFile);
+        if (trackFile.exists() && trackFile.lastModified() >= gpxFile.lastModified()) {
+            try {
+                return read(trackFile);
+            } catch (IOException e) {
+                LOG.warn("Unable to read compact track " + trackFile + ", parsing GPX file instead", e);
+            }
+        }
+
+        CompactTrack result;
+        try (InputStream inputStream = new FileInputStream(gpxFile)) {
+            result = fromGpxParser(new GpxParser(inputStream));
+        }
+        try {
+            result.write(trackFile);
+        } catch (IOException e) {
+            LOG.warn("Unable to write compact track " + trackFile, e);
+        }
+        return result;
+    }
+
+    public static CompactTrack read(File file) throws IOException {
+        byte[] data;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            data = FileUtils.readAll(inputStream, file.length());
+        }
+        try (DataInputStream header = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (header.readInt() != MAGIC) {
+                throw new IOException("Not a compact track: " + file);
+            }
+            int version = header.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported compact track version " + version + ": " + file);
+            }
+            int size = header.readInt();
+            if (size < 0 || size > data.length) {
+                throw new IOException("Invalid compact track size " + size + ": " + file);
+            }
+            CompactTrack result = new CompactTrack(size);
+            result.minLatitude = header.readInt();
+            result.maxLatitude = header.readInt();
+            result.minLongitude = header.readInt();
+            result.maxLongitude = header.readInt();
+            result.minAltitude = header.readInt();
+            result.maxAltitude = header.readInt();
+
+            int[] position = new int[] { HEADER_SIZE };
+            int latitude = 0, longitude = 0, altitude = 0, timestamp = 0, heartRate = 0;
+            for (int i = 0; i < size; i++) {
+                latitude += readVarInt(data, position);
+                longitude += readVarInt(data, position);
+                altitude += readVarInt(data, position);
+                timestamp += readVarInt(data, position);
+                heartRate += readVarInt(data, position);
+                result.latitudes[i] = latitude;
+                result.longitudes[i] = longitude;
+                result.altitudes[i] = altitude;
+                result.timestamps[i] = timestamp;
+                result.heartRates[i] = heartRate;
+            }
+            result.size = size;
+            return result;
+        }
+    }
+
+    public void write(File file) throws IOException {
+        ByteArrayOutputStream points = new ByteArrayOutputStream(size * 8);
+        int latitude = 0, longitude = 0, altitude = 0, timestamp = 0, heartRate = 0;
+        for (int i = 0; i < size; i++) {
+            writeVarInt(points, latitudes[i] - latitude);
+            writeVarInt(points, longitudes[i] - longitude);
+            writeVarInt(points, altitudes[i] - altitude);
+            writeVarInt(points, timestamps[i] - timestamp);
+            writeVarInt(points, heartRates[i] - heartRate);
+            latitude = latitudes[i];
+            longitude = longitudes[i];
+            altitude = altitudes[i];
+            timestamp = timestamps[i];
+            heartRate = heartRates[i];
+        }
+
+        // write to a temporary file first, so that a partially written file is never read
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            writeInt(out, MAGIC);
+            out.write(VERSION);
+            writeInt(out, size);
+            writeInt(out, minLatitude);
+            writeInt(out, maxLatitude);
+            writeInt(out, minLongitude);
+            writeInt(out, maxLongitude);
+            writeInt(out, minAltitude);
+            writeInt(out, maxAltitude);
+            points.writeTo(out);
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to rename " + tempFile + " to " + file);
+        }
+    }
+
+    private void add(double latitude, double longitude, double altitude, int timestamp, int heartRate) {
+        int lat = (int) Math.round(latitude * DEGREES_SCALE);
+        int lon = (int) Math.round(longitude * DEGREES_SCALE);
+        int alt = (int) Math.round(altitude * ALTITUDE_SCALE);
+        addFixed(lat, lon, alt, timestamp, heartRate);
+    }
+
+    private void addFixed(int lat, int lon, int alt, int timestamp, int heartRate) {
+        latitudes[size] = lat;
+        longitudes[size] = lon;
+        altitudes[size] = alt;
+        timestamps[size] = timestamp;
+        heartRates[size] = heartRate;
+        size++;
+
+        minLatitude = Math.min(minLatitude, lat);
+        maxLatitude = Math.max(maxLatitude, lat);
+        minLongitude = Math.min(minLongitude, lon);
+        maxLongitude = Math.max(maxLongitude, lon);
+        minAltitude = Math.min(minAltitude, alt);
+        maxAltitude = Math.max(maxAltitude, alt);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7f) != 0) {
+            out.write((zigzag & 0x7f) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.write(zigzag);
+    }
+
+    private static int readVarInt(byte[] data, int[] position) throws IOException {
+        int zigzag = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IOException("Unexpected end of compact track");
+            }
+            byte b = data[position[0]++];
+            zigzag |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Invalid varint in compact track");
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index] / DEGREES_SCALE;
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index] / DEGREES_SCALE;
+    }
+
+    public double getAltitude(int index) {
+        return altitudes[index] / ALTITUDE_SCALE;
+    }
+
+    /**
+     * Unix timestamp of the point in seconds, or 0 if unknown.
+     */
+    public int getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * The heart rate at the point, or 0 if unknown.
+     */
+    public int getHeartRate(int index) {
+        return heartRates[index];
+    }
+
+    public double getMinLatitude() {
+        return minLatitude / DEGREES_SCALE;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude / DEGREES_SCALE;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude / DEGREES_SCALE;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude / DEGREES_SCALE;
+    }
+
+    public double getMinAltitude() {
+        return minAltitude / ALTITUDE_SCALE;
+    }
+
+    public double getMaxAltitude() {
+        return maxAltitude / ALTITUDE_SCALE;
+    }
+}
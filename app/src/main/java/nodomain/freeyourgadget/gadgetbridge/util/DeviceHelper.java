@@ -25,6 +25,7 @@ package nodomain.freeyourgadget.gadgetbridge.util;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
+import android.os.ParcelUuid;
 import android.widget.Toast;
 
 import org.slf4j.Logger;
@@ -32,10 +33,15 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
@@ -112,31 +118,30 @@ import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
 public class DeviceHelper {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceHelper.class);
 
+    private static final int MAX_CACHED_CANDIDATES = 256;
+
     private static final DeviceHelper instance = new DeviceHelper();
-    // lazily created
-    private List<DeviceCoordinator> coordinators;
+    private static final DeviceCoordinator unknownCoordinator = new UnknownDeviceCoordinator();
+
+    // lazily created, never changed afterwards
+    private volatile Registry registry;
+    // the coordinators of recently seen candidates, see getCandidateKey()
+    private final ConcurrentMap<String, DeviceCoordinator> candidateCoordinators = new ConcurrentHashMap<>();
 
     public static DeviceHelper getInstance() {
         return instance;
     }
 
     public DeviceType getSupportedType(GBDeviceCandidate candidate) {
-        for (DeviceCoordinator coordinator : getAllCoordinators()) {
-            DeviceType deviceType = coordinator.getSupportedType(candidate);
-            if (deviceType.isSupported()) {
-                return deviceType;
-            }
+        DeviceCoordinator coordinator = findCoordinator(candidate);
+        if (coordinator == unknownCoordinator) {
+            return DeviceType.UNKNOWN;
         }
-        return DeviceType.UNKNOWN;
+        return coordinator.getSupportedType(candidate);
     }
 
     public boolean getSupportedType(GBDevice device) {
-        for (DeviceCoordinator coordinator : getAllCoordinators()) {
-            if (coordinator.supports(device)) {
-                return true;
-            }
-        }
-        return false;
+        return getCoordinator(device) != unknownCoordinator;
     }
 
     public GBDevice findAvailableDevice(String deviceAddress, Context context) {
@@ -191,41 +196,101 @@ public class DeviceHelper {
     }
 
     public GBDevice toSupportedDevice(GBDeviceCandidate candidate) {
-        for (DeviceCoordinator coordinator : getAllCoordinators()) {
-            if (coordinator.supports(candidate)) {
-                return coordinator.createDevice(candidate);
-            }
+        DeviceCoordinator coordinator = findCoordinator(candidate);
+        if (coordinator == unknownCoordinator) {
+            return null;
         }
-        return null;
+        return coordinator.createDevice(candidate);
     }
 
     public DeviceCoordinator getCoordinator(GBDeviceCandidate device) {
-        synchronized (this) {
-            for (DeviceCoordinator coord : getAllCoordinators()) {
+        return findCoordinator(device);
+    }
+
+    /**
+     * Returns the coordinator of the given device, or an UnknownDeviceCoordinator.
+     * Only the coordinators of the device's type are asked, since a coordinator only
+     * supports devices of its own type.
+     */
+    public DeviceCoordinator getCoordinator(GBDevice device) {
+        DeviceCoordinator[] coordinators = getRegistry().coordinatorsByType.get(device.getType());
+        if (coordinators != null) {
+            for (DeviceCoordinator coord : coordinators) {
                 if (coord.supports(device)) {
                     return coord;
                 }
             }
         }
-        return new UnknownDeviceCoordinator();
+        return unknownCoordinator;
     }
 
-    public DeviceCoordinator getCoordinator(GBDevice device) {
-        synchronized (this) {
+    public List<DeviceCoordinator> getAllCoordinators() {
+        return getRegistry().coordinators;
+    }
+
+    private Registry getRegistry() {
+        Registry result = registry;
+        if (result == null) {
+            synchronized (this) {
+                result = registry;
+                if (result == null) {
+                    result = registry = new Registry(createCoordinators());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Asks all coordinators, in order, whether they support the given candidate. Scanning
+     * reports the same devices over and over again, so the result is remembered for the
+     * candidate's address, name and services.
+     */
+    private DeviceCoordinator findCoordinator(GBDeviceCandidate candidate) {
+        String key = getCandidateKey(candidate);
+        DeviceCoordinator result = key != null ? candidateCoordinators.get(key) : null;
+        if (result == null) {
+            result = unknownCoordinator;
             for (DeviceCoordinator coord : getAllCoordinators()) {
-                if (coord.supports(device)) {
-                    return coord;
+                if (coord.supports(candidate)) {
+                    result = coord;
+                    break;
+                }
+            }
+            if (key != null) {
+                if (candidateCoordinators.size() >= MAX_CACHED_CANDIDATES) {
+                    candidateCoordinators.clear();
                 }
+                candidateCoordinators.put(key, result);
             }
         }
-        return new UnknownDeviceCoordinator();
+        return result;
     }
 
-    public synchronized List<DeviceCoordinator> getAllCoordinators() {
-        if (coordinators == null) {
-            coordinators = createCoordinators();
+    /**
+     * Returns a key made of everything the coordinators look at to decide whether they
+     * support a candidate, or null if the candidate has no device.
+     */
+    private static String getCandidateKey(GBDeviceCandidate candidate) {
+        BluetoothDevice device = candidate.getDevice();
+        if (device == null) {
+            return null;
         }
-        return coordinators;
+        StringBuilder key = new StringBuilder(64);
+        key.append(device.getAddress()).append('|').append(device.getName());
+        ParcelUuid[] uuids = candidate.getServiceUuids();
+        if (uuids.length > 0) {
+            String[] uuidStrings = new String[uuids.length];
+            for (int i = 0; i < uuids.length; i++) {
+                uuidStrings[i] = String.valueOf(uuids[i]);
+            }
+            // the order of the services may differ between scan results
+            Arrays.sort(uuidStrings);
+            for (String uuid : uuidStrings) {
+                key.append('|').append(uuid);
+            }
+        }
+        return key.toString();
     }
 
     private List<DeviceCoordinator> createCoordinators() {
@@ -292,6 +357,27 @@ public class DeviceHelper {
         return result;
     }
 
+    private static class Registry {
+        private final List<DeviceCoordinator> coordinators;
+        // coordinators by their device type, in the order of the list above
+        private final Map<DeviceType, DeviceCoordinator[]> coordinatorsByType = new EnumMap<>(DeviceType.class);
+
+        Registry(List<DeviceCoordinator> coordinators) {
+            this.coordinators = Collections.unmodifiableList(coordinators);
+            for (DeviceCoordinator coordinator : coordinators) {
+                DeviceType type = coordinator.getDeviceType();
+                DeviceCoordinator[] existing = coordinatorsByType.get(type);
+                if (existing == null) {
+                    coordinatorsByType.put(type, new DeviceCoordinator[]{coordinator});
+                } else {
+                    DeviceCoordinator[] extended = Arrays.copyOf(existing, existing.length + 1);
+                    extended[existing.length] = coordinator;
+                    coordinatorsByType.put(type, extended);
+                }
+            }
+        }
+    }
+
     private List<GBDevice> getDatabaseDevices() {
         List<GBDevice> result = new ArrayList<>();
         try (DBHandler lockHandler = GBApplication.acquireDB()) {
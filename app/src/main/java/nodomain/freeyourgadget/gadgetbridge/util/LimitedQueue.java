@@ -17,50 +17,187 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util;
 
-import android.util.Pair;
-
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * A bounded id -> value map that evicts the oldest entry once the limit is reached.
+ *
+ * Lookups by id use a primitive open addressing table, lookups by value use a hash index,
+ * so every operation is O(1) regardless of the limit. Adding an id that is already present
+ * replaces the previous entry and makes it the newest one.
+ */
 public class LimitedQueue {
     private final int limit;
-    private LinkedList<Pair> list = new LinkedList<>();
+    private final Entry[] slots;
+    private final int mask;
+    private final Map<Object, ValueChain> valueIndex = new HashMap<>();
+    private Entry oldest;
+    private Entry newest;
+    private int size;
+
+    private static final class Entry {
+        final int id;
+        final Object value;
+        Entry older;
+        Entry newer;
+        Entry olderSameValue;
+        Entry newerSameValue;
+
+        Entry(int id, Object value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    private static final class ValueChain {
+        Entry first;
+        Entry last;
+    }
 
     public LimitedQueue(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
         this.limit = limit;
+        // keep the load factor at or below 0.5 so probe sequences stay short
+        int capacity = Integer.highestOneBit(limit * 2 - 1) << 1;
+        slots = new Entry[Math.max(capacity, 2)];
+        mask = slots.length - 1;
     }
 
     synchronized public void add(int id, Object obj) {
-        if (list.size() > limit - 1) {
-            list.removeFirst();
+        int index = indexOf(id);
+        if (index >= 0) {
+            unlink(index);
+        } else if (size >= limit) {
+            unlink(indexOf(oldest.id));
+        }
+        Entry entry = new Entry(id, obj);
+        insertSlot(entry);
+        entry.older = newest;
+        if (newest != null) {
+            newest.newer = entry;
+        } else {
+            oldest = entry;
         }
-        list.add(new Pair<>(id, obj));
+        newest = entry;
+
+        ValueChain chain = valueIndex.get(obj);
+        if (chain == null) {
+            chain = new ValueChain();
+            chain.first = entry;
+            valueIndex.put(obj, chain);
+        } else {
+            chain.last.newerSameValue = entry;
+            entry.olderSameValue = chain.last;
+        }
+        chain.last = entry;
+        size++;
     }
 
     synchronized public void remove(int id) {
-        for (Iterator<Pair> iter = list.iterator(); iter.hasNext(); ) {
-            Pair pair = iter.next();
-            if ((Integer) pair.first == id) {
-                iter.remove();
-            }
+        int index = indexOf(id);
+        if (index >= 0) {
+            unlink(index);
         }
     }
 
     synchronized public Object lookup(int id) {
-        for (Pair entry : list) {
-            if (id == (Integer) entry.first) {
-                return entry.second;
+        int index = indexOf(id);
+        return index >= 0 ? slots[index].value : null;
+    }
+
+    synchronized public Object lookupByValue(Object value) {
+        ValueChain chain = valueIndex.get(value);
+        return chain != null ? chain.first.id : null;
+    }
+
+    synchronized public int size() {
+        return size;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(int id) {
+        int i = hash(id) & mask;
+        Entry entry;
+        while ((entry = slots[i]) != null) {
+            if (entry.id == id) {
+                return i;
             }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insertSlot(Entry entry) {
+        int i = hash(entry.id) & mask;
+        while (slots[i] != null) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = entry;
+    }
+
+    /**
+     * Removes the entry at the given slot from the table, the insertion order list and the
+     * value index.
+     */
+    private void unlink(int index) {
+        Entry entry = slots[index];
+        deleteSlot(index);
+
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else {
+            oldest = entry.newer;
+        }
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else {
+            newest = entry.older;
+        }
+
+        ValueChain chain = valueIndex.get(entry.value);
+        if (entry.olderSameValue != null) {
+            entry.olderSameValue.newerSameValue = entry.newerSameValue;
+        } else {
+            chain.first = entry.newerSameValue;
+        }
+        if (entry.newerSameValue != null) {
+            entry.newerSameValue.olderSameValue = entry.olderSameValue;
+        } else {
+            chain.last = entry.olderSameValue;
         }
-        return null;
+        if (chain.first == null) {
+            valueIndex.remove(entry.value);
+        }
+        size--;
     }
 
-    synchronized public Object lookupByValue(Object value){
-        for (Pair entry : list) {
-            if (value.equals(entry.second)) {
-                return entry.first;
+    /**
+     * Linear probing deletion without tombstones: entries following the freed slot are shifted
+     * back if their home slot allows it, so lookups never have to skip deleted markers.
+     */
+    private void deleteSlot(int index) {
+        slots[index] = null;
+        int j = index;
+        while (true) {
+            j = (j + 1) & mask;
+            Entry entry = slots[j];
+            if (entry == null) {
+                return;
+            }
+            int home = hash(entry.id) & mask;
+            boolean reachable = index <= j ? (index < home && home <= j) : (index < home || home <= j);
+            if (!reachable) {
+                slots[index] = entry;
+                slots[j] = null;
+                index = j;
             }
         }
-        return null;
     }
 }
@@ -0,0 +1,109 @@
+/*  Copyright (C) 2015-2021 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the parts of the app startup that need not block the main thread, e.g. opening
+ * the database, in the background.
+ *
+ * Each stage names the stages it depends on, which must have been added before, and is
+ * only run after those have finished. Other threads can wait for a stage with
+ * {@link #await(String, long, TimeUnit)}. A stage that fails is logged and counts as
+ * finished, so that the stages depending on it still run.
+ */
+public class StartupInitializer {
+    private static final Logger LOG = LoggerFactory.getLogger(StartupInitializer.class);
+
+    private final Executor executor;
+    private final Map<String, CountDownLatch> stages = new HashMap<>();
+
+    public StartupInitializer(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Adds the given stage, which is run as soon as all its dependencies have finished.
+     *
+     * @throws IllegalArgumentException if the name is already used or a dependency is unknown
+     */
+    public void add(final String name, final Runnable task, String... dependencies) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final CountDownLatch[] dependencyLatches = new CountDownLatch[dependencies.length];
+        synchronized (stages) {
+            if (stages.containsKey(name)) {
+                throw new IllegalArgumentException("duplicate startup stage: " + name);
+            }
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencyLatches[i] = stages.get(dependencies[i]);
+                if (dependencyLatches[i] == null) {
+                    throw new IllegalArgumentException("startup stage " + name + " depends on unknown stage " + dependencies[i]);
+                }
+            }
+            stages.put(name, done);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (CountDownLatch dependency : dependencyLatches) {
+                        dependency.await();
+                    }
+                    long start = System.nanoTime();
+                    task.run();
+                    StartupProfiler.stage(name, start);
+                } catch (Exception e) {
+                    LOG.error("startup stage " + name + " failed", e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true if the given stage has finished, or was never added.
+     */
+    public boolean isDone(String name) {
+        CountDownLatch latch = getLatch(name);
+        return latch == null || latch.getCount() == 0;
+    }
+
+    /**
+     * Waits until the given stage has finished. Returns immediately if it was never added.
+     *
+     * @return false if the stage did not finish in time
+     */
+    public boolean await(String name, long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch latch = getLatch(name);
+        return latch == null || latch.await(timeout, unit);
+    }
+
+    private CountDownLatch getLatch(String name) {
+        synchronized (stages) {
+            return stages.get(name);
+        }
+    }
+}
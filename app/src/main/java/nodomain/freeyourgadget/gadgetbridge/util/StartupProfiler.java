@@ -0,0 +1,166 @@
+/*  Copyright (C) 2015-2021 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+
+/**
+ * Records how long the stages of the app startup took, and when they finished relative
+ * to the start of the process, so that the cold start time can be looked at in the
+ * debug activity.
+ *
+ * Only the first measurement of each stage is kept, later ones (e.g. when an activity
+ * is created again) are ignored.
+ */
+public class StartupProfiler {
+    private static final Map<String, Stage> stages = new LinkedHashMap<>();
+    private static volatile long processStartTime = -1;
+    /**
+     * Whether the main thread has handled a message since {@link #start()}. When the process
+     * is started for an activity, the activity is created and resumed before that.
+     */
+    private static volatile boolean mainThreadHandledMessage;
+
+    private StartupProfiler() {
+    }
+
+    /**
+     * Remembers the start of the process, must be called first thing in
+     * {@link android.app.Application#onCreate()}.
+     */
+    public static void start() {
+        long now = SystemClock.elapsedRealtime();
+        long start = now;
+        if (GBApplication.isRunningNougatOrLater()) {
+            long processStart = Process.getStartElapsedRealtime();
+            if (processStart > 0 && processStart <= now) {
+                start = processStart;
+            }
+        }
+        processStartTime = start;
+        mainThreadHandledMessage = false;
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                mainThreadHandledMessage = true;
+            }
+        });
+    }
+
+    /**
+     * Records the time since the given start time, as returned by {@link System#nanoTime()},
+     * as the duration of the given stage.
+     */
+    public static void stage(String name, long startNanos) {
+        record(name, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records that the given activity was resumed as the end of the cold start, unless the
+     * process was started for something else, e.g. a receiver at boot or a service. Must be
+     * called on the main thread.
+     */
+    public static void markColdStart(String name) {
+        if (!mainThreadHandledMessage) {
+            record(name, -1, true);
+        }
+    }
+
+    private static void record(String name, long durationNanos) {
+        record(name, durationNanos, false);
+    }
+
+    private static synchronized void record(String name, long durationNanos, boolean coldStart) {
+        if (processStartTime < 0 || stages.containsKey(name)) {
+            return;
+        }
+        stages.put(name, new Stage(durationNanos, SystemClock.elapsedRealtime() - processStartTime,
+                Thread.currentThread().getName(), coldStart));
+    }
+
+    /**
+     * Returns all stages as JSON, in the order they finished. Times are given in milliseconds.
+     */
+    public static synchronized JSONObject snapshot() throws JSONException {
+        JSONObject result = new JSONObject();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage stage = entry.getValue();
+            JSONObject json = new JSONObject();
+            if (stage.durationNanos >= 0) {
+                json.put("durationMs", stage.durationNanos / 1e6);
+            }
+            json.put("sinceProcessStartMs", stage.sinceProcessStart);
+            json.put("thread", stage.thread);
+            if (stage.coldStart) {
+                json.put("coldStart", true);
+            }
+            result.put(entry.getKey(), json);
+        }
+        return result;
+    }
+
+    /**
+     * Returns all stages as human readable text, one per line.
+     */
+    public static synchronized String format() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage stage = entry.getValue();
+            builder.append(String.format(Locale.US, "%6dms  %s", stage.sinceProcessStart, entry.getKey()));
+            if (stage.durationNanos >= 0) {
+                builder.append(String.format(Locale.US, " (%.1fms", stage.durationNanos / 1e6));
+                builder.append(", ").append(stage.thread).append(')');
+            }
+            if (stage.coldStart) {
+                builder.append(" (cold start)");
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    static synchronized void reset() {
+        stages.clear();
+        processStartTime = -1;
+    }
+
+    private static class Stage {
+        private final long durationNanos;
+        private final long sinceProcessStart;
+        private final String thread;
+        private final boolean coldStart;
+
+        Stage(long durationNanos, long sinceProcessStart, String thread, boolean coldStart) {
+            this.durationNanos = durationNanos;
+            this.sinceProcessStart = sinceProcessStart;
+            this.thread = thread;
+            this.coldStart = coldStart;
+        }
+    }
+}
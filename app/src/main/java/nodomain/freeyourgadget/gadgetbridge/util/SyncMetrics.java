@@ -0,0 +1,152 @@
+/*  Copyright (C) 2015-2021 Andreas Shimokawa, Carsten Pfeiffer
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * A process wide registry of simple metrics about device syncs, e.g. how many BLE actions
+ * were run, how long the database was held, or how many rows were written per second.
+ *
+ * Counters only sum up values. Timers additionally count the number of measurements and
+ * the number of items that were processed in the measured time, e.g. rows or bytes, so
+ * that a throughput can be computed. Recording a value does not allocate, as long as the
+ * metric name is not built on every call.
+ */
+public class SyncMetrics {
+    private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+    private static volatile long resetTime = System.currentTimeMillis();
+
+    private SyncMetrics() {
+    }
+
+    /**
+     * Returns the name of the given metric for the given device, e.g. to compare
+     * the values of several connected devices.
+     */
+    public static String forDevice(String name, GBDevice device) {
+        return name + "@" + device.getAddress();
+    }
+
+    /**
+     * Adds the given amount to the counter with the given name.
+     */
+    public static void count(String name, long amount) {
+        getMetric(name, false).record(0, amount);
+    }
+
+    /**
+     * Records the time since the given start time, as returned by {@link System#nanoTime()}.
+     */
+    public static void time(String name, long startNanos) {
+        time(name, startNanos, 0);
+    }
+
+    /**
+     * Records the time since the given start time, as returned by {@link System#nanoTime()},
+     * in which the given number of items were processed.
+     */
+    public static void time(String name, long startNanos, long items) {
+        getMetric(name, true).record(System.nanoTime() - startNanos, items);
+    }
+
+    public static void reset() {
+        metrics.clear();
+        resetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the current values of all metrics as JSON. Times are given in milliseconds.
+     */
+    public static JSONObject snapshot() throws JSONException {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(1, now - resetTime) / 1000d;
+
+        JSONObject counters = new JSONObject();
+        JSONObject timers = new JSONObject();
+        for (Map.Entry<String, Metric> entry : new TreeMap<>(metrics).entrySet()) {
+            Metric metric = entry.getValue();
+            synchronized (metric) {
+                if (metric.timer) {
+                    JSONObject timer = new JSONObject();
+                    timer.put("count", metric.count);
+                    timer.put("totalMs", metric.totalNanos / 1e6);
+                    timer.put("averageMs", metric.count > 0 ? metric.totalNanos / 1e6 / metric.count : 0);
+                    timer.put("maxMs", metric.maxNanos / 1e6);
+                    if (metric.items > 0) {
+                        timer.put("items", metric.items);
+                        timer.put("itemsPerSecond", metric.totalNanos > 0 ? metric.items * 1e9 / metric.totalNanos : 0);
+                    }
+                    timers.put(entry.getKey(), timer);
+                } else {
+                    JSONObject counter = new JSONObject();
+                    counter.put("total", metric.items);
+                    counter.put("perSecond", metric.items / seconds);
+                    counters.put(entry.getKey(), counter);
+                }
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("since", resetTime);
+        result.put("timestamp", now);
+        result.put("counters", counters);
+        result.put("timers", timers);
+        return result;
+    }
+
+    private static Metric getMetric(String name, boolean timer) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = new Metric(timer);
+            Metric existing = metrics.putIfAbsent(name, metric);
+            if (existing != null) {
+                metric = existing;
+            }
+        }
+        return metric;
+    }
+
+    private static class Metric {
+        private final boolean timer;
+        private long count;
+        private long items;
+        private long totalNanos;
+        private long maxNanos;
+
+        Metric(boolean timer) {
+            this.timer = timer;
+        }
+
+        synchronized void record(long nanos, long amount) {
+            count++;
+            items += amount;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleDownsamplerTest extends TestBase {
+    private static final int BUCKETS = 500;
+
+    @Test
+    public void shouldKeepKindChangesAndExtremes() {
+        MiBandSampleProvider provider = new MiBandSampleProvider(createDummyGDevice("00:00:00:00:10"), daoSession);
+        int[] rawKinds = new int[] {
+                MiBandSampleProvider.TYPE_ACTIVITY,
+                MiBandSampleProvider.TYPE_DEEP_SLEEP,
+                MiBandSampleProvider.TYPE_LIGHT_SLEEP,
+                MiBandSampleProvider.TYPE_NONWEAR,
+        };
+        Random random = new Random(1);
+        List<MiBandActivitySample> samples = new ArrayList<>();
+        int rawKind = rawKinds[0];
+        for (int i = 0; i < 7 * 24 * 60; i++) { // one week of minute samples
+            if (random.nextInt(200) == 0) {
+                rawKind = rawKinds[random.nextInt(rawKinds.length)];
+            }
+            MiBandActivitySample sample = provider.createActivitySample();
+            sample.setProvider(provider);
+            sample.setTimestamp(1600000000 + i * 60);
+            sample.setRawKind(rawKind);
+            sample.setRawIntensity(random.nextInt(256));
+            sample.setHeartRate(random.nextInt(4) == 0 ? 0 : 50 + random.nextInt(100));
+            samples.add(sample);
+        }
+        ActivitySampleColumns columns = ActivitySampleColumns.of(samples);
+
+        int[] selected = SampleDownsampler.selectActivitySamples(columns, BUCKETS);
+        assertTrue(selected.length < columns.size / 2);
+        assertEquals(0, selected[0]);
+        assertEquals(columns.size - 1, selected[selected.length - 1]);
+        boolean[] isSelected = new boolean[columns.size];
+        for (int n = 0; n < selected.length; n++) {
+            assertTrue(n == 0 || selected[n] > selected[n - 1]);
+            isSelected[selected[n]] = true;
+        }
+        for (int i = 1; i < columns.size; i++) {
+            if (columns.kinds[i] != columns.kinds[i - 1]) {
+                assertTrue(isSelected[i - 1]);
+                assertTrue(isSelected[i]);
+            }
+        }
+        float maxIntensity = 0;
+        for (int i = 0; i < columns.size; i++) {
+            maxIntensity = Math.max(maxIntensity, columns.intensities[i]);
+        }
+        float maxSelectedIntensity = 0;
+        for (int i : selected) {
+            maxSelectedIntensity = Math.max(maxSelectedIntensity, columns.intensities[i]);
+        }
+        assertEquals(maxIntensity, maxSelectedIntensity, 0f);
+
+        HeartRateUtils heartRateUtils = HeartRateUtils.getInstance();
+        int[] heartRates = SampleDownsampler.selectHeartRateSamples(columns, BUCKETS, heartRateUtils);
+        assertTrue(heartRates.length > 0);
+        assertTrue(heartRates.length <= 4 * BUCKETS);
+        for (int i : heartRates) {
+            assertTrue(heartRateUtils.isValidHeartRateValue(columns.heartRates[i]));
+        }
+    }
+
+    @Test
+    public void shouldKeepAllSamplesOfShortRanges() {
+        MiBandSampleProvider provider = new MiBandSampleProvider(createDummyGDevice("00:00:00:00:10"), daoSession);
+        List<MiBandActivitySample> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            MiBandActivitySample sample = provider.createActivitySample();
+            sample.setProvider(provider);
+            sample.setTimestamp(1600000000 + i * 60);
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            sample.setRawIntensity(i);
+            samples.add(sample);
+        }
+        int[] selected = SampleDownsampler.selectActivitySamples(ActivitySampleColumns.of(samples), BUCKETS);
+        assertEquals(100, selected.length);
+    }
+}
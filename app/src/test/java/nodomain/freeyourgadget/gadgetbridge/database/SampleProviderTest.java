@@ -4,7 +4,11 @@ import org.junit.Test;
 
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySampleColumns;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleNormalizationTable;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBand2SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
@@ -16,6 +20,7 @@ import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -170,4 +175,128 @@ public class SampleProviderTest extends TestBase {
         sleepSamples = sampleProvider.getSleepSamples(1500, 2500);
         assertEquals(1, sleepSamples.size());
     }
+
+    @Test
+    public void testHuamiKindNormalization() {
+        MiBand2SampleProvider sampleProvider = new MiBand2SampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        // stored before normalization on write existed, must be normalized at query time
+        MiBandActivitySample legacy = createSample(sampleProvider, HuamiConst.TYPE_LIGHT_SLEEP, 50, 10, 60, 0, user, device);
+        daoSession.getMiBandActivitySampleDao().insert(legacy);
+        assertNull(legacy.getNormalizedKind());
+
+        MiBandActivitySample s1 = createSample(sampleProvider, HuamiConst.TYPE_NO_CHANGE, 100, 10, 60, 0, user, device);
+        MiBandActivitySample s2 = createSample(sampleProvider, HuamiConst.TYPE_DEEP_SLEEP, 200, 10, 60, 0, user, device);
+        MiBandActivitySample s3 = createSample(sampleProvider, HuamiConst.TYPE_NO_CHANGE | 0x10, 300, 10, 60, 0, user, device);
+        MiBandActivitySample s4 = createSample(sampleProvider, HuamiConst.TYPE_IGNORE, 400, 10, 60, 0, user, device);
+        MiBandActivitySample s5 = createSample(sampleProvider, HuamiConst.TYPE_ACTIVITY | 0x70, 500, 10, 60, 0, user, device);
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] { s1, s2, s3, s4, s5 });
+
+        assertEquals(HuamiConst.TYPE_LIGHT_SLEEP, (int) s1.getNormalizedKind());
+        assertEquals(HuamiConst.TYPE_DEEP_SLEEP, (int) s2.getNormalizedKind());
+        assertEquals(HuamiConst.TYPE_DEEP_SLEEP, (int) s3.getNormalizedKind());
+        assertEquals(HuamiConst.TYPE_DEEP_SLEEP, (int) s4.getNormalizedKind());
+        assertEquals(HuamiConst.TYPE_ACTIVITY, (int) s5.getNormalizedKind());
+
+        MiBandActivitySample s6 = createSample(sampleProvider, HuamiConst.TYPE_NO_CHANGE, 600, 10, 60, 0, user, device);
+        sampleProvider.addGBActivitySample(s6);
+        assertEquals(HuamiConst.TYPE_ACTIVITY, (int) s6.getNormalizedKind());
+
+        int[] expectedKinds = new int[] {
+                HuamiConst.TYPE_LIGHT_SLEEP,
+                HuamiConst.TYPE_LIGHT_SLEEP,
+                HuamiConst.TYPE_DEEP_SLEEP,
+                HuamiConst.TYPE_DEEP_SLEEP,
+                HuamiConst.TYPE_DEEP_SLEEP,
+                HuamiConst.TYPE_ACTIVITY,
+                HuamiConst.TYPE_ACTIVITY,
+        };
+        List<MiBandActivitySample> samples = sampleProvider.getAllActivitySamples(0, 1000);
+        assertEquals(expectedKinds.length, samples.size());
+        for (int i = 0; i < expectedKinds.length; i++) {
+            assertEquals(expectedKinds[i], samples.get(i).getRawKind());
+        }
+
+        // without the legacy sample, the stored normalized kinds are used as they are
+        samples = sampleProvider.getAllActivitySamples(100, 1000);
+        assertEquals(expectedKinds.length - 1, samples.size());
+        for (int i = 1; i < expectedKinds.length; i++) {
+            assertEquals(expectedKinds[i], samples.get(i - 1).getRawKind());
+        }
+    }
+
+    @Test
+    public void testHuamiKindsAfterOverlappingFetch() {
+        MiBand2SampleProvider sampleProvider = new MiBand2SampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] {
+                createSample(sampleProvider, HuamiConst.TYPE_DEEP_SLEEP, 100, 10, 60, 0, user, device),
+                createSample(sampleProvider, HuamiConst.TYPE_NO_CHANGE, 200, 10, 60, 0, user, device),
+                createSample(sampleProvider, HuamiConst.TYPE_IGNORE, 300, 10, 60, 0, user, device),
+                createSample(sampleProvider, HuamiConst.TYPE_ACTIVITY, 400, 10, 60, 0, user, device),
+                createSample(sampleProvider, HuamiConst.TYPE_NO_CHANGE, 500, 10, 60, 0, user, device),
+        });
+
+        // fetching again replaces the first sample, the following ones were filled from it
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] {
+                createSample(sampleProvider, HuamiConst.TYPE_LIGHT_SLEEP, 100, 10, 60, 0, user, device),
+        });
+
+        int[] expectedKinds = new int[] {
+                HuamiConst.TYPE_LIGHT_SLEEP,
+                HuamiConst.TYPE_LIGHT_SLEEP,
+                HuamiConst.TYPE_LIGHT_SLEEP,
+                HuamiConst.TYPE_ACTIVITY,
+                HuamiConst.TYPE_ACTIVITY,
+        };
+        List<MiBandActivitySample> samples = sampleProvider.getAllActivitySamples(0, 1000);
+        assertEquals(expectedKinds.length, samples.size());
+        for (int i = 0; i < expectedKinds.length; i++) {
+            assertEquals(expectedKinds[i], (int) samples.get(i).getNormalizedKind());
+        }
+    }
+
+    @Test
+    public void testNormalizationTable() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        SampleNormalizationTable table = sampleProvider.getNormalizationTable();
+        for (int raw = -1; raw < 5000; raw++) {
+            assertEquals(sampleProvider.normalizeType(raw), table.normalizeType(raw));
+            assertEquals(sampleProvider.normalizeIntensity(raw), table.normalizeIntensity(raw), 0f);
+            // second lookup is served from the table
+            assertEquals(sampleProvider.normalizeType(raw), table.normalizeType(raw));
+            assertEquals(sampleProvider.normalizeIntensity(raw), table.normalizeIntensity(raw), 0f);
+        }
+
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+        int[] rawKinds = new int[] {
+                MiBandSampleProvider.TYPE_ACTIVITY,
+                MiBandSampleProvider.TYPE_DEEP_SLEEP,
+                MiBandSampleProvider.TYPE_LIGHT_SLEEP,
+                MiBandSampleProvider.TYPE_NONWEAR,
+        };
+        MiBandActivitySample[] samples = new MiBandActivitySample[100];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = createSample(sampleProvider, rawKinds[i % rawKinds.length], 60 * i, (i * 37) % 256, 60, i % 7, user, device);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        List<MiBandActivitySample> stored = sampleProvider.getAllActivitySamples(0, 10000);
+        ActivitySampleColumns columns = ActivitySampleColumns.of(stored);
+        assertEquals(stored.size(), columns.size);
+        for (int i = 0; i < columns.size; i++) {
+            MiBandActivitySample sample = stored.get(i);
+            assertEquals(sample.getTimestamp(), columns.timestamps[i]);
+            assertEquals(sample.getRawKind(), columns.rawKinds[i]);
+            assertEquals(sample.getKind(), columns.kinds[i]);
+            assertEquals(sample.getIntensity(), columns.intensities[i], 0f);
+            assertEquals(sample.getSteps(), columns.steps[i]);
+            assertEquals(sample.getHeartRate(), columns.heartRates[i]);
+        }
+    }
 }
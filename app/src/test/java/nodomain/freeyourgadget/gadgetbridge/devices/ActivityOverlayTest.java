@@ -0,0 +1,120 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the sweep in AbstractSampleProvider#applyOverlays gives the same results as
+ * applying the overlays one after another with nested loops.
+ */
+public class ActivityOverlayTest extends TestBase {
+
+    @Test
+    public void testNoOverlays() {
+        List<HPlusHealthActivitySample> samples = createSamples(new Random(1), 10);
+        AbstractSampleProvider.applyOverlays(samples, new ArrayList<HPlusHealthActivityOverlay>(), new KindApplier());
+        for (HPlusHealthActivitySample sample : samples) {
+            assertEquals(ActivityKind.TYPE_UNKNOWN, sample.getRawKind());
+        }
+    }
+
+    @Test
+    public void testLaterOverlayWins() {
+        List<HPlusHealthActivitySample> samples = createSamples(new Random(1), 100);
+        List<HPlusHealthActivityOverlay> overlays = new ArrayList<>();
+        overlays.add(createOverlay(6000, 9000, ActivityKind.TYPE_LIGHT_SLEEP));
+        overlays.add(createOverlay(0, 12000, ActivityKind.TYPE_NOT_WORN));
+        overlays.add(createOverlay(3000, 6000, ActivityKind.TYPE_DEEP_SLEEP));
+
+        AbstractSampleProvider.applyOverlays(samples, overlays, new KindApplier());
+
+        for (HPlusHealthActivitySample sample : samples) {
+            int timestamp = sample.getTimestamp();
+            if (timestamp >= 3000 && timestamp < 6000) {
+                assertEquals(ActivityKind.TYPE_DEEP_SLEEP, sample.getRawKind());
+            } else if (timestamp < 12000) {
+                assertEquals(ActivityKind.TYPE_NOT_WORN, sample.getRawKind());
+            } else {
+                assertEquals(ActivityKind.TYPE_UNKNOWN, sample.getRawKind());
+            }
+        }
+    }
+
+    @Test
+    public void testEquivalentToNestedLoops() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<HPlusHealthActivitySample> samples = createSamples(random, 500);
+            int end = samples.get(samples.size() - 1).getTimestamp();
+            List<HPlusHealthActivityOverlay> overlays = new ArrayList<>();
+            int overlayCount = random.nextInt(30);
+            for (int i = 0; i < overlayCount; i++) {
+                int from = random.nextInt(end + 120) - 60;
+                int to = from + random.nextInt(3 * 3600);
+                overlays.add(createOverlay(from, to, random.nextInt(4)));
+            }
+
+            List<List<Integer>> expected = new ArrayList<>();
+            for (int i = 0; i < samples.size(); i++) {
+                expected.add(new ArrayList<Integer>());
+            }
+            for (int o = 0; o < overlays.size(); o++) {
+                HPlusHealthActivityOverlay overlay = overlays.get(o);
+                for (int i = 0; i < samples.size(); i++) {
+                    int timestamp = samples.get(i).getTimestamp();
+                    if (overlay.getTimestampFrom() <= timestamp && timestamp < overlay.getTimestampTo()) {
+                        expected.get(i).add(o);
+                    }
+                }
+            }
+
+            final List<List<Integer>> actual = new ArrayList<>();
+            final List<HPlusHealthActivitySample> sampleList = samples;
+            for (int i = 0; i < samples.size(); i++) {
+                actual.add(new ArrayList<Integer>());
+            }
+            AbstractSampleProvider.applyOverlays(samples, overlays, new AbstractSampleProvider.OverlayApplier<HPlusHealthActivitySample, HPlusHealthActivityOverlay>() {
+                @Override
+                public void apply(HPlusHealthActivitySample sample, HPlusHealthActivityOverlay overlay, int overlayIndex) {
+                    actual.get(sampleList.indexOf(sample)).add(overlayIndex);
+                }
+            });
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    private List<HPlusHealthActivitySample> createSamples(Random random, int count) {
+        List<HPlusHealthActivitySample> samples = new ArrayList<>();
+        int timestamp = 0;
+        for (int i = 0; i < count; i++) {
+            // include duplicate timestamps, like the virtual samples of the HPlus provider
+            timestamp += random.nextInt(4) == 0 ? 0 : random.nextInt(600);
+            samples.add(new HPlusHealthActivitySample(timestamp, 1L, 1L, null, ActivityKind.TYPE_UNKNOWN, 1,
+                    ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED));
+        }
+        return samples;
+    }
+
+    private HPlusHealthActivityOverlay createOverlay(int from, int to, int rawKind) {
+        return new HPlusHealthActivityOverlay(from, to, rawKind, 1L, 1L, null);
+    }
+
+    private static class KindApplier implements AbstractSampleProvider.OverlayApplier<HPlusHealthActivitySample, HPlusHealthActivityOverlay> {
+        @Override
+        public void apply(HPlusHealthActivitySample sample, HPlusHealthActivityOverlay overlay, int overlayIndex) {
+            sample.setRawKind(overlay.getRawKind());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.lenovo.watchxplus;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WatchXPlusSleepReconstructionTest extends TestBase {
+    private static final int DAY_START = 1577836800; // 2020-01-01T00:00:00Z
+    private static final int DAY_END = DAY_START + 24 * 3600 - 1;
+
+    @Test
+    public void testGoldenData() throws Exception {
+        List<WatchXPlusActivitySample> result = WatchXPlusSleepReconstruction.reconstruct(createDay(0L, 0L));
+
+        List<String> expected = new ArrayList<>();
+        try (InputStream in = getClass().getResourceAsStream("/WatchXPlusSleepReconstruction-golden.csv");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                expected.add(line);
+            }
+        }
+
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals("sample " + i, expected.get(i), format(result.get(i)));
+        }
+    }
+
+    @Test
+    public void testStoredReconstruction() {
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:20");
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        WatchXPlusSampleProvider provider = new WatchXPlusSampleProvider(gbDevice, daoSession);
+
+        List<WatchXPlusActivitySample> samples = createDay(device.getId(), user.getId());
+        provider.addGBActivitySamples(samples.toArray(new WatchXPlusActivitySample[0]));
+        assertNull(samples.get(0).getReconstructedKind());
+
+        // nothing stored yet, computed on the fly
+        Set<String> expected = new TreeSet<>();
+        for (WatchXPlusActivitySample sample : provider.getAllActivitySamples(DAY_START, DAY_END)) {
+            expected.add(format(sample));
+        }
+
+        provider.reconstructAndStore(DAY_START, DAY_END);
+
+        Set<String> stored = new TreeSet<>();
+        List<WatchXPlusActivitySample> storedSamples = provider.getAllActivitySamples(DAY_START, DAY_END);
+        for (WatchXPlusActivitySample sample : storedSamples) {
+            stored.add(format(sample));
+        }
+        assertEquals(expected, stored);
+        // every sample is only returned once from the stored reconstruction
+        assertEquals(stored.size(), storedSamples.size());
+    }
+
+    @Test
+    public void testNightAcrossMidnight() {
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:21");
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        WatchXPlusSampleProvider provider = new WatchXPlusSampleProvider(gbDevice, daoSession);
+
+        Calendar noon = Calendar.getInstance();
+        noon.clear();
+        noon.set(2020, Calendar.JANUARY, 1, 12, 0, 0);
+        int windowStart = (int) (noon.getTimeInMillis() / 1000);
+        noon.add(Calendar.DAY_OF_MONTH, 1);
+        int windowEnd = (int) (noon.getTimeInMillis() / 1000) - 1;
+        int midnight = windowStart + 12 * 3600;
+        assertEquals(windowStart, WatchXPlusSampleProvider.getWindowStart(midnight));
+        assertEquals(windowStart, WatchXPlusSampleProvider.getWindowStart(windowEnd));
+
+        // the first sync ends shortly after midnight, the second one brings the rest of the night
+        List<WatchXPlusActivitySample> samples = createNight(device.getId(), user.getId(), windowStart);
+        int syncSplit = midnight + 1800;
+        List<WatchXPlusActivitySample> firstSync = new ArrayList<>();
+        List<WatchXPlusActivitySample> secondSync = new ArrayList<>();
+        for (WatchXPlusActivitySample sample : samples) {
+            (sample.getTimestamp() <= syncSplit ? firstSync : secondSync).add(sample);
+        }
+        provider.addGBActivitySamples(firstSync.toArray(new WatchXPlusActivitySample[0]));
+        provider.reconstructAndStore(windowStart, syncSplit);
+        provider.addGBActivitySamples(secondSync.toArray(new WatchXPlusActivitySample[0]));
+        // the reconstruction rewrites the cached entities
+        daoSession.clear();
+
+        // partly stored, so the whole night is computed on the fly
+        Set<String> expected = formatAll(provider.getAllActivitySamples(windowStart, windowEnd));
+        assertEquals(formatAll(WatchXPlusSleepReconstruction.reconstruct(createNight(device.getId(), user.getId(), windowStart))), expected);
+
+        daoSession.clear();
+        provider.reconstructAndStore(syncSplit + 1, secondSync.get(secondSync.size() - 1).getTimestamp());
+        daoSession.clear();
+        for (WatchXPlusActivitySample sample : daoSession.getWatchXPlusActivitySampleDao().loadAll()) {
+            assertNotNull(sample.getReconstructedKind());
+        }
+        assertEquals(expected, formatAll(provider.getAllActivitySamples(windowStart, windowEnd)));
+        daoSession.clear();
+
+        // a range starting at midnight shows the same kinds as the whole night
+        Set<String> afterMidnight = new TreeSet<>();
+        for (String sample : expected) {
+            if (Integer.parseInt(sample.substring(0, sample.indexOf(','))) >= midnight) {
+                afterMidnight.add(sample);
+            }
+        }
+        assertEquals(afterMidnight, formatAll(provider.getAllActivitySamples(midnight, windowEnd)));
+    }
+
+    private static Set<String> formatAll(List<WatchXPlusActivitySample> samples) {
+        Set<String> result = new TreeSet<>();
+        for (WatchXPlusActivitySample sample : samples) {
+            result.add(format(sample));
+        }
+        return result;
+    }
+
+    private static String format(WatchXPlusActivitySample sample) {
+        return sample.getTimestamp() + "," + sample.getRawKind() + "," + sample.getRawIntensity() + ","
+                + sample.getSteps() + "," + sample.getHeartRate();
+    }
+
+    /**
+     * A synthetic day of Watch X Plus data: heart rate samples every two minutes with two gaps,
+     * sleep samples every five minutes during the night and an afternoon nap.
+     */
+    private static List<WatchXPlusActivitySample> createDay(long deviceId, long userId) {
+        List<WatchXPlusActivitySample> samples = new ArrayList<>();
+        for (int i = 0; i < 720; i++) {
+            int timestamp = DAY_START + i * 120;
+            int minuteOfDay = i * 2;
+            if ((minuteOfDay >= 180 && minuteOfDay < 250) || (minuteOfDay >= 840 && minuteOfDay < 870)) {
+                continue;
+            }
+            WatchXPlusActivitySample sample = createSample(deviceId, userId, timestamp, ActivityKind.TYPE_ACTIVITY);
+            sample.setHeartRate(60 + (i * 7) % 40);
+            if (i % 10 == 0) {
+                sample.setSteps(20 + i % 30);
+            }
+            samples.add(sample);
+        }
+        addSleep(samples, deviceId, userId, DAY_START + 30 * 60, 72);
+        addSleep(samples, deviceId, userId, DAY_START + 13 * 3600, 9);
+
+        Collections.sort(samples, new Comparator<WatchXPlusActivitySample>() {
+            @Override
+            public int compare(WatchXPlusActivitySample one, WatchXPlusActivitySample other) {
+                if (one.getTimestamp() != other.getTimestamp()) {
+                    return one.getTimestamp() - other.getTimestamp();
+                }
+                return one.getRawKind() - other.getRawKind();
+            }
+        });
+        return samples;
+    }
+
+    /**
+     * Heart rate samples every two minutes from noon to noon, with a night of sleep from 22:30
+     * to 06:30. The sleep samples are a minute off, so that no two samples have the same time.
+     */
+    private static List<WatchXPlusActivitySample> createNight(long deviceId, long userId, int windowStart) {
+        List<WatchXPlusActivitySample> samples = new ArrayList<>();
+        for (int i = 0; i < 720; i++) {
+            WatchXPlusActivitySample sample = createSample(deviceId, userId, windowStart + i * 120, ActivityKind.TYPE_ACTIVITY);
+            sample.setHeartRate(55 + (i * 11) % 35);
+            if (i % 10 == 0) {
+                sample.setSteps(10 + i % 40);
+            }
+            samples.add(sample);
+        }
+        addSleep(samples, deviceId, userId, windowStart + 10 * 3600 + 30 * 60 + 60, 96);
+
+        Collections.sort(samples, new Comparator<WatchXPlusActivitySample>() {
+            @Override
+            public int compare(WatchXPlusActivitySample one, WatchXPlusActivitySample other) {
+                return one.getTimestamp() - other.getTimestamp();
+            }
+        });
+        return samples;
+    }
+
+    private static void addSleep(List<WatchXPlusActivitySample> samples, long deviceId, long userId, int start, int count) {
+        for (int i = 0; i < count; i++) {
+            int value = i % 7 < 2 ? 0 : 100 + (i * 37) % 900;
+            WatchXPlusActivitySample sample = createSample(deviceId, userId, start + i * 300,
+                    value == 0 ? ActivityKind.TYPE_DEEP_SLEEP : ActivityKind.TYPE_LIGHT_SLEEP);
+            sample.setRawIntensity(value);
+            samples.add(sample);
+        }
+    }
+
+    private static WatchXPlusActivitySample createSample(long deviceId, long userId, int timestamp, int rawKind) {
+        WatchXPlusActivitySample sample = new WatchXPlusActivitySample();
+        sample.setTimestamp(timestamp);
+        sample.setDeviceId(deviceId);
+        sample.setUserId(userId);
+        sample.setRawKind(rawKind);
+        sample.setRawIntensity(ActivitySample.NOT_MEASURED);
+        sample.setSteps(ActivitySample.NOT_MEASURED);
+        sample.setHeartRate(ActivitySample.NOT_MEASURED);
+        return sample;
+    }
+}
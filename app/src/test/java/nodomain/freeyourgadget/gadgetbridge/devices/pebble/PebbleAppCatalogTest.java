@@ -0,0 +1,147 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PebbleAppCatalogTest extends TestBase {
+    private static final UUID APP = UUID.fromString("36d8c6ed-4c83-4fa1-a9e2-8f12dc941f8c");
+    private static final UUID NO_METADATA = UUID.fromString("5f1e2b9c-5a41-4a5b-9d5b-0b8b4ad0fe3e");
+
+    private File cacheDir;
+    private File catalogFile;
+
+    @Before
+    public void setUp() throws IOException {
+        File dir = FileUtils.createTempDir("pbwcatalog");
+        cacheDir = new File(dir, "pbw-cache");
+        assertTrue(cacheDir.mkdirs());
+        catalogFile = new File(dir, "pbwcache.catalog");
+    }
+
+    @Test
+    public void testRebuildFromCacheDir() throws IOException {
+        writeApp(APP, "Test App", true);
+        write(new File(cacheDir, NO_METADATA + ".pbw"), "");
+        write(new File(cacheDir, "not-a-uuid.pbw"), "");
+
+        PebbleAppCatalog catalog = new PebbleAppCatalog(cacheDir, catalogFile);
+        assertEquals(new HashSet<>(Arrays.asList(APP, NO_METADATA)), new HashSet<>(catalog.getUuids()));
+        assertNull(catalog.getApp(NO_METADATA));
+        assertNull(catalog.getApp(UUID.randomUUID()));
+
+        GBDeviceApp app = catalog.getApp(APP);
+        assertEquals(APP, app.getUUID());
+        assertEquals("Test App", app.getName());
+        assertEquals("Creator", app.getCreator());
+        assertEquals("1.0", app.getVersion());
+        assertEquals(GBDeviceApp.Type.WATCHFACE, app.getType());
+        assertTrue(app.isConfigurable());
+        assertTrue(app.isInCache());
+        assertTrue(catalogFile.exists());
+    }
+
+    @Test
+    public void testLoadWithoutReadingMetadata() throws IOException {
+        writeApp(APP, "Test App", false);
+        assertEquals("Test App", new PebbleAppCatalog(cacheDir, catalogFile).getApp(APP).getName());
+
+        // changing a file does not change the directory, so the catalog is used as is
+        long modified = cacheDir.lastModified();
+        writeApp(APP, "Changed", false);
+        cacheDir.setLastModified(modified);
+        assertEquals("Test App", new PebbleAppCatalog(cacheDir, catalogFile).getApp(APP).getName());
+
+        // a directory changed by someone else is scanned again
+        cacheDir.setLastModified(modified + 10000);
+        assertEquals("Changed", new PebbleAppCatalog(cacheDir, catalogFile).getApp(APP).getName());
+    }
+
+    @Test
+    public void testPutAndRemove() throws IOException {
+        PebbleAppCatalog catalog = new PebbleAppCatalog(cacheDir, catalogFile);
+        assertTrue(catalog.getUuids().isEmpty());
+
+        writeApp(APP, "Test App", false);
+        catalog.put(new GBDeviceApp(APP, "Test App", "Creator", "1.0", GBDeviceApp.Type.APP_GENERIC), false);
+        GBDeviceApp app = new PebbleAppCatalog(cacheDir, catalogFile).getApp(APP);
+        assertEquals(GBDeviceApp.Type.APP_GENERIC, app.getType());
+        assertFalse(app.isConfigurable());
+
+        assertTrue(new File(cacheDir, APP + ".pbw").delete());
+        catalog.remove(APP);
+        assertTrue(new PebbleAppCatalog(cacheDir, catalogFile).getUuids().isEmpty());
+    }
+
+    @Test
+    public void testPutDoesNotRebuild() throws IOException {
+        writeApp(APP, "Test App", false);
+        PebbleAppCatalog catalog = new PebbleAppCatalog(cacheDir, catalogFile);
+        assertEquals("Test App", catalog.getApp(APP).getName());
+
+        // a rebuild would pick up the changed metadata
+        long modified = cacheDir.lastModified();
+        writeApp(APP, "Changed", false);
+        writeApp(NO_METADATA, "Other App", false);
+        cacheDir.setLastModified(modified + 10000);
+        catalog.put(new GBDeviceApp(NO_METADATA, "Other App", "Creator", "1.0", GBDeviceApp.Type.APP_GENERIC), false);
+        assertEquals("Test App", catalog.getApp(APP).getName());
+        assertEquals("Other App", catalog.getApp(NO_METADATA).getName());
+
+        catalog = new PebbleAppCatalog(cacheDir, catalogFile);
+        assertEquals("Test App", catalog.getApp(APP).getName());
+        assertEquals("Other App", catalog.getApp(NO_METADATA).getName());
+    }
+
+    @Test
+    public void testManyApps() throws IOException {
+        int appCount = 300;
+        UUID[] uuids = new UUID[appCount];
+        for (int i = 0; i < appCount; i++) {
+            uuids[i] = UUID.randomUUID();
+            writeApp(uuids[i], "App " + i, i % 2 == 0);
+        }
+
+        assertEquals(appCount, new PebbleAppCatalog(cacheDir, catalogFile).getUuids().size());
+        assertTrue(catalogFile.exists());
+
+        // read back from the catalog file
+        PebbleAppCatalog catalog = new PebbleAppCatalog(cacheDir, catalogFile);
+        assertEquals(new HashSet<>(Arrays.asList(uuids)), new HashSet<>(catalog.getUuids()));
+        for (int i = 0; i < appCount; i++) {
+            GBDeviceApp app = catalog.getApp(uuids[i]);
+            assertEquals("App " + i, app.getName());
+            assertEquals(i % 2 == 0, app.isConfigurable());
+        }
+    }
+
+    private void writeApp(UUID uuid, String name, boolean configurable) throws IOException {
+        write(new File(cacheDir, uuid + ".pbw"), "");
+        write(new File(cacheDir, uuid + ".json"), new GBDeviceApp(uuid, name, "Creator", "1.0", GBDeviceApp.Type.WATCHFACE).getJSON().toString());
+        if (configurable) {
+            write(new File(cacheDir, uuid + "_config.js"), "");
+        }
+    }
+
+    private void write(File file, String content) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+}
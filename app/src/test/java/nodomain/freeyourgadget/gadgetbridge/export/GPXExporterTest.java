@@ -15,6 +15,7 @@ import java.text.ParsePosition;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
@@ -24,13 +25,18 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter.GPXTrackEmptyException;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPointColumns;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
 import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
 
 public class GPXExporterTest extends TestBase {
     @Test
@@ -63,6 +69,107 @@ public class GPXExporterTest extends TestBase {
         validateGpxFile(tempFile);
     }
 
+    @Test
+    public void shouldUseHeartRateOfClosestPrecedingPoint() {
+        final Random random = new Random(42);
+        final List<ActivityPoint> points = new ArrayList<>();
+        long time = 1600000000000L;
+        for (int i = 0; i < 50000; i++) {
+            final ActivityPoint point = new ActivityPoint();
+            point.setTime(new Date(time));
+            if (random.nextInt(20) == 0) {
+                point.setHeartRate(60 + random.nextInt(120));
+            }
+            points.add(point);
+            // include duplicate timestamps and gaps longer than two minutes
+            time += random.nextInt(10) == 0 ? random.nextInt(300) * 1000L : random.nextInt(3) * 1000L;
+        }
+
+        final int[] heartRates = GPXExporter.findClosestSensibleHeartRates(points);
+
+        for (int i = 0; i < points.size(); i += 7) {
+            assertEquals("point " + i, findClosestSensibleHeartRate(points.get(i).getTime(), points), heartRates[i]);
+        }
+    }
+
+    @Test
+    public void shouldSkipPointsWithoutTimeForHeartRate() {
+        final List<ActivityPoint> points = new ArrayList<>();
+        final ActivityPoint withHeartRate = new ActivityPoint(new Date(1600000000000L));
+        withHeartRate.setHeartRate(80);
+        points.add(withHeartRate);
+        final ActivityPoint withoutTime = new ActivityPoint();
+        withoutTime.setHeartRate(90);
+        points.add(withoutTime);
+        points.add(new ActivityPoint(new Date(1600000001000L)));
+
+        final int[] heartRates = GPXExporter.findClosestSensibleHeartRates(points);
+        assertEquals(0, heartRates[0]);
+        assertEquals(0, heartRates[1]);
+        assertEquals(80, heartRates[2]);
+    }
+
+    @Test
+    public void shouldExportColumnsLikePoints() throws IOException, GPXTrackEmptyException, SAXException {
+        final ActivityPointColumns columns = new ActivityPointColumns(1600000000000L, 0);
+        for (int i = 0; i < 500; i++) {
+            final int index = columns.addPoint(i * 2);
+            if (i % 50 != 10) {
+                final int altitude = i % 20 == 0 ? ActivityPointColumns.UNKNOWN_ALTITUDE : 400 + i % 30;
+                columns.setLocation(index, -68200000 + i * 13, 44150000 - i * 21, altitude);
+            }
+            if (i % 7 == 0) {
+                columns.setHeartRate(index, 80 + i % 40);
+            }
+        }
+
+        final GPXExporter gpxExporter = new GPXExporter();
+        gpxExporter.setCreator("Gadgetbridge Test");
+        final ActivityTrack columnsTrack = createTestTrack(new ArrayList<ActivityPoint>());
+        columnsTrack.setTrackPoints(columns);
+        final ActivityTrack pointsTrack = createTestTrack(new ArrayList<>(columns));
+
+        final File columnsFile = File.createTempFile("gpx-exporter-test-columns", ".gpx");
+        columnsFile.deleteOnExit();
+        gpxExporter.performExport(columnsTrack, columnsFile);
+        validateGpxFile(columnsFile);
+        final File pointsFile = File.createTempFile("gpx-exporter-test-points", ".gpx");
+        pointsFile.deleteOnExit();
+        gpxExporter.performExport(pointsTrack, pointsFile);
+
+        assertEquals(getTrackSegment(pointsFile), getTrackSegment(columnsFile));
+    }
+
+    /**
+     * Returns the exported points, without the metadata and track id that differ between exports.
+     */
+    private String getTrackSegment(File gpxFile) throws IOException {
+        final String gpx = FileUtils.getStringFromFile(gpxFile);
+        return gpx.substring(gpx.indexOf("<trkseg"));
+    }
+
+    /**
+     * The straightforward lookup that GPXExporter used to do for each point.
+     */
+    private int findClosestSensibleHeartRate(Date time, List<ActivityPoint> trackPoints) {
+        ActivityPoint closestPointItem = null;
+        long lowestDifference = 60 * 2 * 1000;
+        for (ActivityPoint pointItem : trackPoints) {
+            if (HeartRateUtils.getInstance().isValidHeartRateValue(pointItem.getHeartRate())) {
+                Date timeItem = pointItem.getTime();
+                if (timeItem.after(time) || timeItem.equals(time)) {
+                    break;
+                }
+                long difference = time.getTime() - timeItem.getTime();
+                if (difference < lowestDifference) {
+                    lowestDifference = difference;
+                    closestPointItem = pointItem;
+                }
+            }
+        }
+        return closestPointItem != null ? closestPointItem.getHeartRate() : 0;
+    }
+
     private ActivityTrack createTestTrack(List<ActivityPoint> points) {
         final User user = new User();
         user.setName("Test User");
@@ -0,0 +1,89 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherTest extends TestBase {
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheFile = new File(FileUtils.createTempDir("weather"), "weather.bin");
+    }
+
+    @Test
+    public void testStoredWeather() {
+        Weather weather = new Weather(cacheFile);
+        assertNull(weather.getWeatherSpec());
+        assertTrue(weather.setWeatherSpec(createWeatherSpec(1000, 293)));
+
+        WeatherSpec stored = new Weather(cacheFile).getWeatherSpec();
+        assertEquals(1000, stored.timestamp);
+        assertEquals("Berlin", stored.location);
+        assertEquals(293, stored.currentTemp);
+        assertEquals(800, stored.currentConditionCode);
+        assertNull(stored.currentCondition);
+        assertEquals(40, stored.currentHumidity);
+        assertEquals(295, stored.todayMaxTemp);
+        assertEquals(285, stored.todayMinTemp);
+        assertEquals(12.5f, stored.windSpeed, 0);
+        assertEquals(270, stored.windDirection);
+        assertEquals(2, stored.forecasts.size());
+        assertEquals(281, stored.forecasts.get(1).minTemp);
+        assertEquals(291, stored.forecasts.get(1).maxTemp);
+        assertEquals(500, stored.forecasts.get(1).conditionCode);
+        assertEquals(70, stored.forecasts.get(1).humidity);
+    }
+
+    @Test
+    public void testUnchangedWeather() {
+        Weather weather = new Weather(cacheFile);
+        assertTrue(weather.setWeatherSpec(createWeatherSpec(1000, 293)));
+        assertFalse(weather.setWeatherSpec(createWeatherSpec(2000, 293)));
+        assertEquals(2000, weather.getWeatherSpec().timestamp);
+        assertEquals(2000, new Weather(cacheFile).getWeatherSpec().timestamp);
+        assertTrue(weather.setWeatherSpec(createWeatherSpec(3000, 294)));
+
+        // also after a restart
+        assertFalse(new Weather(cacheFile).setWeatherSpec(createWeatherSpec(4000, 294)));
+        assertTrue(new Weather(cacheFile).setWeatherSpec(createWeatherSpec(4000, 293)));
+    }
+
+    @Test
+    public void testUnknownFormatIsIgnored() throws IOException {
+        Weather weather = new Weather(cacheFile);
+        weather.setWeatherSpec(createWeatherSpec(1000, 293));
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.writeInt(-1);
+        }
+        assertNull(new Weather(cacheFile).getWeatherSpec());
+    }
+
+    private WeatherSpec createWeatherSpec(int timestamp, int currentTemp) {
+        WeatherSpec weatherSpec = new WeatherSpec();
+        weatherSpec.timestamp = timestamp;
+        weatherSpec.location = "Berlin";
+        weatherSpec.currentTemp = currentTemp;
+        weatherSpec.currentConditionCode = 800;
+        weatherSpec.currentHumidity = 40;
+        weatherSpec.todayMaxTemp = 295;
+        weatherSpec.todayMinTemp = 285;
+        weatherSpec.windSpeed = 12.5f;
+        weatherSpec.windDirection = 270;
+        weatherSpec.forecasts.add(new WeatherSpec.Forecast(283, 293, 800, 50));
+        weatherSpec.forecasts.add(new WeatherSpec.Forecast(281, 291, 500, 70));
+        return weatherSpec;
+    }
+}
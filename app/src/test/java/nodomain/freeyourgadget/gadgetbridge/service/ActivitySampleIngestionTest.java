@@ -0,0 +1,73 @@
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.zetime.ZeTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.ZeTimeActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ActivitySampleIngestionTest extends TestBase {
+
+    private GBDevice device;
+    private ActivitySampleIngestion<ZeTimeActivitySample> ingestion;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        device = new GBDevice("00:00:00:00:20", "ZeTime", null, DeviceType.ZETIME);
+        TestDeviceSupport deviceSupport = new TestDeviceSupport();
+        deviceSupport.setContext(device, null, getContext());
+        ingestion = deviceSupport.createActivitySampleIngestion();
+    }
+
+    @Test
+    public void testBatchedUpsert() {
+        ingestion.add(createSample(100, 10));
+        ingestion.add(createSample(200, 20));
+        ingestion.add(createSample(100, 30));
+        assertEquals(2, ingestion.getPendingCount());
+
+        assertTrue(ingestion.finish());
+        assertEquals(0, ingestion.getPendingCount());
+
+        ZeTimeSampleProvider provider = new ZeTimeSampleProvider(device, daoSession);
+        List<ZeTimeActivitySample> samples = provider.getAllActivitySamples(0, 1000);
+        assertEquals(2, samples.size());
+        assertEquals(30, samples.get(0).getSteps());
+        assertEquals(20, samples.get(1).getSteps());
+        assertNotNull(samples.get(0).getUserId());
+
+        // stored samples are replaced, not duplicated
+        ingestion.add(createSample(200, 40));
+        assertTrue(ingestion.flush());
+        samples = provider.getAllActivitySamples(0, 1000);
+        assertEquals(2, samples.size());
+        assertEquals(40, samples.get(1).getSteps());
+    }
+
+    @Test
+    public void testFlushesFullBatch() {
+        for (int i = 0; i < ActivitySampleIngestion.BATCH_SIZE; i++) {
+            ingestion.add(createSample(i * 60, i));
+        }
+        assertEquals(0, ingestion.getPendingCount());
+
+        ZeTimeSampleProvider provider = new ZeTimeSampleProvider(device, daoSession);
+        assertEquals(ActivitySampleIngestion.BATCH_SIZE, provider.getAllActivitySamples(0, Integer.MAX_VALUE).size());
+    }
+
+    private ZeTimeActivitySample createSample(int timestamp, int steps) {
+        ZeTimeActivitySample sample = new ZeTimeActivitySample();
+        sample.setTimestamp(timestamp);
+        sample.setSteps(steps);
+        return sample;
+    }
+}
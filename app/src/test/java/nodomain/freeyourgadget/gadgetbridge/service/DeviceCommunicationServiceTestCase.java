@@ -8,23 +8,38 @@ import org.junit.Test;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_BODY;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 public class DeviceCommunicationServiceTestCase extends TestBase {
     private static final java.lang.String TEST_DEVICE_ADDRESS = TestDeviceSupport.class.getName();
 
     /**
-     * Factory that always returns the mockSupport instance
+     * Factory that returns the instance registered for the device in additionalSupports,
+     * or the mockSupport instance
      */
     private class TestDeviceSupportFactory extends DeviceSupportFactory {
         TestDeviceSupportFactory(Context context) {
@@ -33,7 +48,8 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
 
         @Override
         public synchronized DeviceSupport createDeviceSupport(GBDevice device) throws GBException {
-            return mockSupport;
+            DeviceSupport support = additionalSupports.get(device.getAddress());
+            return support != null ? support : mockSupport;
         }
     }
 
@@ -41,6 +57,7 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
     @Mock
     private TestDeviceSupport realSupport;
     private TestDeviceSupport mockSupport;
+    private final Map<String, TestDeviceSupport> additionalSupports = new HashMap<>();
 
     public DeviceCommunicationServiceTestCase() {
         super();
@@ -50,10 +67,18 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
     public void setUp() throws Exception {
         super.setUp();
         mockSupport = null;
+        additionalSupports.clear();
         realSupport = new TestDeviceSupport();
         realSupport.setContext(new GBDevice(TEST_DEVICE_ADDRESS, "Test Device", "Test Device Alias", DeviceType.TEST), null, getContext());
         mockSupport = Mockito.spy(realSupport);
         DeviceCommunicationService.setDeviceSupportFactory(new TestDeviceSupportFactory(getContext()));
+        // execute the commands synchronously, so that they can be verified right away
+        DeviceCommunicationService.setCommandExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
 
         mDeviceService = new TestDeviceService(getContext());
     }
@@ -65,6 +90,7 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
     @Override
     public void tearDown() throws Exception {
         mDeviceService.stopService(mDeviceService.createIntent());
+        DeviceCommunicationService.setCommandExecutor(null);
         super.tearDown();
     }
 
@@ -102,6 +128,129 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         inOrder.verifyNoMoreInteractions();
     }
 
+    private TestDeviceSupport createAdditionalSupport(String address) {
+        TestDeviceSupport support = new TestDeviceSupport();
+        support.setContext(new GBDevice(address, "Test Device " + address, null, DeviceType.TEST), null, getContext());
+        TestDeviceSupport spy = Mockito.spy(support);
+        additionalSupports.put(address, spy);
+        return spy;
+    }
+
+    @Test
+    public void testMultipleDevices() {
+        TestDeviceSupport support1 = createAdditionalSupport("11:22:33:44:55:01");
+        TestDeviceSupport support2 = createAdditionalSupport("11:22:33:44:55:02");
+        TestDeviceSupport support3 = createAdditionalSupport("11:22:33:44:55:03");
+
+        mDeviceService.start();
+        mDeviceService.connect(support1.getDevice());
+        mDeviceService.connect(support2.getDevice());
+        mDeviceService.connect(support3.getDevice());
+
+        // connecting another device must not disconnect the previous ones
+        for (TestDeviceSupport support : new TestDeviceSupport[] { support1, support2, support3 }) {
+            Mockito.verify(support, Mockito.times(1)).connect();
+            Mockito.verify(support, Mockito.never()).dispose();
+            assertTrue(support.getDevice().isInitialized());
+        }
+
+        // commands go to all connected devices
+        mDeviceService.onFindDevice(true);
+        Mockito.verify(support1, Mockito.times(1)).onFindDevice(true);
+        Mockito.verify(support2, Mockito.times(1)).onFindDevice(true);
+        Mockito.verify(support3, Mockito.times(1)).onFindDevice(true);
+
+        // a command for a single device only goes to that device
+        mDeviceService.invokeService(mDeviceService.createIntent()
+                .setAction(DeviceService.ACTION_DISCONNECT)
+                .putExtra(GBDevice.EXTRA_DEVICE, support2.getDevice()));
+        Mockito.verify(support2, Mockito.times(1)).dispose();
+        Mockito.verify(support1, Mockito.never()).dispose();
+        Mockito.verify(support3, Mockito.never()).dispose();
+        assertEquals(GBDevice.State.NOT_CONNECTED, support2.getDevice().getState());
+
+        mDeviceService.onFindDevice(false);
+        Mockito.verify(support1, Mockito.times(1)).onFindDevice(false);
+        Mockito.verify(support2, Mockito.never()).onFindDevice(false);
+        Mockito.verify(support3, Mockito.times(1)).onFindDevice(false);
+    }
+
+    @Test
+    public void testCommandsRunOnDeviceThread() throws Exception {
+        ensureConnected();
+        DeviceCommunicationService.setCommandExecutor(null);
+
+        final Thread[] threads = new Thread[2];
+        final CountDownLatch latch = new CountDownLatch(2);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                boolean start = (Boolean) invocation.getArguments()[0];
+                threads[start ? 0 : 1] = Thread.currentThread();
+                latch.countDown();
+                return null;
+            }
+        }).when(mockSupport).onFindDevice(Mockito.anyBoolean());
+
+        InOrder inOrder = Mockito.inOrder(mockSupport);
+        mDeviceService.onFindDevice(true);
+        mDeviceService.onFindDevice(false);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // executed in order, on the same thread, which is not the calling thread
+        inOrder.verify(mockSupport).onFindDevice(true);
+        inOrder.verify(mockSupport).onFindDevice(false);
+        assertEquals(threads[0], threads[1]);
+        assertNotEquals(Thread.currentThread(), threads[0]);
+    }
+
+    @Test
+    public void testConnectionChangeFromOtherThreadKeepsOrder() throws Exception {
+        ensureConnected();
+
+        final Intent disconnect = mDeviceService.createIntent().setAction(DeviceService.ACTION_DISCONNECT);
+        final boolean[] dispatched = new boolean[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatched[0] = DeviceCommunicationService.dispatchInProcess(disconnect);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertFalse(dispatched[0]);
+
+        // must not overtake the disconnect, which is still waiting for onStartCommand()
+        Intent findDevice = mDeviceService.createIntent()
+                .setAction(DeviceService.ACTION_FIND_DEVICE)
+                .putExtra(DeviceService.EXTRA_FIND_START, true);
+        assertFalse(DeviceCommunicationService.dispatchInProcess(findDevice));
+
+        mDeviceService.invokeService(disconnect);
+        Mockito.verify(mockSupport, Mockito.times(1)).dispose();
+        assertTrue(DeviceCommunicationService.dispatchInProcess(findDevice));
+        Mockito.verify(mockSupport, Mockito.never()).onFindDevice(true);
+    }
+
+    @Test
+    public void testCommandExtrasAreCopied() {
+        ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+        String[] array = new String[] { "c", "d" };
+        Intent intent = new Intent(DeviceService.ACTION_SET_ALARMS)
+                .putExtra(DeviceService.EXTRA_ALARMS, list)
+                .putExtra(DeviceService.EXTRA_CANNEDMESSAGES, array)
+                .putExtra(DeviceService.EXTRA_FIND_START, true);
+
+        Intent copy = DeviceCommunicationService.copyExtras(intent);
+        list.add("e");
+        array[0] = "f";
+
+        assertEquals(Arrays.asList("a", "b"), copy.getSerializableExtra(DeviceService.EXTRA_ALARMS));
+        assertArrayEquals(new String[] { "c", "d" }, copy.getStringArrayExtra(DeviceService.EXTRA_CANNEDMESSAGES));
+        assertTrue(copy.getBooleanExtra(DeviceService.EXTRA_FIND_START, false));
+        assertEquals(DeviceService.ACTION_SET_ALARMS, copy.getAction());
+    }
+
     @Test
     public void testTransliterationSupport() {
         SharedPreferences settings = GBApplication.getPrefs().getPreferences();
@@ -26,10 +26,18 @@ class TestDeviceService extends GBDeviceService {
 
     @Override
     protected void invokeService(Intent intent) {
+        super.invokeService(intent);
+    }
+
+    @Override
+    protected boolean dispatchInProcess(Intent intent) {
+        if (super.dispatchInProcess(intent)) {
+            return true;
+        }
         // calling though to the service natively does not work with robolectric,
         // we have to use the ServiceController to do that
         service.onStartCommand(intent, Service.START_FLAG_REDELIVERY, (int) (Math.random() * 10000));
-        super.invokeService(intent);
+        return true;
     }
 
     @Override
@@ -0,0 +1,138 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NordicUartProfileTest extends TestBase {
+
+    /**
+     * Records the packets written to the UART and sends notifications, like a device would.
+     */
+    private static class FakeUartPeripheral extends TransactionBuilder {
+        private final BluetoothGattCharacteristic tx = new BluetoothGattCharacteristic(NordicUartProfile.UUID_CHARACTERISTIC_NORDIC_UART_TX,
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE, 0);
+        private final BluetoothGattCharacteristic rx = new BluetoothGattCharacteristic(NordicUartProfile.UUID_CHARACTERISTIC_NORDIC_UART_RX,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        private final List<byte[]> packets = new ArrayList<>();
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        FakeUartPeripheral() {
+            super("test");
+        }
+
+        @Override
+        public TransactionBuilder write(BluetoothGattCharacteristic characteristic, byte[] data) {
+            assertEquals(tx, characteristic);
+            packets.add(data);
+            received.write(data, 0, data.length);
+            return this;
+        }
+
+        void sendNotifications(NordicUartProfile<?> profile, byte[] data, int packetSize) {
+            for (int offset = 0; offset < data.length; offset += packetSize) {
+                rx.setValue(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + packetSize)));
+                assertTrue(profile.onCharacteristicChanged(null, rx));
+            }
+        }
+    }
+
+    private final List<String> lines = new ArrayList<>();
+
+    private NordicUartProfile<AbstractBTLEDeviceSupport> createProfile(FakeUartPeripheral peripheral, int maxPacketSize) {
+        AbstractBTLEDeviceSupport support = mock(AbstractBTLEDeviceSupport.class);
+        when(support.getCharacteristic(NordicUartProfile.UUID_CHARACTERISTIC_NORDIC_UART_TX)).thenReturn(peripheral.tx);
+        when(support.getCharacteristic(NordicUartProfile.UUID_CHARACTERISTIC_NORDIC_UART_RX)).thenReturn(peripheral.rx);
+        NordicUartProfile<AbstractBTLEDeviceSupport> profile = new NordicUartProfile<>(support, new NordicUartProfile.LineListener() {
+            @Override
+            public void onUartRxLine(String line) {
+                lines.add(line);
+            }
+        }, maxPacketSize);
+        profile.initialize(peripheral);
+        return profile;
+    }
+
+    @Test
+    public void testUploadUsesNegotiatedMtu() {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        NordicUartProfile<AbstractBTLEDeviceSupport> profile = createProfile(peripheral, NordicUartProfile.MAX_PACKET_SIZE);
+        assertEquals(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, peripheral.tx.getWriteType());
+
+        byte[] app = new byte[10000];
+        for (int i = 0; i < app.length; i++) {
+            app[i] = (byte) ('a' + i % 26);
+        }
+        profile.write(peripheral, app);
+        assertEquals(500, peripheral.packets.size());
+
+        peripheral.packets.clear();
+        peripheral.received.reset();
+        profile.onMtuChanged(null, 185, BluetoothGatt.GATT_SUCCESS);
+        profile.write(peripheral, app);
+        assertEquals(182, peripheral.packets.get(0).length);
+        assertEquals((app.length + 181) / 182, peripheral.packets.size());
+        assertArrayEquals(app, peripheral.received.toByteArray());
+    }
+
+    @Test
+    public void testMaxPacketSize() {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        NordicUartProfile<AbstractBTLEDeviceSupport> profile = createProfile(peripheral, 8);
+        profile.onMtuChanged(null, 185, BluetoothGatt.GATT_SUCCESS);
+        profile.write(peripheral, "\u0010GB({\"t\":\"notify\"})\n");
+        for (byte[] packet : peripheral.packets) {
+            assertTrue(packet.length <= 8);
+        }
+        assertEquals("\u0010GB({\"t\":\"notify\"})\n", new String(peripheral.received.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testReceiveLines() {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        NordicUartProfile<AbstractBTLEDeviceSupport> profile = createProfile(peripheral, NordicUartProfile.MAX_PACKET_SIZE);
+
+        StringBuilder large = new StringBuilder("{\"t\":\"act\",\"data\":\"");
+        for (int i = 0; i < 5000; i++) {
+            large.append(i % 10);
+        }
+        large.append("\"}");
+        String reply = "\r\n" + large + "\r\n>Uncaught ReferenceError: \"gb\" is not defined\r\nÄrger\npartial";
+        peripheral.sendNotifications(profile, reply.getBytes(StandardCharsets.UTF_8), 20);
+
+        assertEquals(Arrays.asList("", large.toString(), ">Uncaught ReferenceError: \"gb\" is not defined", "Ärger"), lines);
+    }
+
+    @Test
+    public void testRxBuffer() {
+        UartRxBuffer buffer = new UartRxBuffer();
+        buffer.append("ab".getBytes(StandardCharsets.UTF_8));
+        assertNull(buffer.nextLine());
+        buffer.append("c\r\nde\nf".getBytes(StandardCharsets.UTF_8));
+        assertEquals("abc", buffer.nextLine());
+        assertEquals("de", buffer.nextLine());
+        assertNull(buffer.nextLine());
+        assertEquals(1, buffer.size());
+        buffer.append("\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("f", buffer.nextLine());
+        assertEquals(0, buffer.size());
+    }
+}
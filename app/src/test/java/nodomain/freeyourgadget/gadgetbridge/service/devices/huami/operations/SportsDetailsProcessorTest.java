@@ -0,0 +1,228 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SportsDetailsProcessorTest extends TestBase {
+    private static final String LAST_SYNC_TIME_KEY = "lastSportsActivityTimeMillis";
+    private static final long START_TIME = 1600000000000L;
+
+    private static final byte[] VALID_DETAILS = new byte[]{
+            // type, time offset, longitude, latitude and altitude deltas
+            0, 0, (byte) 0xff, (byte) 0xff, 0x01, 0x00, 0x01, 0x00,
+            1, 10, 80, 0, 0, 0, 0, 0,
+            0, 10, (byte) 0xfd, (byte) 0xff, 0x03, 0x00, 0x00, 0x00,
+    };
+    private static final byte[] TRUNCATED_DETAILS = new byte[]{0};
+
+    @Test
+    public void testChaining() {
+        assertTrue(FetchSportsDetailsOperation.shouldFetchNextWorkout(1));
+        assertTrue(FetchSportsDetailsOperation.shouldFetchNextWorkout(FetchSportsSummaryOperation.MAX_WORKOUTS - 1));
+        assertFalse(FetchSportsDetailsOperation.shouldFetchNextWorkout(FetchSportsSummaryOperation.MAX_WORKOUTS));
+
+        BaseActivitySummary summary = new BaseActivitySummary();
+        summary.setStartTime(new Date(START_TIME));
+        assertTrue(FetchSportsSummaryOperation.isNextWorkout(summary, null));
+        assertTrue(FetchSportsSummaryOperation.isNextWorkout(summary, new Date(START_TIME - 1000)));
+        // the device answers with the last workout again when there is no newer one
+        assertFalse(FetchSportsSummaryOperation.isNextWorkout(summary, new Date(START_TIME)));
+    }
+
+    @Test
+    public void testSyncProgressSavesInOrder() {
+        SharedPreferences preferences = createPreferences();
+        SportsDetailsProcessor.SyncProgress progress = new SportsDetailsProcessor.SyncProgress(preferences, LAST_SYNC_TIME_KEY);
+        SportsDetailsProcessor.Callback first = progress.add(1000);
+        SportsDetailsProcessor.Callback second = progress.add(2000);
+        SportsDetailsProcessor.Callback third = progress.add(3000);
+
+        second.onProcessed(true);
+        assertEquals(0, preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+        first.onProcessed(true);
+        assertEquals(2000, preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+        third.onProcessed(true);
+        assertEquals(3000, preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+    }
+
+    @Test
+    public void testSyncProgressStopsAtFailure() {
+        SharedPreferences preferences = createPreferences();
+        SportsDetailsProcessor.SyncProgress progress = new SportsDetailsProcessor.SyncProgress(preferences, LAST_SYNC_TIME_KEY);
+        SportsDetailsProcessor.Callback first = progress.add(1000);
+        SportsDetailsProcessor.Callback second = progress.add(2000);
+        SportsDetailsProcessor.Callback third = progress.add(3000);
+
+        third.onProcessed(true);
+        second.onProcessed(false);
+        assertEquals(0, preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+        first.onProcessed(true);
+        assertEquals(1000, preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+
+        // the failed workout is fetched again with the next sync
+        progress.add(4000).onProcessed(true);
+        assertEquals(1000, preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+    }
+
+    @Test
+    public void testProcessSpooledDetails() throws Exception {
+        SportsDetailsProcessor processor = new SportsDetailsProcessor(getContext(), 1, 1);
+        BaseActivitySummary valid = createSummary(0);
+        BaseActivitySummary truncated = createSummary(1);
+
+        Result validResult = new Result();
+        Result truncatedResult = new Result();
+        processor.submit(valid, VALID_DETAILS, validResult);
+        processor.submit(truncated, TRUNCATED_DETAILS, truncatedResult);
+        awaitProcessed(validResult, truncatedResult);
+
+        assertTrue(validResult.success);
+        assertFalse(truncatedResult.success);
+        assertFalse(processor.getSpoolFile(valid.getId()).exists());
+        assertFalse("failed details are fetched again instead", processor.getSpoolFile(truncated.getId()).exists());
+
+        daoSession.clear();
+        assertNotNull(daoSession.getBaseActivitySummaryDao().load(valid.getId()).getGpxTrack());
+        assertNull(daoSession.getBaseActivitySummaryDao().load(truncated.getId()).getGpxTrack());
+    }
+
+    @Test
+    public void testFetchingThreadProcessesWhenQueueIsFull() throws Exception {
+        SportsDetailsProcessor processor = new SportsDetailsProcessor(getContext(), 1, 1);
+        Result[] results = new Result[3];
+        // this thread holds the database lock, so the worker is blocked in the first workout
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Result();
+            processor.submit(createSummary(i), VALID_DETAILS, results[i]);
+        }
+
+        assertEquals(1, results[0].latch.getCount());
+        assertEquals(1, results[1].latch.getCount());
+        assertEquals(0, results[2].latch.getCount());
+        assertSame(Thread.currentThread(), results[2].thread);
+        assertTrue(results[2].success);
+
+        awaitProcessed(results[0], results[1]);
+        assertTrue(results[0].success);
+        assertTrue(results[1].success);
+        assertNotSame(Thread.currentThread(), results[0].thread);
+    }
+
+    @Test
+    public void testChainedFetchWhileProcessing() throws Exception {
+        GBDevice device = createDummyGDevice("00:00:00:00:20");
+        HuamiSupport support = mock(HuamiSupport.class);
+        when(support.getDevice()).thenReturn(device);
+        SharedPreferences preferences = GBApplication.getDeviceSpecificSharedPrefs(device.getAddress());
+        preferences.edit().remove(LAST_SYNC_TIME_KEY).commit();
+        SportsDetailsProcessor.SyncProgress progress = new SportsDetailsProcessor.SyncProgress(preferences, LAST_SYNC_TIME_KEY);
+        SportsDetailsProcessor processor = new SportsDetailsProcessor(getContext(), 1, 2);
+
+        // this thread holds the database lock, so the details stay unprocessed
+        BaseActivitySummary first = createSummary(0);
+        Result firstResult = new Result(progress.add(first.getEndTime().getTime()));
+        processor.submit(first, VALID_DETAILS, firstResult);
+        assertEquals(0, preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+
+        FetchSportsSummaryOperation chained = new FetchSportsSummaryOperation(support, first, 1, progress);
+        assertEquals(first.getEndTime().getTime(), chained.getFetchStartTime().getTimeInMillis());
+        BaseActivitySummary second = createSummary(1);
+        assertTrue(FetchSportsSummaryOperation.isNextWorkout(second, first.getStartTime()));
+        Result secondResult = new Result(progress.add(second.getEndTime().getTime()));
+        processor.submit(second, VALID_DETAILS, secondResult);
+
+        chained = new FetchSportsSummaryOperation(support, second, 2, progress);
+        assertEquals(second.getEndTime().getTime(), chained.getFetchStartTime().getTimeInMillis());
+
+        awaitProcessed(firstResult, secondResult);
+        assertTrue(firstResult.success);
+        assertTrue(secondResult.success);
+        assertEquals(second.getEndTime().getTime(), preferences.getLong(LAST_SYNC_TIME_KEY, 0));
+        // the next sync continues after both
+        assertEquals(second.getEndTime().getTime(), new FetchSportsSummaryOperation(support).getFetchStartTime().getTimeInMillis());
+    }
+
+    private BaseActivitySummary createSummary(int index) {
+        BaseActivitySummary summary = new BaseActivitySummary();
+        summary.setName("Workout " + index);
+        summary.setStartTime(new Date(START_TIME + index * 3600000L));
+        summary.setEndTime(new Date(START_TIME + index * 3600000L + 1800000L));
+        summary.setActivityKind(ActivityKind.TYPE_RUNNING);
+        summary.setBaseLongitude(-12345679);
+        summary.setBaseLatitude(148014415);
+        summary.setBaseAltitude(100);
+        summary.setDevice(DBHelper.getDevice(createDummyGDevice("00:00:00:00:20"), daoSession));
+        summary.setUser(DBHelper.getUser(daoSession));
+        daoSession.getBaseActivitySummaryDao().insert(summary);
+        return summary;
+    }
+
+    private SharedPreferences createPreferences() {
+        SharedPreferences preferences = getContext().getSharedPreferences("sports-details-test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        return preferences;
+    }
+
+    /**
+     * Lets the workers access the database until the given results are there.
+     */
+    private void awaitProcessed(Result... results) throws Exception {
+        GBApplication.releaseDB();
+        try {
+            for (Result result : results) {
+                assertTrue(result.latch.await(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            GBApplication.acquireDB();
+        }
+    }
+
+    private static class Result implements SportsDetailsProcessor.Callback {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final SportsDetailsProcessor.Callback next;
+        volatile boolean success;
+        volatile Thread thread;
+
+        Result() {
+            this(null);
+        }
+
+        Result(SportsDetailsProcessor.Callback next) {
+            this.next = next;
+        }
+
+        @Override
+        public void onProcessed(boolean success) {
+            if (next != null) {
+                next.onProcessed(success);
+            }
+            this.success = success;
+            this.thread = Thread.currentThread();
+            latch.countDown();
+        }
+    }
+}
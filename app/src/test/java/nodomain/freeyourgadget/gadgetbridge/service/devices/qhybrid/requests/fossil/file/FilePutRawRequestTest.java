@@ -0,0 +1,207 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.file;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEQueue;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.Transaction;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.QHybridSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FilePutRawRequestTest extends TestBase {
+    private static final short HANDLE = 0x1234;
+    private static final int MTU = 247;
+    private static final UUID UUID_CONTROL = UUID.fromString("3dda0003-957f-7d4a-34a6-74696673696d");
+    private static final UUID UUID_UPLOAD = UUID.fromString("3dda0004-957f-7d4a-34a6-74696673696d");
+
+    private final Deque<Transaction> transactions = new ArrayDeque<>();
+    private final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+    private BluetoothGatt gatt;
+    private FossilWatchAdapter adapter;
+    private int packetCount;
+
+    @Before
+    public void setUp() {
+        BtLEQueue queue = mock(BtLEQueue.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                transactions.addLast((Transaction) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(queue).add(any(Transaction.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                transactions.addFirst((Transaction) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(queue).insert(any(Transaction.class));
+
+        QHybridSupport support = mock(QHybridSupport.class);
+        when(support.getQueue()).thenReturn(queue);
+        when(support.getCharacteristic(UUID_CONTROL)).thenReturn(new BluetoothGattCharacteristic(UUID_CONTROL, BluetoothGattCharacteristic.PROPERTY_WRITE, 0));
+        when(support.getCharacteristic(UUID_UPLOAD)).thenReturn(new BluetoothGattCharacteristic(UUID_UPLOAD, BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE, 0));
+
+        adapter = mock(FossilWatchAdapter.class);
+        when(adapter.getMTU()).thenReturn(MTU);
+        when(adapter.getDeviceSupport()).thenReturn(support);
+
+        gatt = mock(BluetoothGatt.class);
+        when(gatt.getDevice()).thenReturn(BluetoothAdapter.getDefaultAdapter().getRemoteDevice("AA:BB:CC:DD:EE:FF"));
+        when(gatt.writeCharacteristic(any(BluetoothGattCharacteristic.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) invocation.getArguments()[0];
+                if (UUID_UPLOAD.equals(characteristic.getUuid())) {
+                    byte[] packet = characteristic.getValue();
+                    assertEquals((byte) packetCount, packet[0]);
+                    packetCount++;
+                    uploaded.write(packet, 1, packet.length - 1);
+                }
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void testUpload() {
+        byte[] file = createFile(10000);
+        final boolean[] success = new boolean[1];
+        FilePutRawRequest request = new FilePutRawRequest(HANDLE, file, adapter) {
+            @Override
+            public void onFilePut(boolean result) {
+                success[0] = result;
+            }
+        };
+
+        request.handleResponse(characteristic(new byte[]{0x03, 0x34, 0x12, 0x00, 0x00}));
+        assertEquals(1, transactions.size());
+        assertEquals(FilePutRawRequest.UPLOAD_WINDOW_SIZE + 1, transactions.peekFirst().getActionCount());
+        assertEquals(0, packetCount);
+
+        runTransactions();
+        assertArrayEquals(file, uploaded.toByteArray());
+        assertEquals((file.length + MTU - 5) / (MTU - 4), packetCount);
+
+        request.handleResponse(characteristic(ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 0x08).putShort(HANDLE).put((byte) 0).putInt(8, crc(file)).array()));
+        assertEquals(FilePutRawRequest.UploadState.CLOSING, request.state);
+        runTransactions();
+
+        request.handleResponse(characteristic(new byte[]{0x04, 0x34, 0x12, 0x00}));
+        assertTrue(request.isFinished());
+        assertTrue(success[0]);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testWrongCrc() {
+        byte[] file = createFile(1000);
+        FilePutRawRequest request = new FilePutRawRequest(HANDLE, file, adapter);
+        request.handleResponse(characteristic(new byte[]{0x03, 0x34, 0x12, 0x00, 0x00}));
+        runTransactions();
+        request.handleResponse(characteristic(ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 0x08).putShort(HANDLE).put((byte) 0).putInt(8, crc(file) + 1).array()));
+    }
+
+    @Test
+    public void testFailedWriteStopsUpload() {
+        when(gatt.writeCharacteristic(any(BluetoothGattCharacteristic.class))).thenReturn(false);
+        FilePutRawRequest request = new FilePutRawRequest(HANDLE, createFile(100000), adapter);
+        request.handleResponse(characteristic(new byte[]{0x03, 0x34, 0x12, 0x00, 0x00}));
+
+        Transaction transaction = transactions.pollFirst();
+        assertFalse(transaction.getActions().get(0).run(gatt));
+        assertTrue(transactions.isEmpty());
+    }
+
+    @Test
+    public void testPacketSource() {
+        byte[] file = createFile(1000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(file.length + 10);
+        buffer.position(10);
+        buffer.put(file);
+        buffer.position(10);
+
+        FilePacketSource source = new FilePacketSource(buffer, 100);
+        assertEquals(10, source.getPacketCount());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (source.hasNextPacket()) {
+            int packetNr = source.getNextPacketNr();
+            byte[] packet = source.nextPacket();
+            assertEquals((byte) packetNr, packet[0]);
+            out.write(packet, 1, packet.length - 1);
+        }
+        assertArrayEquals(file, out.toByteArray());
+        assertEquals(crc(file), source.getCrc());
+        assertEquals(10, buffer.position());
+
+        assertEquals(11, new FilePacketSource(new byte[1001], 100).getPacketCount());
+        assertEquals(0, new FilePacketSource(new byte[0], 100).getPacketCount());
+    }
+
+    @Test
+    public void testLargeUpload() {
+        byte[] file = createFile(2 * 1024 * 1024);
+        FilePutRawRequest request = new FilePutRawRequest(HANDLE, file, adapter);
+
+        request.handleResponse(characteristic(new byte[]{0x03, 0x34, 0x12, 0x00, 0x00}));
+        runTransactions();
+
+        assertArrayEquals(file, uploaded.toByteArray());
+        assertEquals((file.length + MTU - 5) / (MTU - 4), packetCount);
+    }
+
+    private void runTransactions() {
+        Transaction transaction;
+        while ((transaction = transactions.pollFirst()) != null) {
+            for (BtLEAction action : transaction.getActions()) {
+                assertTrue(action.toString(), action.run(gatt));
+            }
+        }
+    }
+
+    private byte[] createFile(int length) {
+        byte[] file = new byte[length];
+        new Random(length).nextBytes(file);
+        return file;
+    }
+
+    private int crc(byte[] file) {
+        CRC32 crc = new CRC32();
+        crc.update(file);
+        return (int) crc.getValue();
+    }
+
+    private BluetoothGattCharacteristic characteristic(byte[] value) {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(UUID_CONTROL, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        characteristic.setValue(value);
+        return characteristic;
+    }
+}
@@ -0,0 +1,125 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FileEncryptedGetRequestTest extends TestBase {
+    private static final short HANDLE = 0x0a01;
+    private static final UUID UUID_CONTROL = UUID.fromString("3dda0003-957f-7d4a-34a6-74696673696d");
+    private static final UUID UUID_DATA = UUID.fromString("3dda0004-957f-7d4a-34a6-74696673696d");
+
+    private final byte[] key = new byte[16];
+    private final byte[] phoneRandomNumber = new byte[8];
+    private final byte[] watchRandomNumber = new byte[8];
+    private byte[] receivedFile;
+
+    @Test
+    public void testDecryptFile() throws Exception {
+        Random random = new Random(42);
+        random.nextBytes(key);
+        random.nextBytes(phoneRandomNumber);
+        random.nextBytes(watchRandomNumber);
+        // make the lower 32 bits of the counter wrap around during the transfer
+        watchRandomNumber[3] = watchRandomNumber[4] = watchRandomNumber[5] = watchRandomNumber[6] = (byte) 0xff;
+
+        for (int ivSummand : new int[]{0x1e, 0x1f, 0x23, 0x2f}) {
+            byte[] file = new byte[5000 + ivSummand];
+            random.nextBytes(file);
+            assertArrayEquals(file, transfer(file, ivSummand, 243));
+        }
+    }
+
+    @Test
+    public void testDecryptSmallPackets() throws Exception {
+        byte[] file = new byte[1000];
+        new Random(1).nextBytes(file);
+        assertArrayEquals(file, transfer(file, 0x20, 19));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCrcMismatch() throws Exception {
+        FileEncryptedGetRequest request = createRequest();
+        byte[] file = new byte[100];
+        sendEncrypted(request, file, 0x20, 100);
+        request.handleResponse(characteristic(UUID_CONTROL, ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 0x08).putShort(HANDLE).putInt(8, 1234).array()));
+    }
+
+    private byte[] transfer(byte[] file, int ivSummand, int packetSize) throws Exception {
+        receivedFile = null;
+        FileEncryptedGetRequest request = createRequest();
+        sendEncrypted(request, file, ivSummand, packetSize);
+
+        CRC32 crc = new CRC32();
+        crc.update(file);
+        request.handleResponse(characteristic(UUID_CONTROL, ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 0x08).putShort(HANDLE).putInt(8, (int) crc.getValue()).array()));
+        assertTrue(request.isFinished());
+        return receivedFile;
+    }
+
+    private FileEncryptedGetRequest createRequest() throws Exception {
+        FossilHRWatchAdapter adapter = mock(FossilHRWatchAdapter.class);
+        when(adapter.getSecretKey()).thenReturn(key);
+        when(adapter.getPhoneRandomNumber()).thenReturn(phoneRandomNumber);
+        when(adapter.getWatchRandomNumber()).thenReturn(watchRandomNumber);
+        return new FileEncryptedGetRequest(HANDLE, adapter) {
+            @Override
+            public void handleFileData(byte[] fileData) {
+                receivedFile = fileData;
+            }
+        };
+    }
+
+    /**
+     * Encrypts the file like the watch does, restarting the counter for every packet.
+     */
+    private void sendEncrypted(FileEncryptedGetRequest request, byte[] file, int ivSummand, int packetSize) throws Exception {
+        request.handleResponse(characteristic(UUID_CONTROL, ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 0x01).putShort(HANDLE).put((byte) 0).putInt(file.length).array()));
+
+        byte[] iv = new byte[16];
+        System.arraycopy(phoneRandomNumber, 0, iv, 2, 6);
+        System.arraycopy(watchRandomNumber, 0, iv, 9, 7);
+        iv[7]++;
+        int counter = ByteBuffer.wrap(iv).getInt(12);
+
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        int payloadSize = packetSize - 1;
+        for (int offset = 0, packet = 0; offset < file.length; offset += payloadSize, packet++) {
+            int length = Math.min(payloadSize, file.length - offset);
+            byte[] plain = new byte[length + 1];
+            plain[0] = (byte) (offset + length == file.length ? 0x81 : 0x01);
+            System.arraycopy(file, offset, plain, 1, length);
+
+            ByteBuffer.wrap(iv).putInt(12, counter + ivSummand * packet);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            request.handleResponse(characteristic(UUID_DATA, cipher.doFinal(plain)));
+        }
+    }
+
+    private BluetoothGattCharacteristic characteristic(UUID uuid, byte[] value) {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(uuid, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        characteristic.setValue(value);
+        return characteristic;
+    }
+}
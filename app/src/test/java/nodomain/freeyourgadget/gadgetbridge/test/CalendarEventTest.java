@@ -5,6 +5,7 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncState;
 import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncStateDao;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.CalendarReceiver;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
@@ -51,4 +52,35 @@ public class CalendarEventTest extends TestBase {
         assertEquals(2, calendarSyncStateDao.count());
     }
 
+    @Test
+    public void testSyncUpdatesAndDeletes() {
+        CalendarEvents.CalendarEvent event1 = new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, null, "something", null, CALNAME_1, false);
+        CalendarEvents.CalendarEvent event2 = new CalendarEvents.CalendarEvent(BEGIN, END, ID_2, null, "something", null, CALNAME_1, false);
+        List<CalendarEvents.CalendarEvent> eventList = new ArrayList<>();
+        eventList.add(event1);
+        eventList.add(event2);
+
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:01:00:04");
+        dummyGBDevice.setState(GBDevice.State.INITIALIZED);
+        CalendarReceiver testCR = new CalendarReceiver(dummyGBDevice);
+        testCR.syncCalendar(eventList);
+
+        CalendarSyncStateDao calendarSyncStateDao = daoSession.getCalendarSyncStateDao();
+        assertEquals(2, calendarSyncStateDao.count());
+
+        // change the first event, remove the second one
+        CalendarEvents.CalendarEvent changedEvent1 = new CalendarEvents.CalendarEvent(BEGIN, END, ID_1, null, "something else", null, CALNAME_1, false);
+        eventList.clear();
+        eventList.add(changedEvent1);
+        testCR.syncCalendar(eventList);
+
+        List<CalendarSyncState> syncStates = calendarSyncStateDao.loadAll();
+        assertEquals(1, syncStates.size());
+        assertEquals(ID_1, syncStates.get(0).getCalendarEntryId());
+        assertEquals(changedEvent1.hashCode(), syncStates.get(0).getHash());
+
+        // syncing the same events again changes nothing
+        testCR.syncCalendar(eventList);
+        assertEquals(1, calendarSyncStateDao.count());
+    }
 }
@@ -0,0 +1,122 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPointColumns;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+import nodomain.freeyourgadget.gadgetbridge.util.CompactTrack;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactTrackTest extends TestBase {
+
+    @Test
+    public void shouldReadWrittenTrack() throws IOException {
+        ActivityTrack track = new ActivityTrack();
+        long time = 1600000000000L;
+        for (int i = 0; i < 1000; i++) {
+            ActivityPoint point = new ActivityPoint(new Date(time + i * 1000L));
+            if (i % 100 != 50) { // some points without location
+                double altitude = i % 10 == 0 ? -20000 : 400 + Math.sin(i / 10.0) * 50;
+                point.setLocation(new GPSCoordinate(-68.2 + i * 0.000013, 44.15 - i * 0.000021, altitude));
+            }
+            point.setHeartRate(i % 3 == 0 ? 0 : 80 + i % 40);
+            track.addTrackPoint(point);
+        }
+
+        File file = File.createTempFile("compact-track-test", ".track");
+        file.deleteOnExit();
+        CompactTrack.fromTrack(track).write(file);
+        CompactTrack compactTrack = CompactTrack.read(file);
+
+        assertEquals(990, compactTrack.size());
+        int index = 0;
+        for (ActivityPoint point : track.getTrackPoints()) {
+            GPSCoordinate location = point.getLocation();
+            if (location == null) {
+                continue;
+            }
+            double altitude = location.getAltitude() != -20000 ? location.getAltitude() : 0;
+            assertEquals(location.getLatitude(), compactTrack.getLatitude(index), 0.000001);
+            assertEquals(location.getLongitude(), compactTrack.getLongitude(index), 0.000001);
+            assertEquals(altitude, compactTrack.getAltitude(index), 0.01);
+            assertEquals(point.getTime().getTime() / 1000, compactTrack.getTimestamp(index));
+            assertEquals(point.getHeartRate(), compactTrack.getHeartRate(index));
+            index++;
+        }
+        assertEquals(44.15 - 999 * 0.000021, compactTrack.getMinLatitude(), 0.000001);
+        assertEquals(44.15, compactTrack.getMaxLatitude(), 0.000001);
+        assertEquals(-68.2, compactTrack.getMinLongitude(), 0.000001);
+        assertEquals(-68.2 + 999 * 0.000013, compactTrack.getMaxLongitude(), 0.000001);
+        assertEquals(0, compactTrack.getMinAltitude(), 0.01);
+    }
+
+    @Test
+    public void shouldCreateSameTrackFromColumns() {
+        ActivityPointColumns columns = new ActivityPointColumns(1600000000000L, 0);
+        for (int i = 0; i < 1000; i++) {
+            int index = columns.addPoint(i);
+            if (i % 100 != 50) {
+                int altitude = i % 10 == 0 ? ActivityPointColumns.UNKNOWN_ALTITUDE : 400 + i % 50;
+                columns.setLocation(index, -68200000 + i * 13, 44150000 - i * 21, altitude);
+            }
+            columns.setHeartRate(index, i % 3 == 0 ? 0 : 80 + i % 40);
+        }
+        ActivityTrack columnsTrack = new ActivityTrack();
+        columnsTrack.setTrackPoints(columns);
+        ActivityTrack pointsTrack = new ActivityTrack();
+        pointsTrack.setTrackPoints(new ArrayList<>(columns));
+
+        CompactTrack fromColumns = CompactTrack.fromTrack(columnsTrack);
+        CompactTrack fromPoints = CompactTrack.fromTrack(pointsTrack);
+
+        assertEquals(990, fromColumns.size());
+        assertEquals(fromPoints.size(), fromColumns.size());
+        for (int i = 0; i < fromPoints.size(); i++) {
+            assertEquals(fromPoints.getLatitude(i), fromColumns.getLatitude(i), 0);
+            assertEquals(fromPoints.getLongitude(i), fromColumns.getLongitude(i), 0);
+            assertEquals(fromPoints.getAltitude(i), fromColumns.getAltitude(i), 0);
+            assertEquals(fromPoints.getTimestamp(i), fromColumns.getTimestamp(i));
+            assertEquals(fromPoints.getHeartRate(i), fromColumns.getHeartRate(i));
+        }
+        assertEquals(fromPoints.getMinAltitude(), fromColumns.getMinAltitude(), 0);
+        assertEquals(fromPoints.getMaxAltitude(), fromColumns.getMaxAltitude(), 0);
+    }
+
+    @Test
+    public void shouldCreateTrackFromGpxFile() throws IOException {
+        File gpxFile = File.createTempFile("compact-track-test", ".gpx");
+        gpxFile.deleteOnExit();
+        try (InputStream inputStream = getClass().getResourceAsStream("/gpx-exporter-test-SampleTrack.gpx");
+             FileOutputStream outputStream = new FileOutputStream(gpxFile)) {
+            outputStream.write(FileUtils.readAll(inputStream, 1024 * 1024));
+        }
+        File trackFile = CompactTrack.getFileForGpx(gpxFile);
+        trackFile.deleteOnExit();
+
+        CompactTrack fromGpx = CompactTrack.loadForGpx(gpxFile);
+        assertTrue(trackFile.exists());
+        CompactTrack fromCache = CompactTrack.loadForGpx(gpxFile);
+
+        assertEquals(14, fromGpx.size());
+        assertEquals(14, fromCache.size());
+        for (int i = 0; i < fromGpx.size(); i++) {
+            assertEquals(44.15, fromGpx.getLatitude(i), 0.01);
+            assertEquals(-68.2, fromGpx.getLongitude(i), 0.01);
+            assertEquals(fromGpx.getLatitude(i), fromCache.getLatitude(i), 0);
+            assertEquals(fromGpx.getLongitude(i), fromCache.getLongitude(i), 0);
+            assertEquals(fromGpx.getAltitude(i), fromCache.getAltitude(i), 0);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.UnknownDeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.miband2.MiBand2Coordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.miband2.MiBand2HRXCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceHelperTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceHelperTest.class);
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+
+    @Test
+    public void testGetCoordinatorMatchesLinearScan() {
+        DeviceHelper helper = DeviceHelper.getInstance();
+        List<GBDevice> devices = new ArrayList<>();
+        for (DeviceCoordinator coordinator : helper.getAllCoordinators()) {
+            devices.add(new GBDevice(ADDRESS, "Test", null, coordinator.getDeviceType()));
+        }
+        devices.add(new GBDevice(ADDRESS, "Mi Band HRX", null, DeviceType.MIBAND2));
+
+        for (GBDevice device : devices) {
+            assertSame(device.getType().toString(), findLinear(helper, device), helper.getCoordinator(device));
+            assertTrue(helper.getSupportedType(device));
+        }
+    }
+
+    @Test
+    public void testGetCoordinatorByName() {
+        DeviceHelper helper = DeviceHelper.getInstance();
+        assertTrue(helper.getCoordinator(new GBDevice(ADDRESS, "Mi Band HRX", null, DeviceType.MIBAND2)) instanceof MiBand2HRXCoordinator);
+        assertTrue(helper.getCoordinator(new GBDevice(ADDRESS, "MI Band 2", null, DeviceType.MIBAND2)) instanceof MiBand2Coordinator);
+
+        GBDevice unknown = new GBDevice(ADDRESS, "Test", null, DeviceType.UNKNOWN);
+        assertTrue(helper.getCoordinator(unknown) instanceof UnknownDeviceCoordinator);
+        assertFalse(helper.getSupportedType(unknown));
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void benchmarkLookup() {
+        DeviceHelper helper = DeviceHelper.getInstance();
+        List<DeviceCoordinator> coordinators = helper.getAllCoordinators();
+        GBDevice[] devices = new GBDevice[coordinators.size()];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = new GBDevice(ADDRESS, "Test", null, coordinators.get(i).getDeviceType());
+        }
+
+        int lookups = 200000;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            assertNotNull(helper.getCoordinator(devices[i % devices.length]));
+        }
+        long indexed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            assertNotNull(findLinear(helper, devices[i % devices.length]));
+        }
+        long linear = System.nanoTime() - start;
+
+        LOG.info("Coordinator lookups per second: " + (long) (lookups * 1e9 / indexed)
+                + " indexed, " + (long) (lookups * 1e9 / linear) + " with a linear scan");
+    }
+
+    private DeviceCoordinator findLinear(DeviceHelper helper, GBDevice device) {
+        for (DeviceCoordinator coordinator : helper.getAllCoordinators()) {
+            if (coordinator.supports(device)) {
+                return coordinator;
+            }
+        }
+        return null;
+    }
+}
@@ -1,11 +1,16 @@
 package nodomain.freeyourgadget.gadgetbridge.test;
 
 import org.junit.BeforeClass;
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.URL;
 import java.util.Date;
 import java.util.List;
@@ -16,6 +21,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiActivityDetailsParser;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
@@ -25,6 +31,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class HuamiActivityDetailsParserTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(HuamiActivityDetailsParserTest.class);
     private static final URL DETAILS_1 = HuamiActivityDetailsParserTest.class.getClassLoader().getResource("ActivityDetailsDump1.txt");
     private static final long MAX_DETAILS = 1024 * 1024;
     private static Date baseTime;
@@ -50,6 +57,58 @@ public class HuamiActivityDetailsParserTest extends TestBase {
         }
     }
 
+    @Test
+    public void testLocationsAndMissingTimestamps() throws Exception {
+        BipActivitySummary summary = createSummary();
+        summary.setBaseLongitude(-12345679);
+        summary.setBaseLatitude(148014415);
+        summary.setBaseAltitude(100);
+
+        byte[] details = new byte[]{
+                // type, time offset, longitude, latitude and altitude deltas
+                0, 0, (byte) 0xff, (byte) 0xff, 0x01, 0x00, 0x01, 0x00,
+                0, 0, (byte) 0xfe, (byte) 0xff, 0x02, 0x00, 0x00, 0x00,
+                1, 10, 80, 0, 0, 0, 0, 0,
+                0, 10, (byte) 0xfd, (byte) 0xff, 0x03, 0x00, 0x00, 0x00,
+        };
+        HuamiActivityDetailsParser parser = new HuamiActivityDetailsParser(summary);
+        parser.setSkipCounterByte(false);
+        List<ActivityPoint> trackPoints = parser.parse(details).getTrackPoints();
+        assertEquals(3, trackPoints.size());
+
+        // the first two points share their timestamp, so they are spread over the first 10 seconds
+        assertEquals(baseTime.getTime(), trackPoints.get(0).getTime().getTime());
+        assertEquals(baseTime.getTime() + 5000, trackPoints.get(1).getTime().getTime());
+        assertEquals(baseTime.getTime() + 10000, trackPoints.get(2).getTime().getTime());
+
+        assertEquals(new GPSCoordinate(toDecimalDegrees(-12345680), toDecimalDegrees(148014416), 101), trackPoints.get(0).getLocation());
+        assertEquals(new GPSCoordinate(toDecimalDegrees(-12345682), toDecimalDegrees(148014418), 101), trackPoints.get(1).getLocation());
+        assertEquals(new GPSCoordinate(toDecimalDegrees(-12345685), toDecimalDegrees(148014421), 101), trackPoints.get(2).getLocation());
+        assertEquals(80, trackPoints.get(2).getHeartRate());
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void benchmarkParse() throws Exception {
+        byte[] details;
+        try (InputStream in = getContents(DETAILS_1)) {
+            details = FileUtils.readAll(in, MAX_DETAILS);
+        }
+        int runs = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            HuamiActivityDetailsParser parser = new HuamiActivityDetailsParser(createSummary());
+            parser.setSkipCounterByte(true);
+            assertEquals(972, parser.parse(details).getTrackPoints().size());
+        }
+        LOG.info("Parsing " + details.length + " bytes of activity details took "
+                + (System.nanoTime() - start) / runs / 1000 + "us on average");
+    }
+
+    private static double toDecimalDegrees(long huamiValue) {
+        return new BigDecimal(huamiValue).divide(new BigDecimal(3000000), GPSCoordinate.GPS_DECIMAL_DEGREES_SCALE, RoundingMode.HALF_UP).doubleValue();
+    }
+
     private BipActivitySummary createSummary() {
         BipActivitySummary summary = new BipActivitySummary();
         summary.setBaseLongitude(1);
@@ -0,0 +1,155 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LimitedQueueTest extends TestBase {
+
+    @Test
+    public void testLookup() {
+        LimitedQueue queue = new LimitedQueue(4);
+        queue.add(1, "one");
+        queue.add(2, "two");
+        assertEquals("one", queue.lookup(1));
+        assertEquals("two", queue.lookup(2));
+        assertNull(queue.lookup(3));
+        assertEquals(1, queue.lookupByValue("one"));
+        assertNull(queue.lookupByValue("three"));
+    }
+
+    @Test
+    public void testEvictsOldest() {
+        LimitedQueue queue = new LimitedQueue(3);
+        for (int i = 0; i < 5; i++) {
+            queue.add(i, "v" + i);
+        }
+        assertEquals(3, queue.size());
+        assertNull(queue.lookup(0));
+        assertNull(queue.lookup(1));
+        assertNull(queue.lookupByValue("v1"));
+        assertEquals("v4", queue.lookup(4));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        LimitedQueue queue = new LimitedQueue(2);
+        queue.add(1, "a");
+        queue.add(2, "b");
+        queue.add(1, "c");
+        assertEquals("c", queue.lookup(1));
+        assertNull(queue.lookupByValue("a"));
+
+        // id 2 is now the oldest entry
+        queue.add(3, "d");
+        assertNull(queue.lookup(2));
+        assertEquals("c", queue.lookup(1));
+
+        queue.remove(1);
+        assertNull(queue.lookup(1));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testLookupByValueReturnsOldestId() {
+        LimitedQueue queue = new LimitedQueue(8);
+        queue.add(10, "pkg");
+        queue.add(20, "pkg");
+        assertEquals(10, queue.lookupByValue("pkg"));
+        queue.remove(10);
+        assertEquals(20, queue.lookupByValue("pkg"));
+        queue.remove(20);
+        assertNull(queue.lookupByValue("pkg"));
+    }
+
+    @Test
+    public void testCollidingIds() {
+        // ids which only differ in the high bits, like the (id << 4) + n action handles
+        LimitedQueue queue = new LimitedQueue(16);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            ids.add(i << 20);
+            queue.add(i << 20, i);
+        }
+        for (int i = 0; i < 16; i += 2) {
+            queue.remove(ids.get(i));
+        }
+        for (int i = 0; i < 16; i++) {
+            if (i % 2 == 0) {
+                assertNull(queue.lookup(ids.get(i)));
+            } else {
+                assertEquals(i, queue.lookup(ids.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int limit = 128;
+        final int threads = 4;
+        final int operations = 200000;
+        final LimitedQueue queue = new LimitedQueue(limit);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for (int i = 0; i < operations; i++) {
+                            int id = random.nextInt(512);
+                            switch (random.nextInt(4)) {
+                                case 0:
+                                    queue.add(id, (long) id);
+                                    break;
+                                case 1:
+                                    queue.remove(id);
+                                    break;
+                                case 2:
+                                    Object value = queue.lookup(id);
+                                    if (value != null && (Long) value != id) {
+                                        throw new AssertionError("wrong value for " + id + ": " + value);
+                                    }
+                                    break;
+                                default:
+                                    Object key = queue.lookupByValue((long) id);
+                                    if (key != null && (Integer) key != id) {
+                                        throw new AssertionError("wrong key for " + id + ": " + key);
+                                    }
+                            }
+                        }
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(queue.size() <= limit);
+    }
+}
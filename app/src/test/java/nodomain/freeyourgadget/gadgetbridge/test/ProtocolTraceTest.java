@@ -0,0 +1,89 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.ProtocolTrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ProtocolTraceTest extends TestBase {
+
+    @Test
+    public void testDumpFiltersByDevice() {
+        ProtocolTrace trace = ProtocolTrace.getInstance();
+        trace.clear();
+        byte[] frame = new byte[]{0x01, 0x02, (byte) 0xff};
+        trace.record("AA", ProtocolTrace.DIRECTION_OUT, "write", frame);
+        frame[0] = 0x10; // frames are copied
+        trace.record("BB", ProtocolTrace.DIRECTION_IN, "notify", frame, 1, 2);
+        assertEquals(2, trace.size());
+
+        Logger logger = mock(Logger.class);
+        trace.dump(logger, "AA", "test");
+        ArgumentCaptor<String> lines = ArgumentCaptor.forClass(String.class);
+        verify(logger, atLeastOnce()).info(lines.capture());
+        List<String> values = lines.getAllValues();
+        assertEquals(2, values.size());
+        assertTrue(values.get(1), values.get(1).endsWith("AA -> write: 0102FF"));
+    }
+
+    @Test
+    public void testKeepsMostRecentFrames() {
+        ProtocolTrace trace = ProtocolTrace.getInstance();
+        trace.clear();
+        for (int i = 0; i < 1000; i++) {
+            trace.record("AA", ProtocolTrace.DIRECTION_IN, "notify", new byte[]{(byte) i, (byte) (i >> 8)});
+        }
+        assertTrue(trace.size() < 1000);
+
+        Logger logger = mock(Logger.class);
+        trace.dump(logger, null, "test");
+        ArgumentCaptor<String> lines = ArgumentCaptor.forClass(String.class);
+        verify(logger, atLeastOnce()).info(lines.capture());
+        List<String> values = lines.getAllValues();
+        assertEquals(trace.size() + 1, values.size());
+        assertTrue(values.get(values.size() - 1).endsWith(": E703"));
+    }
+
+    @Test
+    public void testRecordingIsNotBlockedByDump() throws Exception {
+        final ProtocolTrace trace = ProtocolTrace.getInstance();
+        trace.clear();
+        trace.record("AA", ProtocolTrace.DIRECTION_IN, "notify", new byte[]{0x01});
+
+        final boolean[] recorded = new boolean[1];
+        Logger logger = mock(Logger.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                // a frame arriving on another thread while the trace is logged
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        trace.record("AA", ProtocolTrace.DIRECTION_IN, "notify", new byte[]{0x02});
+                    }
+                });
+                thread.start();
+                thread.join(5000);
+                recorded[0] |= !thread.isAlive();
+                return null;
+            }
+        }).when(logger).info(anyString());
+
+        trace.dump(logger, "AA", "test");
+        assertTrue(recorded[0]);
+        assertEquals(3, trace.size());
+    }
+}
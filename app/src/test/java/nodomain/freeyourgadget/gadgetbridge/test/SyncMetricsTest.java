@@ -0,0 +1,36 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.util.SyncMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncMetricsTest extends TestBase {
+
+    @Test
+    public void testSnapshot() throws Exception {
+        SyncMetrics.reset();
+        SyncMetrics.count("actions", 3);
+        SyncMetrics.count("actions", 2);
+        SyncMetrics.time("writes", System.nanoTime() - 2000000, 10);
+        SyncMetrics.time("writes", System.nanoTime() - 4000000, 30);
+
+        JSONObject snapshot = SyncMetrics.snapshot();
+        JSONObject counter = snapshot.getJSONObject("counters").getJSONObject("actions");
+        assertEquals(5, counter.getLong("total"));
+
+        JSONObject timer = snapshot.getJSONObject("timers").getJSONObject("writes");
+        assertEquals(2, timer.getLong("count"));
+        assertEquals(40, timer.getLong("items"));
+        assertTrue(timer.getDouble("totalMs") >= 6);
+        assertTrue(timer.getDouble("maxMs") >= 4);
+        assertTrue(timer.getDouble("itemsPerSecond") > 0);
+
+        SyncMetrics.reset();
+        assertFalse(SyncMetrics.snapshot().getJSONObject("counters").has("actions"));
+    }
+}
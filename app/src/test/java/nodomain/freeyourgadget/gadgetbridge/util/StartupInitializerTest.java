@@ -0,0 +1,92 @@
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StartupInitializerTest extends TestBase {
+
+    @Test
+    public void testDependenciesRunFirst() throws Exception {
+        StartupProfiler.reset();
+        StartupProfiler.start();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch databaseBlocked = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            StartupInitializer initializer = new StartupInitializer(executor);
+            initializer.add("database", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        databaseBlocked.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    order.add("database");
+                }
+            });
+            initializer.add("migrations", new Runnable() {
+                @Override
+                public void run() {
+                    order.add("migrations");
+                    throw new IllegalStateException("broken migration");
+                }
+            }, "database");
+            initializer.add("devices", new Runnable() {
+                @Override
+                public void run() {
+                    order.add("devices");
+                }
+            }, "database", "migrations");
+
+            assertFalse(initializer.await("devices", 100, TimeUnit.MILLISECONDS));
+            assertFalse(initializer.isDone("database"));
+            assertTrue(order.isEmpty());
+
+            databaseBlocked.countDown();
+            assertTrue(initializer.await("devices", 5, TimeUnit.SECONDS));
+            assertTrue(initializer.isDone("migrations"));
+            assertTrue(initializer.isDone("unknown"));
+            assertEquals(3, order.size());
+            assertEquals("database", order.get(0));
+            assertEquals("migrations", order.get(1));
+            assertEquals("devices", order.get(2));
+        } finally {
+            executor.shutdown();
+        }
+
+        JSONObject stages = StartupProfiler.snapshot();
+        assertTrue(stages.has("database"));
+        assertTrue(stages.has("devices"));
+        assertFalse("failed stages are not recorded", stages.has("migrations"));
+    }
+
+    @Test
+    public void testUnknownDependency() {
+        StartupInitializer initializer = new StartupInitializer(Executors.newSingleThreadExecutor());
+        try {
+            initializer.add("migrations", new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, "database");
+            fail("dependencies must be added first");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}